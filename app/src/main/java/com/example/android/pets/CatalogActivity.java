@@ -17,42 +17,149 @@ package com.example.android.pets;
 
 import android.app.LoaderManager;
 import android.content.ContentUris;
-import android.content.ContentValues;
-import android.content.CursorLoader;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.Loader;
+import android.database.ContentObserver;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Process;
+import android.os.SystemClock;
 import android.support.design.widget.FloatingActionButton;
+import android.support.v4.view.MenuItemCompat;
+import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SearchView;
+import android.text.TextUtils;
 import android.util.Log;
+import android.widget.Toast;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
-import android.widget.AdapterView;
-import android.widget.ListView;
 
+import java.io.BufferedReader;
+import java.io.FileDescriptor;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.example.android.pets.data.PetContract;
 import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetDataGenerator;
+import com.example.android.pets.data.PetImporter;
 
 /**
  * Displays list of pets that were entered and stored in the app.
  * Set the CatalogActivity to implement the LoaderManager interface to use loaders to automatically
  * store and update cursor data in the background instead of the main thread to prevent app hangs.
  */
-public class CatalogActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<Cursor> { // <Cursor> means telling to the loader to return a cursor
+public class CatalogActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<List<PetListItem>> { // <List<PetListItem>> means telling to the loader to return a page of pets
 
     // To initialize a loader, first make an integer constant loader called "PET_LOADER"
     private static final int PET_LOADER = 0;  // "0" is just an arbitrary choice. It's ok to set it up as any other integer.
+    // The list is loaded one page at a time. Page n uses the loader with the ID PET_LOADER + n.
+
+
+    /** Key for the loader arguments that holds the _ID after which the page starts */
+    private static final String ARG_AFTER_ID = "after_id";
+
+    /** Key for the loader arguments that holds the value of the sort column the page starts after */
+    private static final String ARG_AFTER_KEY = "after_key";
+
+    /** Keys for the sort order, the gender filter and the search query in the saved instance state */
+    private static final String STATE_SORT_ORDER = "sort_order";
+    private static final String STATE_GENDER_FILTER = "gender_filter";
+    private static final String STATE_SEARCH_QUERY = "search_query";
+
+    /** Value of {@link #mGenderFilter} when the pets of every gender are shown */
+    private static final int NO_GENDER_FILTER = -1;
+
+    /** Value in {@link #mPageEnds} for a page that reached the end of the data */
+    private static final long NO_MORE_PAGES = -1;
+
+    /** The numbers of dummy pets the user can choose from */
+    private static final int[] DUMMY_PET_COUNTS = { 1000, 10000, 100000, 1000000 };
+
+    /** Request code for picking the CSV file to import */
+    private static final int REQUEST_IMPORT = 1;
 
     // Since further down we'll be using an adapter for all callback methods, create an instance of that class.
-    PetCursorAdapter mCursorAdapter;  // This will be the adapter for the list view.
+    PetRecyclerAdapter mAdapter;  // This will be the adapter for the recycler view.
+
+    /** The pages loaded so far, in order */
+    private final ArrayList<List<PetListItem>> mPages = new ArrayList<>();
+
+    /**
+     * For each page in {@link #mPages}, the _ID that the next page starts after, or {@link #NO_MORE_PAGES}
+     * if the page came back short. In the _ID order, page n holds the pets with an _ID up to its end (and greater
+     * than the end of page n - 1), even when pets have been patched in or out of it since it was loaded.
+     */
+    private final ArrayList<Long> mPageEnds = new ArrayList<>();
+
+    /**
+     * For each page in {@link #mPages}, the value of the sort column of its last pet, which the next page
+     * starts after together with the _ID in {@link #mPageEnds}. Always null in the _ID order.
+     */
+    private final ArrayList<String> mPageEndKeys = new ArrayList<>();
+
+    /** Patches the list when a single pet is inserted, updated or deleted */
+    private ContentObserver mPetObserver;
+
+    /** The view shown instead of the list when there are no pets */
+    private View mEmptyView;
 
-    private Cursor data;
+    /** The words typed into the search box, or null when the whole catalog is shown */
+    private String mSearchQuery;
+
+    /** The column the pets are sorted by, or null for the order they were added in (their _ID) */
+    private String mSortOrder;
+
+    /** The gender of the pets that are shown, or {@link #NO_GENDER_FILTER} */
+    private int mGenderFilter = NO_GENDER_FILTER;
+
+    /** Number of pets loaded per page, from R.integer.catalog_page_size */
+    private int mPageSize;
+
+    /**
+     * Keep loading pages ahead until this many rows are loaded past the last visible one,
+     * R.integer.catalog_prefetch_pages pages' worth
+     */
+    private int mPrefetchDistance;
+
+    /** The layout manager of the list, for finding the last visible row */
+    private LinearLayoutManager mLayoutManager;
+
+    /** Measures the jank while the list scrolls, see dump() */
+    private PetScrollMetrics mScrollMetrics;
+
+    /**
+     * SystemClock.elapsedRealtime() when the app was started (or, before Nougat, when this activity was created),
+     * until the first page has been shown; 0 afterwards, or if the activity was recreated
+     */
+    private long mStartMillis;
+
+    /** How long it took from {@link #mStartMillis} to showing the first page, or -1 if it isn't shown yet */
+    private long mTimeToFirstRowMillis = -1;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+
+        // Time the cold start up to the first rows of the catalog, see onLoadFinished.
+        if (savedInstanceState == null) {
+            mStartMillis = Build.VERSION.SDK_INT >= Build.VERSION_CODES.N
+                    ? Process.getStartElapsedRealtime() : SystemClock.elapsedRealtime();
+        }
+
         setContentView(R.layout.activity_catalog);
 
         // Setup FAB to open EditorActivity
@@ -66,23 +173,25 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
         });
 
 
-        // Find the ListView which will be populated with the pet data
-        ListView petListView = (ListView) findViewById(R.id.list);
+        // Find the RecyclerView which will be populated with the pet data
+        RecyclerView petRecyclerView = (RecyclerView) findViewById(R.id.list);
+        mLayoutManager = new LinearLayoutManager(this);
+        petRecyclerView.setLayoutManager(mLayoutManager);
 
-        // Find and set empty view on the ListView, so that it only shows when the list has 0 items.
-        View emptyView = findViewById(R.id.empty_view);
-        petListView.setEmptyView(emptyView);
+        mPageSize = getResources().getInteger(R.integer.catalog_page_size);
+        mPrefetchDistance = mPageSize * getResources().getInteger(R.integer.catalog_prefetch_pages);
 
+        // Find the empty view, so that it only shows when the list has 0 items.
+        mEmptyView = findViewById(R.id.empty_view);
 
-        // Set up an adapter to create a list item for each row of pet data in the cursor.
-        // There is no pet data yet until the loader finishes, so pass in null for the cursor.
-        mCursorAdapter = new PetCursorAdapter(this, null);
-        petListView.setAdapter(mCursorAdapter);
 
+        // Set up an adapter to create a list item for each pet.
+        // There is no pet data yet until the loader finishes, so the list starts out empty.
         // Set up item click listener。讓用戶點擊某一寵物時進入該寵物的編輯頁面(edit pet)
-        petListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+        mAdapter = new PetRecyclerAdapter(PetThumbnailCache.getInstance(this),
+                new PetRecyclerAdapter.OnPetClickListener() {
             @Override
-            public void onItemClick(AdapterView<?> adapterView, View view, int position, long id) {  // adapterView= the pet list view; view= the particular view for the item; int= the position of the item in the list view; long= the id for the item.
+            public void onPetClick(long id) {  // id= the _ID of the pet that was clicked on.
             // Create new intent to go to the EditorActivity
             Intent intent = new Intent(CatalogActivity.this, EditorActivity.class);
 
@@ -99,35 +208,564 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
             startActivity(intent);
             }
         });
+        petRecyclerView.setAdapter(mAdapter);
+
+        // Show the empty view whenever the adapter ends up with no rows.
+        mAdapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+            @Override
+            public void onChanged() {
+                updateEmptyView();
+            }
 
-        // Start the loader.
+            @Override
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                updateEmptyView();
+            }
+
+            @Override
+            public void onItemRangeRemoved(int positionStart, int itemCount) {
+                updateEmptyView();
+            }
+        });
+        updateEmptyView();
+
+        // Keep the pages ahead of the user loaded while they scroll, so that a fling doesn't run into the end
+        // of the list and wait there for the next page.
+        petRecyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                prefetchPages();
+            }
+        });
+        mScrollMetrics = new PetScrollMetrics(getWindowManager().getDefaultDisplay().getRefreshRate());
+        petRecyclerView.addOnScrollListener(mScrollMetrics);
+
+        // Watch the row URIs of single pets. The page loaders only reload for changes to the whole table,
+        // so a change to one pet only costs a query for that pet instead of reloading every page.
+        mPetObserver = new ContentObserver(new Handler()) {
+            @Override
+            public void onChange(boolean selfChange) {
+                // Before Jelly Bean there is no URI, so we can't tell which pet changed.
+                onChange(selfChange, null);
+            }
+
+            @Override
+            public void onChange(boolean selfChange, Uri uri) {
+                onPetChanged(uri);
+            }
+        };
+        getContentResolver().registerContentObserver(PetEntry.CONTENT_URI, true, mPetObserver);
+
+        // Keep the order, the filter and the search of the pages that the loaders still hold after a configuration
+        // change, so that the next pages are loaded from the same place as the ones before.
+        if (savedInstanceState != null) {
+            mSortOrder = savedInstanceState.getString(STATE_SORT_ORDER);
+            mGenderFilter = savedInstanceState.getInt(STATE_GENDER_FILTER, NO_GENDER_FILTER);
+            mSearchQuery = savedInstanceState.getString(STATE_SEARCH_QUERY);
+        }
+
+        // Start the loader for the first page.
         getLoaderManager().initLoader(PET_LOADER, null, this);
     }
 
 
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putString(STATE_SORT_ORDER, mSortOrder);
+        outState.putInt(STATE_GENDER_FILTER, mGenderFilter);
+        outState.putString(STATE_SEARCH_QUERY, mSearchQuery);
+    }
+
+
+    /**
+     * Print the startup time and the scroll metrics of the catalog, for "adb shell dumpsys activity .CatalogActivity".
+     */
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        writer.println("Time to first catalog row: "
+                + (mTimeToFirstRowMillis < 0 ? "not shown yet" : mTimeToFirstRowMillis + " ms"));
+        mScrollMetrics.dump(writer);
+    }
+
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        getContentResolver().unregisterContentObserver(mPetObserver);
+    }
+
+
+    /**
+     * Called on the UI thread when the provider notifies a change under the pets URI.
+     *
+     * @param uri the notified URI, or null if it isn't known
+     */
+    private void onPetChanged(Uri uri) {
+        if (uri == null) {
+            // We don't know what changed, so all the pages have to be loaded again.
+            reloadPages();
+            return;
+        }
+
+        String change = uri.getQueryParameter(PetContract.QUERY_PARAMETER_CHANGE);
+        if (change == null) {
+            // A change to the whole table, which the page loaders take care of.
+            return;
+        }
+
+        long id = ContentUris.parseId(uri);
+        if (PetContract.CHANGE_DELETE.equals(change)) {
+            // A deleted pet is simply taken out of the list, no need to ask the database.
+            if (mSortOrder != null) {
+                removePet(id);
+            } else {
+                patchPet(id, null);
+            }
+        } else {
+            // Read just this one pet (on a background thread) and put it in the list.
+            new LoadPetTask(id, mSearchQuery, mGenderFilter, mSortOrder).execute();
+        }
+    }
+
+
+    /**
+     * Load all of the loaded pages again.
+     */
+    private void reloadPages() {
+        for (int page = 0; page < mPages.size(); page++) {
+            Loader<List<PetListItem>> loader = getLoaderManager().getLoader(PET_LOADER + page);
+            if (loader != null) {
+                loader.onContentChanged();
+            }
+        }
+    }
+
+
+    /**
+     * Take the pet with the given _ID out of whichever loaded page it is on, if any.
+     * Used instead of {@link #patchPet(long, PetListItem)} when the pages aren't in _ID order.
+     */
+    private void removePet(long id) {
+        for (int page = 0; page < mPages.size(); page++) {
+            List<PetListItem> items = mPages.get(page);
+            for (int index = 0; index < items.size(); index++) {
+                if (items.get(index).id == id) {
+                    // Patch a copy of the page, since the adapter may still be diffing the current one.
+                    items = new ArrayList<>(items);
+                    items.remove(index);
+                    replacePage(page, items);
+                    return;
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Put the given pet in place of its old version in the loaded pages, when they aren't in _ID order,
+     * or take the pet out of them if it is null. That is only done for a pet whose sort key didn't change,
+     * which keeps its place. A new pet, or one whose key changed, can end up on any page, so then all of
+     * the loaded pages are loaded again.
+     */
+    private void patchSortedPet(long id, PetListItem pet) {
+        if (pet == null) {
+            removePet(id);
+            return;
+        }
+        for (int page = 0; page < mPages.size(); page++) {
+            List<PetListItem> items = mPages.get(page);
+            for (int index = 0; index < items.size(); index++) {
+                if (items.get(index).id == id) {
+                    if (!TextUtils.equals(items.get(index).getSortKey(mSortOrder), pet.getSortKey(mSortOrder))) {
+                        reloadPages();
+                        return;
+                    }
+                    // Patch a copy of the page, since the adapter may still be diffing the current one.
+                    items = new ArrayList<>(items);
+                    items.set(index, pet);
+                    replacePage(page, items);
+                    return;
+                }
+            }
+        }
+        reloadPages();
+    }
+
+
+    /**
+     * Put the given pet into the loaded page that covers its _ID, replacing the old version of it,
+     * or take the pet out of that page if it is null. Pets beyond the loaded pages are ignored,
+     * they will show up when their page is loaded.
+     */
+    private void patchPet(long id, PetListItem pet) {
+        // Find the page that covers this _ID. Pages are in _ID order.
+        int page = 0;
+        while (page < mPages.size() && mPageEnds.get(page) != NO_MORE_PAGES && mPageEnds.get(page) < id) {
+            page++;
+        }
+        if (page == mPages.size()) {
+            return;
+        }
+
+        // Patch a copy of the page, since the adapter may still be diffing the current one.
+        List<PetListItem> items = new ArrayList<>(mPages.get(page));
+        int index = indexOfPet(items, id);
+        if (pet == null) {
+            if (index < 0) {
+                return;
+            }
+            items.remove(index);
+        } else if (index >= 0) {
+            items.set(index, pet);
+        } else {
+            items.add(-index - 1, pet);
+        }
+
+        replacePage(page, items);
+    }
+
+
+    /**
+     * Show the patched copy of the given page instead of the page.
+     */
+    private void replacePage(int page, List<PetListItem> items) {
+        mPages.set(page, items);
+        // Keep the loader's copy of the page in sync, for when it delivers it again after a configuration change.
+        PetPageLoader loader = (PetPageLoader) getLoaderManager().<List<PetListItem>>getLoader(PET_LOADER + page);
+        if (loader != null) {
+            loader.replacePage(items);
+        }
+        showPages();
+    }
+
+
+    /**
+     * Binary search for the pet with the given _ID in a page, which is sorted by _ID.
+     *
+     * @return the index of the pet, or (-(insertion point) - 1) if it isn't in the page
+     */
+    private static int indexOfPet(List<PetListItem> page, long id) {
+        int low = 0;
+        int high = page.size() - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            long middleId = page.get(middle).id;
+            if (middleId < id) {
+                low = middle + 1;
+            } else if (middleId > id) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -(low + 1);
+    }
+
+
+    /**
+     * Reads a single pet on a background thread and patches it into the list,
+     * or takes it out of the list if it no longer exists (or no longer matches the search).
+     */
+    private class LoadPetTask extends AsyncTask<Void, Void, PetListItem> {
+
+        private final long mId;
+        private final String mQuery;
+        private final int mGender;
+        private final String mSort;
+
+        LoadPetTask(long id, String query, int gender, String sort) {
+            mId = id;
+            mQuery = query;
+            mGender = gender;
+            mSort = sort;
+        }
+
+        @Override
+        protected PetListItem doInBackground(Void... params) {
+            // Go through the same URI and filter as the pages, so that a search or filter is applied to this pet too.
+            // The "_id=?" selection is answered through the primary key, whatever the size of the table.
+            Uri uri = mQuery == null ? PetEntry.CONTENT_URI : PetEntry.buildSearchUri(mQuery);
+            String selection = PetEntry._ID + "=?";
+            String[] selectionArgs = { String.valueOf(mId) };
+            if (mGender != NO_GENDER_FILTER) {
+                selection += " AND " + PetEntry.COLUMN_PET_GENDER + "=?";
+                selectionArgs = new String[] { String.valueOf(mId), String.valueOf(mGender) };
+            }
+            Cursor cursor = getContentResolver().query(uri, PetPageLoader.PROJECTION, selection, selectionArgs, null);
+            if (cursor == null) {
+                return null;
+            }
+            try {
+                return cursor.moveToFirst() ? PetListItem.fromCursor(cursor, 0, 1, 2, 3, 4) : null;
+            } finally {
+                cursor.close();
+            }
+        }
+
+        @Override
+        protected void onPostExecute(PetListItem pet) {
+            // If the search, the filter or the order changed in the meantime, the pages are being reloaded anyway.
+            if (isFinishing() || !TextUtils.equals(mQuery, mSearchQuery) || mGender != mGenderFilter
+                    || !TextUtils.equals(mSort, mSortOrder)) {
+                return;
+            }
+            if (mSortOrder == null) {
+                patchPet(mId, pet);
+            } else {
+                patchSortedPet(mId, pet);
+            }
+        }
+    }
+
+
+    /**
+     * Load the next page if fewer than {@link #mPrefetchDistance} rows are loaded past the last visible one.
+     * Called while the list scrolls, and again whenever a page arrives, so that the pages keep loading ahead
+     * one after another (each on the loader's background thread) until the distance is covered.
+     */
+    private void prefetchPages() {
+        int totalItemCount = mAdapter.getItemCount();
+        int lastVisible = mLayoutManager.findLastVisibleItemPosition();
+        if (totalItemCount == 0 || lastVisible == RecyclerView.NO_POSITION
+                || lastVisible < totalItemCount - 1 - mPrefetchDistance) {
+            return;
+        }
+
+        int pageCount = mPages.size();
+        if (lastVisible == totalItemCount - 1 && pageCount > 0
+                && getLoaderManager().getLoader(PET_LOADER + pageCount) != null) {
+            // The user is looking at the last loaded row and the next page isn't there yet.
+            mScrollMetrics.onPrefetchMiss();
+        }
+        loadNextPage();
+    }
+
+
+    /**
+     * Start the loader for the page after the last loaded one, unless it is already running
+     * or the last page came back short (which means there are no more pets to load).
+     */
+    private void loadNextPage() {
+        int pageCount = mPages.size();
+        if (pageCount == 0 || getLoaderManager().getLoader(PET_LOADER + pageCount) != null) {
+            return;
+        }
+
+        long lastPageEnd = mPageEnds.get(pageCount - 1);
+        if (lastPageEnd == NO_MORE_PAGES) {
+            return;
+        }
+
+        // The next page starts right after the last pet of the last page
+        Bundle args = new Bundle();
+        args.putLong(ARG_AFTER_ID, lastPageEnd);
+        args.putString(ARG_AFTER_KEY, mPageEndKeys.get(pageCount - 1));
+        getLoaderManager().initLoader(PET_LOADER + pageCount, args, this);
+        mScrollMetrics.onPageRequested();
+    }
+
+
+    /**
+     * Throw away the pages loaded so far and start over from the first page,
+     * for example because the search query, the sort order or the filter has changed.
+     */
+    private void restartPages() {
+        dropPagesAfter(0);
+        getLoaderManager().restartLoader(PET_LOADER, null, this);
+    }
+
+
+    /**
+     * Throw away all of the pages after the given one. They will be loaded again as the user scrolls.
+     */
+    private void dropPagesAfter(int page) {
+        // Destroying a loader resets it, which drops its page from mPages (see onLoaderReset).
+        // This includes the next page, if it is still loading.
+        for (int next = mPages.size(); next > page; next--) {
+            getLoaderManager().destroyLoader(PET_LOADER + next);
+        }
+    }
+
+
     /**
-     * Helper method to insert "hardcoded pet data" into the database. For debugging purposes only.
+     * Show all of the pages loaded so far in the list, as one continuous list.
+     * The adapter works out in the background which rows actually changed.
+     */
+    private void showPages() {
+        int size = 0;
+        for (List<PetListItem> page : mPages) {
+            size += page.size();
+        }
+        List<PetListItem> items = new ArrayList<>(size);
+        for (List<PetListItem> page : mPages) {
+            items.addAll(page);
+        }
+        mAdapter.submitList(items);
+    }
+
+
+    /**
+     * Show the empty view instead of the list if there are no pets to show.
+     */
+    private void updateEmptyView() {
+        mEmptyView.setVisibility(mAdapter.getItemCount() == 0 ? View.VISIBLE : View.GONE);
+    }
+
+
+    /**
+     * Helper method to fill the database with generated pets. For debugging purposes only.
      *
-     * In the CatalogActivity, when a user clicks on the “Insert Dummy Pet” menu item,
-     * we will call the ContentResolver insert() method with the pet content URI and a ContentValues object (containing info about Toto).
-     * This insertPet() method is called from the onOptionsItemSelected() method when the menu item is clicked on.
+     * In the CatalogActivity, when a user clicks on the “Insert Dummy Data” menu item, we ask how many pets to insert
+     * and then generate them with a {@link PetDataGenerator}. The generator always uses the same seed,
+     * so the same pets are generated on every device, which makes problems with large databases easy to reproduce.
+     * This method is called from the onOptionsItemSelected() method when the menu item is clicked on.
+     */
+    private void showInsertDummyDataDialog() {
+        String[] labels = new String[DUMMY_PET_COUNTS.length];
+        NumberFormat format = NumberFormat.getIntegerInstance();
+        for (int i = 0; i < DUMMY_PET_COUNTS.length; i++) {
+            labels[i] = format.format(DUMMY_PET_COUNTS[i]);
+        }
+
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.dummy_data_dialog_title)
+                .setItems(labels, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        // Run on the thread pool, so that a long run doesn't hold up the LoadPetTasks.
+                        new InsertDummyDataTask(DUMMY_PET_COUNTS[which]).executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+                    }
+                })
+                .show();
+    }
+
+
+    /**
+     * Generates and inserts the dummy pets on a background thread, through the provider's bulk insert,
+     * and shows the progress in the subtitle of the app bar.
      */
-    private void insertPet() { //此method純粹是測試用，看看用戶按“Insert Dummy Pet”時會不會正常輸入ToTo狗的hardcoded資訊。
-        // Create a ContentValues object where column names are the keys,
-        // and Toto's pet attributes are the values.
-        ContentValues values = new ContentValues();
-        values.put(PetEntry.COLUMN_PET_NAME, "Toto");
-        values.put(PetEntry.COLUMN_PET_BREED, "Terrier");
-        values.put(PetEntry.COLUMN_PET_GENDER, PetEntry.GENDER_MALE);
-        values.put(PetEntry.COLUMN_PET_WEIGHT, 7);
-        //put的意思是先配對欄位和數值
+    private class InsertDummyDataTask extends AsyncTask<Void, Integer, Integer> {
+
+        private final int mPetCount;
+
+        InsertDummyDataTask(int petCount) {
+            mPetCount = petCount;
+        }
 
-        // Insert a new row for Toto into the provider using the ContentResolver.
-        // Use the {@link PetEntry#CONTENT_URI} to indicate that we want to insert
-        // into the pets database table.
-        // Receive the new content URI that will allow us to access Toto's data in the future.
-        Uri newUri = getContentResolver().insert(PetEntry.CONTENT_URI, values);
-        //insert的是意思是把配對的欄位和數值植入表格
+        @Override
+        protected Integer doInBackground(Void... params) {
+            PetDataGenerator generator = new PetDataGenerator(PetDataGenerator.DEFAULT_SEED);
+            return generator.insertPets(getContentResolver(), mPetCount, new PetDataGenerator.ProgressListener() {
+                @Override
+                public void onProgress(int petsInserted, int petCount) {
+                    publishProgress(petsInserted);
+                }
+            });
+        }
+
+        @Override
+        protected void onProgressUpdate(Integer... values) {
+            if (getSupportActionBar() != null) {
+                getSupportActionBar().setSubtitle(getString(R.string.dummy_data_progress,
+                        values[values.length - 1], mPetCount));
+            }
+        }
+
+        @Override
+        protected void onPostExecute(Integer petsInserted) {
+            if (getSupportActionBar() != null) {
+                getSupportActionBar().setSubtitle(null);
+            }
+            Toast.makeText(CatalogActivity.this, getString(R.string.dummy_data_finished, petsInserted),
+                    Toast.LENGTH_SHORT).show();
+        }
+    }
+
+
+    /**
+     * Let the user pick a CSV file to import pets from. The import starts in onActivityResult.
+     */
+    private void pickImportFile() {
+        Intent intent = new Intent(Intent.ACTION_GET_CONTENT);
+        intent.setType("text/*");
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        startActivityForResult(intent, REQUEST_IMPORT);
+    }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        if (requestCode == REQUEST_IMPORT) {
+            if (resultCode == RESULT_OK && data != null && data.getData() != null) {
+                // Run on the thread pool, so that a long import doesn't hold up the LoadPetTasks.
+                new ImportTask(data.getData()).executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+            }
+            return;
+        }
+        super.onActivityResult(requestCode, resultCode, data);
+    }
+
+
+    /**
+     * Imports the pets of a CSV file on a background thread with a {@link PetImporter},
+     * and shows its progress in the subtitle of the app bar.
+     * Importing the same file again after the app was killed carries on where the import stopped.
+     */
+    private class ImportTask extends AsyncTask<Void, PetImporter.Progress, PetImporter.Progress> {
+
+        private final Uri mFileUri;
+
+        ImportTask(Uri fileUri) {
+            mFileUri = fileUri;
+        }
+
+        @Override
+        protected PetImporter.Progress doInBackground(Void... params) {
+            try {
+                InputStream in = getContentResolver().openInputStream(mFileUri);
+                if (in == null) {
+                    return null;
+                }
+                BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+                try {
+                    PetImporter importer = new PetImporter(getContentResolver(), PetImporter.DEFAULT_CHUNK_SIZE);
+                    return importer.importCsv(mFileUri.toString(), reader, new PetImporter.ProgressListener() {
+                        @Override
+                        public void onProgress(PetImporter.Progress progress) {
+                            publishProgress(progress);
+                        }
+                    });
+                } finally {
+                    reader.close();
+                }
+            } catch (Exception e) {
+                Log.e("CatalogActivity", "Failed to import pets from " + mFileUri, e);
+                return null;
+            }
+        }
+
+        @Override
+        protected void onProgressUpdate(PetImporter.Progress... values) {
+            PetImporter.Progress progress = values[values.length - 1];
+            if (getSupportActionBar() != null) {
+                getSupportActionBar().setSubtitle(getString(R.string.import_progress,
+                        progress.petsImported, progress.recordsRejected, (long) progress.petsPerSecond));
+            }
+        }
+
+        @Override
+        protected void onPostExecute(PetImporter.Progress progress) {
+            if (getSupportActionBar() != null) {
+                getSupportActionBar().setSubtitle(null);
+            }
+            if (progress == null) {
+                Toast.makeText(CatalogActivity.this, R.string.import_failed, Toast.LENGTH_SHORT).show();
+            } else {
+                Toast.makeText(CatalogActivity.this, getString(R.string.import_finished,
+                        progress.petsImported, progress.recordsRejected), Toast.LENGTH_SHORT).show();
+            }
+        }
     }
 
 
@@ -138,63 +776,259 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
      * Because that’s the generic __/pets uri which in our content provider will delete all pets.
      */
     private void deleteAllPets() {
-        int rowsDeleted = getContentResolver().delete(PetEntry.CONTENT_URI, null, null);
-        Log.v("CatalogActivity", rowsDeleted + " rows deleted from pet database");
+        // Deleting every pet can take a while, so it runs on the write executor's thread.
+        PetWriteExecutor.getInstance(this).delete(PetEntry.CONTENT_URI, LOG_DELETED_PETS);
     }
 
+    /**
+     * Logs how many pets were deleted. It is static, so that it doesn't hold on to the activity until the delete
+     * is done.
+     */
+    private static final PetWriteExecutor.Callback LOG_DELETED_PETS = new PetWriteExecutor.Callback() {
+        @Override
+        public void onWriteFinished(Uri uri, int rowsDeleted) {
+            Log.v("CatalogActivity", rowsDeleted + " rows deleted from pet database");
+        }
+    };
+
 
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         // Inflate the menu options from the res/menu/menu_catalog.xml file.
         // This creates options menu in the app bar.
         getMenuInflater().inflate(R.menu.menu_catalog, menu);
+
+        MenuItem searchItem = menu.findItem(R.id.action_search);
+        SearchView searchView = (SearchView) MenuItemCompat.getActionView(searchItem);
+        searchView.setQueryHint(getString(R.string.search_hint));
+
+        // Show the search that was restored after a configuration change. This is done before the listener is set,
+        // because the pages the loaders hold are already the ones of this search.
+        if (mSearchQuery != null) {
+            MenuItemCompat.expandActionView(searchItem);
+            searchView.setQuery(mSearchQuery, false);
+            searchView.clearFocus();
+        }
+
+        // Reload the list from the first page whenever the text in the search box changes.
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                return false;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                String query = TextUtils.isEmpty(newText.trim()) ? null : newText.trim();
+                if (!TextUtils.equals(query, mSearchQuery)) {
+                    mSearchQuery = query;
+                    restartPages();
+                }
+                return true;
+            }
+        });
+
+        // Check the current sort order and filter, which may have been restored after a configuration change.
+        menu.findItem(sortMenuItemId(mSortOrder)).setChecked(true);
+        menu.findItem(genderFilterMenuItemId(mGenderFilter)).setChecked(true);
         return true;
     }
 
+
+    /**
+     * Returns the sort column for the given item of the "Sort by" menu, or null for the _ID order.
+     */
+    private static String sortOrderForMenuItem(int itemId) {
+        switch (itemId) {
+            case R.id.sort_name:
+                return PetEntry.COLUMN_PET_NAME;
+            case R.id.sort_breed:
+                return PetEntry.COLUMN_PET_BREED;
+            case R.id.sort_weight:
+                return PetEntry.COLUMN_PET_WEIGHT;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Returns the item of the "Sort by" menu for the given sort column.
+     */
+    private static int sortMenuItemId(String sortOrder) {
+        if (PetEntry.COLUMN_PET_NAME.equals(sortOrder)) {
+            return R.id.sort_name;
+        } else if (PetEntry.COLUMN_PET_BREED.equals(sortOrder)) {
+            return R.id.sort_breed;
+        } else if (PetEntry.COLUMN_PET_WEIGHT.equals(sortOrder)) {
+            return R.id.sort_weight;
+        }
+        return R.id.sort_added;
+    }
+
+    /**
+     * Returns the gender for the given item of the "Show gender" menu, or {@link #NO_GENDER_FILTER}.
+     */
+    private static int genderFilterForMenuItem(int itemId) {
+        switch (itemId) {
+            case R.id.filter_gender_male:
+                return PetEntry.GENDER_MALE;
+            case R.id.filter_gender_female:
+                return PetEntry.GENDER_FEMALE;
+            case R.id.filter_gender_unknown:
+                return PetEntry.GENDER_UNKNOWN;
+            default:
+                return NO_GENDER_FILTER;
+        }
+    }
+
+    /**
+     * Returns the item of the "Show gender" menu for the given gender filter.
+     */
+    private static int genderFilterMenuItemId(int gender) {
+        switch (gender) {
+            case PetEntry.GENDER_MALE:
+                return R.id.filter_gender_male;
+            case PetEntry.GENDER_FEMALE:
+                return R.id.filter_gender_female;
+            case PetEntry.GENDER_UNKNOWN:
+                return R.id.filter_gender_unknown;
+            default:
+                return R.id.filter_gender_all;
+        }
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         // User clicked on a menu option in the app bar overflow menu
         switch (item.getItemId()) {
             // Respond to a click on the "Insert dummy data" menu option
             case R.id.action_insert_dummy_data:
-                insertPet();
+                showInsertDummyDataDialog();
+                return true;
+            // Respond to a click on the "Import pets" menu option
+            case R.id.action_import_pets:
+                pickImportFile();
                 return true;
             // Respond to a click on the "Delete all entries" menu option
             case R.id.action_delete_all_entries:
                 deleteAllPets();
                 return true;
+            // Respond to a click on one of the options of the "Sort by" menu
+            case R.id.sort_added:
+            case R.id.sort_name:
+            case R.id.sort_breed:
+            case R.id.sort_weight:
+                item.setChecked(true);
+                String sortOrder = sortOrderForMenuItem(item.getItemId());
+                if (!TextUtils.equals(sortOrder, mSortOrder)) {
+                    mSortOrder = sortOrder;
+                    restartPages();
+                }
+                return true;
+            // Respond to a click on one of the options of the "Show gender" menu
+            case R.id.filter_gender_all:
+            case R.id.filter_gender_male:
+            case R.id.filter_gender_female:
+            case R.id.filter_gender_unknown:
+                item.setChecked(true);
+                int gender = genderFilterForMenuItem(item.getItemId());
+                if (gender != mGenderFilter) {
+                    mGenderFilter = gender;
+                    restartPages();
+                }
+                return true;
         }
         return super.onOptionsItemSelected(item);
     }
 
     @Override
-    public Loader<Cursor> onCreateLoader(int id, Bundle args) {
-        // Define a projection that specifies the columns from the table we care about.
-        String[] projection = {
-                PetEntry._ID,
-                PetEntry.COLUMN_PET_NAME,
-                PetEntry.COLUMN_PET_BREED };
-
-        // Make a CursorLoader, passing in the uri and the projection.
-        // This loader will execute the ContentProvider's query method on a background thread.
-        return new CursorLoader(this,    // Return a new CursorLoader
-                PetEntry.CONTENT_URI,   //The ContentURI of the words table
-                projection,             //The columns to return for each row
-                null,          //Selection criteria
-                null,       //Selection criteria
-                null);         //The sort order for the returned row
+    public Loader<List<PetListItem>> onCreateLoader(int id, Bundle args) {
+        // Page through the search results if the user is searching, or through the whole table otherwise.
+        Uri baseUri = mSearchQuery == null ? PetEntry.CONTENT_URI : PetEntry.buildSearchUri(mSearchQuery);
+
+        // Only ask the provider for one page of pets, starting after the given _ID (0 for the first page)
+        // and, when sorting by another column, the given value of that column (null for the first page).
+        long afterId = args == null ? 0 : args.getLong(ARG_AFTER_ID);
+        String afterKey = args == null ? null : args.getString(ARG_AFTER_KEY);
+        Uri pageUri = PetEntry.buildPageUri(baseUri, afterKey, afterId, mPageSize);
+
+        // The provider sorts and filters the pages, each on its own index, so the filter goes into the selection
+        // and the sort column into the sort order.
+        String selection = null;
+        String[] selectionArgs = null;
+        if (mGenderFilter != NO_GENDER_FILTER) {
+            selection = PetEntry.COLUMN_PET_GENDER + "=?";
+            selectionArgs = new String[] { String.valueOf(mGenderFilter) };
+        }
+
+        // Make a PetPageLoader, passing in the uri of the page.
+        // This loader will execute the ContentProvider's query method on a background thread,
+        // and read the page into a list there as well.
+        return new PetPageLoader(this, pageUri, selection, selectionArgs, mSortOrder);
     }
 
     @Override
-    public void onLoadFinished(Loader<Cursor> loader, Cursor cursor) {
-        // Update PetCursorAdapter with the new cursor containing updated pet data.
-        mCursorAdapter.swapCursor(data); //Swap for new cursor
+    public void onLoadFinished(Loader<List<PetListItem>> loader, List<PetListItem> data) {
+        // Put the new page in its slot. Pages are loaded in order, so the page
+        // is either already in the list (it was reloaded) or it is the next one.
+        int page = loader.getId() - PET_LOADER;
+        long pageEnd = data.size() < mPageSize ? NO_MORE_PAGES : data.get(data.size() - 1).id;
+        String pageEndKey = data.isEmpty() ? null : data.get(data.size() - 1).getSortKey(mSortOrder);
+        if (page < mPages.size()) {
+            boolean endChanged = mPageEnds.get(page) != pageEnd
+                    || !TextUtils.equals(mPageEndKeys.get(page), pageEndKey);
+            mPages.set(page, data);
+            mPageEnds.set(page, pageEnd);
+            mPageEndKeys.set(page, pageEndKey);
+            if (endChanged) {
+                // The reloaded page now ends somewhere else, so the pages after it no longer follow on from it.
+                dropPagesAfter(page);
+            }
+        } else if (page == mPages.size()) {
+            mPages.add(data);
+            mPageEnds.add(pageEnd);
+            mPageEndKeys.add(pageEndKey);
+        } else {
+            // An earlier page was reset in the meantime, so this one no longer follows on from it.
+            return;
+        }
+
+        // Update PetRecyclerAdapter with the updated pet data.
+        showPages();
+
+        if (mStartMillis != 0 && page == 0) {
+            // The first page is shown (its rows are laid out in the next frame), which is what the user waits for.
+            mTimeToFirstRowMillis = SystemClock.elapsedRealtime() - mStartMillis;
+            mStartMillis = 0;
+            Log.i("CatalogActivity", "Time to first catalog row: " + mTimeToFirstRowMillis + " ms ("
+                    + data.size() + " pets on the first page)");
+        }
+
+        // Carry on loading ahead if this page didn't cover the prefetch distance yet.
+        // The adapter may still be diffing the new rows in, so check once the list has been laid out again.
+        if (page == mPages.size() - 1 && pageEnd != NO_MORE_PAGES) {
+            findViewById(R.id.list).post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!isFinishing()) {
+                        prefetchPages();
+                    }
+                }
+            });
+        }
     }
 
     @Override
-    public void onLoaderReset(Loader<Cursor> loader) {
+    public void onLoaderReset(Loader<List<PetListItem>> loader) {
         // The callback called when the data needs to be deleted.
-        mCursorAdapter.swapCursor(null);
+        // Drop this page and all the pages after it, since they were started from its last _ID.
+        int page = loader.getId() - PET_LOADER;
+        while (mPages.size() > page) {
+            mPages.remove(mPages.size() - 1);
+            mPageEnds.remove(mPageEnds.size() - 1);
+            mPageEndKeys.remove(mPageEndKeys.size() - 1);
+        }
+        showPages();
     }
 
 }
@@ -15,8 +15,12 @@
  */
 package com.example.android.pets;
 
+import android.content.ContentUris;
 import android.content.ContentValues;
-import android.database.sqlite.SQLiteDatabase;
+import android.content.Context;
+import android.content.DialogInterface;
+import android.content.Intent;
+import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
 import android.support.v4.app.LoaderManager;
@@ -33,12 +37,12 @@ import android.view.View;
 import android.widget.AdapterView;
 import android.widget.ArrayAdapter;
 import android.widget.EditText;
+import android.widget.ImageView;
 import android.widget.Spinner;
 import android.widget.Toast;
 
 import com.example.android.pets.data.PetContract;
 import com.example.android.pets.data.PetContract.PetEntry;
-import com.example.android.pets.data.PetDbHelper;
 
 /**
  * Allows user to create a new pet or edit an existing one.
@@ -48,6 +52,12 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
     /** Identifier for the pet data loader */
     private static final int EXISTING_PET_LOADER = 0;  // "0" is just an arbitrary choice. It's ok to set it up as any other integer.
 
+    /** Request code for picking a photo of the pet in another app */
+    private static final int REQUEST_PICK_PHOTO = 1;
+
+    /** Key of the picked photo in the saved instance state */
+    private static final String STATE_PICKED_PHOTO = "picked_photo";
+
     /** Content URI for the existing pet (null if it's a new pet) */
     // In onCreateLoader(), we’ll make a new CursorLoader, passing in the uri and the projection.
     // We need the uri from onCreate() so we’ll need to put it in an instance variable called mCurrentPetUri.
@@ -65,6 +75,12 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
     /** EditText field to enter the pet's gender */
     private Spinner mGenderSpinner;
 
+    /** ImageView that shows the photo of the pet */
+    private ImageView mPhotoImageView;
+
+    /** URI of the photo the user picked for the pet, or null if they didn't pick one (yet) */
+    private Uri mPickedPhotoUri;
+
     /**
      * Gender of the pet. The possible valid values are in the PetContract.java file:
      * {@link PetEntry#GENDER_UNKNOWN}, {@link PetEntry#GENDER_MALE}, or
@@ -72,6 +88,12 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
      */
     private int mGender = PetEntry.GENDER_UNKNOWN;
 
+    /**
+     * The values of the existing pet as they were loaded from the database (null for a new pet, or until it is loaded).
+     * When saving, the form is compared against these, so that only the columns that changed are written.
+     */
+    private ContentValues mLoadedValues;
+
     /** Boolean flag that keeps track of whether the pet has been edited (true) or not (false).
      *  If a user could accidentally hit the “Up” or back when adding some edits. To avoid ignoring their work,
      *  we should pop-up a dialog to warn them that they are leaving the editor without saving their changes.
@@ -120,7 +142,7 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
 
             // Initialize a loader to read the pet data from the database
             // and display the current values in the editor
-            getLoaderManager().initLoader(EXISTING_PET_LOADER, null, (android.app.LoaderManager.LoaderCallbacks<Object>) this);
+            getSupportLoaderManager().initLoader(EXISTING_PET_LOADER, null, this);
         }
 
 
@@ -130,6 +152,7 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         mBreedEditText = (EditText) findViewById(R.id.edit_pet_breed);
         mWeightEditText = (EditText) findViewById(R.id.edit_pet_weight);
         mGenderSpinner = (Spinner) findViewById(R.id.spinner_gender);
+        mPhotoImageView = (ImageView) findViewById(R.id.image_pet_photo);
 
         // Setup OnTouchListeners on all the input fields, so we can determine if the user
         // has touched or modified them. This will let us know if there are unsaved changes
@@ -140,6 +163,48 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         mGenderSpinner.setOnTouchListener(mTouchListener);
 
         setupSpinner(); //Add a dropdown spinner
+
+        // Let the user pick a photo of the pet in another app, like the gallery or the files.
+        findViewById(R.id.button_choose_photo).setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                Intent intent = new Intent(Intent.ACTION_GET_CONTENT);
+                intent.setType("image/*");
+                intent.addCategory(Intent.CATEGORY_OPENABLE);
+                startActivityForResult(Intent.createChooser(intent, getString(R.string.action_choose_photo)),
+                        REQUEST_PICK_PHOTO);
+            }
+        });
+
+        // The picked photo isn't saved until the pet is, so keep it across configuration changes.
+        if (savedInstanceState != null) {
+            mPickedPhotoUri = savedInstanceState.getParcelable(STATE_PICKED_PHOTO);
+            if (mPickedPhotoUri != null) {
+                PetThumbnailCache.getInstance(this).bindPreview(mPhotoImageView, mPickedPhotoUri);
+            }
+        }
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putParcelable(STATE_PICKED_PHOTO, mPickedPhotoUri);
+    }
+
+    /**
+     * Show the photo the user picked. It is only copied into the provider when the pet is saved.
+     */
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        if (requestCode == REQUEST_PICK_PHOTO) {
+            if (resultCode == RESULT_OK && data != null && data.getData() != null) {
+                mPickedPhotoUri = data.getData();
+                mPetHasChanged = true;
+                PetThumbnailCache.getInstance(this).bindPreview(mPhotoImageView, mPickedPhotoUri);
+            }
+            return;
+        }
+        super.onActivityResult(requestCode, resultCode, data);
     }
 
     /**
@@ -212,22 +277,129 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         }
         values.put(PetEntry.COLUMN_PET_WEIGHT, weight);
 
+        // Determine if this is a new or existing pet by checking if mCurrentPetUri is null or not
+        if (mCurrentPetUri != null) {
+            // This is an EXISTING pet, so only update the columns that the user actually changed.
+            ContentValues changedValues = getChangedValues(values);
 
-        // Insert a new pet into the provider, returning the content URI for the new pet.
-        Uri newUri = getContentResolver().insert(PetEntry.CONTENT_URI, values);
+            // The photo is written separately, after any other changes.
+            final Context appContext = getApplicationContext();
+            if (mPickedPhotoUri != null) {
+                savePhoto(mCurrentPetUri, appContext);
+            }
 
-        // Since the ContentResolver returns a Uri, we check if the Uri is null or not.
-        // Then we show a toast message telling the user if the insertion was successful or not.
-        // Show a toast message depending on whether or not the insertion was successful.
-        if (newUri == null) {
-            // If the new content URI is null, then there was an error with insertion.
-            Toast.makeText(this, getString(R.string.editor_insert_pet_failed),
-                    Toast.LENGTH_SHORT).show();
-        } else {
-            // Otherwise, the insertion was successful and we can display a toast.
-            Toast.makeText(this, getString(R.string.editor_insert_pet_successful),
-                    Toast.LENGTH_SHORT).show();
+            // If nothing else changed, there is nothing to write (and nothing for the catalog to reload).
+            if (changedValues.size() == 0) {
+                return;
+            }
+
+            // The update runs on the write executor's thread, so the editor can close right away.
+            // mCurrentPetUri already identifies the correct row in the database that we want to modify.
+            // The callback shows a toast message depending on whether or not the update was successful.
+            PetWriteExecutor.getInstance(this).update(mCurrentPetUri, changedValues, new ToastCallback(appContext,
+                    R.string.editor_update_pet_successful, R.string.editor_update_pet_failed, null));
+            return;
         }
+
+        // This is a NEW pet, so insert a new pet into the provider, on the write executor's thread.
+        // Its photo can only be written once we know its URI.
+        // The callback shows a toast message depending on whether or not the insertion was successful,
+        // and then saves the picked photo (if any) for the new pet.
+        PetWriteExecutor.getInstance(this).insert(PetEntry.CONTENT_URI, values, new ToastCallback(
+                getApplicationContext(), R.string.editor_insert_pet_successful, R.string.editor_insert_pet_failed,
+                mPickedPhotoUri));
+    }
+
+    /**
+     * Copy the picked photo into the provider as the photo of the pet at the given URI,
+     * on the write executor's thread.
+     */
+    private void savePhoto(Uri petUri, Context appContext) {
+        PetWriteExecutor.getInstance(this).setPhoto(petUri, mPickedPhotoUri, new PhotoCallback(appContext));
+    }
+
+    /**
+     * Shows a toast with the result of a write. It only holds on to the application context, not to the editor,
+     * so a write that finishes after the editor was closed never keeps the editor from being garbage collected.
+     */
+    private static class ToastCallback implements PetWriteExecutor.Callback {
+
+        private final Context mAppContext;
+
+        /** String resources of the toasts when the write succeeded and when it failed */
+        private final int mSuccessMessage;
+        private final int mFailureMessage;
+
+        /** For an insert, the photo to save for the new pet once it is inserted, or null */
+        private final Uri mPhotoUri;
+
+        ToastCallback(Context appContext, int successMessage, int failureMessage, Uri photoUri) {
+            mAppContext = appContext;
+            mSuccessMessage = successMessage;
+            mFailureMessage = failureMessage;
+            mPhotoUri = photoUri;
+        }
+
+        @Override
+        public void onWriteFinished(Uri uri, int rowsAffected) {
+            // If no rows were affected (for an insert, the URI of the new pet is null then), the write failed.
+            if (rowsAffected == 0) {
+                Toast.makeText(mAppContext, mFailureMessage, Toast.LENGTH_SHORT).show();
+                return;
+            }
+            Toast.makeText(mAppContext, mSuccessMessage, Toast.LENGTH_SHORT).show();
+            if (mPhotoUri != null) {
+                PetWriteExecutor.getInstance(mAppContext).setPhoto(uri, mPhotoUri, new PhotoCallback(mAppContext));
+            }
+        }
+    }
+
+    /**
+     * Shows a toast if the photo couldn't be saved. A saved photo shows up in the catalog, no need to say so.
+     */
+    private static class PhotoCallback implements PetWriteExecutor.Callback {
+
+        /** The application context, because the editor is gone by the time the photo is saved */
+        private final Context mAppContext;
+
+        PhotoCallback(Context appContext) {
+            mAppContext = appContext;
+        }
+
+        @Override
+        public void onWriteFinished(Uri uri, int rowsAffected) {
+            if (rowsAffected == 0) {
+                Toast.makeText(mAppContext, R.string.editor_save_photo_failed, Toast.LENGTH_SHORT).show();
+            }
+        }
+    }
+
+
+    /**
+     * Returns the values from the form that are different from the values of the pet as it was loaded.
+     * A missing breed counts the same as an empty one. If the pet wasn't loaded yet, all the values are returned.
+     */
+    private ContentValues getChangedValues(ContentValues formValues) {
+        if (mLoadedValues == null) {
+            return formValues;
+        }
+
+        ContentValues changedValues = new ContentValues();
+        for (String column : formValues.keySet()) {
+            Object newValue = formValues.get(column);
+            Object oldValue = mLoadedValues.get(column);
+            String newText = newValue == null ? "" : newValue.toString();
+            String oldText = oldValue == null ? "" : oldValue.toString();
+            if (!newText.equals(oldText)) {
+                // The form only holds text (name, breed) and numbers (gender, weight).
+                if (newValue instanceof Integer) {
+                    changedValues.put(column, (Integer) newValue);
+                } else {
+                    changedValues.put(column, (String) newValue);
+                }
+            }
+        }
+        return changedValues;
     }
 
 
@@ -340,7 +512,8 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
                 PetEntry.COLUMN_PET_NAME,
                 PetEntry.COLUMN_PET_BREED,
                 PetEntry.COLUMN_PET_GENDER,
-                PetEntry.COLUMN_PET_WEIGHT };
+                PetEntry.COLUMN_PET_WEIGHT,
+                PetEntry.COLUMN_PET_PHOTO };
 
         // Make a CursorLoader, passing in the uri and the projection.
         // This loader will execute the ContentProvider's query method on a background thread.
@@ -379,12 +552,25 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
             String breed = cursor.getString(breedColumnIndex);
             int gender = cursor.getInt(genderColumnIndex);
             int weight = cursor.getInt(weightColumnIndex);
+            String photo = cursor.getString(cursor.getColumnIndex(PetEntry.COLUMN_PET_PHOTO));
+
+            // Remember the values as they are in the database, to find out later which ones the user changed
+            mLoadedValues = new ContentValues();
+            mLoadedValues.put(PetEntry.COLUMN_PET_NAME, name);
+            mLoadedValues.put(PetEntry.COLUMN_PET_BREED, breed);
+            mLoadedValues.put(PetEntry.COLUMN_PET_GENDER, gender);
+            mLoadedValues.put(PetEntry.COLUMN_PET_WEIGHT, weight);
 
             // Update the views on the screen with the values from the database
             mNameEditText.setText(name);
             mBreedEditText.setText(breed);
             mWeightEditText.setText(Integer.toString(weight));
 
+            // Unless the user already picked a new photo, show the one the pet has.
+            if (mPickedPhotoUri == null) {
+                PetThumbnailCache.getInstance(this).bind(mPhotoImageView, ContentUris.parseId(mCurrentPetUri), photo);
+            }
+
             // Gender is a dropdown spinner, so map the constant value from the database
             // into one of the dropdown options (0 is Unknown, 1 is Male, 2 is Female).
             // Then call setSelection() so that option is displayed on screen as the current selection.
@@ -480,27 +666,17 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
     private void deletePet() {
         // Only perform the delete if this is an existing pet.
         if (mCurrentPetUri != null) {
-            // Call the ContentResolver to delete the pet at the given content URI.
-            // Pass in null for the selection and selection args because the mCurrentPetUri
-            // content URI already identifies the pet that we want.
-            int rowsDeleted = getContentResolver().delete(mCurrentPetUri, null, null);
-
-            // Show a toast message depending on whether or not the delete was successful.
-            // The delete method, like update, returns the number of rows deleted. See if the delete was successful by checking whether 0 rows were deleted.
-            // If zero rows were deleted, then the delete was not successful and we’ll show a toast that says “ Error with deleting pet”.
+            // Delete the pet at the given content URI on the write executor's thread.
+            // The mCurrentPetUri content URI already identifies the pet that we want.
+            // The callback shows a toast message depending on whether or not the delete was successful.
+            // The delete method, like update, returns the number of rows deleted. If zero rows were deleted,
+            // then the delete was not successful and we’ll show a toast that says “ Error with deleting pet”.
             // Otherwise the operation was successful, and we pop up a toast that says “Pet deleted”.
-            if (rowsDeleted == 0) {
-                // If no rows were deleted, then there was an error with the delete.
-                Toast.makeText(this, getString(R.string.editor_delete_pet_failed),
-                        Toast.LENGTH_SHORT).show();
-            } else {
-                // Otherwise, the delete was successful and we can display a toast.
-                Toast.makeText(this, getString(R.string.editor_delete_pet_successful),
-                        Toast.LENGTH_SHORT).show();
-            }
+            PetWriteExecutor.getInstance(this).delete(mCurrentPetUri, new ToastCallback(getApplicationContext(),
+                    R.string.editor_delete_pet_successful, R.string.editor_delete_pet_failed, null));
         }
 
-        // Once the operation is done, then the activity can be closed by calling the finish() method.
+        // Once the delete has been submitted, the activity can be closed by calling the finish() method.
         finish();
     }
 
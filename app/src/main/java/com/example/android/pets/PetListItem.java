@@ -0,0 +1,78 @@
+package com.example.android.pets;
+
+import android.database.Cursor;
+import android.text.TextUtils;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+/**
+ * {@link PetListItem} is an immutable snapshot of the pet data shown in one row of the catalog.
+ *
+ * The catalog keeps lists of these instead of a live {@link Cursor}, so that the old and the new list
+ * can be compared on a background thread (see {@link PetRecyclerAdapter}) without touching the UI.
+ */
+public final class PetListItem {
+
+    /** _ID of the pet in the database */
+    public final long id;
+
+    /** Name of the pet */
+    public final String name;
+
+    /** Breed of the pet (may be null or empty) */
+    public final String breed;
+
+    /** Weight of the pet. It isn't shown, but the catalog can be sorted by it. */
+    public final int weight;
+
+    /** Name of the photo file of the pet, or null if it has no photo. Changes whenever the photo does. */
+    public final String photo;
+
+    public PetListItem(long id, String name, String breed, int weight, String photo) {
+        this.id = id;
+        this.name = name;
+        this.breed = breed;
+        this.weight = weight;
+        this.photo = photo;
+    }
+
+    /**
+     * Read the pet in the current row of the cursor.
+     *
+     * @param idColumnIndex    index of the {@link PetEntry#_ID} column
+     * @param nameColumnIndex  index of the {@link PetEntry#COLUMN_PET_NAME} column
+     * @param breedColumnIndex index of the {@link PetEntry#COLUMN_PET_BREED} column
+     * @param weightColumnIndex index of the {@link PetEntry#COLUMN_PET_WEIGHT} column
+     * @param photoColumnIndex index of the {@link PetEntry#COLUMN_PET_PHOTO} column
+     */
+    public static PetListItem fromCursor(Cursor cursor, int idColumnIndex, int nameColumnIndex,
+                                         int breedColumnIndex, int weightColumnIndex, int photoColumnIndex) {
+        return new PetListItem(cursor.getLong(idColumnIndex), cursor.getString(nameColumnIndex),
+                cursor.getString(breedColumnIndex), cursor.getInt(weightColumnIndex),
+                cursor.getString(photoColumnIndex));
+    }
+
+    /**
+     * Returns the value of the given sort column of the catalog for this pet, as the provider expects it in
+     * {@link com.example.android.pets.data.PetContract#QUERY_PARAMETER_AFTER_KEY}, or null for the _ID order.
+     */
+    public String getSortKey(String sortColumn) {
+        if (PetEntry.COLUMN_PET_NAME.equals(sortColumn)) {
+            return name;
+        } else if (PetEntry.COLUMN_PET_BREED.equals(sortColumn)) {
+            return breed;
+        } else if (PetEntry.COLUMN_PET_WEIGHT.equals(sortColumn)) {
+            return String.valueOf(weight);
+        }
+        return null;
+    }
+
+    /**
+     * Returns true if the row would look the same on screen for both pets,
+     * which means it doesn't have to be bound again.
+     */
+    public boolean hasSameContents(PetListItem other) {
+        return TextUtils.equals(name, other.name) && TextUtils.equals(breed, other.breed)
+                && TextUtils.equals(photo, other.photo);
+    }
+}
@@ -0,0 +1,153 @@
+package com.example.android.pets;
+
+import android.content.AsyncTaskLoader;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Loads one page of pets from the given page URI and copies it into a list of {@link PetListItem}s
+ * on a background thread. Like a {@link android.content.CursorLoader}, it watches the URI and loads the
+ * page again whenever the provider reports that the data has changed.
+ *
+ * Only changes to the table as a whole (notified on the pets URI itself) reload the page. Changes to a single
+ * pet are notified on its row URI, and the catalog patches its copy of the page for those instead
+ * (see {@link #replacePage(List)}).
+ *
+ * Reading the rows here (instead of handing a cursor to the adapter) means the UI thread never has
+ * to fill a cursor window, and the list can be diffed off the UI thread.
+ */
+public class PetPageLoader extends AsyncTaskLoader<List<PetListItem>> {
+
+    /** The columns the catalog shows for each pet (the photo as its thumbnail), and the ones it can be sorted by */
+    public static final String[] PROJECTION = {
+            PetEntry._ID,
+            PetEntry.COLUMN_PET_NAME,
+            PetEntry.COLUMN_PET_BREED,
+            PetEntry.COLUMN_PET_WEIGHT,
+            PetEntry.COLUMN_PET_PHOTO };
+
+    /** URI of the page to load */
+    private final Uri mPageUri;
+
+    /** Selection of the pets to load (for example a filter on the gender), or null for all of them */
+    private final String mSelection;
+
+    /** Values for the "?" in {@link #mSelection} */
+    private final String[] mSelectionArgs;
+
+    /** Sort column of the pages, or null to load them in _ID order */
+    private final String mSortOrder;
+
+    /** Reloads the page when the data at the page URI changes */
+    private final ForceLoadContentObserver mObserver = new ForceLoadContentObserver();
+
+    /** True once {@link #mObserver} has been registered with the content resolver */
+    private boolean mObserverRegistered;
+
+    /** The last page that was delivered, or null if none was loaded yet */
+    private List<PetListItem> mPage;
+
+    /**
+     * Constructs a new {@link PetPageLoader}.
+     *
+     * @param context of the activity
+     * @param pageUri to load the page of pets from
+     * @param selection of the pets to load, or null for all of them
+     * @param selectionArgs for the "?" in the selection
+     * @param sortOrder the sort column that the page URI was built for, or null for the _ID order
+     */
+    public PetPageLoader(Context context, Uri pageUri, String selection, String[] selectionArgs,
+                         String sortOrder) {
+        super(context);
+        mPageUri = pageUri;
+        mSelection = selection;
+        mSelectionArgs = selectionArgs;
+        mSortOrder = sortOrder;
+    }
+
+    /**
+     * This is on a background thread.
+     */
+    @Override
+    public List<PetListItem> loadInBackground() {
+        Cursor cursor = getContext().getContentResolver().query(mPageUri, PROJECTION, mSelection, mSelectionArgs,
+                mSortOrder);
+        if (cursor == null) {
+            return Collections.emptyList();
+        }
+
+        try {
+            int idColumnIndex = cursor.getColumnIndex(PetEntry._ID);
+            int nameColumnIndex = cursor.getColumnIndex(PetEntry.COLUMN_PET_NAME);
+            int breedColumnIndex = cursor.getColumnIndex(PetEntry.COLUMN_PET_BREED);
+            int weightColumnIndex = cursor.getColumnIndex(PetEntry.COLUMN_PET_WEIGHT);
+            int photoColumnIndex = cursor.getColumnIndex(PetEntry.COLUMN_PET_PHOTO);
+
+            List<PetListItem> page = new ArrayList<>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                page.add(PetListItem.fromCursor(cursor, idColumnIndex, nameColumnIndex, breedColumnIndex,
+                        weightColumnIndex, photoColumnIndex));
+            }
+            return page;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Replace the page this loader holds with a copy that the catalog has patched for a change
+     * to a single pet, so that the patched page is the one delivered again after a configuration change.
+     * Must be called on the UI thread.
+     */
+    public void replacePage(List<PetListItem> page) {
+        mPage = page;
+    }
+
+    @Override
+    public void deliverResult(List<PetListItem> page) {
+        mPage = page;
+        if (isStarted()) {
+            super.deliverResult(page);
+        }
+    }
+
+    @Override
+    protected void onStartLoading() {
+        if (mPage != null) {
+            // Deliver the page we already have right away
+            deliverResult(mPage);
+        }
+        if (!mObserverRegistered) {
+            // Start watching the page URI the first time the loader is started.
+            // Don't watch the descendants, so that the row URIs of single pets don't reload the whole page.
+            getContext().getContentResolver().registerContentObserver(mPageUri, false, mObserver);
+            mObserverRegistered = true;
+        }
+        if (takeContentChanged() || mPage == null) {
+            forceLoad();
+        }
+    }
+
+    @Override
+    protected void onStopLoading() {
+        cancelLoad();
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        onStopLoading();
+        if (mObserverRegistered) {
+            getContext().getContentResolver().unregisterContentObserver(mObserver);
+            mObserverRegistered = false;
+        }
+        mPage = null;
+    }
+}
@@ -0,0 +1,218 @@
+package com.example.android.pets;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
+import android.text.TextUtils;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ImageView;
+import android.widget.TextView;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * {@link PetRecyclerAdapter} is an adapter for the catalog {@link RecyclerView}
+ * that uses a list of {@link PetListItem}s as its data source.
+ *
+ * When a new list is submitted, the difference with the current list is computed with {@link DiffUtil}
+ * on a background thread, and only the rows that were inserted, removed or changed are then updated
+ * on the UI thread. All the other rows (and the scroll position) are left alone.
+ */
+public class PetRecyclerAdapter extends RecyclerView.Adapter<PetRecyclerAdapter.PetViewHolder> {
+
+    /**
+     * Interface for receiving a click on a pet in the list.
+     */
+    public interface OnPetClickListener {
+        /**
+         * @param id the _ID of the pet that was clicked on
+         */
+        void onPetClick(long id);
+    }
+
+    /** Computes the diffs one after another, so that they are applied in the order the lists were submitted */
+    private static final Executor DIFF_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    /** Handler for delivering the diff results back on the UI thread */
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /** Listener for clicks on the pets */
+    private final OnPetClickListener mClickListener;
+
+    /** The thumbnails of the photos of the pets */
+    private final PetThumbnailCache mThumbnails;
+
+    /** The list that is currently shown. It is never modified, only replaced. */
+    private List<PetListItem> mItems = Collections.emptyList();
+
+    /** Incremented on every submit, so that the result of a diff that is out of date can be dropped */
+    private int mGeneration;
+
+    /**
+     * Constructs a new {@link PetRecyclerAdapter}.
+     *
+     * @param thumbnails    to show the photos of the pets from
+     * @param clickListener to call when the user clicks on a pet
+     */
+    public PetRecyclerAdapter(PetThumbnailCache thumbnails, OnPetClickListener clickListener) {
+        mThumbnails = thumbnails;
+        mClickListener = clickListener;
+        // The _ID of each pet stays the same across lists, which lets the RecyclerView keep track of the rows.
+        setHasStableIds(true);
+    }
+
+    /**
+     * Show the given list of pets. The list must not be modified afterwards.
+     * Must be called on the UI thread.
+     */
+    public void submitList(final List<PetListItem> newItems) {
+        final int generation = ++mGeneration;
+        final List<PetListItem> oldItems = mItems;
+
+        // Nothing to compare with, so no need for a background diff.
+        if (oldItems.isEmpty() || newItems.isEmpty()) {
+            mItems = newItems;
+            notifyDataSetChanged();
+            return;
+        }
+
+        DIFF_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                // This is on a background thread. Both lists are immutable, so it is safe to read them here.
+                final DiffUtil.DiffResult result = DiffUtil.calculateDiff(new PetDiffCallback(oldItems, newItems), false);
+
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        // A newer list was submitted while this diff was running, so this result is out of date.
+                        if (generation != mGeneration) {
+                            return;
+                        }
+                        mItems = newItems;
+                        result.dispatchUpdatesTo(PetRecyclerAdapter.this);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Returns the pet at the given position of the list that is currently shown.
+     */
+    public PetListItem getItem(int position) {
+        return mItems.get(position);
+    }
+
+    @Override
+    public int getItemCount() {
+        return mItems.size();
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return mItems.get(position).id;
+    }
+
+    /**
+     * Makes a new blank list item view. No data is set (or bound) to the views yet.
+     */
+    @Override
+    public PetViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        // Inflate a list item view using the layout specified in list_item.xml
+        View view = LayoutInflater.from(parent.getContext()).inflate(R.layout.list_item, parent, false);
+        return new PetViewHolder(view);
+    }
+
+    /**
+     * This method binds the pet data at the given position to the list item layout held by the view holder.
+     * It runs for every row that scrolls into view, so it must stay cheap: the thumbnail comes from the memory
+     * cache, or is loaded in the background and set when it is ready.
+     */
+    @Override
+    public void onBindViewHolder(PetViewHolder holder, int position) {
+        PetListItem pet = mItems.get(position);
+
+        // If the pet breed is empty string or null, then use some default text
+        // that says "Unknown breed", so the TextView isn't blank.
+        String petBreed = pet.breed;
+        if (TextUtils.isEmpty(petBreed)) {
+            petBreed = holder.itemView.getContext().getString(R.string.unknown_breed);
+        }
+
+        // Update the TextViews with the attributes for the current pet
+        holder.nameTextView.setText(pet.name);
+        holder.summaryTextView.setText(petBreed);
+        mThumbnails.bind(holder.photoImageView, pet.id, pet.photo);
+    }
+
+
+    /**
+     * Holds the views of one list item, so that they only have to be looked up once.
+     */
+    class PetViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
+
+        final TextView nameTextView;
+        final TextView summaryTextView;
+        final ImageView photoImageView;
+
+        PetViewHolder(View itemView) {
+            super(itemView);
+            photoImageView = (ImageView) itemView.findViewById(R.id.photo);
+            nameTextView = (TextView) itemView.findViewById(R.id.name);
+            summaryTextView = (TextView) itemView.findViewById(R.id.summary);
+            itemView.setOnClickListener(this);
+        }
+
+        @Override
+        public void onClick(View view) {
+            int position = getAdapterPosition();
+            if (position != RecyclerView.NO_POSITION) {
+                mClickListener.onPetClick(mItems.get(position).id);
+            }
+        }
+    }
+
+
+    /**
+     * Tells {@link DiffUtil} how to compare two lists of pets: rows are the same pet if they have
+     * the same _ID, and they need to be bound again only if the name, breed or photo changed.
+     * Package-private so that the catalog benchmark can time the diff on its own.
+     */
+    static class PetDiffCallback extends DiffUtil.Callback {
+
+        private final List<PetListItem> mOldItems;
+        private final List<PetListItem> mNewItems;
+
+        PetDiffCallback(List<PetListItem> oldItems, List<PetListItem> newItems) {
+            mOldItems = oldItems;
+            mNewItems = newItems;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOldItems.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNewItems.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOldItems.get(oldItemPosition).id == mNewItems.get(newItemPosition).id;
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOldItems.get(oldItemPosition).hasSameContents(mNewItems.get(newItemPosition));
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.example.android.pets;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.support.v7.widget.RecyclerView;
+import android.view.Choreographer;
+
+import java.io.PrintWriter;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how smoothly the catalog scrolls, so that the page size and the prefetch distance of
+ * {@link CatalogActivity} can be tuned.
+ *
+ * While the list is scrolling, a {@link Choreographer} callback looks at the time between frames. A frame that
+ * came later than one refresh interval after the previous one means frames were dropped, and counts as janky.
+ * Separately, the catalog reports every time the user scrolled to the end of the loaded pages while the next
+ * page was still loading: that is the prefetch falling behind, which shows as the list stopping at the bottom.
+ *
+ * All of the methods must be called on the UI thread. Choreographer needs Jelly Bean, so on older devices
+ * only the prefetch counters are recorded.
+ */
+public class PetScrollMetrics extends RecyclerView.OnScrollListener {
+
+    /** Number of frame buckets: 0, 1, 2, 3-4, 5-8, 9-16 and more than 16 dropped frames */
+    private static final int BUCKET_COUNT = 7;
+
+    /** Labels of the frame buckets, for the dump */
+    private static final String[] BUCKET_LABELS = { "0", "1", "2", "3-4", "5-8", "9-16", ">16" };
+
+    /** Expected time between two frames, from the refresh rate of the display */
+    private final long mFrameIntervalNanos;
+
+    /** Frames seen while scrolling, by the number of frames dropped just before them (see {@link #BUCKET_LABELS}) */
+    private final long[] mFrameBuckets = new long[BUCKET_COUNT];
+
+    /** Total number of frames dropped while scrolling */
+    private long mDroppedFrames;
+
+    /** Longest time between two frames while scrolling */
+    private long mMaxFrameNanos;
+
+    /** Time spent scrolling */
+    private long mScrollNanos;
+
+    /** When the current scroll started, or 0 if the list isn't scrolling */
+    private long mScrollStartNanos;
+
+    /** Time of the previous frame of the current scroll, or 0 if there wasn't one yet */
+    private long mLastFrameNanos;
+
+    /** Number of pages the catalog started loading */
+    private long mPagesRequested;
+
+    /** Number of times the user reached the end of the loaded pages before the next one was there */
+    private long mPrefetchMisses;
+
+    /** Watches the frames while the list is scrolling, or null before Jelly Bean */
+    private final Object mFrameCallback;
+
+    /**
+     * Constructs a new {@link PetScrollMetrics}.
+     *
+     * @param refreshRate of the display the list is on, in frames per second
+     */
+    public PetScrollMetrics(float refreshRate) {
+        mFrameIntervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / (refreshRate > 0 ? refreshRate : 60f));
+        mFrameCallback = Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN ? new FrameCallback() : null;
+    }
+
+    @Override
+    public void onScrollStateChanged(RecyclerView recyclerView, int newState) {
+        if (newState != RecyclerView.SCROLL_STATE_IDLE && mScrollStartNanos == 0) {
+            mScrollStartNanos = System.nanoTime();
+            mLastFrameNanos = 0;
+            if (mFrameCallback != null) {
+                ((FrameCallback) mFrameCallback).start();
+            }
+        } else if (newState == RecyclerView.SCROLL_STATE_IDLE && mScrollStartNanos != 0) {
+            mScrollNanos += System.nanoTime() - mScrollStartNanos;
+            mScrollStartNanos = 0;
+            if (mFrameCallback != null) {
+                ((FrameCallback) mFrameCallback).stop();
+            }
+        }
+    }
+
+    /**
+     * Record that the catalog started loading another page.
+     */
+    public void onPageRequested() {
+        mPagesRequested++;
+    }
+
+    /**
+     * Record that the user scrolled to the last loaded row while the next page was still loading.
+     */
+    public void onPrefetchMiss() {
+        mPrefetchMisses++;
+    }
+
+    /**
+     * Record a frame of the current scroll.
+     */
+    private void onFrame(long frameTimeNanos) {
+        if (mLastFrameNanos != 0) {
+            long frameNanos = frameTimeNanos - mLastFrameNanos;
+            // Anything up to half an interval late still counts as on time, the frame times jitter a bit.
+            long dropped = Math.max(0, (frameNanos + mFrameIntervalNanos / 2) / mFrameIntervalNanos - 1);
+            mFrameBuckets[bucketOf(dropped)]++;
+            mDroppedFrames += dropped;
+            mMaxFrameNanos = Math.max(mMaxFrameNanos, frameNanos);
+        }
+        mLastFrameNanos = frameTimeNanos;
+    }
+
+    /**
+     * Returns the bucket for a frame with the given number of dropped frames before it.
+     */
+    private static int bucketOf(long dropped) {
+        if (dropped <= 2) {
+            return (int) dropped;
+        }
+        // 3-4 is bucket 3, 5-8 is bucket 4, 9-16 is bucket 5
+        int bucket = 64 - Long.numberOfLeadingZeros(dropped - 1) + 1;
+        return Math.min(bucket, BUCKET_COUNT - 1);
+    }
+
+    /**
+     * Print the metrics recorded so far.
+     */
+    public void dump(PrintWriter writer) {
+        long frames = 0;
+        for (long count : mFrameBuckets) {
+            frames += count;
+        }
+        long jankyFrames = frames - mFrameBuckets[0];
+
+        writer.println("Catalog scrolling:");
+        writer.println("  scroll time: " + TimeUnit.NANOSECONDS.toMillis(mScrollNanos) + " ms");
+        writer.println("  frames: " + frames + ", janky: " + jankyFrames
+                + (frames == 0 ? "" : " (" + (100 * jankyFrames / frames) + "%)")
+                + ", dropped: " + mDroppedFrames
+                + ", longest: " + TimeUnit.NANOSECONDS.toMillis(mMaxFrameNanos) + " ms");
+        StringBuilder buckets = new StringBuilder("  frames by dropped frames before them:");
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets.append(' ').append(BUCKET_LABELS[i]).append('=').append(mFrameBuckets[i]);
+        }
+        writer.println(buckets);
+        writer.println("  pages requested: " + mPagesRequested + ", prefetch misses: " + mPrefetchMisses);
+    }
+
+
+    /**
+     * Gets called back on every frame while the list is scrolling.
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private class FrameCallback implements Choreographer.FrameCallback {
+
+        private boolean mRunning;
+
+        void start() {
+            if (!mRunning) {
+                mRunning = true;
+                Choreographer.getInstance().postFrameCallback(this);
+            }
+        }
+
+        void stop() {
+            mRunning = false;
+            Choreographer.getInstance().removeFrameCallback(this);
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            if (!mRunning) {
+                return;
+            }
+            onFrame(frameTimeNanos);
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    }
+}
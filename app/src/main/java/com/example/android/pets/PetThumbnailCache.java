@@ -0,0 +1,367 @@
+package com.example.android.pets;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.drawable.BitmapDrawable;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Shows the photos of the pets as thumbnails, from a cache with two levels.
+ *
+ * The first level is an LRU cache of the decoded thumbnails in memory, sized in bytes. The second level is a
+ * directory of the app's cache on disk, with every thumbnail that was decoded so far as a small JPEG, so that a
+ * thumbnail that fell out of the memory cache (or was decoded by an earlier process) doesn't have to be decoded
+ * from the full photo again. Only if it isn't on disk either is the photo read from the provider, decoded with
+ * a sample size that skips most of its pixels, and scaled down to the thumbnail size.
+ *
+ * Both levels are keyed by {@link PetEntry#COLUMN_PET_PHOTO}, the name of the photo file, which changes whenever
+ * the photo does. So a new photo is simply a different key, and nothing ever has to be invalidated: the thumbnails
+ * of old photos just age out of both levels.
+ *
+ * Everything below the memory cache runs on a background thread. {@link #bind(ImageView, long, String)} is called
+ * for every row that the catalog binds, so on a memory hit it only looks up the drawable and sets it, without
+ * allocating anything.
+ *
+ * The methods must be called on the UI thread.
+ */
+public class PetThumbnailCache {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = PetThumbnailCache.class.getSimpleName();
+
+    /** Name of the directory of the thumbnails, in the app's cache directory */
+    private static final String DISK_CACHE_DIRECTORY_NAME = "pet_thumbnails";
+
+    /** Upper limit of the space taken up by the thumbnails on disk, in bytes */
+    private static final long DISK_CACHE_MAX_BYTES = 8 * 1024 * 1024;
+
+    /** JPEG quality of the thumbnails on disk */
+    private static final int DISK_CACHE_QUALITY = 85;
+
+    /** The single instance, see {@link #getInstance(Context)} */
+    private static PetThumbnailCache sInstance;
+
+    /** Decodes the thumbnails and reads and writes the disk cache, one at a time */
+    private final Executor mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            }, "PetThumbnailCache");
+        }
+    });
+
+    /** Handler for delivering the thumbnails back on the UI thread */
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    private final ContentResolver mResolver;
+
+    private final Resources mResources;
+
+    /** Width and height of the thumbnails, in pixels */
+    private final int mSize;
+
+    /** The thumbnails in memory, by the name of their photo file */
+    private final LruCache<String, BitmapDrawable> mMemoryCache;
+
+    /** The directory of the thumbnails on disk */
+    private final File mDiskCacheDirectory;
+
+    /**
+     * Space taken up by the thumbnails on disk, or -1 until it has been counted.
+     * Only used on the background thread.
+     */
+    private long mDiskCacheBytes = -1;
+
+    /**
+     * Returns the thumbnail cache of the app. The catalog and the editor share it, so the editor shows
+     * the thumbnail that the catalog already decoded.
+     */
+    public static synchronized PetThumbnailCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new PetThumbnailCache(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private PetThumbnailCache(Context context) {
+        mResolver = context.getContentResolver();
+        mResources = context.getResources();
+        mSize = mResources.getDimensionPixelSize(R.dimen.pet_thumbnail_size);
+        mDiskCacheDirectory = new File(context.getCacheDir(), DISK_CACHE_DIRECTORY_NAME);
+
+        // Give the thumbnails in memory 1/8 of the memory available to the app.
+        mMemoryCache = new LruCache<String, BitmapDrawable>((int) (Runtime.getRuntime().maxMemory() / 8)) {
+            @Override
+            protected int sizeOf(String photo, BitmapDrawable thumbnail) {
+                return thumbnail.getBitmap().getByteCount();
+            }
+        };
+    }
+
+    /**
+     * Show the thumbnail of the photo of a pet in the given view: right away if it is in memory,
+     * otherwise as soon as it has been loaded in the background.
+     *
+     * @param id    _ID of the pet
+     * @param photo {@link PetEntry#COLUMN_PET_PHOTO} of the pet, or null if it has no photo
+     */
+    public void bind(ImageView view, long id, String photo) {
+        if (photo == null) {
+            view.setTag(null);
+            view.setImageDrawable(null);
+            return;
+        }
+
+        // The view is rebound with the same photo whenever anything else about the pet changes
+        if (photo.equals(view.getTag()) && view.getDrawable() != null) {
+            return;
+        }
+        view.setTag(photo);
+
+        BitmapDrawable thumbnail = mMemoryCache.get(photo);
+        if (thumbnail != null) {
+            view.setImageDrawable(thumbnail);
+            return;
+        }
+        view.setImageDrawable(null);
+        load(view, photo, PetEntry.buildPhotoUri(id), true);
+    }
+
+    /**
+     * Show the thumbnail of a photo that isn't stored yet, like one the user just picked in the editor,
+     * in the given view. Such thumbnails are only kept in memory.
+     *
+     * @param source URI to read the photo from
+     */
+    public void bindPreview(ImageView view, Uri source) {
+        String key = source.toString();
+        view.setTag(key);
+
+        BitmapDrawable thumbnail = mMemoryCache.get(key);
+        if (thumbnail != null) {
+            view.setImageDrawable(thumbnail);
+            return;
+        }
+        view.setImageDrawable(null);
+        load(view, key, source, false);
+    }
+
+    /**
+     * Load the thumbnail with the given key in the background, and show it in the view if the view
+     * still wants it by then.
+     *
+     * @param source URI to decode the photo from, if the thumbnail isn't in the disk cache
+     * @param toDisk true to look for the thumbnail in the disk cache, and put it there after decoding it
+     */
+    private void load(final ImageView view, final String key, final Uri source, final boolean toDisk) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                // This is on the background thread.
+                Bitmap bitmap = toDisk ? readFromDisk(key) : null;
+                if (bitmap == null) {
+                    bitmap = decode(source);
+                    if (bitmap != null && toDisk) {
+                        writeToDisk(key, bitmap);
+                    }
+                }
+                if (bitmap == null) {
+                    return;
+                }
+
+                final BitmapDrawable thumbnail = new BitmapDrawable(mResources, bitmap);
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mMemoryCache.put(key, thumbnail);
+                        // The view may have been recycled for another pet in the meantime.
+                        if (key.equals(view.getTag())) {
+                            view.setImageDrawable(thumbnail);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Decode the photo at the given URI to a thumbnail, or return null if it can't be read.
+     * This is on the background thread.
+     *
+     * The photo is decoded with the largest power of two sample size that still leaves both sides at least as
+     * big as the thumbnail, so a 4000x3000 photo is decoded as 500x375 instead of 12 million pixels, and the
+     * result is then scaled down the rest of the way. Both sides of the thumbnail cover the thumbnail size,
+     * like the centerCrop of the views that show it.
+     */
+    private Bitmap decode(Uri source) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        decodeStream(source, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            // Not an image, or it couldn't be read
+            return null;
+        }
+
+        int sampleSize = 1;
+        while (options.outWidth / (sampleSize * 2) >= mSize && options.outHeight / (sampleSize * 2) >= mSize) {
+            sampleSize *= 2;
+        }
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        Bitmap sampled = decodeStream(source, options);
+        return sampled == null ? null : scale(sampled);
+    }
+
+    /**
+     * Decode the photo at the given URI with the given options.
+     *
+     * @return the decoded bitmap, or null if the photo couldn't be read (or the options only ask for the bounds)
+     */
+    private Bitmap decodeStream(Uri source, BitmapFactory.Options options) {
+        try {
+            InputStream in = mResolver.openInputStream(source);
+            if (in == null) {
+                return null;
+            }
+            try {
+                return BitmapFactory.decodeStream(in, null, options);
+            } finally {
+                in.close();
+            }
+        } catch (IOException | SecurityException e) {
+            Log.w(LOG_TAG, "Failed to read the photo " + source, e);
+            return null;
+        }
+    }
+
+    /**
+     * Scale the bitmap down so that its shorter side is the thumbnail size. Smaller bitmaps are left alone.
+     */
+    private Bitmap scale(Bitmap bitmap) {
+        int shorterSide = Math.min(bitmap.getWidth(), bitmap.getHeight());
+        if (shorterSide <= mSize) {
+            return bitmap;
+        }
+        int width = Math.max(1, bitmap.getWidth() * mSize / shorterSide);
+        int height = Math.max(1, bitmap.getHeight() * mSize / shorterSide);
+        Bitmap scaled = Bitmap.createScaledBitmap(bitmap, width, height, true);
+        if (scaled != bitmap) {
+            bitmap.recycle();
+        }
+        return scaled;
+    }
+
+    /**
+     * Returns the thumbnail with the given key from the disk cache, or null if it isn't there.
+     * This is on the background thread.
+     */
+    private Bitmap readFromDisk(String key) {
+        File file = new File(mDiskCacheDirectory, key);
+        Bitmap bitmap = BitmapFactory.decodeFile(file.getPath());
+        if (bitmap != null) {
+            // The disk cache is trimmed by the time of the last use
+            file.setLastModified(System.currentTimeMillis());
+        }
+        return bitmap;
+    }
+
+    /**
+     * Put the thumbnail with the given key in the disk cache, and trim the cache if it got too big.
+     * This is on the background thread.
+     */
+    private void writeToDisk(String key, Bitmap bitmap) {
+        if (!mDiskCacheDirectory.isDirectory() && !mDiskCacheDirectory.mkdirs()) {
+            Log.w(LOG_TAG, "Failed to create " + mDiskCacheDirectory);
+            return;
+        }
+        File file = new File(mDiskCacheDirectory, key);
+        try {
+            FileOutputStream out = new FileOutputStream(file);
+            try {
+                bitmap.compress(Bitmap.CompressFormat.JPEG, DISK_CACHE_QUALITY, out);
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Failed to write the thumbnail " + file, e);
+            file.delete();
+            return;
+        }
+
+        if (mDiskCacheBytes < 0) {
+            mDiskCacheBytes = 0;
+            File[] files = mDiskCacheDirectory.listFiles();
+            if (files != null) {
+                for (File cached : files) {
+                    mDiskCacheBytes += cached.length();
+                }
+            }
+        } else {
+            mDiskCacheBytes += file.length();
+        }
+        if (mDiskCacheBytes > DISK_CACHE_MAX_BYTES) {
+            trimDiskCache();
+        }
+    }
+
+    /**
+     * Delete the least recently used thumbnails from the disk cache, until it takes up 3/4 of its limit.
+     * This is on the background thread.
+     */
+    private void trimDiskCache() {
+        File[] files = mDiskCacheDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        final long[] lastUsed = new long[files.length];
+        Integer[] order = new Integer[files.length];
+        long bytes = 0;
+        for (int i = 0; i < files.length; i++) {
+            // Read the times once, the file system doesn't have to keep them still while we sort
+            lastUsed[i] = files[i].lastModified();
+            order[i] = i;
+            bytes += files[i].length();
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return lastUsed[a] < lastUsed[b] ? -1 : (lastUsed[a] == lastUsed[b] ? 0 : 1);
+            }
+        });
+
+        for (int i = 0; i < files.length && bytes > DISK_CACHE_MAX_BYTES * 3 / 4; i++) {
+            File file = files[order[i]];
+            long length = file.length();
+            if (file.delete()) {
+                bytes -= length;
+            }
+        }
+        mDiskCacheBytes = bytes;
+    }
+}
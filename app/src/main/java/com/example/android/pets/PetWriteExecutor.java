@@ -0,0 +1,291 @@
+package com.example.android.pets;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs the inserts, updates and deletes of the activities on a background thread, so that a slow disk
+ * never blocks the UI thread. The result of each write is delivered back on the UI thread.
+ *
+ * Writes run one at a time, in the order they were submitted, so the writes to a row always happen in order.
+ * If an update is submitted for a pet that already has an update waiting in the queue (and nothing else
+ * for that pet, or for the whole table, was submitted after it), the two are merged into one write:
+ * the later values win, and both callbacks get the result of the merged update.
+ */
+public class PetWriteExecutor {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = PetWriteExecutor.class.getSimpleName();
+
+    /**
+     * Interface for receiving the result of a write, on the UI thread.
+     */
+    public interface Callback {
+        /**
+         * @param uri for an insert, the URI of the new pet (null if the insert failed);
+         *            otherwise the URI the write was submitted for
+         * @param rowsAffected number of rows inserted, updated or deleted (0 if the write failed)
+         */
+        void onWriteFinished(Uri uri, int rowsAffected);
+    }
+
+    /** The kinds of writes */
+    private static final int INSERT = 0;
+    private static final int UPDATE = 1;
+    private static final int DELETE = 2;
+    private static final int PHOTO = 3;
+
+    /** Size of the buffer for copying a photo */
+    private static final int PHOTO_BUFFER_SIZE = 16 * 1024;
+
+    /** The single instance, see {@link #getInstance(Context)} */
+    private static PetWriteExecutor sInstance;
+
+    /** Runs the writes one after another */
+    private final Executor mExecutor = Executors.newSingleThreadExecutor();
+
+    /** Handler for delivering the results back on the UI thread */
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    private final ContentResolver mResolver;
+
+    /** The writes that were submitted but haven't started yet, in order. Guarded by itself. */
+    private final ArrayDeque<Write> mPending = new ArrayDeque<>();
+
+    /**
+     * Returns the write executor of the app. All of the activities share it, so that a write submitted
+     * by an activity that is finishing is still ordered before the writes of the next activity.
+     */
+    public static synchronized PetWriteExecutor getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new PetWriteExecutor(context.getApplicationContext().getContentResolver());
+        }
+        return sInstance;
+    }
+
+    private PetWriteExecutor(ContentResolver resolver) {
+        mResolver = resolver;
+    }
+
+    /**
+     * Insert a new pet with the given values at the given URI.
+     *
+     * @param callback to call with the result, or null
+     */
+    public void insert(Uri uri, ContentValues values, Callback callback) {
+        submit(new Write(INSERT, uri, new ContentValues(values), callback));
+    }
+
+    /**
+     * Update the pet (or pets) at the given URI with the given values.
+     *
+     * @param callback to call with the result, or null
+     */
+    public void update(Uri uri, ContentValues values, Callback callback) {
+        submit(new Write(UPDATE, uri, new ContentValues(values), callback));
+    }
+
+    /**
+     * Delete the pet (or pets) at the given URI.
+     *
+     * @param callback to call with the result, or null
+     */
+    public void delete(Uri uri, Callback callback) {
+        submit(new Write(DELETE, uri, null, callback));
+    }
+
+    /**
+     * Give the pet at the given URI the photo at the source URI (for example an image the user picked in
+     * another app). The photo is copied into the provider through {@link PetEntry#buildPhotoUri(long)}.
+     *
+     * The provider takes the photo in after it has been copied, so the change of the pet is notified shortly
+     * after the callback, not before it.
+     *
+     * @param callback to call with the result (1 row affected if the photo was copied), or null
+     */
+    public void setPhoto(Uri petUri, Uri source, Callback callback) {
+        Write write = new Write(PHOTO, PetEntry.buildPhotoUri(ContentUris.parseId(petUri)), null, callback);
+        write.source = source;
+        submit(write);
+    }
+
+    /**
+     * Queue the write, or merge it into an update that is still waiting for the same pet.
+     */
+    private void submit(Write write) {
+        synchronized (mPending) {
+            if (write.kind == UPDATE && isSinglePet(write.uri)) {
+                Write pending = findPendingWrite(write.uri);
+                if (pending != null && pending.kind == UPDATE) {
+                    pending.values.putAll(write.values);
+                    pending.callbacks.addAll(write.callbacks);
+                    return;
+                }
+            }
+            mPending.addLast(write);
+        }
+        mExecutor.execute(mRunNextWrite);
+    }
+
+    /**
+     * Returns the last waiting write for the given pet, or null if there is none, or if a write to
+     * the whole table was submitted after it (merging with it would move the update across that write).
+     * Must hold the lock on {@link #mPending}.
+     */
+    private Write findPendingWrite(Uri petUri) {
+        Iterator<Write> writes = mPending.descendingIterator();
+        while (writes.hasNext()) {
+            Write pending = writes.next();
+            if (pending.uri.equals(petUri)) {
+                return pending;
+            }
+            if (!isSinglePet(pending.uri)) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns true if the URI is the URI of a single pet (content://com.example.android.pets/pets/#).
+     */
+    private static boolean isSinglePet(Uri uri) {
+        List<String> segments = uri.getPathSegments();
+        return segments.size() == 2
+                && PetEntry.CONTENT_URI.getPathSegments().get(0).equals(segments.get(0))
+                && TextUtils.isDigitsOnly(segments.get(1));
+    }
+
+    /**
+     * Takes the next waiting write off the queue and runs it. It is executed once for every queued write.
+     * This is on the background thread.
+     */
+    private final Runnable mRunNextWrite = new Runnable() {
+        @Override
+        public void run() {
+            final Write write;
+            synchronized (mPending) {
+                write = mPending.pollFirst();
+            }
+            if (write == null) {
+                return;
+            }
+
+            Uri resultUri = write.uri;
+            int rowsAffected = 0;
+            try {
+                switch (write.kind) {
+                    case INSERT:
+                        resultUri = mResolver.insert(write.uri, write.values);
+                        rowsAffected = resultUri == null ? 0 : 1;
+                        break;
+                    case UPDATE:
+                        rowsAffected = mResolver.update(write.uri, write.values, null, null);
+                        break;
+                    case DELETE:
+                        rowsAffected = mResolver.delete(write.uri, null, null);
+                        break;
+                    case PHOTO:
+                        rowsAffected = copyPhoto(write.source, write.uri) ? 1 : 0;
+                        break;
+                }
+            } catch (RuntimeException e) {
+                // The provider rejected the values (IllegalArgumentException) or the database failed (SQLException,
+                // SQLiteFullException, ...). Report it like any other failed write, and carry on with the next one.
+                Log.e(LOG_TAG, "Failed to write " + write.uri, e);
+                resultUri = write.kind == INSERT ? null : write.uri;
+                rowsAffected = 0;
+            }
+
+            final Uri finalUri = resultUri;
+            final int finalRowsAffected = rowsAffected;
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    for (Callback callback : write.callbacks) {
+                        callback.onWriteFinished(finalUri, finalRowsAffected);
+                    }
+                }
+            });
+        }
+    };
+
+
+    /**
+     * Copy the photo at the source URI to the photo URI of a pet. This is on the background thread.
+     *
+     * @return true if the whole photo was copied
+     */
+    private boolean copyPhoto(Uri source, Uri photoUri) {
+        try {
+            InputStream in = mResolver.openInputStream(source);
+            if (in == null) {
+                return false;
+            }
+            try {
+                OutputStream out = mResolver.openOutputStream(photoUri);
+                if (out == null) {
+                    return false;
+                }
+                try {
+                    byte[] buffer = new byte[PHOTO_BUFFER_SIZE];
+                    int count;
+                    while ((count = in.read(buffer)) != -1) {
+                        out.write(buffer, 0, count);
+                    }
+                } finally {
+                    // Closing the stream is what makes the provider take the photo in
+                    out.close();
+                }
+            } finally {
+                in.close();
+            }
+            return true;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Failed to copy the photo " + source + " to " + photoUri, e);
+            return false;
+        }
+    }
+
+
+    /**
+     * One submitted write. Merged updates share one Write, with the callbacks of all of them.
+     */
+    private static class Write {
+        final int kind;
+        final Uri uri;
+        final ContentValues values;
+        final List<Callback> callbacks = new ArrayList<>(1);
+
+        /** For a photo, the URI to copy the photo from */
+        Uri source;
+
+        Write(int kind, Uri uri, ContentValues values, Callback callback) {
+            this.kind = kind;
+            this.uri = uri;
+            this.values = values;
+            if (callback != null) {
+                callbacks.add(callback);
+            }
+        }
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Process;
+import android.util.Log;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cleans up after the deletes of {@link PetProvider} on a background thread: it purges the pets that were
+ * soft-deleted, and then gives the pages that the deleted rows took up in the database file back to the
+ * file system with "PRAGMA incremental_vacuum", so that shelter.db shrinks again.
+ *
+ * A run is scheduled a few seconds after the delete that asked for it, so a burst of deletes is compacted
+ * by a single run. The purge deletes the tombstones a batch at a time, each batch in its own short
+ * transaction, so the writes of the app never wait long for it.
+ *
+ * Last, the photo files that no pet refers to anymore (see {@link PetPhotoStore#sweep(SQLiteDatabase)}) are deleted.
+ *
+ * Incremental vacuum only works if the database was created with "auto_vacuum = INCREMENTAL"
+ * (see {@link PetDbHelper#onConfigure(SQLiteDatabase)}). A database that was created before that is converted
+ * by a full VACUUM the first time there are free pages to give back.
+ */
+class PetCompactor {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = PetCompactor.class.getSimpleName();
+
+    /** How long to wait after a delete before compacting, so that the following deletes are compacted too */
+    private static final long DELAY_MILLIS = 5000;
+
+    /** Number of soft-deleted pets purged in each transaction */
+    private static final int PURGE_BATCH_SIZE = 500;
+
+    /** Number of free pages given back to the file system by each incremental vacuum step */
+    private static final int VACUUM_BATCH_PAGES = 256;
+
+    /** Value of "PRAGMA auto_vacuum" for incremental vacuum */
+    private static final String AUTO_VACUUM_INCREMENTAL = "2";
+
+    private final SQLiteOpenHelper mDbHelper;
+
+    /** The photos of the pets, swept after the purge */
+    private final PetPhotoStore mPhotoStore;
+
+    /** Runs the compactions, on a single background thread */
+    private final ScheduledExecutorService mExecutor = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    return new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            runnable.run();
+                        }
+                    }, "PetCompactor");
+                }
+            });
+
+    /** True while a run is scheduled but hasn't started yet. Guarded by this. */
+    private boolean mScheduled;
+
+    /**
+     * Constructs a new {@link PetCompactor}.
+     *
+     * @param dbHelper of the database to compact
+     * @param photoStore of the photos of the pets in the database
+     */
+    PetCompactor(SQLiteOpenHelper dbHelper, PetPhotoStore photoStore) {
+        mDbHelper = dbHelper;
+        mPhotoStore = photoStore;
+    }
+
+    /**
+     * Compact the database a few seconds from now, unless a run is already scheduled.
+     */
+    synchronized void schedule() {
+        if (mScheduled || mExecutor.isShutdown()) {
+            return;
+        }
+        mScheduled = true;
+        mExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (PetCompactor.this) {
+                    mScheduled = false;
+                }
+                try {
+                    compact();
+                } catch (RuntimeException e) {
+                    // The tombstones are still there, so the next run will try again.
+                    Log.e(LOG_TAG, "Failed to compact the database", e);
+                }
+            }
+        }, DELAY_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop compacting, because the database is about to be closed. A run that already started is interrupted
+     * between two batches at the latest.
+     */
+    synchronized void shutdown() {
+        mExecutor.shutdownNow();
+    }
+
+    /**
+     * Purge the soft-deleted pets, then give the free pages back to the file system and delete the photos
+     * of the pets that are gone.
+     */
+    private void compact() {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        long startNanos = System.nanoTime();
+        int petsPurged = purgeDeletedPets(database);
+        long pagesFreed = vacuum(database);
+        int photosDeleted = mPhotoStore.sweep(database);
+        Log.i(LOG_TAG, "Purged " + petsPurged + " deleted pets, freed " + pagesFreed + " pages and deleted "
+                + photosDeleted + " photos in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos)
+                + " ms");
+    }
+
+    /**
+     * Delete the soft-deleted pets for good, a batch at a time in _ID order. The triggers of the pets table
+     * remove their search entries; the statistics already left them out when they were soft-deleted.
+     * Package-private so that the tests can purge without waiting for a scheduled run.
+     *
+     * @return the number of pets purged
+     */
+    int purgeDeletedPets(SQLiteDatabase database) {
+        String tombstones = PetEntry.COLUMN_PET_DELETED + " != 0 AND " + PetEntry._ID + " > ?";
+        String batchEndQuery = "SELECT IFNULL(MAX(" + PetEntry._ID + "), 0) FROM (SELECT " + PetEntry._ID
+                + " FROM " + PetEntry.TABLE_NAME + " WHERE " + tombstones
+                + " ORDER BY " + PetEntry._ID + " LIMIT " + PURGE_BATCH_SIZE + ")";
+
+        int petsPurged = 0;
+        long afterId = 0;
+        while (!Thread.currentThread().isInterrupted()) {
+            database.beginTransaction();
+            try {
+                // Find the _ID of the last tombstone of this batch, so that the batch is a range of the primary key
+                // and the next one starts where this one ended instead of scanning from the start again.
+                String[] args = { String.valueOf(afterId) };
+                long batchEnd = DatabaseUtils.longForQuery(database, batchEndQuery, args);
+                if (batchEnd == 0) {
+                    database.setTransactionSuccessful();
+                    break;
+                }
+                petsPurged += database.delete(PetEntry.TABLE_NAME, tombstones + " AND " + PetEntry._ID + " <= ?",
+                        new String[] { String.valueOf(afterId), String.valueOf(batchEnd) });
+                afterId = batchEnd;
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+            }
+        }
+        return petsPurged;
+    }
+
+    /**
+     * Give the free pages of the database file back to the file system, a few at a time.
+     *
+     * @return the number of pages freed
+     */
+    private long vacuum(SQLiteDatabase database) {
+        long freePages = freelistCount(database);
+        if (freePages == 0) {
+            return 0;
+        }
+
+        if (!AUTO_VACUUM_INCREMENTAL.equals(PetDbHelper.queryPragma(database, "PRAGMA auto_vacuum"))) {
+            // The database was created before incremental vacuum was turned on. Changing the mode only takes effect
+            // after a full VACUUM, which rewrites the whole file once; from then on the steps below are enough.
+            database.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+            database.execSQL("VACUUM");
+            return freePages;
+        }
+
+        long pagesFreed = 0;
+        while (freePages > 0 && !Thread.currentThread().isInterrupted()) {
+            // Each step is its own short write transaction. The pragma frees its pages as the statement is stepped,
+            // so read through the whole cursor rather than just running it.
+            Cursor cursor = database.rawQuery("PRAGMA incremental_vacuum(" + VACUUM_BATCH_PAGES + ")", null);
+            try {
+                while (cursor.moveToNext()) {
+                    // Nothing to read, stepping is what does the work
+                }
+            } finally {
+                cursor.close();
+            }
+            long remaining = freelistCount(database);
+            if (remaining >= freePages) {
+                break;
+            }
+            pagesFreed += freePages - remaining;
+            freePages = remaining;
+        }
+        return pagesFreed;
+    }
+
+    /**
+     * Returns the number of unused pages in the database file.
+     */
+    private static long freelistCount(SQLiteDatabase database) {
+        return Long.parseLong(PetDbHelper.queryPragma(database, "PRAGMA freelist_count"));
+    }
+}
@@ -16,6 +16,7 @@
 package com.example.android.pets.data;
 
 import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.net.Uri;
 import android.provider.BaseColumns;
 
@@ -55,6 +56,154 @@ public final class PetContract {
      */
     public static final String PATH_PETS = "pets";
 
+    /**
+     * Path (appended to the pets content URI) for full-text search over the name and breed of the pets.
+     * For instance, content://com.example.android.pets/pets/search/terr returns the pets whose name or
+     * breed has a word starting with "terr".
+     */
+    public static final String PATH_SEARCH = "search";
+
+    /**
+     * Path (appended to the pets content URI) for the statistics of the shelter, see {@link PetStatsEntry}.
+     */
+    public static final String PATH_STATS = "stats";
+
+    /**
+     * Path (appended to the pets content URI) for exporting all of the pets as a file.
+     * The last path segment is the format: content://com.example.android.pets/pets/export/csv
+     * or content://com.example.android.pets/pets/export/json. Open it with
+     * {@link ContentResolver#openInputStream(Uri)}; the file is written while it is being read.
+     */
+    public static final String PATH_EXPORT = "export";
+
+    /**
+     * Path (appended to the URI of a single pet) for the photo of the pet, see {@link PetEntry#buildPhotoUri(long)}.
+     */
+    public static final String PATH_PHOTO = "photo";
+
+    /** Formats of the export, with their MIME types */
+    public static final String EXPORT_FORMAT_CSV = "csv";
+    public static final String EXPORT_FORMAT_JSON = "json";
+    public static final String MIME_TYPE_CSV = "text/csv";
+    public static final String MIME_TYPE_JSON = "application/json";
+
+    /**
+     * Path (appended to base content URI) for the progress of the imports of pets, see {@link PetImportEntry}.
+     * It is not under the pets path, so that saving the progress doesn't look like a change to the pets.
+     */
+    public static final String PATH_IMPORTS = "imports";
+
+    /**
+     * Path (appended to the pets content URI) for the call counters and latencies of the provider,
+     * see {@link PetMetricsEntry}. It starts with an underscore so it can't be mistaken for data.
+     */
+    public static final String PATH_METRICS = "_metrics";
+
+    /**
+     * Possible path (appended to base content URI for possible URI's)
+     * For instance, content://com.example.android.pets/shelters/ is a valid path for the shelters.
+     */
+    public static final String PATH_SHELTERS = "shelters";
+
+    /**
+     * Path (appended to the pets URI) for the pets near a location, see {@link PetEntry#buildNearbyUri}.
+     */
+    public static final String PATH_NEARBY = "nearby";
+
+    /**
+     * Path (appended to base content URI) for syncing the pets with the sync server, see {@link PetSyncEntry}.
+     * Like the imports, it is not under the pets path, so that saving the sync state doesn't look like a change
+     * to the pets.
+     */
+    public static final String PATH_SYNC = "sync";
+
+    /**
+     * Query parameters for reading the pets table one page at a time (keyset pagination).
+     * For example, content://com.example.android.pets/pets?after_id=120&limit=50 returns at most 50 pets
+     * whose _ID is greater than 120, ordered by _ID. Unlike OFFSET, the database can jump straight to
+     * the first row of the page through the primary key, so every page costs the same no matter how deep it is.
+     */
+    public static final String QUERY_PARAMETER_AFTER_ID = "after_id";
+    public static final String QUERY_PARAMETER_LIMIT = "limit";
+
+    /**
+     * Query parameter for the pages of pets that are sorted by another column than _ID.
+     * A page query may pass {@link PetEntry#COLUMN_PET_NAME}, {@link PetEntry#COLUMN_PET_BREED} or
+     * {@link PetEntry#COLUMN_PET_WEIGHT} as its sort order (always ascending, with _ID breaking the ties).
+     * The next page then starts after the pet with the given "after_key" value of that column and the given
+     * "after_id", so both come from the last pet of the previous page; leave "after_key" out when that value
+     * is null, or for the first page. Each sort order is backed by its own covering index, so the pages are
+     * read straight off the index, already in order.
+     */
+    public static final String QUERY_PARAMETER_AFTER_KEY = "after_key";
+
+    /**
+     * Query parameter on the row URIs that the provider notifies when a single pet changes.
+     * For example, content://com.example.android.pets/pets/7?change=update is notified when pet 7 was updated.
+     * Observers of the pets URI that register for descendants receive this URI in onChange(boolean, Uri),
+     * so they can patch that one row instead of querying the whole table again.
+     * Changes to many rows at once are notified on the pets URI itself, without this parameter.
+     */
+    public static final String QUERY_PARAMETER_CHANGE = "change";
+
+    /** Possible values of {@link #QUERY_PARAMETER_CHANGE} */
+    public static final String CHANGE_INSERT = "insert";
+    public static final String CHANGE_UPDATE = "update";
+    public static final String CHANGE_DELETE = "delete";
+
+    /**
+     * Query parameter on the pets URI and the row URIs that asks delete() to soft-delete the pets, for example
+     * content://com.example.android.pets/pets/7?soft=true. A soft-deleted pet is only marked as deleted
+     * (it disappears from every query and from the statistics right away), and is purged together with its
+     * search entry later by a background compaction. Without the parameter, pets are deleted right away.
+     */
+    public static final String QUERY_PARAMETER_SOFT_DELETE = "soft";
+
+    /**
+     * Query parameters of the nearby pets URI, see {@link PetEntry#buildNearbyUri(double, double, double, int, int)}.
+     * The location is in decimal degrees and the radius in kilometers. The gender is one of the GENDER_* values of
+     * {@link PetEntry}, or left out for pets of any gender. The nearby pets URI also takes
+     * {@link #QUERY_PARAMETER_LIMIT}.
+     */
+    public static final String QUERY_PARAMETER_LATITUDE = "lat";
+    public static final String QUERY_PARAMETER_LONGITUDE = "lon";
+    public static final String QUERY_PARAMETER_RADIUS_KM = "radius_km";
+    public static final String QUERY_PARAMETER_GENDER = "gender";
+
+    /**
+     * Name of the provider method that returns the statistics of the provider's cache of single pets,
+     * for use with {@link ContentResolver#call(Uri, String, String, android.os.Bundle)} on {@link #BASE_CONTENT_URI}.
+     * The returned Bundle holds the values under the KEY_CACHE_* keys below.
+     */
+    public static final String METHOD_GET_CACHE_STATS = "get_cache_stats";
+
+    /** Keys of the Bundle returned by {@link #METHOD_GET_CACHE_STATS} (all values are longs) */
+    public static final String KEY_CACHE_HITS = "cache_hits";
+    public static final String KEY_CACHE_MISSES = "cache_misses";
+    public static final String KEY_CACHE_ROWS = "cache_rows";
+    public static final String KEY_CACHE_SIZE_BYTES = "cache_size_bytes";
+    public static final String KEY_CACHE_MAX_SIZE_BYTES = "cache_max_size_bytes";
+
+    /**
+     * Name of the provider method that returns the slow query log: the last queries that took longer than
+     * the threshold, with their SQL, redacted arguments, row count, duration and query plan.
+     * The returned Bundle holds the entries (oldest first) under {@link #KEY_SLOW_QUERIES} as an ArrayList of
+     * Strings, and the threshold under {@link #KEY_SLOW_QUERY_THRESHOLD_MILLIS}.
+     * The same log is printed by "adb shell dumpsys activity provider com.example.android.pets".
+     */
+    public static final String METHOD_GET_SLOW_QUERIES = "get_slow_queries";
+
+    /**
+     * Name of the provider method that sets the threshold of the slow query log.
+     * The arg is the new threshold in milliseconds; 0 records every query. A missing, non-numeric or negative
+     * arg throws an IllegalArgumentException.
+     */
+    public static final String METHOD_SET_SLOW_QUERY_THRESHOLD = "set_slow_query_threshold";
+
+    /** Keys of the Bundle returned by {@link #METHOD_GET_SLOW_QUERIES} */
+    public static final String KEY_SLOW_QUERIES = "slow_queries";
+    public static final String KEY_SLOW_QUERY_THRESHOLD_MILLIS = "slow_query_threshold_millis";
+
 
     /**
      * Inner class that defines constant values for the pets database table.
@@ -69,6 +218,123 @@ public final class PetContract {
         public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_PETS);
 
 
+        /**
+         * Build a URI for one page of pets: at most {@code limit} pets whose _ID is greater than {@code afterId}.
+         * Use 0 as {@code afterId} for the first page, and the _ID of the last pet of a page for the next one.
+         */
+        public static Uri buildPageUri(Uri baseUri, long afterId, int limit) {
+            return baseUri.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_AFTER_ID, String.valueOf(afterId))
+                    .appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(limit))
+                    .build();
+        }
+
+
+        /**
+         * Build a URI for one page of pets in the order of a sort column: at most {@code limit} pets that come
+         * after the pet with the value {@code afterKey} of the sort column and the _ID {@code afterId}.
+         * Pass the sort column as the sort order of the query, see {@link #QUERY_PARAMETER_AFTER_KEY}.
+         * Use null and 0 for the first page.
+         */
+        public static Uri buildPageUri(Uri baseUri, String afterKey, long afterId, int limit) {
+            Uri pageUri = buildPageUri(baseUri, afterId, limit);
+            if (afterKey == null) {
+                return pageUri;
+            }
+            return pageUri.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_AFTER_KEY, afterKey)
+                    .build();
+        }
+
+
+        /**
+         * Build the URI that is notified when the pet with the given _ID was inserted, updated or deleted.
+         *
+         * @param change one of {@link #CHANGE_INSERT}, {@link #CHANGE_UPDATE} or {@link #CHANGE_DELETE}
+         */
+        public static Uri buildChangeUri(long id, String change) {
+            return ContentUris.withAppendedId(CONTENT_URI, id).buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_CHANGE, change)
+                    .build();
+        }
+
+
+        /**
+         * Build the URI that soft-deletes the pets of the given pets URI or row URI when passed to delete(),
+         * see {@link #QUERY_PARAMETER_SOFT_DELETE}.
+         */
+        public static Uri buildSoftDeleteUri(Uri uri) {
+            return uri.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_SOFT_DELETE, "true")
+                    .build();
+        }
+
+
+        /**
+         * Build a URI that searches the name and breed of the pets for the words typed in by the user.
+         */
+        public static Uri buildSearchUri(String query) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(PATH_SEARCH)
+                    .appendPath(query)
+                    .build();
+        }
+
+
+        /**
+         * Build the URI of the pets of the given gender at the shelters within the given radius of a location,
+         * nearest shelter first (and in _ID order within a shelter). At most {@code limit} pets are returned.
+         *
+         * Besides the columns of the pets table, the projection may ask for {@link #COLUMN_DISTANCE_KM},
+         * the distance from the location to the shelter of the pet. Pets that aren't at any shelter are never
+         * returned. A selection is applied on top, to the columns of the pets table.
+         *
+         * @param gender one of {@link #GENDER_UNKNOWN}, {@link #GENDER_MALE} or {@link #GENDER_FEMALE},
+         *               or {@link #ANY_GENDER} for pets of any gender
+         */
+        public static Uri buildNearbyUri(double latitude, double longitude, double radiusKm, int gender, int limit) {
+            Uri.Builder builder = CONTENT_URI.buildUpon()
+                    .appendPath(PATH_NEARBY)
+                    .appendQueryParameter(QUERY_PARAMETER_LATITUDE, String.valueOf(latitude))
+                    .appendQueryParameter(QUERY_PARAMETER_LONGITUDE, String.valueOf(longitude))
+                    .appendQueryParameter(QUERY_PARAMETER_RADIUS_KM, String.valueOf(radiusKm))
+                    .appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(limit));
+            if (gender != ANY_GENDER) {
+                builder.appendQueryParameter(QUERY_PARAMETER_GENDER, String.valueOf(gender));
+            }
+            return builder.build();
+        }
+
+
+        /**
+         * Build the URI of the photo of the pet with the given _ID.
+         *
+         * Open it for reading with {@link ContentResolver#openInputStream(Uri)} to read the photo, which fails with a
+         * FileNotFoundException if the pet has no photo. Open it for writing with
+         * {@link ContentResolver#openOutputStream(Uri)} to give the pet a new photo: the provider stores the bytes in
+         * a file of its own, and only once the stream has been closed and the bytes turned out to be an image does
+         * it replace the old photo and notify the change of the pet.
+         */
+        public static Uri buildPhotoUri(long id) {
+            return ContentUris.withAppendedId(CONTENT_URI, id).buildUpon()
+                    .appendPath(PATH_PHOTO)
+                    .build();
+        }
+
+
+        /**
+         * Build the URI that exports all of the pets in the given format.
+         *
+         * @param format {@link #EXPORT_FORMAT_CSV} or {@link #EXPORT_FORMAT_JSON}
+         */
+        public static Uri buildExportUri(String format) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(PATH_EXPORT)
+                    .appendPath(format)
+                    .build();
+        }
+
+
         /**
          * The MIME type of the {@link #CONTENT_URI} for a list of pets.
          */
@@ -93,6 +359,12 @@ public final class PetContract {
         /** Name of database table for pets */
         public final static String TABLE_NAME = "pets";
 
+        /**
+         * Name of the full-text search (FTS4) table that indexes the name and breed of every pet.
+         * Each row has the same docid as the _ID of its pet, and it is kept in sync by triggers on the pets table.
+         */
+        public final static String SEARCH_TABLE_NAME = "pets_fts";
+
         /**
          * Unique ID number for the pet (only for use in the database table).
          *
@@ -131,6 +403,40 @@ public final class PetContract {
          */
         public final static String COLUMN_PET_WEIGHT = "weight";
 
+        /**
+         * 1 if the pet was soft-deleted and is waiting to be purged, 0 otherwise.
+         * Only the provider writes it, and queries never return soft-deleted pets, so it is always 0 in their rows.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_PET_DELETED = "deleted";
+
+        /**
+         * Name of the file that holds the photo of the pet, or null if it has no photo.
+         * The photo itself is never stored in the table; read it through {@link #buildPhotoUri(long)}.
+         * Only the provider writes this column, and the name changes every time the photo does,
+         * so it also works as the key of a cached copy of the photo.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_PET_PHOTO = "photo";
+
+        /**
+         * _ID of the shelter the pet is at (see {@link ShelterEntry}), or null if it isn't at any shelter.
+         * When a shelter is deleted, its pets are left without a shelter.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_PET_SHELTER = "shelter_id";
+
+        /**
+         * Distance from the location of a nearby pets query to the shelter of the pet, in kilometers.
+         * Only in the results of {@link #buildNearbyUri}, it isn't a column of the table.
+         *
+         * Type: REAL
+         */
+        public final static String COLUMN_DISTANCE_KM = "distance_km";
+
         /**
          * Possible values for the gender of the pet.
          */
@@ -154,7 +460,417 @@ public final class PetContract {
             }
             return false;
         }
+
+        /** Gender of {@link #buildNearbyUri} for pets of any gender. It is never stored. */
+        public static final int ANY_GENDER = -1;
     }
 
-}
 
+    /**
+     * Inner class that defines constant values for the shelters database table.
+     * Each entry in the table represents one of the sites of the shelter, with its location.
+     *
+     * The locations are also indexed by an R*Tree (see {@link #RTREE_TABLE_NAME}), which the nearby pets URI
+     * searches for the shelters around a location. It is kept in sync with the table by triggers.
+     */
+    public static final class ShelterEntry implements BaseColumns {
+
+        // This class only holds constants, so it can't be instantiated.
+        private ShelterEntry() {}
+
+        /** The content URI for all of the shelters */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_SHELTERS);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of shelters.
+         */
+        public static final String CONTENT_MIME_DIRECTORY_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SHELTERS;
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a single shelter.
+         */
+        public static final String CONTENT_MIME_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SHELTERS;
+
+        /** Name of database table for shelters */
+        public final static String TABLE_NAME = "shelters";
+
+        /**
+         * Name of the spatial index of the shelters: an R*Tree of their locations, keyed by their _ID,
+         * with the columns id, min_lat, max_lat, min_lon, max_lon. Each shelter is a point, so the minimum
+         * and the maximum are the same. Only the provider reads and writes it.
+         */
+        public final static String RTREE_TABLE_NAME = "shelters_rtree";
+
+        /**
+         * Name of the shelter.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_SHELTER_NAME = "name";
+
+        /**
+         * Latitude of the shelter, in decimal degrees from -90 to 90.
+         *
+         * Type: REAL
+         */
+        public final static String COLUMN_SHELTER_LATITUDE = "latitude";
+
+        /**
+         * Longitude of the shelter, in decimal degrees from -180 to 180.
+         *
+         * Type: REAL
+         */
+        public final static String COLUMN_SHELTER_LONGITUDE = "longitude";
+
+        /**
+         * Returns whether or not the given coordinates are a valid location.
+         */
+        public static boolean isValidLocation(double latitude, double longitude) {
+            return latitude >= -90 && latitude <= 90 && longitude >= -180 && longitude <= 180;
+        }
+    }
+
+
+    /**
+     * Inner class that defines constant values for the statistics of the shelter:
+     * the number of pets and their average weight, in total, per gender and per breed.
+     *
+     * The statistics are kept up to date by triggers on the pets table, in two small summary tables.
+     * Reading them never depends on the number of pets, only on the number of genders and breeds.
+     * Each row of the {@link #CONTENT_URI} has a {@link #COLUMN_KIND} that tells what the row counts.
+     */
+    public static final class PetStatsEntry {
+
+        // This class only holds constants, so it can't be instantiated.
+        private PetStatsEntry() {}
+
+        /** The content URI for the statistics */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(PetEntry.CONTENT_URI, PATH_STATS);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for the statistics.
+         */
+        public static final String CONTENT_MIME_DIRECTORY_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_PETS + "/" + PATH_STATS;
+
+        /** Name of the summary table with the number of pets and their total weight per gender */
+        public final static String GENDER_TABLE_NAME = "pet_gender_stats";
+
+        /** Name of the summary table with the number of pets and their total weight per breed */
+        public final static String BREED_TABLE_NAME = "pet_breed_stats";
+
+        /**
+         * What the row counts: {@link #KIND_TOTAL}, {@link #KIND_GENDER} or {@link #KIND_BREED}.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_KIND = "kind";
+
+        /**
+         * The gender (one of the PetEntry.GENDER_* values) for {@link #KIND_GENDER} rows,
+         * the breed for {@link #KIND_BREED} rows (an empty string for pets without a breed),
+         * and null for the {@link #KIND_TOTAL} row.
+         */
+        public final static String COLUMN_KEY = "key";
+
+        /**
+         * Number of pets.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_PET_COUNT = "pet_count";
+
+        /**
+         * Total weight of the pets. Used for the average weight.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_WEIGHT_SUM = "weight_sum";
+
+        /**
+         * Average weight of the pets, or null if there are none.
+         *
+         * Type: REAL
+         */
+        public final static String COLUMN_AVERAGE_WEIGHT = "average_weight";
+
+        /**
+         * Possible values for the kind of a statistics row.
+         */
+        public static final String KIND_TOTAL = "total";
+        public static final String KIND_GENDER = "gender";
+        public static final String KIND_BREED = "breed";
+    }
+
+
+    /**
+     * Inner class that defines constant values for the progress of the imports of pets from a file.
+     * Each row is one import source (for example the URI of the file), with the number of records read so far.
+     *
+     * The importer saves its progress in the same transaction as each chunk of pets it inserts,
+     * so after a crash the saved progress always matches the pets that were really committed,
+     * and the import can pick up right after the last committed chunk.
+     */
+    public static final class PetImportEntry implements BaseColumns {
+
+        // This class only holds constants, so it can't be instantiated.
+        private PetImportEntry() {}
+
+        /** The content URI for all of the imports */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_IMPORTS);
+
+        /**
+         * Build the URI of the progress of the import from the given source.
+         * Inserting values at this URI replaces the saved progress.
+         */
+        public static Uri buildImportUri(String source) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(source)
+                    .build();
+        }
+
+        /**
+         * The MIME type of the progress of a single import.
+         */
+        public static final String CONTENT_MIME_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_IMPORTS;
+
+        /** Name of database table for the progress of the imports */
+        public final static String TABLE_NAME = "pet_imports";
+
+        /**
+         * Where the pets are imported from, usually the URI of the file. Unique.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_SOURCE = "source";
+
+        /**
+         * Number of records (not counting the header) that have been read and committed, imported or rejected.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_RECORDS_READ = "records_read";
+
+        /**
+         * Number of pets that have been imported.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_PETS_IMPORTED = "pets_imported";
+
+        /**
+         * Number of records that were skipped because they weren't a valid pet.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_RECORDS_REJECTED = "records_rejected";
+
+        /**
+         * 1 once the whole source has been imported, 0 otherwise.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_FINISHED = "finished";
+    }
+
+
+    /**
+     * Inner class that defines constant values for the metrics of the provider: for each operation
+     * (query, insert, bulk_insert, update, delete) and each URI pattern that was called since the provider started,
+     * one row with the number of calls, errors and rows written, and a histogram of the latencies.
+     * Support tooling can read them with a query of the {@link #CONTENT_URI}, without a profiler.
+     */
+    public static final class PetMetricsEntry {
+
+        // This class only holds constants, so it can't be instantiated.
+        private PetMetricsEntry() {}
+
+        /** The content URI for the metrics */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(PetEntry.CONTENT_URI, PATH_METRICS);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for the metrics.
+         */
+        public static final String CONTENT_MIME_DIRECTORY_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_PETS + "/" + PATH_METRICS;
+
+        /** The operation: "query", "insert", "bulk_insert", "update" or "delete" (TEXT) */
+        public final static String COLUMN_OPERATION = "operation";
+
+        /** The URI pattern that was called, like "pets/#", or "unknown" for URIs that didn't match (TEXT) */
+        public final static String COLUMN_URI_PATTERN = "uri_pattern";
+
+        /** Number of calls (INTEGER) */
+        public final static String COLUMN_CALLS = "calls";
+
+        /** Number of calls that threw or failed (INTEGER) */
+        public final static String COLUMN_ERRORS = "errors";
+
+        /** Number of rows returned, inserted, updated or deleted (INTEGER) */
+        public final static String COLUMN_ROWS = "rows";
+
+        /** Total and maximum time spent in the calls, in microseconds (INTEGER) */
+        public final static String COLUMN_TOTAL_MICROS = "total_micros";
+        public final static String COLUMN_MAX_MICROS = "max_micros";
+
+        /**
+         * Percentiles of the time spent in the calls, in microseconds (INTEGER).
+         * These are the upper bounds of the histogram buckets the percentiles fall in, so they are rounded up
+         * to a power of two.
+         */
+        public final static String COLUMN_P50_MICROS = "p50_micros";
+        public final static String COLUMN_P90_MICROS = "p90_micros";
+        public final static String COLUMN_P99_MICROS = "p99_micros";
+
+        /**
+         * The non-empty buckets of the latency histogram, as "upper bound in µs:count" pairs separated by commas,
+         * for example "64:120,128:14,1024:1" (TEXT).
+         */
+        public final static String COLUMN_HISTOGRAM = "histogram";
+    }
+
+
+    /**
+     * Inner class that defines constant values for syncing the pets with the sync server, see PetSyncClient.
+     *
+     * Once a device has started syncing, every change to the name, breed, gender, weight or deletion of a pet is
+     * tracked per column in {@link #TABLE_NAME}: the column gets a new clock value (a Lamport clock, so it orders
+     * the changes of all the devices) and is marked dirty until it has been pushed. Each pet is known everywhere by
+     * the device that created it and its _ID there ({@link #COLUMN_ORIGIN} and {@link #COLUMN_ORIGIN_ID}).
+     * The shelter and the photo of a pet stay local to the device.
+     *
+     * A query of {@link #CHANGES_URI} returns the pets with dirty columns, in the order they were changed; inserting
+     * values at it applies a change from the server. {@link #STATE_URI} holds the cursors of the sync, and updating
+     * them is how a push is acknowledged. Both are meant to go into the same applyBatch(), so that the changes and
+     * the cursor are committed together.
+     */
+    public static final class PetSyncEntry {
+
+        // This class only holds constants, so it can't be instantiated.
+        private PetSyncEntry() {}
+
+        /** Path segments of the changes and of the state */
+        public static final String PATH_CHANGES = "changes";
+        public static final String PATH_STATE = "state";
+
+        /** The content URI for the changes to push, and for applying the changes that were pulled */
+        public static final Uri CHANGES_URI = BASE_CONTENT_URI.buildUpon()
+                .appendPath(PATH_SYNC)
+                .appendPath(PATH_CHANGES)
+                .build();
+
+        /** The content URI for the state of the sync, a single row */
+        public static final Uri STATE_URI = BASE_CONTENT_URI.buildUpon()
+                .appendPath(PATH_SYNC)
+                .appendPath(PATH_STATE)
+                .build();
+
+        /**
+         * The MIME type of the {@link #CHANGES_URI}.
+         */
+        public static final String CONTENT_MIME_DIRECTORY_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SYNC + "/" + PATH_CHANGES;
+
+        /**
+         * The MIME type of the {@link #STATE_URI}.
+         */
+        public static final String CONTENT_MIME_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SYNC + "/" + PATH_STATE;
+
+        /** Name of database table for the sync bookkeeping of each pet */
+        public final static String TABLE_NAME = "pet_sync";
+
+        /** Name of database table for the state of the sync, which has a single row */
+        public final static String STATE_TABLE_NAME = "sync_state";
+
+        /**
+         * The pets columns that are synced, and the clock column of each of them (in the same order).
+         * The dirty bit of the column at index i is 1 << i.
+         */
+        public static final String[] SYNCED_COLUMNS = {
+                PetEntry.COLUMN_PET_NAME,
+                PetEntry.COLUMN_PET_BREED,
+                PetEntry.COLUMN_PET_GENDER,
+                PetEntry.COLUMN_PET_WEIGHT,
+                PetEntry.COLUMN_PET_DELETED };
+        public static final String[] CLOCK_COLUMNS = {
+                "name_clock", "breed_clock", "gender_clock", "weight_clock", "deleted_clock" };
+
+        /**
+         * The keys of the devices that wrote each synced column, in the values of a change inserted at
+         * {@link #CHANGES_URI} (in the same order as {@link #SYNCED_COLUMNS}). When two devices gave a column
+         * the same clock value, the change of the device whose ID sorts last wins.
+         */
+        public static final String[] WRITER_KEYS = {
+                "name_writer", "breed_writer", "gender_writer", "weight_writer", "deleted_writer" };
+
+        /**
+         * The _ID of the pet on this device, or null once the pet has been deleted here
+         * (and the deletion is still waiting to be pushed).
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_PET_ID = "pet_id";
+
+        /**
+         * ID of the device that created the pet.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_ORIGIN = "origin";
+
+        /**
+         * _ID of the pet on the device that created it.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_ORIGIN_ID = "origin_id";
+
+        /**
+         * Clock value of the last change to the pet on this device, which orders the changes to push.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_SEQ = "seq";
+
+        /**
+         * The synced columns that were changed on this device and not pushed yet, as bits (see {@link #SYNCED_COLUMNS}).
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_DIRTY = "dirty";
+
+        /**
+         * ID of this device, made up when it first synced. In the state.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_DEVICE_ID = "device_id";
+
+        /**
+         * The highest clock value this device has seen from the server. Its own changes get higher values.
+         * In the state.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_CLOCK = "clock";
+
+        /**
+         * Position in the change log of the server up to which the changes have been pulled. In the state.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_PULL_CURSOR = "pull_cursor";
+
+        /**
+         * The {@link #COLUMN_SEQ} up to which the changes of this device have been pushed. In the state.
+         * Updating it acknowledges the push: the pets up to it are no longer dirty.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_PUSHED_SEQ = "pushed_seq";
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.pets.data;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads a CSV file (RFC 4180) one record at a time, so that files of any size can be read in constant memory.
+ *
+ * Fields may be quoted, quotes inside a quoted field are doubled, and quoted fields may contain commas and
+ * line breaks. Records may end with CRLF or LF. Blank lines and a byte order mark at the start are skipped.
+ * A single record can't be longer than {@link #MAX_RECORD_LENGTH} chars, so a missing closing quote
+ * can't make the reader swallow the rest of the file into memory.
+ */
+class PetCsvReader {
+
+    /** Maximum number of chars in a single record */
+    static final int MAX_RECORD_LENGTH = 64 * 1024;
+
+    /** The byte order mark that some editors put at the start of UTF-8 files */
+    private static final char BYTE_ORDER_MARK = '\uFEFF';
+
+    /** No char was pushed back, see {@link #unread(int)} */
+    private static final int NONE = -2;
+
+    /** Where the CSV is read from. Should be buffered. */
+    private final Reader mReader;
+
+    /** A char that was read ahead and pushed back, or {@link #NONE} */
+    private int mPushedBack = NONE;
+
+    /** True until the first char has been read */
+    private boolean mAtStart = true;
+
+    /** Number of records read so far, for the error messages */
+    private long mRecordCount;
+
+    /**
+     * Constructs a new {@link PetCsvReader}.
+     *
+     * @param reader to read the CSV from, which should be buffered
+     */
+    PetCsvReader(Reader reader) {
+        mReader = reader;
+    }
+
+    /**
+     * Read the next record.
+     *
+     * @return the fields of the record, or null at the end of the file
+     * @throws IOException if the file can't be read, or isn't valid CSV
+     */
+    List<String> readRecord() throws IOException {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean recordStarted = false;
+        boolean quoted = false;
+        int length = 0;
+
+        while (true) {
+            int c = read();
+            if (c == -1) {
+                if (quoted) {
+                    throw new IOException("Missing closing quote in record " + (mRecordCount + 1));
+                }
+                if (!recordStarted) {
+                    return null;
+                }
+                fields.add(field.toString());
+                mRecordCount++;
+                return fields;
+            }
+
+            if (++length > MAX_RECORD_LENGTH) {
+                throw new IOException("Record " + (mRecordCount + 1) + " is longer than "
+                        + MAX_RECORD_LENGTH + " chars");
+            }
+
+            if (quoted) {
+                if (c == '"') {
+                    // Either a doubled quote, or the end of the quoted part of the field
+                    int next = read();
+                    if (next == '"') {
+                        field.append('"');
+                    } else {
+                        quoted = false;
+                        unread(next);
+                    }
+                } else {
+                    field.append((char) c);
+                }
+            } else if (c == '\r' || c == '\n') {
+                if (c == '\r') {
+                    int next = read();
+                    if (next != '\n') {
+                        unread(next);
+                    }
+                }
+                if (!recordStarted) {
+                    // A blank line
+                    length = 0;
+                    continue;
+                }
+                fields.add(field.toString());
+                mRecordCount++;
+                return fields;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+                recordStarted = true;
+            } else if (c == '"' && field.length() == 0) {
+                quoted = true;
+                recordStarted = true;
+            } else {
+                field.append((char) c);
+                recordStarted = true;
+            }
+        }
+    }
+
+    /**
+     * Read the next char, or the one that was pushed back.
+     */
+    private int read() throws IOException {
+        if (mPushedBack != NONE) {
+            int c = mPushedBack;
+            mPushedBack = NONE;
+            return c;
+        }
+        int c = mReader.read();
+        if (mAtStart) {
+            mAtStart = false;
+            if (c == BYTE_ORDER_MARK) {
+                c = mReader.read();
+            }
+        }
+        return c;
+    }
+
+    /**
+     * Push back a char that was read ahead, so that the next {@link #read()} returns it again.
+     */
+    private void unread(int c) {
+        mPushedBack = c;
+    }
+}
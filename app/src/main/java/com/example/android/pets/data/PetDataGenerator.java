@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.util.Random;
+
+/**
+ * Generates realistic looking pets for filling the database, for example to try out scrolling, search and
+ * query latency with a million pets. Used by the "Insert Dummy Data" menu option, and usable from tests.
+ *
+ * The pets only depend on the seed: the same seed always generates the same pets in the same order.
+ * Breeds are picked by popularity (a few breeds are very common, most are rare, and some pets have no breed),
+ * each breed has its own typical weight, and names are combined from a list of common pet names
+ * so that a search for a name finds many pets, like it would in a real shelter.
+ */
+public class PetDataGenerator {
+
+    /** The seed the menu option uses, so that every run of the app generates the same pets */
+    public static final long DEFAULT_SEED = 20160607L;
+
+    /** Number of pets per {@link ContentResolver#bulkInsert(android.net.Uri, ContentValues[])} transaction */
+    private static final int CHUNK_SIZE = 5000;
+
+    /** Chance that a pet has no known breed */
+    private static final double NO_BREED_CHANCE = 0.1;
+
+    /** Chance that a pet's gender is unknown. The rest are male or female, half and half. */
+    private static final double UNKNOWN_GENDER_CHANCE = 0.08;
+
+    /** Chance that a pet gets a second name, like "Daisy Mae" */
+    private static final double SECOND_NAME_CHANCE = 0.2;
+
+    private static final String[] NAMES = {
+            "Bella", "Max", "Luna", "Charlie", "Lucy", "Cooper", "Daisy", "Buddy", "Molly", "Rocky",
+            "Bailey", "Toby", "Sadie", "Jack", "Maggie", "Duke", "Chloe", "Bear", "Sophie", "Tucker",
+            "Lola", "Oliver", "Zoey", "Milo", "Penny", "Leo", "Coco", "Teddy", "Rosie", "Winston",
+            "Ruby", "Murphy", "Gracie", "Oscar", "Lily", "Toto", "Nala", "Simba", "Pepper", "Ginger",
+            "Shadow", "Rex", "Mochi", "Biscuit", "Hazel", "Jasper", "Willow", "Louie", "Stella", "Gus",
+            "Mae", "Rusty", "Pickles", "Ziggy", "Olive", "Scout", "Kiki", "Apollo", "Marley", "Binx" };
+
+    /** Breeds, from the most to the least popular */
+    private static final String[] BREEDS = {
+            "Tabby", "Labrador Retriever", "Domestic Shorthair", "German Shepherd", "Golden Retriever",
+            "Siamese", "French Bulldog", "Beagle", "Persian", "Poodle", "Maine Coon", "Dachshund",
+            "Terrier", "Boxer", "Ragdoll", "Chihuahua", "Shih Tzu", "Bengal", "Husky", "Pug",
+            "Border Collie", "Sphynx", "Rottweiler", "Corgi", "British Shorthair", "Great Dane",
+            "Pomeranian", "Russian Blue", "Greyhound", "Bernese Mountain Dog" };
+
+    /** Typical weight of each breed in {@link #BREEDS}, in kg */
+    private static final int[] BREED_WEIGHTS = {
+            5, 30, 5, 32, 30,
+            4, 12, 10, 5, 20, 7, 9,
+            8, 29, 7, 2, 6, 5, 23, 8,
+            18, 4, 50, 12, 5, 60,
+            3, 4, 30, 45 };
+
+    /** Typical weight of a pet without a breed, in kg */
+    private static final int MIXED_WEIGHT = 12;
+
+    /**
+     * Cumulative popularity of the breeds: a random number below POPULARITY[i] (and not below
+     * POPULARITY[i - 1]) picks breed i. Breed i is about 1 / (i + 1) as popular as the first one.
+     */
+    private static final double[] POPULARITY = new double[BREEDS.length];
+
+    static {
+        double total = 0;
+        for (int i = 0; i < BREEDS.length; i++) {
+            total += 1.0 / (i + 1);
+            POPULARITY[i] = total;
+        }
+        for (int i = 0; i < BREEDS.length; i++) {
+            POPULARITY[i] /= total;
+        }
+    }
+
+    /**
+     * Interface for receiving the progress of {@link #insertPets(ContentResolver, int, ProgressListener)},
+     * after every committed chunk. It is called on the thread that inserts the pets.
+     */
+    public interface ProgressListener {
+        void onProgress(int petsInserted, int petCount);
+    }
+
+    private final Random mRandom;
+
+    /**
+     * Constructs a new {@link PetDataGenerator}.
+     *
+     * @param seed that decides which pets are generated
+     */
+    public PetDataGenerator(long seed) {
+        mRandom = new Random(seed);
+    }
+
+    /**
+     * Returns the values of the next generated pet.
+     */
+    public ContentValues nextPet() {
+        ContentValues values = new ContentValues();
+
+        String name = NAMES[mRandom.nextInt(NAMES.length)];
+        if (mRandom.nextDouble() < SECOND_NAME_CHANCE) {
+            name += " " + NAMES[mRandom.nextInt(NAMES.length)];
+        }
+        values.put(PetEntry.COLUMN_PET_NAME, name);
+
+        int typicalWeight = MIXED_WEIGHT;
+        if (mRandom.nextDouble() >= NO_BREED_CHANCE) {
+            int breed = pickBreed();
+            values.put(PetEntry.COLUMN_PET_BREED, BREEDS[breed]);
+            typicalWeight = BREED_WEIGHTS[breed];
+        }
+
+        int gender;
+        if (mRandom.nextDouble() < UNKNOWN_GENDER_CHANCE) {
+            gender = PetEntry.GENDER_UNKNOWN;
+        } else {
+            gender = mRandom.nextBoolean() ? PetEntry.GENDER_MALE : PetEntry.GENDER_FEMALE;
+        }
+        values.put(PetEntry.COLUMN_PET_GENDER, gender);
+
+        // Weights spread around the typical weight of the breed (about 20% either way), and are at least 1 kg.
+        double weight = typicalWeight * (1 + 0.2 * mRandom.nextGaussian());
+        values.put(PetEntry.COLUMN_PET_WEIGHT, Math.max(1, (int) Math.round(weight)));
+        return values;
+    }
+
+    /**
+     * Generate the given number of pets and insert them through the provider, in chunks of one transaction each.
+     * This is blocking, so it must be done on a background thread.
+     *
+     * @param listener to report the progress to after each chunk, or null
+     * @return the number of pets that were inserted
+     */
+    public int insertPets(ContentResolver resolver, int petCount, ProgressListener listener) {
+        int petsInserted = 0;
+        for (int start = 0; start < petCount; start += CHUNK_SIZE) {
+            ContentValues[] chunk = new ContentValues[Math.min(CHUNK_SIZE, petCount - start)];
+            for (int i = 0; i < chunk.length; i++) {
+                chunk[i] = nextPet();
+            }
+            petsInserted += resolver.bulkInsert(PetEntry.CONTENT_URI, chunk);
+            if (listener != null) {
+                listener.onProgress(petsInserted, petCount);
+            }
+        }
+        return petsInserted;
+    }
+
+    /**
+     * Pick the index of a breed, following the popularity of the breeds.
+     */
+    private int pickBreed() {
+        double value = mRandom.nextDouble();
+        for (int i = 0; i < POPULARITY.length - 1; i++) {
+            if (value < POPULARITY[i]) {
+                return i;
+            }
+        }
+        return POPULARITY.length - 1;
+    }
+}
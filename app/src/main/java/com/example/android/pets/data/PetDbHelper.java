@@ -16,8 +16,10 @@
 package com.example.android.pets.data;
 
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
 
 import com.example.android.pets.data.PetContract.PetEntry;
 
@@ -29,12 +31,22 @@ public class PetDbHelper extends SQLiteOpenHelper {  // Create a class that exte
     public static final String LOG_TAG = PetDbHelper.class.getSimpleName();
 
     /** Name of the database file */
-    private static final String DATABASE_NAME = "shelter.db";  // Create a constant for database name
+    static final String DATABASE_NAME = "shelter.db";  // Create a constant for database name
 
     /**
      * Database version. If you change the database schema, you must increment the database version.
      */
-    private static final int DATABASE_VERSION = 1; // Create a constant for database version
+    private static final int DATABASE_VERSION = PetMigrations.LATEST_VERSION; // Create a constant for database version
+    // The version is the one of the last migration in PetMigrations, so adding a migration there is enough to bump it.
+
+    /**
+     * Number of pages the write-ahead log may grow to before SQLite copies it back into the database file
+     * (a "checkpoint"). This is twice the SQLite default, so that big batches of inserts checkpoint less often.
+     */
+    private static final int WAL_AUTOCHECKPOINT_PAGES = 2000;
+
+    /** Size in bytes that the write-ahead log file is truncated back to after a checkpoint */
+    private static final long WAL_SIZE_LIMIT_BYTES = 4 * 1024 * 1024;
 
 
     /**
@@ -47,6 +59,70 @@ public class PetDbHelper extends SQLiteOpenHelper {  // Create a class that exte
         // Because we're subclassing from another class, we call the parent constructor via "super",
         // so we can take in the first parameter "context" from what was passed in, and the other parameters are the database name,
         // a cursor factory which we can just set to null to use the default, and then the database version.
+
+        // Use write-ahead logging (WAL) instead of the default rollback journal. With WAL, a write only appends to
+        // the log, so the catalog can keep reading the database on other connections while the editor is saving.
+        // (Before Jelly Bean, WAL can only be turned on once the database is open, see onOpen.)
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            setWriteAheadLoggingEnabled(true);
+        }
+    }
+
+
+    /**
+     * This is called when the database connection is being configured, before the database is created or upgraded.
+     * Only called on Jelly Bean and above.
+     */
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        super.onConfigure(db);
+        configureWriteAheadLog(db);
+
+        // Let PetCompactor give the pages of deleted rows back to the file system a few at a time.
+        // This only takes effect on a database that has no tables yet; PetCompactor converts older ones.
+        db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+    }
+
+
+    /**
+     * This is called every time the database has been opened.
+     */
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN && !db.isReadOnly()) {
+            // onConfigure() and setWriteAheadLoggingEnabled() don't exist yet, so do it here instead.
+            db.enableWriteAheadLogging();
+            configureWriteAheadLog(db);
+        }
+    }
+
+
+    /**
+     * Tune the write-ahead log of the given connection.
+     *
+     * With WAL, "synchronous = NORMAL" only syncs the log at checkpoints instead of at every commit. A commit can
+     * then be lost on a power failure, but the database can never be corrupted, which is a good trade for pet records.
+     */
+    private static void configureWriteAheadLog(SQLiteDatabase db) {
+        db.execSQL("PRAGMA synchronous = NORMAL");
+        // These two pragmas return a row, so they can't go through execSQL().
+        queryPragma(db, "PRAGMA wal_autocheckpoint = " + WAL_AUTOCHECKPOINT_PAGES);
+        queryPragma(db, "PRAGMA journal_size_limit = " + WAL_SIZE_LIMIT_BYTES);
+    }
+
+
+    /**
+     * Run a PRAGMA statement that returns a result row, and return the value of its first column
+     * (or null if it returned nothing).
+     */
+    static String queryPragma(SQLiteDatabase db, String pragma) {
+        Cursor cursor = db.rawQuery(pragma, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        } finally {
+            cursor.close();
+        }
     }
 
 
@@ -70,12 +146,17 @@ public class PetDbHelper extends SQLiteOpenHelper {  // Create a class that exte
         //execSQL method must not be used with any SELECT statements, and that's because this method doesn't return any actual data.
         // It's simply designed for executing statements that modify the database configuration and structure.
         // To summarize, this method takes in different SQL statements such as create table and it executes them.
+
+        // Bring the new version 1 table up to date by running all of the migrations on it,
+        // so that new installs end up with the same schema as upgraded ones.
+        PetMigrations.migrate(db, 1, DATABASE_VERSION);
     }
 
 
     /**
      * This is called when the database needs to be upgraded.
-     * What it does is simply dropping the database table and recreating it.
+     * Instead of dropping the table and recreating it, it runs the migrations in {@link PetMigrations}
+     * one version at a time, so the pets that are already stored are kept.
      */
     // Notice in onUpgrade method, it executes this SQL statement: SQL_DELETE_ENTRIES.
     // And this constant is defined as DROP TABLE IF EXISTS and the name of the table (  "DROP TABLE IF EXISTS" + OOOEntry.TABLE_NAME;  )
@@ -86,6 +167,7 @@ public class PetDbHelper extends SQLiteOpenHelper {  // Create a class that exte
     // to modify the database file so that our app is using the most recent information.
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        // The database is still at version 1, so there's nothing to do be done here, meaning there is no need to write the SQL_DELETE_ENTRIES statement here.
+        // Upgrade step by step, so that the existing pets are kept instead of dropping the table.
+        PetMigrations.migrate(db, oldVersion, newVersion);
     }
 }
\ No newline at end of file
@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.pets.data;
+
+import android.content.ContentProvider;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Writes the rows of a cursor over the pets table into the pipe of an export URI, as CSV or JSON.
+ * {@link PetProvider#openFile(Uri, String)} hands it to openPipeHelper, which runs it on a background thread
+ * while the reader is reading the other end of the pipe.
+ *
+ * The rows are written one at a time as the cursor moves through them, so an export only ever holds
+ * the cursor's current window and the buffer of the writer in memory, no matter how many pets there are.
+ * If the reader stops reading and closes the pipe, the next write fails and the export just stops.
+ */
+class PetExportWriter implements ContentProvider.PipeDataWriter<Cursor> {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = PetExportWriter.class.getSimpleName();
+
+    /** Size of the buffer between the cursor and the pipe, in chars */
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    /** End of a CSV record, as in RFC 4180 */
+    private static final String CSV_LINE_END = "\r\n";
+
+    /** {@link PetContract#EXPORT_FORMAT_CSV} or {@link PetContract#EXPORT_FORMAT_JSON} */
+    private final String mFormat;
+
+    /**
+     * Constructs a new {@link PetExportWriter}.
+     *
+     * @param format of the export, which must have a MIME type (see {@link #getMimeType(String)})
+     */
+    PetExportWriter(String format) {
+        mFormat = format;
+    }
+
+    /**
+     * Returns the MIME type of the given export format, or null if the format isn't supported.
+     */
+    static String getMimeType(String format) {
+        if (PetContract.EXPORT_FORMAT_CSV.equals(format)) {
+            return PetContract.MIME_TYPE_CSV;
+        }
+        if (PetContract.EXPORT_FORMAT_JSON.equals(format)) {
+            return PetContract.MIME_TYPE_JSON;
+        }
+        return null;
+    }
+
+    /**
+     * This is on a background thread. The cursor is closed when the export is done.
+     */
+    @Override
+    public void writeDataToPipe(ParcelFileDescriptor output, Uri uri, String mimeType, Bundle opts,
+                                Cursor cursor) {
+        try {
+            // The pipe itself is closed by openPipeHelper once this returns, so only flush the writer.
+            Writer writer = new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(output.getFileDescriptor()), "UTF-8"), BUFFER_SIZE);
+            if (PetContract.EXPORT_FORMAT_JSON.equals(mFormat)) {
+                writeJson(writer, cursor);
+            } else {
+                writeCsv(writer, cursor);
+            }
+            writer.flush();
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Export to " + uri + " stopped", e);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Write a header line with the column names, then one line per row.
+     */
+    private static void writeCsv(Writer writer, Cursor cursor) throws IOException {
+        String[] columns = cursor.getColumnNames();
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            writeCsvField(writer, columns[i]);
+        }
+        writer.write(CSV_LINE_END);
+
+        while (cursor.moveToNext()) {
+            for (int i = 0; i < columns.length; i++) {
+                if (i > 0) {
+                    writer.write(',');
+                }
+                // null is written as an empty field
+                if (!cursor.isNull(i)) {
+                    writeCsvField(writer, cursor.getString(i));
+                }
+            }
+            writer.write(CSV_LINE_END);
+        }
+    }
+
+    /**
+     * Write a CSV field, in quotes (with the quotes inside doubled) if it contains a separator, a quote or a line break.
+     */
+    private static void writeCsvField(Writer writer, String value) throws IOException {
+        boolean needsQuotes = value.indexOf(',') >= 0 || value.indexOf('"') >= 0
+                || value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0;
+        if (!needsQuotes) {
+            writer.write(value);
+            return;
+        }
+        writer.write('"');
+        writer.write(value.replace("\"", "\"\""));
+        writer.write('"');
+    }
+
+    /**
+     * Write a JSON array with one object per row, keyed by the column names.
+     */
+    private static void writeJson(Writer writer, Cursor cursor) throws IOException {
+        String[] columns = cursor.getColumnNames();
+        writer.write('[');
+        boolean first = true;
+        while (cursor.moveToNext()) {
+            writer.write(first ? "\n" : ",\n");
+            first = false;
+
+            writer.write('{');
+            for (int i = 0; i < columns.length; i++) {
+                if (i > 0) {
+                    writer.write(',');
+                }
+                writeJsonString(writer, columns[i]);
+                writer.write(':');
+                switch (cursor.getType(i)) {
+                    case Cursor.FIELD_TYPE_NULL:
+                        writer.write("null");
+                        break;
+                    case Cursor.FIELD_TYPE_INTEGER:
+                        writer.write(Long.toString(cursor.getLong(i)));
+                        break;
+                    case Cursor.FIELD_TYPE_FLOAT:
+                        writer.write(Double.toString(cursor.getDouble(i)));
+                        break;
+                    default:
+                        writeJsonString(writer, cursor.getString(i));
+                        break;
+                }
+            }
+            writer.write('}');
+        }
+        writer.write("\n]\n");
+    }
+
+    /**
+     * Write a JSON string literal, escaping quotes, backslashes and control characters.
+     */
+    private static void writeJsonString(Writer writer, String value) throws IOException {
+        writer.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    writer.write("\\\"");
+                    break;
+                case '\\':
+                    writer.write("\\\\");
+                    break;
+                case '\n':
+                    writer.write("\\n");
+                    break;
+                case '\r':
+                    writer.write("\\r");
+                    break;
+                case '\t':
+                    writer.write("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        writer.write(String.format("\\u%04x", (int) c));
+                    } else {
+                        writer.write(c);
+                    }
+                    break;
+            }
+        }
+        writer.write('"');
+    }
+}
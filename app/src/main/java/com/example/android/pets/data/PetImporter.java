@@ -0,0 +1,310 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.pets.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.RemoteException;
+import android.os.SystemClock;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetContract.PetImportEntry;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Imports pets from a CSV file into {@link PetProvider}, for the large files that partner shelters send us.
+ *
+ * The first record of the file is a header with the column names. The "name" and "gender" columns are
+ * required, "breed" and "weight" are optional, and any other column (like the _id of an export) is ignored.
+ * The gender can be a number (see PetEntry.GENDER_*) or "unknown", "male" or "female". Records that aren't
+ * a valid pet are skipped and counted as rejected.
+ *
+ * The file is read one record at a time and the pets are inserted in chunks, each chunk in one
+ * {@link ContentResolver#applyBatch(String, ArrayList)} transaction. The progress of the import is saved
+ * as the last operation of the same batch, so if the app dies in the middle of an import, importing the same
+ * source again skips the records of the chunks that were already committed and carries on from there.
+ * Only one chunk is ever held in memory, whatever the size of the file.
+ *
+ * Importing is blocking, so it must be done on a background thread.
+ */
+public class PetImporter {
+
+    /** Number of records per transaction, if nothing else is given */
+    public static final int DEFAULT_CHUNK_SIZE = 500;
+
+    /**
+     * Interface for receiving the progress of an import, after every committed chunk.
+     * It is called on the thread that runs the import.
+     */
+    public interface ProgressListener {
+        void onProgress(Progress progress);
+    }
+
+    /**
+     * The progress of an import, counting the chunks committed in earlier (interrupted) runs too.
+     */
+    public static final class Progress {
+
+        /** Number of records (not counting the header) read and committed so far */
+        public final long recordsRead;
+
+        /** Number of pets imported so far */
+        public final long petsImported;
+
+        /** Number of records skipped so far because they weren't a valid pet */
+        public final long recordsRejected;
+
+        /** Number of pets imported per second in this run, or 0 if nothing was imported yet */
+        public final double petsPerSecond;
+
+        /** True once the whole file has been imported */
+        public final boolean finished;
+
+        Progress(long recordsRead, long petsImported, long recordsRejected, double petsPerSecond, boolean finished) {
+            this.recordsRead = recordsRead;
+            this.petsImported = petsImported;
+            this.recordsRejected = recordsRejected;
+            this.petsPerSecond = petsPerSecond;
+            this.finished = finished;
+        }
+    }
+
+    private final ContentResolver mResolver;
+
+    private final int mChunkSize;
+
+    /**
+     * Constructs a new {@link PetImporter}.
+     *
+     * @param resolver to insert the pets with
+     * @param chunkSize number of records per transaction
+     */
+    public PetImporter(ContentResolver resolver, int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Invalid chunk size " + chunkSize);
+        }
+        mResolver = resolver;
+        mChunkSize = chunkSize;
+    }
+
+    /**
+     * Import the pets in the given CSV, resuming the earlier import from the same source if there was one.
+     * If the source has already been imported completely, nothing is imported again.
+     *
+     * @param source identifies the file across runs, usually its URI
+     * @param reader to read the CSV from, which should be buffered
+     * @param listener to report the progress to after each chunk, or null
+     * @return the final progress of the import
+     */
+    public Progress importCsv(String source, Reader reader, ProgressListener listener)
+            throws IOException, RemoteException, OperationApplicationException {
+        Uri progressUri = PetImportEntry.buildImportUri(source);
+        Progress saved = loadProgress(progressUri);
+        if (saved.finished) {
+            return saved;
+        }
+
+        PetCsvReader csv = new PetCsvReader(reader);
+        List<String> header = csv.readRecord();
+        if (header == null) {
+            throw new IOException("The file is empty");
+        }
+        int nameIndex = indexOfColumn(header, PetEntry.COLUMN_PET_NAME);
+        int breedIndex = indexOfColumn(header, PetEntry.COLUMN_PET_BREED);
+        int genderIndex = indexOfColumn(header, PetEntry.COLUMN_PET_GENDER);
+        int weightIndex = indexOfColumn(header, PetEntry.COLUMN_PET_WEIGHT);
+        if (nameIndex < 0 || genderIndex < 0) {
+            throw new IOException("The file needs a " + PetEntry.COLUMN_PET_NAME + " and a "
+                    + PetEntry.COLUMN_PET_GENDER + " column");
+        }
+
+        // Skip the records that were committed by an earlier run
+        for (long i = 0; i < saved.recordsRead; i++) {
+            if (csv.readRecord() == null) {
+                throw new IOException("The file is shorter than the " + saved.recordsRead
+                        + " records that were already imported from it");
+            }
+        }
+
+        long recordsRead = saved.recordsRead;
+        long petsImported = saved.petsImported;
+        long recordsRejected = saved.recordsRejected;
+        long petsImportedThisRun = 0;
+        long startTime = SystemClock.elapsedRealtime();
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>(mChunkSize + 1);
+        int recordsInChunk = 0;
+        boolean finished = false;
+        while (!finished) {
+            List<String> record = csv.readRecord();
+            finished = record == null;
+
+            if (record != null) {
+                recordsInChunk++;
+                ContentValues values = toPetValues(record, nameIndex, breedIndex, genderIndex, weightIndex);
+                if (values == null) {
+                    recordsRejected++;
+                } else {
+                    operations.add(ContentProviderOperation.newInsert(PetEntry.CONTENT_URI)
+                            .withValues(values)
+                            .build());
+                    petsImported++;
+                    petsImportedThisRun++;
+                }
+            }
+
+            // Commit the chunk when it is full, and whatever is left at the end of the file
+            if (recordsInChunk == mChunkSize || finished) {
+                recordsRead += recordsInChunk;
+                ContentValues progressValues = new ContentValues();
+                progressValues.put(PetImportEntry.COLUMN_RECORDS_READ, recordsRead);
+                progressValues.put(PetImportEntry.COLUMN_PETS_IMPORTED, petsImported);
+                progressValues.put(PetImportEntry.COLUMN_RECORDS_REJECTED, recordsRejected);
+                progressValues.put(PetImportEntry.COLUMN_FINISHED, finished ? 1 : 0);
+                operations.add(ContentProviderOperation.newInsert(progressUri)
+                        .withValues(progressValues)
+                        .build());
+
+                mResolver.applyBatch(PetContract.CONTENT_AUTHORITY, operations);
+                operations.clear();
+                recordsInChunk = 0;
+
+                if (listener != null) {
+                    long elapsedMillis = SystemClock.elapsedRealtime() - startTime;
+                    double petsPerSecond = elapsedMillis == 0 ? 0 : petsImportedThisRun * 1000.0 / elapsedMillis;
+                    listener.onProgress(new Progress(recordsRead, petsImported, recordsRejected,
+                            petsPerSecond, finished));
+                }
+            }
+        }
+
+        long elapsedMillis = SystemClock.elapsedRealtime() - startTime;
+        return new Progress(recordsRead, petsImported, recordsRejected,
+                elapsedMillis == 0 ? 0 : petsImportedThisRun * 1000.0 / elapsedMillis, true);
+    }
+
+    /**
+     * Returns the saved progress of the import with the given progress URI, or no progress if it was never started.
+     */
+    private Progress loadProgress(Uri progressUri) {
+        String[] projection = {
+                PetImportEntry.COLUMN_RECORDS_READ,
+                PetImportEntry.COLUMN_PETS_IMPORTED,
+                PetImportEntry.COLUMN_RECORDS_REJECTED,
+                PetImportEntry.COLUMN_FINISHED };
+        Cursor cursor = mResolver.query(progressUri, projection, null, null, null);
+        if (cursor == null) {
+            return new Progress(0, 0, 0, 0, false);
+        }
+        try {
+            if (!cursor.moveToFirst()) {
+                return new Progress(0, 0, 0, 0, false);
+            }
+            return new Progress(cursor.getLong(0), cursor.getLong(1), cursor.getLong(2), 0, cursor.getInt(3) != 0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns the index of the given column in the header (ignoring case and spaces), or -1 if it isn't there.
+     */
+    private static int indexOfColumn(List<String> header, String column) {
+        for (int i = 0; i < header.size(); i++) {
+            if (header.get(i).trim().equalsIgnoreCase(column)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Turn a record into the values of a new pet, or return null if the record isn't a valid pet:
+     * it needs a name and a valid gender, and its weight (if any) must be a number of 0 or more.
+     */
+    private static ContentValues toPetValues(List<String> record, int nameIndex, int breedIndex,
+                                             int genderIndex, int weightIndex) {
+        String name = field(record, nameIndex);
+        if (name.isEmpty()) {
+            return null;
+        }
+
+        int gender = parseGender(field(record, genderIndex));
+        if (!PetEntry.isValidGender(gender)) {
+            return null;
+        }
+
+        ContentValues values = new ContentValues();
+        values.put(PetEntry.COLUMN_PET_NAME, name);
+        values.put(PetEntry.COLUMN_PET_GENDER, gender);
+
+        String breed = field(record, breedIndex);
+        if (!breed.isEmpty()) {
+            values.put(PetEntry.COLUMN_PET_BREED, breed);
+        }
+
+        String weight = field(record, weightIndex);
+        if (!weight.isEmpty()) {
+            try {
+                int weightValue = Integer.parseInt(weight);
+                if (weightValue < 0) {
+                    return null;
+                }
+                values.put(PetEntry.COLUMN_PET_WEIGHT, weightValue);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Returns the trimmed field at the given index of the record, or an empty string if there is no such field.
+     */
+    private static String field(List<String> record, int index) {
+        return index < 0 || index >= record.size() ? "" : record.get(index).trim();
+    }
+
+    /**
+     * Parse a gender given as one of the PetEntry.GENDER_* numbers or as "unknown", "male" or "female".
+     *
+     * @return the gender, or -1 if it can't be parsed
+     */
+    private static int parseGender(String gender) {
+        switch (gender.toLowerCase(Locale.US)) {
+            case "unknown":
+                return PetEntry.GENDER_UNKNOWN;
+            case "male":
+                return PetEntry.GENDER_MALE;
+            case "female":
+                return PetEntry.GENDER_FEMALE;
+        }
+        try {
+            return Integer.parseInt(gender);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+import com.example.android.pets.data.PetContract.PetMetricsEntry;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters and latency histograms of the calls to {@link PetProvider}, per operation and per URI pattern.
+ *
+ * Recording a call only takes a few atomic increments on preallocated arrays, so it can stay on in the field.
+ * The latencies go into buckets by powers of two microseconds: bucket 0 holds calls under 2 µs, bucket i
+ * (for i > 0) holds calls from 2^i µs up to 2^(i+1) µs, and the last bucket holds everything slower.
+ * The percentiles in the snapshot are the upper bounds of the buckets they fall in.
+ */
+class PetMetrics {
+
+    /** The operations that are recorded */
+    static final int QUERY = 0;
+    static final int INSERT = 1;
+    static final int BULK_INSERT = 2;
+    static final int UPDATE = 3;
+    static final int DELETE = 4;
+
+    /** Names of the operations, for the snapshot */
+    private static final String[] OPERATION_NAMES = { "query", "insert", "bulk_insert", "update", "delete" };
+
+    /** Number of latency buckets, up to 2^25 µs (about 33 s) */
+    private static final int BUCKET_COUNT = 26;
+
+    /** Indexes of the counters in front of the buckets, in each slot of {@link #mCounters} */
+    private static final int CALLS = 0;
+    private static final int ERRORS = 1;
+    private static final int ROWS = 2;
+    private static final int TOTAL_MICROS = 3;
+    private static final int MAX_MICROS = 4;
+    private static final int FIRST_BUCKET = 5;
+    private static final int SLOT_SIZE = FIRST_BUCKET + BUCKET_COUNT;
+
+    /** The UriMatcher codes that have their own counters. Any other code is counted as "unknown". */
+    private final int[] mCodes;
+
+    /** The URI pattern of each code in {@link #mCodes}, for the snapshot */
+    private final String[] mPatterns;
+
+    /**
+     * All of the counters, in one slot of {@link #SLOT_SIZE} per operation and code:
+     * the slot of operation o and code index c starts at (o * (number of codes + 1) + c) * SLOT_SIZE.
+     */
+    private final AtomicLongArray mCounters;
+
+    /**
+     * Constructs a new {@link PetMetrics}.
+     *
+     * @param codes the UriMatcher codes of the provider
+     * @param patterns the URI pattern of each code, in the same order
+     */
+    PetMetrics(int[] codes, String[] patterns) {
+        mCodes = codes;
+        mPatterns = patterns;
+        // One extra code index for the URIs that didn't match
+        mCounters = new AtomicLongArray(OPERATION_NAMES.length * (codes.length + 1) * SLOT_SIZE);
+    }
+
+    /**
+     * Record a call to the provider.
+     *
+     * @param operation one of the operation constants
+     * @param code the UriMatcher code of the URI
+     * @param startNanos the System.nanoTime() when the call started
+     * @param rows number of rows the call returned or wrote
+     * @param failed true if the call threw or reported a failure
+     */
+    void record(int operation, int code, long startNanos, int rows, boolean failed) {
+        long micros = (System.nanoTime() - startNanos) / 1000;
+        int slot = (operation * (mCodes.length + 1) + indexOfCode(code)) * SLOT_SIZE;
+
+        mCounters.incrementAndGet(slot + CALLS);
+        if (failed) {
+            mCounters.incrementAndGet(slot + ERRORS);
+        }
+        if (rows > 0) {
+            mCounters.addAndGet(slot + ROWS, rows);
+        }
+        mCounters.addAndGet(slot + TOTAL_MICROS, micros);
+        mCounters.incrementAndGet(slot + FIRST_BUCKET + bucketOf(micros));
+
+        long max;
+        do {
+            max = mCounters.get(slot + MAX_MICROS);
+        } while (micros > max && !mCounters.compareAndSet(slot + MAX_MICROS, max, micros));
+    }
+
+    /**
+     * Returns a snapshot of the counters, with one row per operation and URI pattern that has been called
+     * (see {@link PetMetricsEntry} for the columns).
+     */
+    Cursor snapshot() {
+        String[] columns = {
+                PetMetricsEntry.COLUMN_OPERATION,
+                PetMetricsEntry.COLUMN_URI_PATTERN,
+                PetMetricsEntry.COLUMN_CALLS,
+                PetMetricsEntry.COLUMN_ERRORS,
+                PetMetricsEntry.COLUMN_ROWS,
+                PetMetricsEntry.COLUMN_TOTAL_MICROS,
+                PetMetricsEntry.COLUMN_MAX_MICROS,
+                PetMetricsEntry.COLUMN_P50_MICROS,
+                PetMetricsEntry.COLUMN_P90_MICROS,
+                PetMetricsEntry.COLUMN_P99_MICROS,
+                PetMetricsEntry.COLUMN_HISTOGRAM };
+        MatrixCursor cursor = new MatrixCursor(columns);
+
+        for (int operation = 0; operation < OPERATION_NAMES.length; operation++) {
+            for (int codeIndex = 0; codeIndex <= mCodes.length; codeIndex++) {
+                int slot = (operation * (mCodes.length + 1) + codeIndex) * SLOT_SIZE;
+                long calls = mCounters.get(slot + CALLS);
+                if (calls == 0) {
+                    continue;
+                }
+
+                // Copy the buckets first, so that the percentiles are worked out from one consistent set of counts
+                long[] buckets = new long[BUCKET_COUNT];
+                long bucketTotal = 0;
+                StringBuilder histogram = new StringBuilder();
+                for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+                    buckets[bucket] = mCounters.get(slot + FIRST_BUCKET + bucket);
+                    bucketTotal += buckets[bucket];
+                    if (buckets[bucket] > 0) {
+                        if (histogram.length() > 0) {
+                            histogram.append(',');
+                        }
+                        histogram.append(upperBoundMicros(bucket)).append(':').append(buckets[bucket]);
+                    }
+                }
+
+                cursor.addRow(new Object[] {
+                        OPERATION_NAMES[operation],
+                        codeIndex < mCodes.length ? mPatterns[codeIndex] : "unknown",
+                        calls,
+                        mCounters.get(slot + ERRORS),
+                        mCounters.get(slot + ROWS),
+                        mCounters.get(slot + TOTAL_MICROS),
+                        mCounters.get(slot + MAX_MICROS),
+                        percentileMicros(buckets, bucketTotal, 0.50),
+                        percentileMicros(buckets, bucketTotal, 0.90),
+                        percentileMicros(buckets, bucketTotal, 0.99),
+                        histogram.toString() });
+            }
+        }
+        return cursor;
+    }
+
+    /**
+     * Returns the index of the code in {@link #mCodes}, or the extra "unknown" index if it isn't there.
+     */
+    private int indexOfCode(int code) {
+        for (int i = 0; i < mCodes.length; i++) {
+            if (mCodes[i] == code) {
+                return i;
+            }
+        }
+        return mCodes.length;
+    }
+
+    /**
+     * Returns the bucket of the given latency.
+     */
+    private static int bucketOf(long micros) {
+        if (micros < 2) {
+            return 0;
+        }
+        // 63 - numberOfLeadingZeros is the index of the highest bit set, that is floor(log2(micros)).
+        return Math.min(BUCKET_COUNT - 1, 63 - Long.numberOfLeadingZeros(micros));
+    }
+
+    /**
+     * Returns the upper bound of the given bucket, in microseconds (exclusive).
+     */
+    private static long upperBoundMicros(int bucket) {
+        return 1L << (bucket + 1);
+    }
+
+    /**
+     * Returns the upper bound of the bucket that the given percentile falls in, or 0 if there are no calls.
+     */
+    private static long percentileMicros(long[] buckets, long total, double percentile) {
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(total * percentile);
+        long seen = 0;
+        for (int bucket = 0; bucket < buckets.length; bucket++) {
+            seen += buckets[bucket];
+            if (seen >= rank) {
+                return upperBoundMicros(bucket);
+            }
+        }
+        return upperBoundMicros(buckets.length - 1);
+    }
+}
@@ -0,0 +1,453 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.pets.data;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.util.Log;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetContract.PetImportEntry;
+import com.example.android.pets.data.PetContract.PetStatsEntry;
+import com.example.android.pets.data.PetContract.PetSyncEntry;
+import com.example.android.pets.data.PetContract.ShelterEntry;
+
+/**
+ * The ordered list of schema migrations for the pets database.
+ *
+ * Version 1 is the original pets table created in {@link PetDbHelper#onCreate(SQLiteDatabase)}.
+ * Every later version is reached by running exactly one {@link Migration} on top of the version before it.
+ * A brand new database runs all of the migrations right after creating the version 1 table, so a new
+ * install and an upgraded install always end up with exactly the same schema.
+ *
+ * To change the schema, add a new Migration at the end of {@link #MIGRATIONS}. Never edit a migration that
+ * has already shipped, because existing databases have already run it.
+ */
+final class PetMigrations {
+
+    // This class only holds the migrations, so it can't be instantiated.
+    private PetMigrations() {}
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = PetMigrations.class.getSimpleName();
+
+    /**
+     * One step of the schema upgrade, from version {@code toVersion - 1} to {@code toVersion}.
+     */
+    abstract static class Migration {
+
+        /** The database version that this migration upgrades to */
+        final int toVersion;
+
+        Migration(int toVersion) {
+            this.toVersion = toVersion;
+        }
+
+        /**
+         * Apply the changes of this version to the database. This runs inside the transaction that
+         * {@link android.database.sqlite.SQLiteOpenHelper} opens for onCreate/onUpgrade, so if it throws
+         * the whole upgrade is rolled back and the database stays at the old version.
+         */
+        abstract void migrate(SQLiteDatabase db);
+    }
+
+
+    /** All of the migrations, ordered by the version they upgrade to. */
+    private static final Migration[] MIGRATIONS = {
+
+            // Version 2: full-text search table over the name and breed of the pets.
+            new Migration(2) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    // FTS4 keeps an inverted index of the words, so a search only reads the entries of the words
+                    // that are searched for, instead of scanning every row like "name LIKE '%x%'" would.
+                    db.execSQL("CREATE VIRTUAL TABLE " + PetEntry.SEARCH_TABLE_NAME + " USING fts4("
+                            + PetEntry.COLUMN_PET_NAME + ", "
+                            + PetEntry.COLUMN_PET_BREED + ");");
+
+                    // The docid of each search row is the _ID of its pet
+                    db.execSQL("INSERT INTO " + PetEntry.SEARCH_TABLE_NAME + " (docid, "
+                            + PetEntry.COLUMN_PET_NAME + ", " + PetEntry.COLUMN_PET_BREED + ") "
+                            + "SELECT " + PetEntry._ID + ", " + PetEntry.COLUMN_PET_NAME + ", " + PetEntry.COLUMN_PET_BREED
+                            + " FROM " + PetEntry.TABLE_NAME + ";");
+
+                    // Keep the search table in sync with the pets table
+                    db.execSQL("CREATE TRIGGER pets_fts_insert AFTER INSERT ON " + PetEntry.TABLE_NAME + " BEGIN "
+                            + "INSERT INTO " + PetEntry.SEARCH_TABLE_NAME + " (docid, "
+                            + PetEntry.COLUMN_PET_NAME + ", " + PetEntry.COLUMN_PET_BREED + ") "
+                            + "VALUES (new." + PetEntry._ID + ", new." + PetEntry.COLUMN_PET_NAME + ", new." + PetEntry.COLUMN_PET_BREED + "); "
+                            + "END;");
+
+                    db.execSQL("CREATE TRIGGER pets_fts_update AFTER UPDATE OF "
+                            + PetEntry.COLUMN_PET_NAME + ", " + PetEntry.COLUMN_PET_BREED + " ON " + PetEntry.TABLE_NAME + " BEGIN "
+                            + "UPDATE " + PetEntry.SEARCH_TABLE_NAME + " SET "
+                            + PetEntry.COLUMN_PET_NAME + " = new." + PetEntry.COLUMN_PET_NAME + ", "
+                            + PetEntry.COLUMN_PET_BREED + " = new." + PetEntry.COLUMN_PET_BREED
+                            + " WHERE docid = old." + PetEntry._ID + "; "
+                            + "END;");
+
+                    db.execSQL("CREATE TRIGGER pets_fts_delete AFTER DELETE ON " + PetEntry.TABLE_NAME + " BEGIN "
+                            + "DELETE FROM " + PetEntry.SEARCH_TABLE_NAME + " WHERE docid = old." + PetEntry._ID + "; "
+                            + "END;");
+                }
+            },
+
+            // Version 3: secondary indexes for selecting and sorting the pets by each of their attributes.
+            new Migration(3) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    createIndex(db, "pets_name_idx", PetEntry.COLUMN_PET_NAME);
+                    createIndex(db, "pets_breed_idx", PetEntry.COLUMN_PET_BREED);
+                    createIndex(db, "pets_gender_idx", PetEntry.COLUMN_PET_GENDER);
+                    createIndex(db, "pets_weight_idx", PetEntry.COLUMN_PET_WEIGHT);
+                }
+            },
+
+            // Version 4: summary tables for the statistics of the shelter, kept up to date by triggers.
+            new Migration(4) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE TABLE " + PetStatsEntry.GENDER_TABLE_NAME + " ("
+                            + PetEntry.COLUMN_PET_GENDER + " INTEGER PRIMARY KEY, "
+                            + PetStatsEntry.COLUMN_PET_COUNT + " INTEGER NOT NULL DEFAULT 0, "
+                            + PetStatsEntry.COLUMN_WEIGHT_SUM + " INTEGER NOT NULL DEFAULT 0);");
+                    db.execSQL("CREATE TABLE " + PetStatsEntry.BREED_TABLE_NAME + " ("
+                            + PetEntry.COLUMN_PET_BREED + " TEXT PRIMARY KEY, "
+                            + PetStatsEntry.COLUMN_PET_COUNT + " INTEGER NOT NULL DEFAULT 0, "
+                            + PetStatsEntry.COLUMN_WEIGHT_SUM + " INTEGER NOT NULL DEFAULT 0);");
+
+                    // Every gender always has a row, even with 0 pets
+                    db.execSQL("INSERT INTO " + PetStatsEntry.GENDER_TABLE_NAME + " (" + PetEntry.COLUMN_PET_GENDER + ") "
+                            + "VALUES (" + PetEntry.GENDER_UNKNOWN + "), (" + PetEntry.GENDER_MALE + "), ("
+                            + PetEntry.GENDER_FEMALE + ");");
+
+                    // Count the pets that are already there, once
+                    db.execSQL("INSERT OR REPLACE INTO " + PetStatsEntry.GENDER_TABLE_NAME + " SELECT "
+                            + PetEntry.COLUMN_PET_GENDER + ", COUNT(*), TOTAL(" + PetEntry.COLUMN_PET_WEIGHT + ")"
+                            + " FROM " + PetEntry.TABLE_NAME + " GROUP BY " + PetEntry.COLUMN_PET_GENDER + ";");
+                    db.execSQL("INSERT INTO " + PetStatsEntry.BREED_TABLE_NAME + " SELECT "
+                            + BREED_KEY + ", COUNT(*), TOTAL(" + PetEntry.COLUMN_PET_WEIGHT + ")"
+                            + " FROM " + PetEntry.TABLE_NAME + " GROUP BY " + BREED_KEY + ";");
+
+                    // From now on, add each new pet to the statistics and take each removed pet out of them
+                    db.execSQL("CREATE TRIGGER pet_stats_insert AFTER INSERT ON " + PetEntry.TABLE_NAME + " BEGIN "
+                            + addToStats("new")
+                            + "END;");
+                    db.execSQL("CREATE TRIGGER pet_stats_delete AFTER DELETE ON " + PetEntry.TABLE_NAME + " BEGIN "
+                            + removeFromStats("old")
+                            + "END;");
+                    db.execSQL("CREATE TRIGGER pet_stats_update AFTER UPDATE OF "
+                            + PetEntry.COLUMN_PET_BREED + ", " + PetEntry.COLUMN_PET_GENDER + ", " + PetEntry.COLUMN_PET_WEIGHT
+                            + " ON " + PetEntry.TABLE_NAME + " BEGIN "
+                            + removeFromStats("old")
+                            + addToStats("new")
+                            + "END;");
+                }
+            },
+
+            // Version 5: progress of the imports of pets from files, so that an import can be resumed.
+            new Migration(5) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE TABLE " + PetImportEntry.TABLE_NAME + " ("
+                            + PetImportEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                            + PetImportEntry.COLUMN_SOURCE + " TEXT NOT NULL UNIQUE, "
+                            + PetImportEntry.COLUMN_RECORDS_READ + " INTEGER NOT NULL DEFAULT 0, "
+                            + PetImportEntry.COLUMN_PETS_IMPORTED + " INTEGER NOT NULL DEFAULT 0, "
+                            + PetImportEntry.COLUMN_RECORDS_REJECTED + " INTEGER NOT NULL DEFAULT 0, "
+                            + PetImportEntry.COLUMN_FINISHED + " INTEGER NOT NULL DEFAULT 0);");
+                }
+            },
+
+            // Version 6: tombstones for soft-deleted pets, which a background compaction purges later.
+            new Migration(6) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    // No index on it: almost every row is 0, and the compaction finds the tombstones in _ID order.
+                    db.execSQL("ALTER TABLE " + PetEntry.TABLE_NAME + " ADD COLUMN "
+                            + PetEntry.COLUMN_PET_DELETED + " INTEGER NOT NULL DEFAULT 0;");
+
+                    // A soft-deleted pet leaves the statistics when it is marked, so purging it later must not
+                    // take it out a second time, and it must not be counted again if it is ever updated.
+                    db.execSQL("DROP TRIGGER pet_stats_delete;");
+                    db.execSQL("DROP TRIGGER pet_stats_update;");
+                    db.execSQL("CREATE TRIGGER pet_stats_delete AFTER DELETE ON " + PetEntry.TABLE_NAME
+                            + " WHEN old." + PetEntry.COLUMN_PET_DELETED + " = 0 BEGIN "
+                            + removeFromStats("old")
+                            + "END;");
+                    db.execSQL("CREATE TRIGGER pet_stats_update AFTER UPDATE OF "
+                            + PetEntry.COLUMN_PET_BREED + ", " + PetEntry.COLUMN_PET_GENDER + ", " + PetEntry.COLUMN_PET_WEIGHT
+                            + " ON " + PetEntry.TABLE_NAME
+                            + " WHEN old." + PetEntry.COLUMN_PET_DELETED + " = 0 BEGIN "
+                            + removeFromStats("old")
+                            + addToStats("new")
+                            + "END;");
+                    db.execSQL("CREATE TRIGGER pet_stats_soft_delete AFTER UPDATE OF " + PetEntry.COLUMN_PET_DELETED
+                            + " ON " + PetEntry.TABLE_NAME
+                            + " WHEN old." + PetEntry.COLUMN_PET_DELETED + " = 0 AND new." + PetEntry.COLUMN_PET_DELETED
+                            + " != 0 BEGIN "
+                            + removeFromStats("old")
+                            + "END;");
+                }
+            },
+
+            // Version 7: covering indexes for the sorted pages of the catalog.
+            new Migration(7) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    // Each index starts with its sort column and _ID, in the order the pages are cut on, and also holds
+                    // every other column a catalog page reads or filters on. A sorted page is then one seek and a short
+                    // walk down the index, without a temp B-tree and without looking up the rows in the table.
+                    // The gender filter is checked on the index entries: with only three genders, an index on it
+                    // would not narrow the rows down much, and SQLite would pick it and then sort what it found.
+                    String others = PetEntry.COLUMN_PET_GENDER + ", " + PetEntry.COLUMN_PET_DELETED;
+                    createIndex(db, "pets_name_sort_idx", PetEntry.COLUMN_PET_NAME + ", " + PetEntry._ID + ", "
+                            + PetEntry.COLUMN_PET_BREED + ", " + PetEntry.COLUMN_PET_WEIGHT + ", " + others);
+                    createIndex(db, "pets_breed_sort_idx", PetEntry.COLUMN_PET_BREED + ", " + PetEntry._ID + ", "
+                            + PetEntry.COLUMN_PET_NAME + ", " + PetEntry.COLUMN_PET_WEIGHT + ", " + others);
+                    createIndex(db, "pets_weight_sort_idx", PetEntry.COLUMN_PET_WEIGHT + ", " + PetEntry._ID + ", "
+                            + PetEntry.COLUMN_PET_NAME + ", " + PetEntry.COLUMN_PET_BREED + ", " + others);
+
+                    // The new indexes start with the same columns as the ones of version 3, so those would only
+                    // slow down the writes.
+                    db.execSQL("DROP INDEX IF EXISTS pets_name_idx;");
+                    db.execSQL("DROP INDEX IF EXISTS pets_breed_idx;");
+                    db.execSQL("DROP INDEX IF EXISTS pets_gender_idx;");
+                    db.execSQL("DROP INDEX IF EXISTS pets_weight_idx;");
+                }
+            },
+
+            // Version 8: the name of the photo file of each pet. The photos themselves are files, see PetPhotoStore.
+            new Migration(8) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("ALTER TABLE " + PetEntry.TABLE_NAME + " ADD COLUMN "
+                            + PetEntry.COLUMN_PET_PHOTO + " TEXT;");
+
+                    // The catalog reads the photo of every pet it shows, so the sort indexes of version 7 have to
+                    // hold it too to stay covering. Most pets have no photo, so it makes them hardly any bigger.
+                    String others = PetEntry.COLUMN_PET_GENDER + ", " + PetEntry.COLUMN_PET_DELETED + ", "
+                            + PetEntry.COLUMN_PET_PHOTO;
+                    db.execSQL("DROP INDEX pets_name_sort_idx;");
+                    db.execSQL("DROP INDEX pets_breed_sort_idx;");
+                    db.execSQL("DROP INDEX pets_weight_sort_idx;");
+                    createIndex(db, "pets_name_sort_idx", PetEntry.COLUMN_PET_NAME + ", " + PetEntry._ID + ", "
+                            + PetEntry.COLUMN_PET_BREED + ", " + PetEntry.COLUMN_PET_WEIGHT + ", " + others);
+                    createIndex(db, "pets_breed_sort_idx", PetEntry.COLUMN_PET_BREED + ", " + PetEntry._ID + ", "
+                            + PetEntry.COLUMN_PET_NAME + ", " + PetEntry.COLUMN_PET_WEIGHT + ", " + others);
+                    createIndex(db, "pets_weight_sort_idx", PetEntry.COLUMN_PET_WEIGHT + ", " + PetEntry._ID + ", "
+                            + PetEntry.COLUMN_PET_NAME + ", " + PetEntry.COLUMN_PET_BREED + ", " + others);
+                }
+            },
+
+            // Version 9: the sites of the shelter with their locations, a spatial index of them,
+            // and the shelter of each pet.
+            new Migration(9) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE TABLE " + ShelterEntry.TABLE_NAME + " ("
+                            + ShelterEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                            + ShelterEntry.COLUMN_SHELTER_NAME + " TEXT NOT NULL, "
+                            + ShelterEntry.COLUMN_SHELTER_LATITUDE + " REAL NOT NULL, "
+                            + ShelterEntry.COLUMN_SHELTER_LONGITUDE + " REAL NOT NULL);");
+                    createShelterIndex(db);
+
+                    // Keep the spatial index in sync with the shelters table
+                    db.execSQL("CREATE TRIGGER shelters_rtree_insert AFTER INSERT ON " + ShelterEntry.TABLE_NAME
+                            + " BEGIN "
+                            + "INSERT INTO " + ShelterEntry.RTREE_TABLE_NAME
+                            + " (id, min_lat, max_lat, min_lon, max_lon) VALUES (new." + ShelterEntry._ID + ", "
+                            + "new." + ShelterEntry.COLUMN_SHELTER_LATITUDE + ", new." + ShelterEntry.COLUMN_SHELTER_LATITUDE + ", "
+                            + "new." + ShelterEntry.COLUMN_SHELTER_LONGITUDE + ", new." + ShelterEntry.COLUMN_SHELTER_LONGITUDE + "); "
+                            + "END;");
+                    db.execSQL("CREATE TRIGGER shelters_rtree_update AFTER UPDATE OF "
+                            + ShelterEntry.COLUMN_SHELTER_LATITUDE + ", " + ShelterEntry.COLUMN_SHELTER_LONGITUDE
+                            + " ON " + ShelterEntry.TABLE_NAME + " BEGIN "
+                            + "UPDATE " + ShelterEntry.RTREE_TABLE_NAME + " SET "
+                            + "min_lat = new." + ShelterEntry.COLUMN_SHELTER_LATITUDE + ", "
+                            + "max_lat = new." + ShelterEntry.COLUMN_SHELTER_LATITUDE + ", "
+                            + "min_lon = new." + ShelterEntry.COLUMN_SHELTER_LONGITUDE + ", "
+                            + "max_lon = new." + ShelterEntry.COLUMN_SHELTER_LONGITUDE
+                            + " WHERE id = old." + ShelterEntry._ID + "; "
+                            + "END;");
+
+                    // Foreign keys aren't enforced (that would cost a lookup of the shelter for every pet inserted),
+                    // so this trigger is what leaves the pets of a deleted shelter without a shelter.
+                    db.execSQL("CREATE TRIGGER shelters_delete AFTER DELETE ON " + ShelterEntry.TABLE_NAME
+                            + " BEGIN "
+                            + "DELETE FROM " + ShelterEntry.RTREE_TABLE_NAME + " WHERE id = old." + ShelterEntry._ID + "; "
+                            + "UPDATE " + PetEntry.TABLE_NAME + " SET " + PetEntry.COLUMN_PET_SHELTER + " = NULL"
+                            + " WHERE " + PetEntry.COLUMN_PET_SHELTER + " = old." + ShelterEntry._ID + "; "
+                            + "END;");
+
+                    db.execSQL("ALTER TABLE " + PetEntry.TABLE_NAME + " ADD COLUMN " + PetEntry.COLUMN_PET_SHELTER
+                            + " INTEGER REFERENCES " + ShelterEntry.TABLE_NAME + "(" + ShelterEntry._ID + ");");
+
+                    // The nearby pets are read one shelter at a time, by gender, so this index finds the pets of a
+                    // shelter without touching those of the others (and serves the trigger above too).
+                    createIndex(db, "pets_shelter_idx", PetEntry.COLUMN_PET_SHELTER + ", "
+                            + PetEntry.COLUMN_PET_GENDER + ", " + PetEntry.COLUMN_PET_DELETED);
+                }
+            },
+
+            // Version 10: the bookkeeping of the sync, the clock and dirty columns of each pet and the cursors.
+            // They stay empty until the device first syncs, which is when PetSyncTracker adds the triggers that
+            // track the changes, so a device that never syncs doesn't pay for them on every write.
+            new Migration(10) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    StringBuilder clocks = new StringBuilder();
+                    for (String clockColumn : PetSyncEntry.CLOCK_COLUMNS) {
+                        clocks.append(", ").append(clockColumn).append(" INTEGER NOT NULL");
+                    }
+                    db.execSQL("CREATE TABLE " + PetSyncEntry.TABLE_NAME + " ("
+                            + PetSyncEntry.COLUMN_PET_ID + " INTEGER UNIQUE, "
+                            + PetSyncEntry.COLUMN_ORIGIN + " TEXT NOT NULL, "
+                            + PetSyncEntry.COLUMN_ORIGIN_ID + " INTEGER NOT NULL, "
+                            + PetSyncEntry.COLUMN_SEQ + " INTEGER NOT NULL, "
+                            + PetSyncEntry.COLUMN_DIRTY + " INTEGER NOT NULL"
+                            + clocks + ", "
+                            + "UNIQUE (" + PetSyncEntry.COLUMN_ORIGIN + ", " + PetSyncEntry.COLUMN_ORIGIN_ID + "));");
+
+                    // The changes to push are read in the order of their seq, and a new clock value is one more
+                    // than the highest seq, which this index finds without a scan.
+                    db.execSQL("CREATE INDEX pet_sync_seq_idx ON " + PetSyncEntry.TABLE_NAME
+                            + " (" + PetSyncEntry.COLUMN_SEQ + ");");
+
+                    db.execSQL("CREATE TABLE " + PetSyncEntry.STATE_TABLE_NAME + " ("
+                            + PetSyncEntry.COLUMN_DEVICE_ID + " TEXT NOT NULL, "
+                            + PetSyncEntry.COLUMN_CLOCK + " INTEGER NOT NULL DEFAULT 0, "
+                            + PetSyncEntry.COLUMN_PULL_CURSOR + " INTEGER NOT NULL DEFAULT 0, "
+                            + PetSyncEntry.COLUMN_PUSHED_SEQ + " INTEGER NOT NULL DEFAULT 0);");
+                }
+            },
+    };
+
+
+    /** The version of the database after all of the migrations have run. */
+    static final int LATEST_VERSION = MIGRATIONS[MIGRATIONS.length - 1].toVersion;
+
+
+    /**
+     * Upgrade the database from {@code fromVersion} to {@code toVersion} by running every migration
+     * in between, in order.
+     *
+     * @throws IllegalStateException if a version in between has no migration
+     */
+    static void migrate(SQLiteDatabase db, int fromVersion, int toVersion) {
+        int version = fromVersion;
+        for (Migration migration : MIGRATIONS) {
+            if (migration.toVersion <= version || migration.toVersion > toVersion) {
+                continue;
+            }
+            if (migration.toVersion != version + 1) {
+                throw new IllegalStateException("No migration from version " + version
+                        + " to version " + (version + 1));
+            }
+            migration.migrate(db);
+            version = migration.toVersion;
+        }
+
+        if (version != toVersion) {
+            throw new IllegalStateException("No migration from version " + version
+                    + " to version " + toVersion);
+        }
+    }
+
+
+    /**
+     * The key of a pet in the breed statistics: its breed, or an empty string if it has none.
+     * Without the prefix, for use in a SELECT from the pets table.
+     */
+    private static final String BREED_KEY = "IFNULL(" + PetEntry.COLUMN_PET_BREED + ", '')";
+
+    /**
+     * Returns the trigger statements that add the pet in the given row ("new" or "old") to the statistics.
+     */
+    private static String addToStats(String row) {
+        String breedKey = "IFNULL(" + row + "." + PetEntry.COLUMN_PET_BREED + ", '')";
+        return "INSERT OR IGNORE INTO " + PetStatsEntry.GENDER_TABLE_NAME + " (" + PetEntry.COLUMN_PET_GENDER + ") "
+                + "VALUES (" + row + "." + PetEntry.COLUMN_PET_GENDER + "); "
+                + "UPDATE " + PetStatsEntry.GENDER_TABLE_NAME + " SET "
+                + PetStatsEntry.COLUMN_PET_COUNT + " = " + PetStatsEntry.COLUMN_PET_COUNT + " + 1, "
+                + PetStatsEntry.COLUMN_WEIGHT_SUM + " = " + PetStatsEntry.COLUMN_WEIGHT_SUM + " + " + row + "." + PetEntry.COLUMN_PET_WEIGHT
+                + " WHERE " + PetEntry.COLUMN_PET_GENDER + " = " + row + "." + PetEntry.COLUMN_PET_GENDER + "; "
+                + "INSERT OR IGNORE INTO " + PetStatsEntry.BREED_TABLE_NAME + " (" + PetEntry.COLUMN_PET_BREED + ") "
+                + "VALUES (" + breedKey + "); "
+                + "UPDATE " + PetStatsEntry.BREED_TABLE_NAME + " SET "
+                + PetStatsEntry.COLUMN_PET_COUNT + " = " + PetStatsEntry.COLUMN_PET_COUNT + " + 1, "
+                + PetStatsEntry.COLUMN_WEIGHT_SUM + " = " + PetStatsEntry.COLUMN_WEIGHT_SUM + " + " + row + "." + PetEntry.COLUMN_PET_WEIGHT
+                + " WHERE " + PetEntry.COLUMN_PET_BREED + " = " + breedKey + "; ";
+    }
+
+    /**
+     * Returns the trigger statements that take the pet in the given row ("new" or "old") out of the statistics.
+     * Breeds that have no pets left are removed, so the breed statistics only list breeds that are in the shelter.
+     */
+    private static String removeFromStats(String row) {
+        String breedKey = "IFNULL(" + row + "." + PetEntry.COLUMN_PET_BREED + ", '')";
+        return "UPDATE " + PetStatsEntry.GENDER_TABLE_NAME + " SET "
+                + PetStatsEntry.COLUMN_PET_COUNT + " = " + PetStatsEntry.COLUMN_PET_COUNT + " - 1, "
+                + PetStatsEntry.COLUMN_WEIGHT_SUM + " = " + PetStatsEntry.COLUMN_WEIGHT_SUM + " - " + row + "." + PetEntry.COLUMN_PET_WEIGHT
+                + " WHERE " + PetEntry.COLUMN_PET_GENDER + " = " + row + "." + PetEntry.COLUMN_PET_GENDER + "; "
+                + "UPDATE " + PetStatsEntry.BREED_TABLE_NAME + " SET "
+                + PetStatsEntry.COLUMN_PET_COUNT + " = " + PetStatsEntry.COLUMN_PET_COUNT + " - 1, "
+                + PetStatsEntry.COLUMN_WEIGHT_SUM + " = " + PetStatsEntry.COLUMN_WEIGHT_SUM + " - " + row + "." + PetEntry.COLUMN_PET_WEIGHT
+                + " WHERE " + PetEntry.COLUMN_PET_BREED + " = " + breedKey + "; "
+                + "DELETE FROM " + PetStatsEntry.BREED_TABLE_NAME
+                + " WHERE " + PetEntry.COLUMN_PET_BREED + " = " + breedKey
+                + " AND " + PetStatsEntry.COLUMN_PET_COUNT + " <= 0; ";
+    }
+
+    /**
+     * Create the spatial index of the shelters, {@link ShelterEntry#RTREE_TABLE_NAME}.
+     *
+     * It is an R*Tree virtual table where the SQLite of the device has the R*Tree module. A query for the shelters
+     * inside a bounding box then only visits the branches of the tree that overlap the box, whatever the number of
+     * shelters. Not every build of SQLite on Android has the module, so where it is missing this falls back to a
+     * plain table with the same columns and an index on the latitude: the same queries still work, and only
+     * read the shelters in the latitude band of the box.
+     */
+    private static void createShelterIndex(SQLiteDatabase db) {
+        try {
+            db.execSQL("CREATE VIRTUAL TABLE " + ShelterEntry.RTREE_TABLE_NAME
+                    + " USING rtree(id, min_lat, max_lat, min_lon, max_lon);");
+        } catch (SQLiteException e) {
+            // "no such module: rtree". A failed statement doesn't end the transaction of the upgrade.
+            Log.w(LOG_TAG, "No R*Tree module, indexing the shelters with a B-tree instead", e);
+            createShelterBTreeIndex(db);
+        }
+    }
+
+    /**
+     * Create the spatial index of the shelters as a plain table, for a SQLite without the R*Tree module.
+     * Package-private so that the tests can run the nearby pets query on it where the module is there.
+     */
+    static void createShelterBTreeIndex(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + ShelterEntry.RTREE_TABLE_NAME + " ("
+                + "id INTEGER PRIMARY KEY, min_lat REAL, max_lat REAL, min_lon REAL, max_lon REAL);");
+        db.execSQL("CREATE INDEX " + ShelterEntry.RTREE_TABLE_NAME + "_lat_idx ON "
+                + ShelterEntry.RTREE_TABLE_NAME + " (min_lat, min_lon);");
+    }
+
+    /**
+     * Create an index on the given columns of the pets table, if it doesn't exist yet.
+     */
+    private static void createIndex(SQLiteDatabase db, String indexName, String columns) {
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + indexName
+                + " ON " + PetEntry.TABLE_NAME + " (" + columns + ");");
+    }
+}
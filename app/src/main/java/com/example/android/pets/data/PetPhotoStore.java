@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.pets.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.graphics.BitmapFactory;
+import android.os.ParcelFileDescriptor;
+import android.text.TextUtils;
+import android.util.Log;
+import android.webkit.MimeTypeMap;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The files that hold the photos of the pets, in a directory of the app's private storage.
+ * The pets table only holds the name of each pet's file (see {@link PetEntry#COLUMN_PET_PHOTO}): a photo in a
+ * BLOB column would be copied through the cursor windows of every query that reads the row.
+ *
+ * A photo file is named after its pet and the time it was stored ("12-1476432000000.jpg"), so a new photo never
+ * overwrites the old one: the row switches from the old name to the new one in one update, and a reader that
+ * already opened the old file keeps reading a complete photo. Files that no row refers to (because their pet was
+ * deleted, or their photo replaced while something still had it open) are removed by {@link #sweep(SQLiteDatabase)}.
+ */
+class PetPhotoStore {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = PetPhotoStore.class.getSimpleName();
+
+    /** Name of the directory of the photos of the shelter's database, in the app's files directory */
+    private static final String DIRECTORY_NAME = "pet_photos";
+
+    /** Suffix of a photo that is still being received */
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /**
+     * The sweep leaves the files younger than this alone, because a new photo is stored (or still being received)
+     * a moment before its row is updated to it
+     */
+    private static final long SWEEP_MIN_AGE_MILLIS = 10 * 60 * 1000;
+
+    /** Size of the buffer for receiving a photo */
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    /** The directory of the photos */
+    private final File mDirectory;
+
+    /**
+     * Constructs a new {@link PetPhotoStore}.
+     *
+     * @param context of the app
+     */
+    PetPhotoStore(Context context) {
+        mDirectory = new File(context.getFilesDir(), DIRECTORY_NAME);
+    }
+
+    /**
+     * Open the photo file with the given name for reading.
+     */
+    ParcelFileDescriptor openForReading(String fileName) throws FileNotFoundException {
+        return ParcelFileDescriptor.open(getFile(fileName), ParcelFileDescriptor.MODE_READ_ONLY);
+    }
+
+    /**
+     * Returns the MIME type of the photo file with the given name, or null if it isn't known.
+     */
+    static String getMimeType(String fileName) {
+        return MimeTypeMap.getSingleton().getMimeTypeFromExtension(MimeTypeMap.getFileExtensionFromUrl(fileName));
+    }
+
+    /**
+     * Read a new photo for the given pet from the input until its end, and store it in a new file.
+     * Blocking, so it must be called on a background thread. The input is closed.
+     *
+     * @return the name of the new file, or null if the input wasn't an image or couldn't be stored
+     */
+    String receive(long id, ParcelFileDescriptor input) {
+        String baseName = id + "-" + System.currentTimeMillis();
+        File tempFile = new File(mDirectory, baseName + TEMP_SUFFIX);
+        InputStream in = new ParcelFileDescriptor.AutoCloseInputStream(input);
+        try {
+            if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+                throw new IOException("Can't create " + mDirectory);
+            }
+            FileOutputStream out = new FileOutputStream(tempFile);
+            try {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int count;
+                while ((count = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, count);
+                }
+                out.getFD().sync();
+            } finally {
+                out.close();
+            }
+
+            // Only keep images, and name the file after their type so that it can be served with it.
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeFile(tempFile.getPath(), options);
+            String extension = options.outMimeType == null ? null
+                    : MimeTypeMap.getSingleton().getExtensionFromMimeType(options.outMimeType);
+            if (options.outWidth <= 0 || options.outHeight <= 0 || extension == null) {
+                Log.w(LOG_TAG, "Not storing the photo of pet " + id + ": it isn't an image");
+                delete(tempFile);
+                return null;
+            }
+
+            File photoFile = new File(mDirectory, baseName + "." + extension);
+            if (!tempFile.renameTo(photoFile)) {
+                throw new IOException("Can't rename " + tempFile + " to " + photoFile);
+            }
+            return photoFile.getName();
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Failed to store the photo of pet " + id, e);
+            delete(tempFile);
+            return null;
+        } finally {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // Nothing left to read anyway
+            }
+        }
+    }
+
+    /**
+     * Delete the photo file with the given name.
+     */
+    void delete(String fileName) {
+        try {
+            delete(getFile(fileName));
+        } catch (FileNotFoundException e) {
+            Log.w(LOG_TAG, "Not deleting invalid photo file name " + fileName);
+        }
+    }
+
+    /**
+     * Delete the photo files (and the leftovers of photos that were never received completely) that no pet
+     * refers to anymore, except for the ones that were only just written.
+     * Blocking, so it must be called on a background thread.
+     *
+     * @return the number of files deleted
+     */
+    int sweep(SQLiteDatabase database) {
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return 0;
+        }
+
+        long cutoff = System.currentTimeMillis() - SWEEP_MIN_AGE_MILLIS;
+        int filesDeleted = 0;
+        for (File file : files) {
+            if (Thread.currentThread().isInterrupted()) {
+                break;
+            }
+            if (file.lastModified() > cutoff) {
+                continue;
+            }
+            if (file.getName().endsWith(TEMP_SUFFIX) || !isReferenced(database, file.getName())) {
+                delete(file);
+                filesDeleted++;
+            }
+        }
+        return filesDeleted;
+    }
+
+    /**
+     * Returns true if the pet that the photo file is named after still has it as its photo.
+     * This looks up the pet by its _ID, so the sweep never has to scan the table.
+     */
+    private static boolean isReferenced(SQLiteDatabase database, String fileName) {
+        int dash = fileName.indexOf('-');
+        if (dash <= 0 || !TextUtils.isDigitsOnly(fileName.substring(0, dash))) {
+            // Not one of ours
+            return false;
+        }
+        Cursor cursor = database.query(PetEntry.TABLE_NAME, new String[] { PetEntry.COLUMN_PET_PHOTO },
+                PetEntry._ID + "=?", new String[] { fileName.substring(0, dash) }, null, null, null);
+        try {
+            return cursor.moveToFirst() && fileName.equals(cursor.getString(0));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns the photo file with the given name.
+     *
+     * @throws FileNotFoundException if the name isn't the plain name of a file (and could point out of the directory)
+     */
+    private File getFile(String fileName) throws FileNotFoundException {
+        if (TextUtils.isEmpty(fileName) || fileName.indexOf(File.separatorChar) >= 0 || fileName.startsWith(".")) {
+            throw new FileNotFoundException("Invalid photo file name " + fileName);
+        }
+        return new File(mDirectory, fileName);
+    }
+
+    private static void delete(File file) {
+        if (!file.delete() && file.exists()) {
+            Log.w(LOG_TAG, "Failed to delete " + file);
+        }
+    }
+}
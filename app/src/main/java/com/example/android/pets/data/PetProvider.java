@@ -1,14 +1,40 @@
 package com.example.android.pets.data;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.MatrixCursor;
+import android.database.SQLException;
 import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
 import android.util.Log;  //If this is the first Log statement you’ve added to the provider, make sure you add this import statement to the top of your provider file, so it knows what Log class you’re referring to.
 
-import java.net.URI;
+import com.example.android.pets.R;
+import com.example.android.pets.data.PetContract.PetImportEntry;
+import com.example.android.pets.data.PetContract.PetMetricsEntry;
+import com.example.android.pets.data.PetContract.PetStatsEntry;
+import com.example.android.pets.data.PetContract.PetSyncEntry;
+import com.example.android.pets.data.PetContract.ShelterEntry;
+
+import java.io.FileDescriptor;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 /**
  * {@link ContentProvider} for Pets app.
@@ -21,6 +47,39 @@ public class PetProvider extends ContentProvider {
     /** URI matcher code for the content URI for a single pet (a single row) in the pets table */
     private static final int PET_ID = 101;
 
+    /** URI matcher code for the content URI that searches the name and breed of the pets */
+    private static final int SEARCH = 102;
+
+    /** URI matcher code for the content URI for the statistics of the shelter */
+    private static final int STATS = 103;
+
+    /** URI matcher code for the content URIs that export all of the pets as a file */
+    private static final int EXPORT = 104;
+
+    /** URI matcher code for the content URI for the progress of a single import */
+    private static final int IMPORT = 105;
+
+    /** URI matcher code for the content URI for the metrics of the provider */
+    private static final int METRICS = 106;
+
+    /** URI matcher code for the content URI for the photo of a single pet */
+    private static final int PET_PHOTO = 107;
+
+    /** URI matcher code for the content URI for the whole shelters table */
+    private static final int SHELTERS = 108;
+
+    /** URI matcher code for the content URI for a single shelter */
+    private static final int SHELTER_ID = 109;
+
+    /** URI matcher code for the content URI for the pets near a location */
+    private static final int NEARBY = 110;
+
+    /** URI matcher code for the content URI for the changes of the sync */
+    private static final int SYNC_CHANGES = 111;
+
+    /** URI matcher code for the content URI for the state of the sync */
+    private static final int SYNC_STATE = 112;
+
     /**
      * Create a UriMatcher object to match a content URI to the above corresponding matcher codes.
      * The input passed into the constructor represents the code to return for the root URI.
@@ -36,8 +95,26 @@ public class PetProvider extends ContentProvider {
 
         sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY, PetContract.PATH_PETS, PETS); //括號中的項目分別為(content authority, 表格名稱,整個表格的matcher code)
         sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY, PetContract.PATH_PETS + "/#", PET_ID); //(content authority, 列的名稱,列的matcher code), #字號是integer wild card
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY, PetContract.PATH_PETS + "/" + PetContract.PATH_SEARCH + "/*", SEARCH); // *字號是任意字串的wild card
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY, PetContract.PATH_PETS + "/" + PetContract.PATH_STATS, STATS);
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY, PetContract.PATH_PETS + "/" + PetContract.PATH_EXPORT + "/*", EXPORT);
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY, PetContract.PATH_IMPORTS + "/*", IMPORT);
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY, PetContract.PATH_PETS + "/" + PetContract.PATH_METRICS, METRICS);
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY, PetContract.PATH_PETS + "/#/" + PetContract.PATH_PHOTO, PET_PHOTO);
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY, PetContract.PATH_SHELTERS, SHELTERS);
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY, PetContract.PATH_SHELTERS + "/#", SHELTER_ID);
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY, PetContract.PATH_PETS + "/" + PetContract.PATH_NEARBY, NEARBY);
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY, PetContract.PATH_SYNC + "/" + PetSyncEntry.PATH_CHANGES, SYNC_CHANGES);
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY, PetContract.PATH_SYNC + "/" + PetSyncEntry.PATH_STATE, SYNC_STATE);
     }
 
+    /** The URI matcher codes, and their URI patterns, that the metrics are recorded for */
+    private static final int[] METRICS_CODES = { PETS, PET_ID, SEARCH, STATS, EXPORT, IMPORT, METRICS, PET_PHOTO, SHELTERS, SHELTER_ID, NEARBY,
+            SYNC_CHANGES, SYNC_STATE };
+    private static final String[] METRICS_PATTERNS = {
+            "pets", "pets/#", "pets/search/*", "pets/stats", "pets/export/*", "imports/*", "pets/_metrics", "pets/#/photo",
+            "shelters", "shelters/#", "pets/nearby", "sync/changes", "sync/state" };
+
 
     /** Tag for the log messages */
     //Since we’ll be logging multiple times throughout this file,
@@ -49,6 +126,63 @@ public class PetProvider extends ContentProvider {
     /** Database helper object */
     private PetDbHelper mDbHelper;
 
+    /** Upper limit of the memory taken up by the cache of single pets, in bytes */
+    private static final int ROW_CACHE_MAX_BYTES = 1024 * 1024;
+
+    /** Cache of single pets, for the queries of the PET_ID code */
+    private PetRowCache mRowCache;
+
+    /** Call counters and latency histograms, see {@link PetMetricsEntry} */
+    private final PetMetrics mMetrics = new PetMetrics(METRICS_CODES, METRICS_PATTERNS);
+
+    /** The last queries that were slower than its threshold */
+    private final PetSlowQueryLog mSlowQueries = new PetSlowQueryLog();
+
+    /** Precompiled statements for the write paths, created on first use (see getStatements) */
+    private PetStatements mStatements;
+
+    /** The files of the photos of the pets */
+    private PetPhotoStore mPhotoStore;
+
+    /** Purges the soft-deleted pets and shrinks the database file after deletes */
+    private PetCompactor mCompactor;
+
+    /** Opens the shelter's database in the background when the provider is created */
+    private PetWarmUp mWarmUp;
+
+    /** Selection that leaves out the soft-deleted pets. Every read and write of the pets goes through it. */
+    private static final String LIVE_PETS = PetContract.PetEntry.COLUMN_PET_DELETED + "=0";
+
+    /** Number of nearby pets returned when the URI doesn't ask for a number */
+    private static final int DEFAULT_NEARBY_LIMIT = 100;
+
+    /** The columns of the nearby pets when the query doesn't ask for any */
+    private static final String[] NEARBY_DEFAULT_PROJECTION = {
+            PetContract.PetEntry._ID,
+            PetContract.PetEntry.COLUMN_PET_NAME,
+            PetContract.PetEntry.COLUMN_PET_BREED,
+            PetContract.PetEntry.COLUMN_PET_GENDER,
+            PetContract.PetEntry.COLUMN_PET_WEIGHT,
+            PetContract.PetEntry.COLUMN_PET_PHOTO,
+            PetContract.PetEntry.COLUMN_PET_SHELTER,
+            PetContract.PetEntry.COLUMN_DISTANCE_KM };
+
+    /** The columns of each pet in an export */
+    private static final String[] EXPORT_COLUMNS = {
+            PetContract.PetEntry._ID,
+            PetContract.PetEntry.COLUMN_PET_NAME,
+            PetContract.PetEntry.COLUMN_PET_BREED,
+            PetContract.PetEntry.COLUMN_PET_GENDER,
+            PetContract.PetEntry.COLUMN_PET_WEIGHT };
+
+    /**
+     * Set on the thread that is currently running {@link #applyBatch(ArrayList)}, to the pets it changed so far.
+     * While a batch is running, the individual insert/update/delete calls must not notify observers,
+     * because the batch sends a single notification once the whole transaction has been committed.
+     * For the same reason their cached rows are only dropped once the transaction has ended, see {@link #invalidatePet}.
+     */
+    private final ThreadLocal<BatchChanges> mApplyingBatch = new ThreadLocal<>();
+
 
     /**
      * Initialize the provider and the database helper object.
@@ -57,39 +191,90 @@ public class PetProvider extends ContentProvider {
     public boolean onCreate() {
         // Create and initialize a PetDbHelper object to gain access to the pets database.
         mDbHelper = new PetDbHelper(getContext());
+
+        // Give the cache of single pets 1/64 of the memory available to the app, up to 1 MB.
+        mRowCache = new PetRowCache((int) Math.min(ROW_CACHE_MAX_BYTES, Runtime.getRuntime().maxMemory() / 64));
+
+        // Pick up the soft-deleted pets that a previous process didn't get to purge.
+        mPhotoStore = new PetPhotoStore(getContext());
+        mCompactor = new PetCompactor(mDbHelper, mPhotoStore);
+        mCompactor.schedule();
+
+        // The first query of the shelter's database is the catalog's first page, so get the database open and
+        // that page read while the catalog is still starting. (onCreate runs on the main thread, so this mustn't.)
+        mWarmUp = new PetWarmUp(mDbHelper, getContext().getResources().getInteger(R.integer.catalog_page_size));
+        mWarmUp.start();
         return true;
     }
 
 
     /**
-     * Perform the query for the given URI. Use the given projection, selection, selection arguments, and sort order.
+     * Perform the query for the given URI, and record how long it took in the metrics.
      */
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
                         String sortOrder) {
+        long startNanos = System.nanoTime();
+        int rows = 0;
+        boolean failed = true;
+        try {
+            Cursor cursor = performQuery(uri, projection, selection, selectionArgs, sortOrder);
+            rows = cursor.getCount();
+            failed = false;
+            return cursor;
+        } finally {
+            mMetrics.record(PetMetrics.QUERY, sUriMatcher.match(uri), startNanos, rows, failed);
+        }
+    }
+
+    /**
+     * Perform the query for the given URI. Use the given projection, selection, selection arguments, and sort order.
+     */
+    private Cursor performQuery(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                                String sortOrder) {
         // Get readable database
         SQLiteDatabase database = mDbHelper.getReadableDatabase();
 
         // This cursor will hold the result of the query
         Cursor cursor= null;
 
+        // The URI whose changes the cursor should be reloaded for
+        Uri notificationUri = uri;
+
         // Figure out if the URI matcher can match the URI to a specific code
         int match = sUriMatcher.match(uri);
         switch (match) {
             case PETS:
+                selection = DatabaseUtils.concatenateWhere(LIVE_PETS, selection);
+
+                // If the URI asks for a single page of pets (?after_id=N&limit=M), use keyset pagination.
+                // The sort order and the selection (for example a filter on the gender) apply to the page.
+                if (isPageQuery(uri)) {
+                    cursor = queryPage(database, uri, projection, selection, selectionArgs, sortOrder);
+                    break;
+                }
+
                 // For the PETS code, query the pets table directly with the given
                 // projection, selection, selection arguments, and sort order. The cursor
                 // could contain multiple rows of the pets table.
-                cursor = database.query(
+                cursor = queryTable(database,
                         PetContract.PetEntry.TABLE_NAME,   // The table to query
                         projection,            // The columns to return. If we write "null" here, then all the columns will be selected by default
                         selection,                  // The columns for the WHERE clause
                         selectionArgs,                  // The values for the WHERE clause
-                        null,                  // Don't group the rows
-                        null,                  // Don't filter by row groups
-                        sortOrder);
+                        sortOrder,
+                        null);                 // Don't limit the number of rows
                 break;
             case PET_ID:
+                // The editor opens the same pets over and over, so try the cache first.
+                // (Queries with an extra selection are rare, and go straight to the database.)
+                if (selection == null) {
+                    cursor = queryPetCached(database, ContentUris.parseId(uri), projection);
+                    if (cursor != null) {
+                        break;
+                    }
+                }
+
                 // For the PET_ID code, extract out the ID from the URI.
                 // For an example URI such as "content://com.example.android.pets/pets/3",
                 // the selection will be "_id=?" and the selection argument will be a
@@ -98,13 +283,80 @@ public class PetProvider extends ContentProvider {
                 // For every "?" in the selection, we need to have an element in the selection
                 // arguments that will fill in the "?". Since we have 1 question mark in the
                 // selection, we have 1 String in the selection arguments' String array.
-                selection = PetContract.PetEntry._ID + "=?";
-                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
+                selection = DatabaseUtils.concatenateWhere(PetContract.PetEntry._ID + "=? AND " + LIVE_PETS, selection);
+                selectionArgs = DatabaseUtils.appendSelectionArgs(
+                        new String[] { String.valueOf(ContentUris.parseId(uri)) }, selectionArgs);
 
                 // This will perform a query on the pets table where the _id equals 3 to return a
                 // Cursor containing that row of the table.
-                cursor = database.query(PetContract.PetEntry.TABLE_NAME, projection, selection, selectionArgs,
-                        null, null, sortOrder);
+                cursor = queryTable(database, PetContract.PetEntry.TABLE_NAME, projection, selection, selectionArgs,
+                        sortOrder, null);
+                break;
+            case SEARCH:
+                // For the SEARCH code, only keep the pets whose docid shows up in the full-text search table
+                // for the words in the last path segment. The search table's index finds them without scanning the pets.
+                // The search table still has the soft-deleted pets until they are purged, so leave them out here.
+                selection = DatabaseUtils.concatenateWhere(LIVE_PETS, selection);
+                String matchQuery = buildMatchQuery(uri.getLastPathSegment());
+                if (matchQuery == null) {
+                    // Nothing searchable was typed in (only spaces or punctuation), so nothing matches.
+                    selection = DatabaseUtils.concatenateWhere(selection, "0");
+                } else {
+                    selection = DatabaseUtils.concatenateWhere(selection, PetContract.PetEntry._ID
+                            + " IN (SELECT docid FROM " + PetContract.PetEntry.SEARCH_TABLE_NAME
+                            + " WHERE " + PetContract.PetEntry.SEARCH_TABLE_NAME + " MATCH ?)");
+                    selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs, new String[] { matchQuery });
+                }
+
+                // Search results can be paged just like the whole table.
+                if (isPageQuery(uri)) {
+                    cursor = queryPage(database, uri, projection, selection, selectionArgs, sortOrder);
+                } else {
+                    cursor = queryTable(database, PetContract.PetEntry.TABLE_NAME, projection, selection, selectionArgs,
+                            sortOrder, null);
+                }
+                break;
+            case STATS:
+                cursor = queryStats(database, projection, selection, selectionArgs, sortOrder);
+
+                // The statistics change with every pet, so watch the whole pets URI (including the row URIs under it).
+                notificationUri = PetContract.PetEntry.CONTENT_URI;
+                break;
+            case IMPORT:
+                selection = DatabaseUtils.concatenateWhere(selection, PetImportEntry.COLUMN_SOURCE + "=?");
+                selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs,
+                        new String[] { uri.getLastPathSegment() });
+                cursor = queryTable(database, PetImportEntry.TABLE_NAME, projection, selection, selectionArgs,
+                        sortOrder, null);
+                break;
+            case METRICS:
+                cursor = mMetrics.snapshot();
+                break;
+            case NEARBY:
+                cursor = queryNearby(database, uri, projection, selection, selectionArgs);
+
+                // Watch the whole pets URI, like the statistics. Changes to the shelters notify it too.
+                notificationUri = PetContract.PetEntry.CONTENT_URI;
+                break;
+            case SHELTERS:
+                cursor = queryTable(database, ShelterEntry.TABLE_NAME, projection, selection, selectionArgs,
+                        sortOrder, null);
+                break;
+            case SHELTER_ID:
+                cursor = queryTable(database, ShelterEntry.TABLE_NAME, projection, shelterSelection(selection),
+                        shelterSelectionArgs(uri, selectionArgs), sortOrder, null);
+                break;
+            case SYNC_CHANGES:
+                // The columns and the order are fixed, see PetSyncTracker. Only the limit can be given.
+                String limit = uri.getQueryParameter(PetContract.QUERY_PARAMETER_LIMIT) == null ? null
+                        : String.valueOf(parseLongParameter(uri, PetContract.QUERY_PARAMETER_LIMIT, 0));
+                cursor = queryTable(getSyncDatabase(), PetSyncTracker.CHANGES_TABLE,
+                        PetSyncTracker.CHANGES_PROJECTION, PetSyncTracker.CHANGES_SELECTION, null,
+                        PetSyncTracker.CHANGES_SORT_ORDER, limit);
+                break;
+            case SYNC_STATE:
+                cursor = queryTable(getSyncDatabase(), PetSyncEntry.STATE_TABLE_NAME, PetSyncTracker.STATE_PROJECTION,
+                        null, null, null, null);
                 break;
             default:
                 throw new IllegalArgumentException("Cannot query unknown URI " + uri);
@@ -112,21 +364,458 @@ public class PetProvider extends ContentProvider {
 
         // Set Notification URL on the cursor so we know what content URI the cursor was created for.
         // If the data at this URL changes, then we need to update the cursor.
-        cursor.setNotificationUri(getContext().getContentResolver(), uri);
+        cursor.setNotificationUri(getContext().getContentResolver(), notificationUri);
 
         return cursor;
     }
 
 
+    /**
+     * Helper method for the query method above. Returns the pet with the given _ID from the cache, or reads
+     * the whole row from the database and caches it.
+     *
+     * @return a cursor with the columns of the projection, or null if the projection asks for a column
+     *         that isn't in the pets table (the normal query then reports the error)
+     */
+    private Cursor queryPetCached(SQLiteDatabase database, long id, String[] projection) {
+        if (mApplyingBatch.get() != null) {
+            // The batch sees its own uncommitted changes, which must neither be cached nor be hidden by the cache
+            return queryTable(database, PetContract.PetEntry.TABLE_NAME, projection,
+                    PetContract.PetEntry._ID + "=? AND " + LIVE_PETS, new String[] { String.valueOf(id) }, null, null);
+        }
+
+        Cursor cursor = mRowCache.get(id, projection);
+        if (cursor != null) {
+            return cursor;
+        }
+
+        // Read the generation before the query, so that a row that changes while we're reading it isn't cached.
+        long generation = mRowCache.getGeneration();
+        Cursor row = queryTable(database, PetContract.PetEntry.TABLE_NAME, null,
+                PetContract.PetEntry._ID + "=? AND " + LIVE_PETS, new String[] { String.valueOf(id) }, null, null);
+        try {
+            if (row.moveToFirst()) {
+                return mRowCache.put(id, row, generation, projection);
+            }
+            // There is no pet with this _ID
+            return new MatrixCursor(projection == null ? row.getColumnNames() : projection, 0);
+        } finally {
+            row.close();
+        }
+    }
+
+    /**
+     * Helper method for the query method above. Returns the statistics of the shelter: one
+     * {@link PetStatsEntry#KIND_TOTAL} row, one {@link PetStatsEntry#KIND_GENDER} row per gender
+     * and one {@link PetStatsEntry#KIND_BREED} row per breed.
+     *
+     * The counts and weights come from the summary tables that the triggers of the pets table keep up to date,
+     * so this never reads the pets themselves: it costs the same with 10 pets or with 100000.
+     * The projection, selection and sort order apply to the columns of {@link PetStatsEntry}.
+     */
+    private Cursor queryStats(SQLiteDatabase database, String[] projection, String selection,
+                                     String[] selectionArgs, String sortOrder) {
+        String averageWeight = "CASE WHEN " + PetStatsEntry.COLUMN_PET_COUNT + " > 0 THEN CAST("
+                + PetStatsEntry.COLUMN_WEIGHT_SUM + " AS REAL) / " + PetStatsEntry.COLUMN_PET_COUNT + " END";
+        String stats = "SELECT '" + PetStatsEntry.KIND_TOTAL + "' AS " + PetStatsEntry.COLUMN_KIND + ", "
+                + "NULL AS " + PetStatsEntry.COLUMN_KEY + ", "
+                + "SUM(" + PetStatsEntry.COLUMN_PET_COUNT + ") AS " + PetStatsEntry.COLUMN_PET_COUNT + ", "
+                + "SUM(" + PetStatsEntry.COLUMN_WEIGHT_SUM + ") AS " + PetStatsEntry.COLUMN_WEIGHT_SUM
+                + " FROM " + PetStatsEntry.GENDER_TABLE_NAME
+                + " UNION ALL SELECT '" + PetStatsEntry.KIND_GENDER + "', " + PetContract.PetEntry.COLUMN_PET_GENDER + ", "
+                + PetStatsEntry.COLUMN_PET_COUNT + ", " + PetStatsEntry.COLUMN_WEIGHT_SUM
+                + " FROM " + PetStatsEntry.GENDER_TABLE_NAME
+                + " UNION ALL SELECT '" + PetStatsEntry.KIND_BREED + "', " + PetContract.PetEntry.COLUMN_PET_BREED + ", "
+                + PetStatsEntry.COLUMN_PET_COUNT + ", " + PetStatsEntry.COLUMN_WEIGHT_SUM
+                + " FROM " + PetStatsEntry.BREED_TABLE_NAME;
+
+        String table = "(SELECT *, " + averageWeight + " AS " + PetStatsEntry.COLUMN_AVERAGE_WEIGHT
+                + " FROM (" + stats + "))";
+        return queryTable(database, table, projection, selection, selectionArgs, sortOrder, null);
+    }
+
+    /**
+     * Turn the text typed in by the user into an FTS MATCH expression.
+     * Every word becomes a prefix search ("terr" becomes "terr*"), and all the words have to match.
+     * Quotes, operators and other punctuation are dropped, so that user input can never be a syntax error.
+     *
+     * @return the MATCH expression, or null if the text doesn't contain any word
+     */
+    private static String buildMatchQuery(String text) {
+        if (text == null) {
+            return null;
+        }
+        StringBuilder matchQuery = new StringBuilder();
+        for (String word : text.split("[^\\p{L}\\p{N}]+")) {
+            if (word.isEmpty()) {
+                continue;
+            }
+            if (matchQuery.length() > 0) {
+                matchQuery.append(' ');
+            }
+            matchQuery.append(word).append('*');
+        }
+        return matchQuery.length() == 0 ? null : matchQuery.toString();
+    }
+
+    /**
+     * Returns true if the given URI asks for a single page of rows through the
+     * {@link PetContract#QUERY_PARAMETER_AFTER_ID} and {@link PetContract#QUERY_PARAMETER_LIMIT} parameters.
+     */
+    private static boolean isPageQuery(Uri uri) {
+        return uri.getQueryParameter(PetContract.QUERY_PARAMETER_AFTER_ID) != null
+                || uri.getQueryParameter(PetContract.QUERY_PARAMETER_LIMIT) != null;
+    }
+
+    /**
+     * Helper method for the query method above. Returns one page of the pets table using keyset pagination:
+     * the rows whose _ID is greater than the "after_id" parameter, ordered by _ID and limited to "limit" rows.
+     *
+     * The "_id > ?" condition is answered by a seek on the primary key, so reading the 1000th page is just as cheap
+     * as reading the first one. (With "LIMIT M OFFSET N", SQLite would have to step over all the N skipped rows.)
+     * Paged queries are ordered by _ID, because that is the key the pages are cut on, unless the sort order is
+     * one of the sort columns of {@link PetContract#QUERY_PARAMETER_AFTER_KEY} (see queryPageByKey).
+     */
+    private Cursor queryPage(SQLiteDatabase database, Uri uri, String[] projection,
+                             String selection, String[] selectionArgs, String sortOrder) {
+        long afterId = parseLongParameter(uri, PetContract.QUERY_PARAMETER_AFTER_ID, 0);
+        long limit = parseLongParameter(uri, PetContract.QUERY_PARAMETER_LIMIT, -1);
+
+        String sortColumn = parsePageSortOrder(uri, sortOrder);
+        if (!PetContract.PetEntry._ID.equals(sortColumn)) {
+            return queryPageByKey(database, uri, projection, selection, selectionArgs, sortColumn, afterId, limit);
+        }
+
+        selection = DatabaseUtils.concatenateWhere(selection, PetContract.PetEntry._ID + ">?");
+        selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs,
+                new String[] { String.valueOf(afterId) });
+
+        return queryTable(database, PetContract.PetEntry.TABLE_NAME, projection, selection, selectionArgs,
+                PetContract.PetEntry._ID + " ASC", limit < 0 ? null : String.valueOf(limit));
+    }
+
+    /**
+     * Helper method for queryPage. Returns one page of the pets in the order of the given sort column, with _ID
+     * breaking the ties: the rows that come after ("after_key", "after_id"), limited to "limit" rows.
+     *
+     * "After" is split in two ranges that are each a seek on the covering index of the sort column (see
+     * migration 7): the rest of the pets with the same key and a greater _ID, then the pets with a greater key.
+     * Both halves come off the index already in order, each limited to one page. SQLite doesn't promise the order
+     * of a UNION ALL, so the union is sorted again, which only ever sorts the (at most two pages of) rows of the
+     * halves. A null key sorts before every other one, like in SQLite.
+     *
+     * The weight is an INTEGER column, so its "after_key" must be a number, and is bound as one.
+     */
+    private Cursor queryPageByKey(SQLiteDatabase database, Uri uri, String[] projection, String selection,
+                                  String[] selectionArgs, String sortColumn, long afterId, long limit) {
+        String afterKey = uri.getQueryParameter(PetContract.QUERY_PARAMETER_AFTER_KEY);
+        String sameKey;
+        String greaterKey;
+        String[] sameKeyArgs;
+        String[] greaterKeyArgs;
+        if (afterKey == null) {
+            sameKey = sortColumn + " IS NULL AND " + PetContract.PetEntry._ID + ">?";
+            sameKeyArgs = new String[] { String.valueOf(afterId) };
+            greaterKey = sortColumn + " IS NOT NULL";
+            greaterKeyArgs = new String[0];
+        } else {
+            // The selection args are always bound as text, so the weight is cast back to the number it was parsed as
+            String keyArg = "?";
+            if (PetContract.PetEntry.COLUMN_PET_WEIGHT.equals(sortColumn)) {
+                afterKey = String.valueOf(parseLongParameter(uri, PetContract.QUERY_PARAMETER_AFTER_KEY, 0));
+                keyArg = "CAST(? AS INTEGER)";
+            }
+            sameKey = sortColumn + "=" + keyArg + " AND " + PetContract.PetEntry._ID + ">?";
+            sameKeyArgs = new String[] { afterKey, String.valueOf(afterId) };
+            greaterKey = sortColumn + ">" + keyArg;
+            greaterKeyArgs = new String[] { afterKey };
+        }
+
+        // The halves need the sort column and _ID to be sorted on, even when the projection leaves them out
+        String[] halfProjection = projection;
+        if (projection != null) {
+            List<String> columns = new ArrayList<>(Arrays.asList(projection));
+            for (String column : new String[] { sortColumn, PetContract.PetEntry._ID }) {
+                if (!columns.contains(column)) {
+                    columns.add(column);
+                }
+            }
+            halfProjection = columns.toArray(new String[columns.size()]);
+        }
+
+        String orderBy = sortColumn + " ASC, " + PetContract.PetEntry._ID + " ASC";
+        String pageLimit = limit < 0 ? null : String.valueOf(limit);
+        String table = "(SELECT * FROM ("
+                + SQLiteQueryBuilder.buildQueryString(false, PetContract.PetEntry.TABLE_NAME, halfProjection,
+                        DatabaseUtils.concatenateWhere(selection, sameKey), null, null, orderBy, pageLimit)
+                + ") UNION ALL SELECT * FROM ("
+                + SQLiteQueryBuilder.buildQueryString(false, PetContract.PetEntry.TABLE_NAME, halfProjection,
+                        DatabaseUtils.concatenateWhere(selection, greaterKey), null, null, orderBy, pageLimit)
+                + "))";
+        String[] args = DatabaseUtils.appendSelectionArgs(
+                DatabaseUtils.appendSelectionArgs(selectionArgs, sameKeyArgs),
+                DatabaseUtils.appendSelectionArgs(selectionArgs, greaterKeyArgs));
+        return queryTable(database, table, projection, null, args, orderBy, pageLimit);
+    }
+
+    /**
+     * Returns the column a page query is sorted on: _ID if it has no sort order, or the sort column of
+     * {@link PetContract#QUERY_PARAMETER_AFTER_KEY} it names (optionally followed by ASC).
+     *
+     * @throws IllegalArgumentException for any other sort order, which the pages can't be cut on
+     */
+    private static String parsePageSortOrder(Uri uri, String sortOrder) {
+        if (sortOrder == null) {
+            return PetContract.PetEntry._ID;
+        }
+        String column = sortOrder.trim();
+        if (column.regionMatches(true, Math.max(0, column.length() - 4), " ASC", 0, 4)) {
+            column = column.substring(0, column.length() - 4).trim();
+        }
+        if (column.equals(PetContract.PetEntry._ID)
+                || column.equals(PetContract.PetEntry.COLUMN_PET_NAME)
+                || column.equals(PetContract.PetEntry.COLUMN_PET_BREED)
+                || column.equals(PetContract.PetEntry.COLUMN_PET_WEIGHT)) {
+            return column;
+        }
+        throw new IllegalArgumentException("Pages can't be sorted by " + sortOrder + " in " + uri);
+    }
+
+    /**
+     * Run a SELECT on the given table (or subquery), like SQLiteDatabase.query() does, and record it in the
+     * slow query log if it took too long. All of the queries of the provider go through here.
+     *
+     * The query is run right away, by counting its rows, so that its time is measured here rather than
+     * wherever the cursor is first read. (The cursor keeps the count and its first window of rows, so
+     * this doesn't add any work.)
+     */
+    private Cursor queryTable(SQLiteDatabase database, String table, String[] projection, String selection,
+                              String[] selectionArgs, String sortOrder, String limit) {
+        String sql = SQLiteQueryBuilder.buildQueryString(false, table, projection, selection,
+                null, null, sortOrder, limit);
+        long startNanos = System.nanoTime();
+        Cursor cursor = database.rawQuery(sql, selectionArgs);
+        int rows = cursor.getCount();
+        mSlowQueries.recordIfSlow(database, sql, selectionArgs, rows, System.nanoTime() - startNanos);
+        return cursor;
+    }
+
+    /**
+     * Helper method for the query method above. Returns the pets at the shelters within a radius of a location,
+     * nearest shelter first, see {@link PetContract.PetEntry#buildNearbyUri}.
+     *
+     * First the spatial index of the shelters is searched for the ones inside the bounding box of the circle,
+     * which only visits the part of the index around the location, however many shelters there are. The shelters
+     * in the corners of the box (outside of the circle) are dropped, and the rest are sorted by their distance.
+     * Then the pets are read one shelter at a time, nearest first, each with a seek into pets_shelter_idx,
+     * until the limit is reached. So the cost depends on the shelters around the location and the number
+     * of pets returned, not on the size of either table.
+     */
+    private Cursor queryNearby(SQLiteDatabase database, Uri uri, String[] projection, String selection,
+                               String[] selectionArgs) {
+        double latitude = parseDoubleParameter(uri, PetContract.QUERY_PARAMETER_LATITUDE);
+        double longitude = parseDoubleParameter(uri, PetContract.QUERY_PARAMETER_LONGITUDE);
+        double radiusKm = parseDoubleParameter(uri, PetContract.QUERY_PARAMETER_RADIUS_KM);
+        if (!ShelterEntry.isValidLocation(latitude, longitude) || radiusKm < 0) {
+            throw new IllegalArgumentException("Invalid location or radius in " + uri);
+        }
+        long limit = parseLongParameter(uri, PetContract.QUERY_PARAMETER_LIMIT, DEFAULT_NEARBY_LIMIT);
+
+        // The pets of a shelter: through pets_shelter_idx, by the gender too if there is one
+        String petSelection = PetContract.PetEntry.COLUMN_PET_SHELTER + "=?";
+        long gender = parseLongParameter(uri, PetContract.QUERY_PARAMETER_GENDER, PetContract.PetEntry.ANY_GENDER);
+        if (gender != PetContract.PetEntry.ANY_GENDER) {
+            if (!PetContract.PetEntry.isValidGender((int) gender)) {
+                throw new IllegalArgumentException("Invalid gender in " + uri);
+            }
+            petSelection += " AND " + PetContract.PetEntry.COLUMN_PET_GENDER + "=" + gender;
+        }
+        petSelection = DatabaseUtils.concatenateWhere(petSelection + " AND " + LIVE_PETS, selection);
+
+        // The columns to read from the pets table, and where each column of the result comes from
+        if (projection == null) {
+            projection = NEARBY_DEFAULT_PROJECTION;
+        }
+        List<String> petColumns = new ArrayList<>(projection.length);
+        int[] sources = new int[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            if (PetContract.PetEntry.COLUMN_DISTANCE_KM.equals(projection[i])) {
+                sources[i] = -1;
+            } else {
+                sources[i] = petColumns.size();
+                petColumns.add(projection[i]);
+            }
+        }
+        if (petColumns.isEmpty()) {
+            petColumns.add(PetContract.PetEntry._ID);
+        }
+        String[] petProjection = petColumns.toArray(new String[petColumns.size()]);
+
+        MatrixCursor nearbyPets = new MatrixCursor(projection);
+        long remaining = limit;
+        for (NearbyShelter shelter : queryNearbyShelters(database, latitude, longitude, radiusKm)) {
+            if (remaining <= 0) {
+                break;
+            }
+            String[] petArgs = DatabaseUtils.appendSelectionArgs(
+                    new String[] { String.valueOf(shelter.id) }, selectionArgs);
+            Cursor pets = queryTable(database, PetContract.PetEntry.TABLE_NAME, petProjection, petSelection,
+                    petArgs, PetContract.PetEntry._ID + " ASC", String.valueOf(remaining));
+            try {
+                while (pets.moveToNext()) {
+                    MatrixCursor.RowBuilder row = nearbyPets.newRow();
+                    for (int source : sources) {
+                        row.add(source < 0 ? shelter.distanceKm : getValue(pets, source));
+                    }
+                    remaining--;
+                }
+            } finally {
+                pets.close();
+            }
+        }
+        return nearbyPets;
+    }
+
+    /**
+     * Returns the shelters within the given radius of a location, nearest first, from the spatial index.
+     */
+    private List<NearbyShelter> queryNearbyShelters(SQLiteDatabase database, double latitude, double longitude,
+                                                    double radiusKm) {
+        String table = ShelterEntry.RTREE_TABLE_NAME + " JOIN " + ShelterEntry.TABLE_NAME
+                + " ON " + ShelterEntry.TABLE_NAME + "." + ShelterEntry._ID + " = " + ShelterEntry.RTREE_TABLE_NAME + ".id";
+        String[] columns = {
+                ShelterEntry.TABLE_NAME + "." + ShelterEntry._ID,
+                ShelterEntry.COLUMN_SHELTER_LATITUDE,
+                ShelterEntry.COLUMN_SHELTER_LONGITUDE };
+        // The shelters are points, so a shelter is in the box if its point is
+        String inBox = "min_lat <= ? AND max_lat >= ? AND min_lon <= ? AND max_lon >= ?";
+
+        List<NearbyShelter> shelters = new ArrayList<>();
+        for (double[] box : ShelterGeometry.boundingBoxes(latitude, longitude, radiusKm)) {
+            String[] boxArgs = {
+                    String.valueOf(box[1]), String.valueOf(box[0]), String.valueOf(box[3]), String.valueOf(box[2]) };
+            Cursor cursor = queryTable(database, table, columns, inBox, boxArgs, null, null);
+            try {
+                while (cursor.moveToNext()) {
+                    double distanceKm = ShelterGeometry.distanceKm(latitude, longitude,
+                            cursor.getDouble(1), cursor.getDouble(2));
+                    if (distanceKm <= radiusKm) {
+                        shelters.add(new NearbyShelter(cursor.getLong(0), distanceKm));
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        Collections.sort(shelters);
+        return shelters;
+    }
+
+    /**
+     * Returns the value of the given column in the current row of the cursor, as the type it has in there.
+     */
+    private static Object getValue(Cursor cursor, int column) {
+        switch (cursor.getType(column)) {
+            case Cursor.FIELD_TYPE_INTEGER:
+                return cursor.getLong(column);
+            case Cursor.FIELD_TYPE_FLOAT:
+                return cursor.getDouble(column);
+            case Cursor.FIELD_TYPE_STRING:
+                return cursor.getString(column);
+            case Cursor.FIELD_TYPE_BLOB:
+                return cursor.getBlob(column);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * A shelter found by {@link #queryNearbyShelters}, with its distance from the location. Sorts nearest first.
+     */
+    private static final class NearbyShelter implements Comparable<NearbyShelter> {
+        final long id;
+        final double distanceKm;
+
+        NearbyShelter(long id, double distanceKm) {
+            this.id = id;
+            this.distanceKm = distanceKm;
+        }
+
+        @Override
+        public int compareTo(NearbyShelter other) {
+            int byDistance = Double.compare(distanceKm, other.distanceKm);
+            return byDistance != 0 ? byDistance : (id < other.id ? -1 : (id == other.id ? 0 : 1));
+        }
+    }
+
+    /**
+     * Read a number from the query parameters of the URI, which must be there.
+     */
+    private static double parseDoubleParameter(Uri uri, String name) {
+        String value = uri.getQueryParameter(name);
+        if (value != null) {
+            try {
+                double number = Double.parseDouble(value);
+                if (!Double.isNaN(number) && !Double.isInfinite(number)) {
+                    return number;
+                }
+            } catch (NumberFormatException e) {
+                // Fall through to the exception below
+            }
+        }
+        throw new IllegalArgumentException("Missing or invalid " + name + " parameter in " + uri);
+    }
+
+    /**
+     * Read a non-negative number from the query parameters of the URI,
+     * or return the default value if the parameter is missing.
+     */
+    private static long parseLongParameter(Uri uri, String name, long defaultValue) {
+        String value = uri.getQueryParameter(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            long number = Long.parseLong(value);
+            if (number >= 0) {
+                return number;
+            }
+        } catch (NumberFormatException e) {
+            // Fall through to the exception below
+        }
+        throw new IllegalArgumentException("Invalid " + name + " parameter in " + uri);
+    }
+
+
     /**
      * Insert new data into the provider with the given ContentValues.
      */
     @Override
     public Uri insert(Uri uri, ContentValues contentValues) {
+        long startNanos = System.nanoTime();
+        Uri newUri = null;
+        try {
+            newUri = performInsert(uri, contentValues);
+            return newUri;
+        } finally {
+            mMetrics.record(PetMetrics.INSERT, sUriMatcher.match(uri), startNanos, newUri == null ? 0 : 1, newUri == null);
+        }
+    }
+
+    /**
+     * Helper method for the insert method above, which picks how to insert by the URI.
+     */
+    private Uri performInsert(Uri uri, ContentValues contentValues) {
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case PETS:  //Only the PETS case is supported for insertion because it doesn't make sense to insert a new method into a single row where a pet already exists. So we'll only be inserting a new pet in the pets case because we're performing this operation on the whole table.
                 return insertPet(uri, contentValues); //Within the PETS case, call the insertPet helper method 
+            case IMPORT:
+                return saveImportProgress(uri, contentValues);
+            case SHELTERS:
+                return insertShelter(uri, contentValues);
+            case SYNC_CHANGES:
+                return applySyncChange(contentValues);
             default:    //Any other match, or perhaps no match, will just fall into the default case, and an exception will be thrown.
                 throw new IllegalArgumentException("Insertion is not supported for " + uri);
         }
@@ -140,9 +829,8 @@ public class PetProvider extends ContentProvider {
         SQLiteDatabase database = mDbHelper.getWritableDatabase(); // Get writeable database  //Should it be a readable or writeable database? Well, we are editing the data source by adding a new pet, so we need to write changes to the database.
 
         // Insert the new pet with the given values
-        // Once we have a writeable database object, we can call the insert() method on it, passing in the pet table name and the ContentValues object.
         // The return value is the ID of the new row that was just created, in the form of a long data type (which can store numbers larger than the int data type).
-        long id = database.insert(PetContract.PetEntry.TABLE_NAME, null, values);
+        long id = insertPetRow(database, values);
 
         // Based on the ID, we can determine if the database operation went smoothly or not.
         // If the ID is equal to -1, then we know the insertion failed. Otherwise, the insertion was successful.
@@ -151,37 +839,932 @@ public class PetProvider extends ContentProvider {
         if (id == -1) {                                               // If the ID is -1, then the insertion failed.
             Log.e(LOG_TAG, "Failed to insert row for " + uri);   // Log an error,
             return null;                                              // and return null.
+        }
+
+        // Notify all listeners that this one pet has been inserted
+        notifyRowChange(id, PetContract.CHANGE_INSERT);
 
         // If the insertion was successful, then we can add the row ID to the end of the pet URI
         // (using the ContentUris.withAppendedId() method) to create a pet URI specific for the new pet, and have it returned.
         return ContentUris.withAppendedId(uri, id); // Once we know the ID of the new row in the table, return the new URI with the ID appended to the end of it
     }
 
+    /**
+     * Helper method for the insert method above. Insert a shelter with the given values,
+     * and return the content URI of the new shelter (or null if the insertion failed).
+     */
+    private Uri insertShelter(Uri uri, ContentValues values) {
+        if (!values.containsKey(ShelterEntry.COLUMN_SHELTER_NAME)
+                || !values.containsKey(ShelterEntry.COLUMN_SHELTER_LATITUDE)
+                || !values.containsKey(ShelterEntry.COLUMN_SHELTER_LONGITUDE)) {
+            throw new IllegalArgumentException("Shelter requires a name and a location");
+        }
+        checkShelterUpdate(values);
+
+        // The trigger of the shelters table adds the new shelter to the spatial index
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        long id = database.insert(ShelterEntry.TABLE_NAME, null, values);
+        if (id == -1) {
+            Log.e(LOG_TAG, "Failed to insert row for " + uri);
+            return null;
+        }
+
+        // A new shelter has no pets yet, so no nearby pets query changes.
+        notifyChange(ShelterEntry.CONTENT_URI);
+        return ContentUris.withAppendedId(uri, id);
+    }
+
+    /**
+     * Sanity check the values of a shelter. Like for a pet update, the values may leave out any column,
+     * but the columns that are there must have a valid value.
+     */
+    private static void checkShelterUpdate(ContentValues values) {
+        if (values.containsKey(ShelterEntry.COLUMN_SHELTER_NAME)
+                && values.getAsString(ShelterEntry.COLUMN_SHELTER_NAME) == null) {
+            throw new IllegalArgumentException("Shelter requires a name");
+        }
+
+        // Check each coordinate that is present against the valid range, with the other one at 0.
+        if (values.containsKey(ShelterEntry.COLUMN_SHELTER_LATITUDE)) {
+            Double latitude = values.getAsDouble(ShelterEntry.COLUMN_SHELTER_LATITUDE);
+            if (latitude == null || !ShelterEntry.isValidLocation(latitude, 0)) {
+                throw new IllegalArgumentException("Shelter requires valid latitude");
+            }
+        }
+        if (values.containsKey(ShelterEntry.COLUMN_SHELTER_LONGITUDE)) {
+            Double longitude = values.getAsDouble(ShelterEntry.COLUMN_SHELTER_LONGITUDE);
+            if (longitude == null || !ShelterEntry.isValidLocation(0, longitude)) {
+                throw new IllegalArgumentException("Shelter requires valid longitude");
+            }
+        }
+    }
+
+    /**
+     * Helper method for the update method above. Update the shelters that match the selection.
+     * Moving a shelter changes which pets are near a location, so that notifies the pets too.
+     */
+    private int updateShelters(ContentValues values, String selection, String[] selectionArgs) {
+        checkShelterUpdate(values);
+        if (values.size() == 0) {
+            return 0;
+        }
+
+        // The trigger of the shelters table moves the shelters in the spatial index
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        int rowsUpdated = database.update(ShelterEntry.TABLE_NAME, values, selection, selectionArgs);
+        if (rowsUpdated != 0) {
+            notifyChange(ShelterEntry.CONTENT_URI);
+            if (values.containsKey(ShelterEntry.COLUMN_SHELTER_LATITUDE)
+                    || values.containsKey(ShelterEntry.COLUMN_SHELTER_LONGITUDE)) {
+                notifyChange(PetContract.PetEntry.CONTENT_URI);
+            }
+        }
+        return rowsUpdated;
+    }
+
+    /**
+     * Helper method for the delete method above. Delete the shelters that match the selection.
+     * The trigger of the shelters table takes them out of the spatial index and leaves their pets without a shelter,
+     * so the pets have changed too.
+     */
+    private int deleteShelters(String selection, String[] selectionArgs) {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        int rowsDeleted = database.delete(ShelterEntry.TABLE_NAME, selection, selectionArgs);
+        if (rowsDeleted != 0) {
+            invalidateAllPets();
+            notifyChange(ShelterEntry.CONTENT_URI);
+            notifyChange(PetContract.PetEntry.CONTENT_URI);
+        }
+        return rowsDeleted;
+    }
+
+    /**
+     * Returns the selection of the shelter in the given row URI, combined with the given selection.
+     */
+    private static String shelterSelection(String selection) {
+        return DatabaseUtils.concatenateWhere(ShelterEntry._ID + "=?", selection);
+    }
+
+    /**
+     * Returns the selection arguments of the shelter in the given row URI, followed by the given arguments.
+     */
+    private static String[] shelterSelectionArgs(Uri uri, String[] selectionArgs) {
+        return DatabaseUtils.appendSelectionArgs(new String[] { String.valueOf(ContentUris.parseId(uri)) },
+                selectionArgs);
+    }
+
+    /**
+     * Helper method for the insert method above. Apply a change pulled from the sync server to its pet,
+     * see {@link PetSyncTracker#apply}. Return the URI of the pet, or null if the change didn't change it.
+     */
+    private Uri applySyncChange(ContentValues values) {
+        Uri changeUri = PetSyncTracker.apply(getSyncDatabase(), values);
+        if (changeUri == null) {
+            return null;
+        }
+
+        long id = ContentUris.parseId(changeUri);
+        invalidatePet(id);
+        notifyChange(changeUri);
+        if (PetContract.CHANGE_DELETE.equals(changeUri.getQueryParameter(PetContract.QUERY_PARAMETER_CHANGE))) {
+            // Deleted pets are only marked as deleted, like a soft delete
+            mCompactor.schedule();
+        }
+        return ContentUris.withAppendedId(PetContract.PetEntry.CONTENT_URI, id);
+    }
+
+    /**
+     * Returns the writable database, with the changes to the pets tracked for the sync from now on.
+     * The sync URIs start the tracking the first time they are used, see {@link PetSyncTracker#start}.
+     */
+    private SQLiteDatabase getSyncDatabase() {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        PetSyncTracker.start(database);
+        return database;
+    }
+
+    /**
+     * Helper method for the insert method above. Replace the saved progress of the import in the URI
+     * with the given values. The importer calls this as the last operation of each of its batches,
+     * so the progress is committed together with the pets of the batch.
+     * Nobody watches the progress, so no one is notified.
+     */
+    private Uri saveImportProgress(Uri uri, ContentValues values) {
+        ContentValues progress = new ContentValues(values);
+        progress.put(PetImportEntry.COLUMN_SOURCE, uri.getLastPathSegment());
+
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        long id = database.insertWithOnConflict(PetImportEntry.TABLE_NAME, null, progress,
+                SQLiteDatabase.CONFLICT_REPLACE);
+        if (id == -1) {
+            Log.e(LOG_TAG, "Failed to save the progress for " + uri);
+            return null;
+        }
+        return uri;
+    }
+
+    /**
+     * Sanity check the given values and insert them as a new row of the pets table.
+     * Shared by {@link #insertPet(Uri, ContentValues)} and {@link #bulkInsert(Uri, ContentValues[])},
+     * and does not notify any observers so that the callers can decide when to do that.
+     *
+     * @return the ID of the new row, or -1 if the insertion failed
+     */
+    private long insertPetRow(SQLiteDatabase database, ContentValues values) {
+        checkNotDeleted(values);
+
+        // Check that the name is not null
+        String name = values.getAsString(PetContract.PetEntry.COLUMN_PET_NAME);
+        if (name == null) {
+            throw new IllegalArgumentException("Pet requires a name");
+        }
+
+        // Check that the gender is valid
+        Integer gender = values.getAsInteger(PetContract.PetEntry.COLUMN_PET_GENDER);
+        if (gender == null || !PetContract.PetEntry.isValidGender(gender)) {
+            throw new IllegalArgumentException("Pet requires valid gender");
+        }
+
+        // If the weight is provided, check that it's greater than or equal to 0 kg
+        Integer weight = values.getAsInteger(PetContract.PetEntry.COLUMN_PET_WEIGHT);
+        if (weight != null && weight < 0) {
+            throw new IllegalArgumentException("Pet requires valid weight");
+        }
+
+        // No need to check the breed, any value is valid (including null).
+
+        long id;
+        if (PetStatements.supports(values)) {
+            // The usual case: only bind the values to the precompiled insert statement.
+            try {
+                id = getStatements().insert(values);
+            } catch (SQLException e) {
+                // Report the failure the same way SQLiteDatabase.insert() does
+                Log.e(LOG_TAG, "Error inserting " + values, e);
+                id = -1;
+            }
+        } else {
+            // Once we have a writeable database object, we can call the insert() method on it, passing in the pet table name and the ContentValues object.
+            id = database.insert(PetContract.PetEntry.TABLE_NAME, null, values);
+        }
+        if (id != -1) {
+            invalidatePet(id);
+        }
+        return id;
+    }
+
+
+    /**
+     * Returns the pool of precompiled statements for the writable database, compiling them the first time.
+     */
+    private synchronized PetStatements getStatements() {
+        if (mStatements == null) {
+            mStatements = new PetStatements(mDbHelper.getWritableDatabase());
+        }
+        return mStatements;
+    }
+
+    /**
+     * Returns the helper of the provider's database. Only for the tests, which compare its journal modes.
+     */
+    PetDbHelper getDbHelper() {
+        return mDbHelper;
+    }
+
+    /**
+     * Close the database. The system never calls this; it is for providers that were created by hand,
+     * like the ones of the unit tests and benchmarks.
+     */
+    @Override
+    public synchronized void shutdown() {
+        mCompactor.shutdown();
+        if (mStatements != null) {
+            mStatements.close();
+            mStatements = null;
+        }
+        mDbHelper.close();
+    }
+
+
+    /**
+     * Insert a whole array of pets at once.
+     *
+     * By default a ContentProvider inserts the rows one by one, and each insert runs in its own implicit
+     * SQLite transaction (which means one journal write and one fsync per row). Here all rows are written
+     * inside a single transaction, so the cost of committing is paid only once for the whole batch,
+     * and the observers are notified only once at the end instead of once per row.
+     * If any row fails the sanity checks (IllegalArgumentException) or can't be inserted (SQLException),
+     * nothing of the batch is kept and the exception is thrown.
+     */
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] values) {
+        long startNanos = System.nanoTime();
+        int rowsInserted = 0;
+        boolean failed = true;
+        try {
+            rowsInserted = performBulkInsert(uri, values);
+            failed = false;
+            return rowsInserted;
+        } finally {
+            mMetrics.record(PetMetrics.BULK_INSERT, sUriMatcher.match(uri), startNanos, rowsInserted, failed);
+        }
+    }
+
+    /**
+     * Helper method for the bulkInsert method above, which inserts all of the pets in one transaction.
+     */
+    private int performBulkInsert(Uri uri, ContentValues[] values) {
+        final int match = sUriMatcher.match(uri);
+        if (match != PETS) {
+            throw new IllegalArgumentException("Bulk insertion is not supported for " + uri);
+        }
+
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        int rowsInserted = 0;
+
+        database.beginTransaction();
+        try {
+            for (ContentValues value : values) {
+                if (insertPetRow(database, value) == -1) {
+                    // Leave the transaction unsuccessful, so that endTransaction() rolls back the rows before it too
+                    throw new SQLException("Failed to insert row " + rowsInserted + " for " + uri);
+                }
+                rowsInserted++;
+            }
+            database.setTransactionSuccessful(); // Mark the transaction as successful, otherwise endTransaction() rolls everything back.
+        } finally {
+            database.endTransaction();
+        }
+
+        // One notification for the whole batch
+        if (rowsInserted > 0) {
+            notifyChange(PetContract.PetEntry.CONTENT_URI);
+        }
+        return rowsInserted;
+    }
+
+
+    /**
+     * Apply a batch of {@link ContentProviderOperation}s inside a single database transaction.
+     * Either all of the operations are applied or, if one of them throws, none of them are.
+     * The observers of the pets table are notified once after the transaction has been committed.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        ContentProviderResult[] results;
+        BatchChanges changes = new BatchChanges();
+        mApplyingBatch.set(changes);
+        database.beginTransaction();
+        try {
+            // The default implementation calls apply() on each operation, which in turn calls
+            // insert(), update() or delete() of this provider. Those are now all part of the transaction above.
+            results = super.applyBatch(operations);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            mApplyingBatch.remove();
+
+            // Only now that the changes are committed (or rolled back) can no other connection read the rows as they
+            // were before the batch, so only now can their cached rows be dropped for good.
+            if (changes.allPets) {
+                mRowCache.invalidateAll();
+            } else {
+                for (long id : changes.petIds) {
+                    mRowCache.invalidate(id);
+                }
+            }
+        }
+
+        if (!operations.isEmpty()) {
+            notifyChange(PetContract.PetEntry.CONTENT_URI);
+        }
+        for (ContentProviderOperation operation : operations) {
+            int match = sUriMatcher.match(operation.getUri());
+            if (match == SHELTERS || match == SHELTER_ID) {
+                notifyChange(ShelterEntry.CONTENT_URI);
+                break;
+            }
+        }
+        return results;
+    }
+
+
+    /**
+     * The pets changed by a batch, whose cached rows are dropped once its transaction has ended.
+     */
+    private static final class BatchChanges {
+
+        /** The _IDs of the pets that were inserted, updated or deleted */
+        final Set<Long> petIds = new HashSet<>();
+
+        /** True if an unknown set of pets was changed */
+        boolean allPets;
+    }
+
+    /**
+     * Drop the cached row of the pet with the given _ID, because it was inserted, updated or deleted.
+     *
+     * In the middle of a batch, the change isn't committed yet: a query on another connection can still read the
+     * row as it was, and would cache it again right after it was dropped. So the row is dropped when the batch ends.
+     */
+    private void invalidatePet(long id) {
+        BatchChanges batch = mApplyingBatch.get();
+        if (batch == null) {
+            mRowCache.invalidate(id);
+        } else {
+            batch.petIds.add(id);
+        }
+    }
+
+    /**
+     * Drop all of the cached rows, because an unknown set of pets was changed. In the middle of a batch,
+     * they are dropped when the batch ends, see {@link #invalidatePet(long)}.
+     */
+    private void invalidateAllPets() {
+        BatchChanges batch = mApplyingBatch.get();
+        if (batch == null) {
+            mRowCache.invalidateAll();
+        } else {
+            batch.allPets = true;
+        }
+    }
+
+    /**
+     * Notify all listeners that a single pet has changed, on its row URI with the kind of change.
+     * Observers of the pets URI (with descendants) get this URI too, so they can patch that one row
+     * instead of reloading the whole list. Unless we are in the middle of a batch, see below.
+     *
+     * @param change one of {@link PetContract#CHANGE_INSERT}, {@link PetContract#CHANGE_UPDATE} or
+     *               {@link PetContract#CHANGE_DELETE}
+     */
+    private void notifyRowChange(long id, String change) {
+        notifyChange(PetContract.PetEntry.buildChangeUri(id, change));
+    }
+
+    /**
+     * Notify all listeners that the data at the given URI has changed,
+     * unless we are in the middle of a batch (which notifies once when it is done).
+     */
+    private void notifyChange(Uri uri) {
+        if (mApplyingBatch.get() != null) {
+            return;
+        }
+        getContext().getContentResolver().notifyChange(uri, null);
+    }
+
 
     /**
      * Updates the data at the given selection and selection arguments, with the new ContentValues.
+     * Only the columns that are in the ContentValues are written, so callers should only pass the ones that changed.
      */
     @Override
     public int update(Uri uri, ContentValues contentValues, String selection, String[] selectionArgs) {
-        return 0;
+        long startNanos = System.nanoTime();
+        int rowsUpdated = 0;
+        boolean failed = true;
+        try {
+            rowsUpdated = performUpdate(uri, contentValues, selection, selectionArgs);
+            failed = false;
+            return rowsUpdated;
+        } finally {
+            mMetrics.record(PetMetrics.UPDATE, sUriMatcher.match(uri), startNanos, rowsUpdated, failed);
+        }
+    }
+
+    /**
+     * Helper method for the update method above, which picks how to update by the URI.
+     */
+    private int performUpdate(Uri uri, ContentValues contentValues, String selection, String[] selectionArgs) {
+        final int match = sUriMatcher.match(uri);
+        switch (match) {
+            case PETS:
+                return updatePets(contentValues, selection, selectionArgs);
+            case PET_ID:
+                // For the PET_ID code, extract out the ID from the URI,
+                // so we know which row to update.
+                return updatePet(ContentUris.parseId(uri), contentValues, selection, selectionArgs);
+            case SHELTERS:
+                return updateShelters(contentValues, selection, selectionArgs);
+            case SHELTER_ID:
+                return updateShelters(contentValues, shelterSelection(selection), shelterSelectionArgs(uri, selectionArgs));
+            case SYNC_STATE:
+                // Not a change to the pets, so nobody is notified
+                return PetSyncTracker.updateState(getSyncDatabase(), contentValues);
+            default:
+                throw new IllegalArgumentException("Update is not supported for " + uri);
+        }
+    }
+
+    /**
+     * Helper method for the update method above. Update the pets that match the selection with the given values.
+     * Return the number of rows that were successfully updated.
+     */
+    private int updatePets(ContentValues values, String selection, String[] selectionArgs) {
+        checkPetUpdate(values);
+
+        // If there are no values to update, then don't try to update the database
+        if (values.size() == 0) {
+            return 0;
+        }
+
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        selection = DatabaseUtils.concatenateWhere(LIVE_PETS, selection);
+        int rowsUpdated = database.update(PetContract.PetEntry.TABLE_NAME, values, selection, selectionArgs);
+
+        // We don't know which pets were updated, so drop all of them from the cache and notify the whole table.
+        if (rowsUpdated != 0) {
+            invalidateAllPets();
+            notifyChange(PetContract.PetEntry.CONTENT_URI);
+        }
+        return rowsUpdated;
+    }
+
+    /**
+     * Helper method for the update method above. Update the pet with the given _ID with the given values
+     * (and only if it also matches the selection, if there is one).
+     * Return the number of rows that were successfully updated.
+     */
+    private int updatePet(long id, ContentValues values, String selection, String[] selectionArgs) {
+        checkPetUpdate(values);
+
+        // If there are no values to update, then don't try to update the database
+        if (values.size() == 0) {
+            return 0;
+        }
+
+        int rowsUpdated;
+        if (selection == null && PetStatements.supports(values)) {
+            // The usual case: bind the values to the precompiled update statement for these columns.
+            rowsUpdated = getStatements().updateById(id, values);
+        } else {
+            selection = DatabaseUtils.concatenateWhere(PetContract.PetEntry._ID + "=? AND " + LIVE_PETS, selection);
+            selectionArgs = DatabaseUtils.appendSelectionArgs(new String[] { String.valueOf(id) }, selectionArgs);
+            SQLiteDatabase database = mDbHelper.getWritableDatabase();
+            rowsUpdated = database.update(PetContract.PetEntry.TABLE_NAME, values, selection, selectionArgs);
+        }
+
+        // If 1 row was updated, then notify all listeners that this pet has changed
+        if (rowsUpdated != 0) {
+            invalidatePet(id);
+            notifyRowChange(id, PetContract.CHANGE_UPDATE);
+        }
+        return rowsUpdated;
+    }
+
+    /**
+     * Sanity check the values of an update. Unlike an insert, the values may leave out any column,
+     * but the columns that are there must have a valid value.
+     */
+    private static void checkPetUpdate(ContentValues values) {
+        checkNotDeleted(values);
+
+        // If the {@link PetEntry#COLUMN_PET_NAME} key is present,
+        // check that the name value is not null.
+        if (values.containsKey(PetContract.PetEntry.COLUMN_PET_NAME)) {
+            String name = values.getAsString(PetContract.PetEntry.COLUMN_PET_NAME);
+            if (name == null) {
+                throw new IllegalArgumentException("Pet requires a name");
+            }
+        }
+
+        // If the {@link PetEntry#COLUMN_PET_GENDER} key is present,
+        // check that the gender value is valid.
+        if (values.containsKey(PetContract.PetEntry.COLUMN_PET_GENDER)) {
+            Integer gender = values.getAsInteger(PetContract.PetEntry.COLUMN_PET_GENDER);
+            if (gender == null || !PetContract.PetEntry.isValidGender(gender)) {
+                throw new IllegalArgumentException("Pet requires valid gender");
+            }
+        }
+
+        // If the {@link PetEntry#COLUMN_PET_WEIGHT} key is present,
+        // check that the weight value is valid.
+        if (values.containsKey(PetContract.PetEntry.COLUMN_PET_WEIGHT)) {
+            // Check that the weight is greater than or equal to 0 kg
+            Integer weight = values.getAsInteger(PetContract.PetEntry.COLUMN_PET_WEIGHT);
+            if (weight == null || weight < 0) {
+                throw new IllegalArgumentException("Pet requires valid weight");
+            }
+        }
+
+        // No need to check the breed, any value is valid (including null).
+    }
+
+    /**
+     * Only delete() may mark a pet as deleted, because it also takes care of the cache and the compaction.
+     * Likewise only the photo URI may set the photo, because the column has to name a file that the provider stored.
+     */
+    private static void checkNotDeleted(ContentValues values) {
+        if (values.containsKey(PetContract.PetEntry.COLUMN_PET_DELETED)) {
+            throw new IllegalArgumentException("Use delete() to delete pets");
+        }
+        if (values.containsKey(PetContract.PetEntry.COLUMN_PET_PHOTO)) {
+            throw new IllegalArgumentException("Use the photo URI to set the photo of a pet");
+        }
     }
 
 
     /**
      * Delete the data at the given selection and selection arguments.
+     *
+     * Deleting the whole pets table (no selection) takes a fast path that clears it in one go, see clearPets.
+     * With {@link PetContract#QUERY_PARAMETER_SOFT_DELETE}, the pets are only marked as deleted and
+     * {@link PetCompactor} purges them later. Either way the database file is compacted in the background afterwards.
      */
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
-        return 0;
+        long startNanos = System.nanoTime();
+        int rowsDeleted = 0;
+        boolean failed = true;
+        try {
+            rowsDeleted = performDelete(uri, selection, selectionArgs);
+            failed = false;
+            return rowsDeleted;
+        } finally {
+            mMetrics.record(PetMetrics.DELETE, sUriMatcher.match(uri), startNanos, rowsDeleted, failed);
+        }
+    }
+
+    /**
+     * Helper method for the delete method above, which picks how to delete by the URI.
+     */
+    private int performDelete(Uri uri, String selection, String[] selectionArgs) {
+        boolean soft = uri.getBooleanQueryParameter(PetContract.QUERY_PARAMETER_SOFT_DELETE, false);
+        final int match = sUriMatcher.match(uri);
+        switch (match) {
+            case PETS:
+                if (selection == null && !soft) {
+                    return clearPets();
+                }
+                return deletePets(selection, selectionArgs, soft);
+            case PET_ID:
+                // For the PET_ID code, extract out the ID from the URI,
+                // so we know which row to delete.
+                return deletePet(ContentUris.parseId(uri), selection, selectionArgs, soft);
+            case SHELTERS:
+                return deleteShelters(selection, selectionArgs);
+            case SHELTER_ID:
+                return deleteShelters(shelterSelection(selection), shelterSelectionArgs(uri, selectionArgs));
+            default:
+                throw new IllegalArgumentException("Deletion is not supported for " + uri);
+        }
+    }
+
+    /**
+     * Helper method for the delete method above. Delete (or soft-delete) the pets that match the selection.
+     * Return the number of rows that were deleted.
+     */
+    private int deletePets(String selection, String[] selectionArgs, boolean soft) {
+        selection = DatabaseUtils.concatenateWhere(LIVE_PETS, selection);
+        int rowsDeleted = deleteRows(selection, selectionArgs, soft);
+
+        // We don't know which pets were deleted, so drop all of them from the cache and notify the whole table.
+        if (rowsDeleted != 0) {
+            invalidateAllPets();
+            notifyChange(PetContract.PetEntry.CONTENT_URI);
+            mCompactor.schedule();
+        }
+        return rowsDeleted;
+    }
+
+    /**
+     * Helper method for the delete method above. Delete (or soft-delete) the pet with the given _ID
+     * (and only if it also matches the selection, if there is one).
+     * Return the number of rows that were deleted.
+     */
+    private int deletePet(long id, String selection, String[] selectionArgs, boolean soft) {
+        int rowsDeleted;
+        if (selection == null) {
+            // The usual case: run the precompiled statement for the _ID.
+            rowsDeleted = soft ? getStatements().softDeleteById(id) : getStatements().deleteById(id);
+        } else {
+            selection = DatabaseUtils.concatenateWhere(PetContract.PetEntry._ID + "=? AND " + LIVE_PETS, selection);
+            selectionArgs = DatabaseUtils.appendSelectionArgs(new String[] { String.valueOf(id) }, selectionArgs);
+            rowsDeleted = deleteRows(selection, selectionArgs, soft);
+        }
+
+        // If 1 row was deleted, then notify all listeners that this pet is gone.
+        // (A single hard delete leaves too little free space to be worth compacting for.)
+        if (rowsDeleted != 0) {
+            invalidatePet(id);
+            notifyRowChange(id, PetContract.CHANGE_DELETE);
+            if (soft) {
+                mCompactor.schedule();
+            }
+        }
+        return rowsDeleted;
+    }
+
+    /**
+     * Delete the rows of the pets table that match the selection, or only mark them as deleted if soft is true.
+     * Doesn't notify anyone.
+     */
+    private int deleteRows(String selection, String[] selectionArgs, boolean soft) {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        if (soft) {
+            ContentValues tombstone = new ContentValues();
+            tombstone.put(PetContract.PetEntry.COLUMN_PET_DELETED, 1);
+            return database.update(PetContract.PetEntry.TABLE_NAME, tombstone, selection, selectionArgs);
+        }
+        return database.delete(PetContract.PetEntry.TABLE_NAME, selection, selectionArgs);
+    }
+
+    /**
+     * Helper method for the delete method above. Delete every pet, and return how many there were.
+     *
+     * "DELETE FROM pets" on its own would delete the rows one by one, because the triggers of the table have to run
+     * for each of them (and then take each pet out of the search table and the statistics, one by one as well).
+     * Instead, the triggers are dropped for the moment, so SQLite can clear the table in one go by just freeing
+     * its pages. The search table is dropped and created again empty, the statistics are reset, and then
+     * the triggers are put back, all in a single transaction. This takes about the same time for 10 pets or
+     * for a million (unless the device syncs, see {@link PetSyncTracker#onClear}). The triggers and the search table are created again from their own SQL in sqlite_master,
+     * so this keeps working whatever later migrations change about them.
+     */
+    private int clearPets() {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        int rowsDeleted;
+
+        database.beginTransaction();
+        try {
+            // The statistics already know how many pets there are (the soft-deleted ones aren't counted)
+            rowsDeleted = (int) DatabaseUtils.longForQuery(database, "SELECT TOTAL("
+                    + PetStatsEntry.COLUMN_PET_COUNT + ") FROM " + PetStatsEntry.GENDER_TABLE_NAME, null);
+
+            List<String> schema = new ArrayList<>();
+            Cursor triggers = database.rawQuery("SELECT name, sql FROM sqlite_master WHERE type = 'trigger'"
+                    + " AND tbl_name = ?", new String[] { PetContract.PetEntry.TABLE_NAME });
+            try {
+                while (triggers.moveToNext()) {
+                    database.execSQL("DROP TRIGGER " + triggers.getString(0));
+                    schema.add(triggers.getString(1));
+                }
+            } finally {
+                triggers.close();
+            }
+            String searchTable = DatabaseUtils.stringForQuery(database, "SELECT sql FROM sqlite_master"
+                    + " WHERE type = 'table' AND name = ?", new String[] { PetContract.PetEntry.SEARCH_TABLE_NAME });
+            schema.add(0, searchTable);
+
+            // The other devices have to hear about every pet that goes, so this is the one part that isn't in one go
+            PetSyncTracker.onClear(database);
+
+            // Without triggers, a DELETE without WHERE is the "truncate optimization" of SQLite
+            database.execSQL("DELETE FROM " + PetContract.PetEntry.TABLE_NAME);
+            database.execSQL("DROP TABLE " + PetContract.PetEntry.SEARCH_TABLE_NAME);
+            database.execSQL("UPDATE " + PetStatsEntry.GENDER_TABLE_NAME + " SET "
+                    + PetStatsEntry.COLUMN_PET_COUNT + " = 0, " + PetStatsEntry.COLUMN_WEIGHT_SUM + " = 0");
+            database.execSQL("DELETE FROM " + PetStatsEntry.BREED_TABLE_NAME);
+
+            // The search table first, because the triggers refer to it
+            for (String sql : schema) {
+                database.execSQL(sql);
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        // All of the pets are gone, so drop all of them from the cache and notify the whole table.
+        // The freed pages are given back to the file system in the background.
+        mRowCache.invalidateAll();
+        notifyChange(PetContract.PetEntry.CONTENT_URI);
+        mCompactor.schedule();
+        return rowsDeleted;
     }
 
 
     /**
-     * Returns the MIME type of data for the content URI.
+     * Open the file of the given URI: an export, or the photo of a pet.
+     *
+     * An export is read from the read end of a pipe. The pets are read with a single cursor ordered by _ID and
+     * written into the pipe by a {@link PetExportWriter} on a background thread, so the export starts right away
+     * and takes the same memory for any number of pets.
+     *
+     * A photo opened for reading is its file itself, opened read-only. A photo opened for writing is the write end
+     * of a pipe instead: the bytes are stored in a new file by {@link PetPhotoStore} on a background thread, and the
+     * pet only switches to the new file once the writer has closed the pipe and the file turned out to be an image.
+     * So the pet never shows half a photo, and a reader of the old photo keeps reading it in full.
      */
     @Override
-    public String getType(Uri uri) {
-        return null;
+    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+        final int match = sUriMatcher.match(uri);
+        if (match == PET_PHOTO) {
+            long id = Long.parseLong(uri.getPathSegments().get(1));
+            if ("r".equals(mode)) {
+                return openPhoto(id);
+            }
+            if ("w".equals(mode) || "wt".equals(mode)) {
+                return receivePhoto(id);
+            }
+            throw new FileNotFoundException("Photos can only be opened for reading or writing: " + uri);
+        }
+        if (match != EXPORT) {
+            throw new FileNotFoundException("No file for " + uri);
+        }
+        if (!"r".equals(mode)) {
+            throw new FileNotFoundException("Exports can only be opened for reading: " + uri);
+        }
+        String format = uri.getLastPathSegment();
+        String mimeType = PetExportWriter.getMimeType(format);
+        if (mimeType == null) {
+            throw new FileNotFoundException("Unknown export format " + format);
+        }
+
+        // The query only runs when the writer first moves the cursor, on the background thread.
+        Cursor cursor = mDbHelper.getReadableDatabase().query(PetContract.PetEntry.TABLE_NAME,
+                EXPORT_COLUMNS, LIVE_PETS, null, null, null, PetContract.PetEntry._ID + " ASC");
+        return openPipeHelper(uri, mimeType, null, cursor, new PetExportWriter(format));
+    }
+
+    /**
+     * Helper method for the openFile method above. Open the photo file of the pet with the given _ID for reading.
+     */
+    private ParcelFileDescriptor openPhoto(long id) throws FileNotFoundException {
+        String photo = queryPhoto(id);
+        if (photo == null) {
+            throw new FileNotFoundException("Pet " + id + " has no photo");
+        }
+        return mPhotoStore.openForReading(photo);
+    }
+
+    /**
+     * Helper method for the openFile method above. Returns the write end of a pipe, and stores what is written
+     * into it as the new photo of the pet with the given _ID once it is closed.
+     */
+    private ParcelFileDescriptor receivePhoto(final long id) throws FileNotFoundException {
+        Cursor pet = queryPetCached(mDbHelper.getReadableDatabase(), id,
+                new String[] { PetContract.PetEntry._ID });
+        try {
+            if (pet.getCount() == 0) {
+                throw new FileNotFoundException("There is no pet " + id);
+            }
+        } finally {
+            pet.close();
+        }
+
+        final ParcelFileDescriptor[] pipe;
+        try {
+            pipe = ParcelFileDescriptor.createPipe();
+        } catch (IOException e) {
+            throw new FileNotFoundException("Failed to create a pipe for the photo of pet " + id + ": " + e);
+        }
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                String photo = mPhotoStore.receive(id, pipe[0]);
+                if (photo != null) {
+                    commitPhoto(id, photo);
+                }
+            }
+        });
+        return pipe[1];
+    }
+
+    /**
+     * Make the stored photo file with the given name the photo of the pet with the given _ID, and delete the
+     * previous photo file. If the pet was deleted in the meantime, the new file is deleted instead.
+     */
+    private void commitPhoto(long id, String photo) {
+        String previousPhoto;
+        int rowsUpdated;
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        database.beginTransaction();
+        try {
+            previousPhoto = queryPhoto(id);
+            ContentValues values = new ContentValues();
+            values.put(PetContract.PetEntry.COLUMN_PET_PHOTO, photo);
+            rowsUpdated = database.update(PetContract.PetEntry.TABLE_NAME, values,
+                    PetContract.PetEntry._ID + "=? AND " + LIVE_PETS, new String[] { String.valueOf(id) });
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        if (rowsUpdated == 0) {
+            mPhotoStore.delete(photo);
+            return;
+        }
+        // A reader that opened the previous file before the update still has it open, and keeps reading it.
+        if (previousPhoto != null) {
+            mPhotoStore.delete(previousPhoto);
+        }
+        mRowCache.invalidate(id);
+        notifyRowChange(id, PetContract.CHANGE_UPDATE);
+    }
+
+    /**
+     * Returns the name of the photo file of the pet with the given _ID, or null if it has none (or there is no pet).
+     */
+    private String queryPhoto(long id) {
+        Cursor cursor = queryPetCached(mDbHelper.getReadableDatabase(), id,
+                new String[] { PetContract.PetEntry.COLUMN_PET_PHOTO });
+        try {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+
+    /**
+     * Provider-specific methods that aren't about the rows of a table.
+     * {@link PetContract#METHOD_GET_CACHE_STATS} returns the statistics of the cache of single pets.
+     * {@link PetContract#METHOD_GET_SLOW_QUERIES} returns the slow query log, and
+     * {@link PetContract#METHOD_SET_SLOW_QUERY_THRESHOLD} changes its threshold.
+     */
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (PetContract.METHOD_GET_CACHE_STATS.equals(method)) {
+            Bundle stats = new Bundle();
+            stats.putLong(PetContract.KEY_CACHE_HITS, mRowCache.getHitCount());
+            stats.putLong(PetContract.KEY_CACHE_MISSES, mRowCache.getMissCount());
+            stats.putLong(PetContract.KEY_CACHE_ROWS, mRowCache.getRowCount());
+            stats.putLong(PetContract.KEY_CACHE_SIZE_BYTES, mRowCache.getSizeBytes());
+            stats.putLong(PetContract.KEY_CACHE_MAX_SIZE_BYTES, mRowCache.getMaxSizeBytes());
+            return stats;
+        }
+        if (PetContract.METHOD_GET_SLOW_QUERIES.equals(method)) {
+            Bundle slowQueries = new Bundle();
+            slowQueries.putLong(PetContract.KEY_SLOW_QUERY_THRESHOLD_MILLIS, mSlowQueries.getThresholdMillis());
+            slowQueries.putStringArrayList(PetContract.KEY_SLOW_QUERIES, mSlowQueries.getEntries());
+            return slowQueries;
+        }
+        if (PetContract.METHOD_SET_SLOW_QUERY_THRESHOLD.equals(method)) {
+            mSlowQueries.setThresholdMillis(parseThresholdMillis(arg));
+            return null;
+        }
+        return super.call(method, arg, extras);
+    }
+
+    /**
+     * Parse the arg of {@link PetContract#METHOD_SET_SLOW_QUERY_THRESHOLD}. It comes from another app (or from adb),
+     * so anything but a number of milliseconds of 0 or more is rejected.
+     */
+    private static long parseThresholdMillis(String arg) {
+        if (arg == null) {
+            throw new IllegalArgumentException("Missing slow query threshold");
+        }
+        long thresholdMillis;
+        try {
+            thresholdMillis = Long.parseLong(arg.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Slow query threshold is not a number of milliseconds: " + arg);
+        }
+        if (thresholdMillis < 0) {
+            throw new IllegalArgumentException("Slow query threshold can't be negative: " + arg);
+        }
+        return thresholdMillis;
+    }
+
+    /**
+     * Print the warm-up times and the slow query log, for "adb shell dumpsys activity provider com.example.android.pets".
+     */
+    @Override
+    public void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        mWarmUp.dump(writer);
+        mSlowQueries.dump(writer);
     }
 
 
@@ -200,6 +1783,32 @@ public class PetProvider extends ContentProvider {
                 return PetContract.PetEntry.CONTENT_MIME_DIRECTORY_TYPE;
                 //“content://com.example.android.pets/pets/”, which is the PETS case, which references the entire pets table.
                 // Basically it represents a list of pets. In MIME type terms, this is known as a directory of data.
+            case SEARCH:
+                return PetContract.PetEntry.CONTENT_MIME_DIRECTORY_TYPE;
+                // Search results are a list of pets too.
+            case STATS:
+                return PetStatsEntry.CONTENT_MIME_DIRECTORY_TYPE;
+            case IMPORT:
+                return PetImportEntry.CONTENT_MIME_ITEM_TYPE;
+            case METRICS:
+                return PetMetricsEntry.CONTENT_MIME_DIRECTORY_TYPE;
+            case EXPORT:
+                // text/csv or application/json, depending on the format in the URI (null for an unknown format)
+                return PetExportWriter.getMimeType(uri.getLastPathSegment());
+            case NEARBY:
+                return PetContract.PetEntry.CONTENT_MIME_DIRECTORY_TYPE;
+            case SHELTERS:
+                return ShelterEntry.CONTENT_MIME_DIRECTORY_TYPE;
+            case SHELTER_ID:
+                return ShelterEntry.CONTENT_MIME_ITEM_TYPE;
+            case SYNC_CHANGES:
+                return PetSyncEntry.CONTENT_MIME_DIRECTORY_TYPE;
+            case SYNC_STATE:
+                return PetSyncEntry.CONTENT_MIME_ITEM_TYPE;
+            case PET_PHOTO:
+                // image/jpeg, image/png..., whatever the stored photo is (null if the pet has no photo)
+                String photo = queryPhoto(Long.parseLong(uri.getPathSegments().get(1)));
+                return photo == null ? null : PetPhotoStore.getMimeType(photo);
             case PET_ID:
                 return PetContract.PetEntry.CONTENT_MIME_ITEM_TYPE;
                 //“content://com.example.android.pets/pets/#”, which is the PETS_ID case,  which represents a single pet.
@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.util.LruCache;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded least-recently-used cache of whole rows of the pets table, keyed by _ID.
+ * {@link PetProvider} uses it to answer queries for a single pet without going to the database.
+ *
+ * The cache is bounded by an estimate of the memory its rows take up, not by the number of rows,
+ * so a few pets with very long names can't make it grow past its budget.
+ *
+ * Rows must be invalidated whenever the pet they belong to is inserted, updated or deleted, once the change
+ * is committed (before that, a query on another connection can still read the old row and put it back).
+ * To make sure a query that was already running when a pet changed can't put the old version of the row
+ * back into the cache afterwards, a row can only be put if nothing was invalidated since its query started
+ * (see {@link #getGeneration()}).
+ */
+class PetRowCache {
+
+    /** Rough memory overhead of one cache entry (key, array, map entry), in bytes */
+    private static final int ENTRY_OVERHEAD_BYTES = 64;
+
+    /** The cached rows. Each value holds the values of the columns in {@link #mColumns}, in the same order. */
+    private final LruCache<Long, Object[]> mRows;
+
+    /** Names of the columns of the cached rows, set by the first row that is put */
+    private String[] mColumns;
+
+    /** Incremented every time a row is invalidated, see {@link #put(long, Cursor, long, String[])} */
+    private long mGeneration;
+
+    /** Number of lookups that were answered from the cache */
+    private final AtomicLong mHits = new AtomicLong();
+
+    /** Number of lookups that had to go to the database */
+    private final AtomicLong mMisses = new AtomicLong();
+
+    /**
+     * Constructs a new {@link PetRowCache}.
+     *
+     * @param maxSizeBytes the approximate amount of memory the cached rows may take up
+     */
+    PetRowCache(int maxSizeBytes) {
+        mRows = new LruCache<Long, Object[]>(maxSizeBytes) {
+            @Override
+            protected int sizeOf(Long id, Object[] row) {
+                return estimateSize(row);
+            }
+        };
+    }
+
+    /**
+     * Returns a cursor over the cached row of the given pet, with only the columns of the projection
+     * (or all columns if the projection is null). Returns null if the pet isn't cached, or if the projection
+     * asks for a column that the cache doesn't have.
+     */
+    synchronized Cursor get(long id, String[] projection) {
+        Object[] row = mRows.get(id);
+        Cursor cursor = row == null ? null : toCursor(mColumns, row, projection);
+        if (cursor == null) {
+            mMisses.incrementAndGet();
+        } else {
+            mHits.incrementAndGet();
+        }
+        return cursor;
+    }
+
+    /**
+     * Returns the current generation of the cache. Read this before querying the database for a row,
+     * and pass it to {@link #put(long, Cursor, long, String[])} afterwards.
+     */
+    synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Cache the current row of the cursor, which must contain all of the columns of the pets table,
+     * unless a row was invalidated since {@code generation} was read (the row may be out of date then).
+     *
+     * @return a cursor over the row with only the columns of the projection (all columns if it is null),
+     *         or null if the projection asks for a column the row doesn't have
+     */
+    synchronized Cursor put(long id, Cursor cursor, long generation, String[] projection) {
+        String[] columns = cursor.getColumnNames();
+        Object[] row = new Object[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            switch (cursor.getType(i)) {
+                case Cursor.FIELD_TYPE_INTEGER:
+                    row[i] = cursor.getLong(i);
+                    break;
+                case Cursor.FIELD_TYPE_FLOAT:
+                    row[i] = cursor.getDouble(i);
+                    break;
+                case Cursor.FIELD_TYPE_STRING:
+                    row[i] = cursor.getString(i);
+                    break;
+                case Cursor.FIELD_TYPE_BLOB:
+                    row[i] = cursor.getBlob(i);
+                    break;
+                default:
+                    row[i] = null;
+                    break;
+            }
+        }
+
+        if (generation == mGeneration && (mColumns == null || Arrays.equals(mColumns, columns))) {
+            mColumns = columns;
+            mRows.put(id, row);
+        }
+        return toCursor(columns, row, projection);
+    }
+
+    /**
+     * Drop the cached row of the given pet, because it was inserted, updated or deleted.
+     */
+    synchronized void invalidate(long id) {
+        mGeneration++;
+        mRows.remove(id);
+    }
+
+    /**
+     * Drop all of the cached rows, because an unknown set of pets was changed.
+     */
+    synchronized void invalidateAll() {
+        mGeneration++;
+        mRows.evictAll();
+    }
+
+    /** Returns the number of lookups that were answered from the cache */
+    long getHitCount() {
+        return mHits.get();
+    }
+
+    /** Returns the number of lookups that had to go to the database */
+    long getMissCount() {
+        return mMisses.get();
+    }
+
+    /** Returns the number of rows in the cache */
+    synchronized int getRowCount() {
+        return mRows.snapshot().size();
+    }
+
+    /** Returns the estimated memory taken up by the cached rows, in bytes */
+    synchronized int getSizeBytes() {
+        return mRows.size();
+    }
+
+    /** Returns the maximum memory the cached rows may take up, in bytes */
+    int getMaxSizeBytes() {
+        return mRows.maxSize();
+    }
+
+    /**
+     * Returns a cursor over the given row with only the columns of the projection (or all columns if it is null),
+     * or null if the projection asks for a column the row doesn't have.
+     */
+    private static Cursor toCursor(String[] columns, Object[] row, String[] projection) {
+        if (projection == null) {
+            projection = columns;
+        }
+
+        // Pick the values of the requested columns out of the row
+        Object[] values = new Object[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            int columnIndex = indexOf(columns, projection[i]);
+            if (columnIndex < 0) {
+                return null;
+            }
+            values[i] = row[columnIndex];
+        }
+
+        MatrixCursor cursor = new MatrixCursor(projection, 1);
+        cursor.addRow(values);
+        return cursor;
+    }
+
+    /**
+     * Returns the index of the given column in the array of columns, or -1 if it isn't there.
+     */
+    private static int indexOf(String[] columns, String column) {
+        for (int i = 0; i < columns.length; i++) {
+            if (columns[i].equals(column)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns a rough estimate of the memory taken up by the given row, in bytes.
+     */
+    private static int estimateSize(Object[] row) {
+        int size = ENTRY_OVERHEAD_BYTES + 4 * row.length;
+        for (Object value : row) {
+            if (value instanceof String) {
+                size += 40 + 2 * ((String) value).length();
+            } else if (value instanceof byte[]) {
+                size += 16 + ((byte[]) value).length;
+            } else if (value != null) {
+                size += 16;
+            }
+        }
+        return size;
+    }
+}
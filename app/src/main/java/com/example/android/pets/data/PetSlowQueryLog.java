@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.util.Log;
+
+import java.io.PrintWriter;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Keeps the last few queries of {@link PetProvider} that took longer than a threshold, with everything needed
+ * to find out why: the SQL as it was sent to SQLite, the number of arguments (their values are redacted,
+ * since they can be anything the user typed), the number of rows, the duration and the query plan.
+ *
+ * The entries are kept in a ring buffer of {@link #CAPACITY}, so the oldest entry is dropped when it is full.
+ * Fast queries only cost a comparison. The query plan is only asked for once a query was found to be slow.
+ */
+class PetSlowQueryLog {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = PetSlowQueryLog.class.getSimpleName();
+
+    /** Number of slow queries that are kept */
+    static final int CAPACITY = 32;
+
+    /** Queries that take at least this long are recorded, unless the threshold is changed */
+    static final long DEFAULT_THRESHOLD_MILLIS = 100;
+
+    /**
+     * One slow query.
+     */
+    static final class Entry {
+        final long timeMillis;
+        final String sql;
+        final String arguments;
+        final int rows;
+        final long durationMicros;
+        final String plan;
+
+        Entry(long timeMillis, String sql, String arguments, int rows, long durationMicros, String plan) {
+            this.timeMillis = timeMillis;
+            this.sql = sql;
+            this.arguments = arguments;
+            this.rows = rows;
+            this.durationMicros = durationMicros;
+            this.plan = plan;
+        }
+
+        @Override
+        public String toString() {
+            SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS", Locale.US);
+            return format.format(new Date(timeMillis)) + " " + (durationMicros / 1000.0) + " ms, " + rows + " rows\n"
+                    + "  SQL: " + sql + "\n"
+                    + "  args: " + arguments + "\n"
+                    + "  plan: " + plan.replace("\n", "\n        ");
+        }
+    }
+
+    /** The ring buffer. Guarded by this. */
+    private final Entry[] mEntries = new Entry[CAPACITY];
+
+    /** Index in {@link #mEntries} where the next entry goes. Guarded by this. */
+    private int mNext;
+
+    /** Number of entries in the buffer. Guarded by this. */
+    private int mSize;
+
+    /** Queries that take at least this long are recorded */
+    private volatile long mThresholdNanos = DEFAULT_THRESHOLD_MILLIS * 1000000;
+
+    /**
+     * Change the threshold. 0 records every query.
+     */
+    void setThresholdMillis(long thresholdMillis) {
+        if (thresholdMillis < 0 || thresholdMillis > Long.MAX_VALUE / 1000000) {
+            throw new IllegalArgumentException("Invalid slow query threshold " + thresholdMillis);
+        }
+        mThresholdNanos = thresholdMillis * 1000000;
+    }
+
+    /**
+     * Returns the threshold, in milliseconds.
+     */
+    long getThresholdMillis() {
+        return mThresholdNanos / 1000000;
+    }
+
+    /**
+     * Record the query if it was slow, with its query plan.
+     *
+     * @param database the query ran on, for the query plan
+     * @param sql of the query
+     * @param selectionArgs the arguments of the query, whose values are not kept
+     * @param rows number of rows of the query
+     * @param durationNanos how long the query took, including reading its first window of rows
+     */
+    void recordIfSlow(SQLiteDatabase database, String sql, String[] selectionArgs, int rows, long durationNanos) {
+        if (durationNanos < mThresholdNanos) {
+            return;
+        }
+        Entry entry = new Entry(System.currentTimeMillis(), sql, redact(selectionArgs), rows,
+                durationNanos / 1000, explain(database, sql, selectionArgs));
+        Log.w(LOG_TAG, "Slow query: " + entry);
+        synchronized (this) {
+            mEntries[mNext] = entry;
+            mNext = (mNext + 1) % CAPACITY;
+            mSize = Math.min(mSize + 1, CAPACITY);
+        }
+    }
+
+    /**
+     * Returns the recorded slow queries, from the oldest to the newest.
+     */
+    synchronized ArrayList<String> getEntries() {
+        ArrayList<String> entries = new ArrayList<>(mSize);
+        for (int i = 0; i < mSize; i++) {
+            entries.add(mEntries[(mNext - mSize + i + CAPACITY) % CAPACITY].toString());
+        }
+        return entries;
+    }
+
+    /**
+     * Print the recorded slow queries, from the oldest to the newest.
+     */
+    void dump(PrintWriter writer) {
+        ArrayList<String> entries = getEntries();
+        writer.println("Slow queries (threshold " + getThresholdMillis() + " ms, " + entries.size()
+                + " of the last " + CAPACITY + "):");
+        for (String entry : entries) {
+            writer.println(entry);
+        }
+    }
+
+    /**
+     * Describe the arguments without their values: only their number and lengths.
+     */
+    private static String redact(String[] selectionArgs) {
+        if (selectionArgs == null || selectionArgs.length == 0) {
+            return "none";
+        }
+        StringBuilder arguments = new StringBuilder();
+        for (int i = 0; i < selectionArgs.length; i++) {
+            if (i > 0) {
+                arguments.append(", ");
+            }
+            arguments.append('?').append(i + 1).append('=');
+            arguments.append(selectionArgs[i] == null ? "null" : "<" + selectionArgs[i].length() + " chars>");
+        }
+        return arguments.toString();
+    }
+
+    /**
+     * Returns the query plan of the SQL, one step per line, or the error if it can't be explained.
+     */
+    private static String explain(SQLiteDatabase database, String sql, String[] selectionArgs) {
+        try {
+            Cursor cursor = database.rawQuery("EXPLAIN QUERY PLAN " + sql, selectionArgs);
+            try {
+                // The last column holds the description of each step, on every version of SQLite.
+                int detailColumn = cursor.getColumnCount() - 1;
+                StringBuilder plan = new StringBuilder();
+                while (cursor.moveToNext()) {
+                    if (plan.length() > 0) {
+                        plan.append('\n');
+                    }
+                    plan.append(cursor.getString(detailColumn));
+                }
+                return plan.toString();
+            } finally {
+                cursor.close();
+            }
+        } catch (SQLiteException e) {
+            return "unavailable (" + e.getMessage() + ")";
+        }
+    }
+}
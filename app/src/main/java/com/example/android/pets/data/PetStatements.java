@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+/**
+ * A pool of precompiled {@link SQLiteStatement}s for the write paths of {@link PetProvider}:
+ * inserting a pet, updating a pet by _ID and deleting or soft-deleting a pet by _ID.
+ *
+ * {@link SQLiteDatabase#insert(String, String, ContentValues)} and friends build a new SQL string
+ * from the ContentValues on every call. Here each statement is compiled once, and every call only binds
+ * the new values to it, so writing many rows skips the SQL building and compiling.
+ *
+ * The statements only know about the basic columns of the pets table (name, breed, gender and weight).
+ * Use {@link #supports(ContentValues)} to check the values first, and fall back to the SQLiteDatabase
+ * methods for anything else. The statements by _ID never touch a pet that was already soft-deleted.
+ * Bound values are kept in the statement itself, so all of the methods are
+ * synchronized to keep two threads from binding at the same time.
+ */
+class PetStatements {
+
+    /** The columns the statements can write, in the order they are bound */
+    private static final String[] COLUMNS = {
+            PetEntry.COLUMN_PET_NAME,
+            PetEntry.COLUMN_PET_BREED,
+            PetEntry.COLUMN_PET_GENDER,
+            PetEntry.COLUMN_PET_WEIGHT,
+            PetEntry.COLUMN_PET_SHELTER };
+
+    /** Index of the weight in {@link #COLUMNS}, which defaults to 0 on insert */
+    private static final int WEIGHT_INDEX = 3;
+
+    /** Condition that leaves out the soft-deleted pets */
+    private static final String LIVE = PetEntry.COLUMN_PET_DELETED + " = 0";
+
+    private final SQLiteDatabase mDatabase;
+
+    /** Inserts all of the columns */
+    private final SQLiteStatement mInsert;
+
+    /** Deletes the pet with the _ID bound to the only argument */
+    private final SQLiteStatement mDeleteById;
+
+    /** Marks the pet with the _ID bound to the only argument as deleted */
+    private final SQLiteStatement mSoftDeleteById;
+
+    /**
+     * Update statements, compiled on first use. The statement at index i sets the columns whose bit is set in i
+     * (bit n stands for COLUMNS[n]), so an update only writes the columns that are in its values.
+     */
+    private final SQLiteStatement[] mUpdateById = new SQLiteStatement[1 << COLUMNS.length];
+
+    /**
+     * Compile the statements for the given database, which must be writable and stay open while they are in use.
+     */
+    PetStatements(SQLiteDatabase database) {
+        mDatabase = database;
+        mInsert = database.compileStatement("INSERT INTO " + PetEntry.TABLE_NAME + " ("
+                + PetEntry.COLUMN_PET_NAME + ", " + PetEntry.COLUMN_PET_BREED + ", "
+                + PetEntry.COLUMN_PET_GENDER + ", " + PetEntry.COLUMN_PET_WEIGHT + ", "
+                + PetEntry.COLUMN_PET_SHELTER + ") VALUES (?, ?, ?, ?, ?)");
+        mDeleteById = database.compileStatement("DELETE FROM " + PetEntry.TABLE_NAME
+                + " WHERE " + PetEntry._ID + " = ? AND " + LIVE);
+        mSoftDeleteById = database.compileStatement("UPDATE " + PetEntry.TABLE_NAME
+                + " SET " + PetEntry.COLUMN_PET_DELETED + " = 1"
+                + " WHERE " + PetEntry._ID + " = ? AND " + LIVE);
+    }
+
+    /**
+     * Returns true if the statements can write the given values, that is if they only contain
+     * the name, breed, gender, weight and shelter of the pet.
+     */
+    static boolean supports(ContentValues values) {
+        int known = 0;
+        for (String column : COLUMNS) {
+            if (values.containsKey(column)) {
+                known++;
+            }
+        }
+        return known == values.size();
+    }
+
+    /**
+     * Insert a new pet with the given values. A missing breed or shelter is stored as null and a missing weight as 0,
+     * just like the defaults of the table.
+     *
+     * @return the _ID of the new pet
+     * @throws android.database.SQLException if the insert failed
+     */
+    synchronized long insert(ContentValues values) {
+        for (int i = 0; i < COLUMNS.length; i++) {
+            Object value = values.get(COLUMNS[i]);
+            if (value == null && i == WEIGHT_INDEX) {
+                value = 0;
+            }
+            DatabaseUtils.bindObjectToProgram(mInsert, i + 1, value);
+        }
+        try {
+            return mInsert.executeInsert();
+        } finally {
+            mInsert.clearBindings();
+        }
+    }
+
+    /**
+     * Update the columns in the given values for the pet with the given _ID.
+     *
+     * @return the number of rows updated (0 or 1)
+     */
+    synchronized int updateById(long id, ContentValues values) {
+        int columnMask = 0;
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if (values.containsKey(COLUMNS[i])) {
+                columnMask |= 1 << i;
+            }
+        }
+        if (columnMask == 0) {
+            return 0;
+        }
+
+        SQLiteStatement update = mUpdateById[columnMask];
+        if (update == null) {
+            update = compileUpdate(columnMask);
+            mUpdateById[columnMask] = update;
+        }
+
+        int argument = 1;
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if ((columnMask & (1 << i)) != 0) {
+                DatabaseUtils.bindObjectToProgram(update, argument++, values.get(COLUMNS[i]));
+            }
+        }
+        update.bindLong(argument, id);
+        try {
+            return update.executeUpdateDelete();
+        } finally {
+            update.clearBindings();
+        }
+    }
+
+    /**
+     * Delete the pet with the given _ID.
+     *
+     * @return the number of rows deleted (0 or 1)
+     */
+    synchronized int deleteById(long id) {
+        mDeleteById.bindLong(1, id);
+        try {
+            return mDeleteById.executeUpdateDelete();
+        } finally {
+            mDeleteById.clearBindings();
+        }
+    }
+
+    /**
+     * Mark the pet with the given _ID as deleted, see {@link PetContract#QUERY_PARAMETER_SOFT_DELETE}.
+     *
+     * @return the number of rows soft-deleted (0 or 1)
+     */
+    synchronized int softDeleteById(long id) {
+        mSoftDeleteById.bindLong(1, id);
+        try {
+            return mSoftDeleteById.executeUpdateDelete();
+        } finally {
+            mSoftDeleteById.clearBindings();
+        }
+    }
+
+    /**
+     * Close all of the statements. They can't be used afterwards, and the database can then be closed.
+     */
+    synchronized void close() {
+        mInsert.close();
+        mDeleteById.close();
+        mSoftDeleteById.close();
+        for (SQLiteStatement update : mUpdateById) {
+            if (update != null) {
+                update.close();
+            }
+        }
+    }
+
+    /**
+     * Compile "UPDATE pets SET column = ?, ... WHERE _id = ? AND deleted = 0" for the columns in the mask.
+     */
+    private SQLiteStatement compileUpdate(int columnMask) {
+        StringBuilder sql = new StringBuilder("UPDATE " + PetEntry.TABLE_NAME + " SET ");
+        boolean first = true;
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if ((columnMask & (1 << i)) == 0) {
+                continue;
+            }
+            if (!first) {
+                sql.append(", ");
+            }
+            sql.append(COLUMNS[i]).append(" = ?");
+            first = false;
+        }
+        sql.append(" WHERE " + PetEntry._ID + " = ? AND " + LIVE);
+        return mDatabase.compileStatement(sql.toString());
+    }
+}
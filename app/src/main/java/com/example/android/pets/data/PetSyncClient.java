@@ -0,0 +1,376 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.pets.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.RemoteException;
+
+import com.example.android.pets.data.PetContract.PetSyncEntry;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Syncs the pets of {@link PetProvider} with the sync server, so that every device of the shelter ends up with
+ * the same pets. Only the pets that changed since the last sync are sent either way, so a sync after a small change
+ * moves a few kilobytes however many pets there are (see {@link PetSyncEntry} for how the changes are tracked).
+ *
+ * A sync first pulls the changes of the other devices, a page at a time, from the position of the last pull in
+ * the server's change log. Each page is applied in one {@link ContentResolver#applyBatch(String, ArrayList)}
+ * transaction, together with the new position, so an interrupted sync carries on where it stopped. Then it pushes
+ * the changes made here, a page at a time: the server merges them column by column, and sends back the pets
+ * where its own values won, which are applied in the same transaction that acknowledges the page.
+ *
+ * The protocol is JSON over HTTP, with the requests and responses compressed with gzip. POST /pull with
+ * {"device", "cursor", "limit"} returns {"rows", "cursor", "more"}, and POST /push with {"device", "rows"} returns
+ * {"base", "cursor", "rejected"}: the server's position before and after the push, and the rows where the server
+ * won. A row is {"origin", "id", "columns"}, with the columns as "name": [value, clock, writer].
+ * The unit tests sync devices with each other through PetSyncStandInServer, an in-process server.
+ *
+ * Syncing is blocking, so it must be done on a background thread. Nothing in the app syncs yet, so the app doesn't
+ * ask for the INTERNET permission; whatever starts the sync (like a sync adapter) has to add it to the manifest.
+ */
+public class PetSyncClient {
+
+    /** Number of pets per request and per transaction, if nothing else is given */
+    public static final int DEFAULT_BATCH_SIZE = 500;
+
+    /** Paths of the requests */
+    static final String PATH_PULL = "pull";
+    static final String PATH_PUSH = "push";
+
+    /** Keys of the JSON requests and responses */
+    static final String KEY_DEVICE = "device";
+    static final String KEY_CURSOR = "cursor";
+    static final String KEY_LIMIT = "limit";
+    static final String KEY_ROWS = "rows";
+    static final String KEY_MORE = "more";
+    static final String KEY_BASE = "base";
+    static final String KEY_REJECTED = "rejected";
+    static final String KEY_ORIGIN = "origin";
+    static final String KEY_ID = "id";
+    static final String KEY_COLUMNS = "columns";
+
+    /** Timeouts of the requests, in milliseconds */
+    private static final int CONNECT_TIMEOUT_MILLIS = 15 * 1000;
+    private static final int READ_TIMEOUT_MILLIS = 60 * 1000;
+
+    /**
+     * The outcome of a sync.
+     */
+    public static final class Result {
+
+        /** Number of pets pulled from the server, including the ones sent back by the server after a push */
+        public final int petsPulled;
+
+        /** Number of pets pushed to the server */
+        public final int petsPushed;
+
+        /** Number of bytes sent and received, compressed, not counting the HTTP headers */
+        public final long bytesSent;
+        public final long bytesReceived;
+
+        Result(int petsPulled, int petsPushed, long bytesSent, long bytesReceived) {
+            this.petsPulled = petsPulled;
+            this.petsPushed = petsPushed;
+            this.bytesSent = bytesSent;
+            this.bytesReceived = bytesReceived;
+        }
+    }
+
+    private final ContentResolver mResolver;
+
+    /** URL of the server, without a slash at the end */
+    private final String mServerUrl;
+
+    private final int mBatchSize;
+
+    /** Bytes sent and received so far in the current sync */
+    private long mBytesSent;
+    private long mBytesReceived;
+
+    /**
+     * Constructs a new {@link PetSyncClient}.
+     *
+     * @param resolver to read and write the pets with
+     * @param serverUrl URL of the sync server, like "https://sync.example.com/shelter"
+     * @param batchSize number of pets per request and per transaction
+     */
+    public PetSyncClient(ContentResolver resolver, String serverUrl, int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Invalid batch size " + batchSize);
+        }
+        mResolver = resolver;
+        mServerUrl = serverUrl.endsWith("/") ? serverUrl.substring(0, serverUrl.length() - 1) : serverUrl;
+        mBatchSize = batchSize;
+    }
+
+    /**
+     * Pull the changes of the other devices, then push the changes made here.
+     * The first sync of a device pushes all of its pets.
+     *
+     * @return what was synced
+     * @throws IOException if the server can't be reached or returns an error; what was synced until then is kept
+     */
+    public synchronized Result sync() throws IOException, RemoteException, OperationApplicationException {
+        mBytesSent = 0;
+        mBytesReceived = 0;
+        String deviceId;
+        long pullCursor;
+        Cursor state = mResolver.query(PetSyncEntry.STATE_URI, null, null, null, null);
+        if (state == null || !state.moveToFirst()) {
+            if (state != null) {
+                state.close();
+            }
+            throw new IllegalStateException("No sync state");
+        }
+        try {
+            deviceId = state.getString(state.getColumnIndexOrThrow(PetSyncEntry.COLUMN_DEVICE_ID));
+            pullCursor = state.getLong(state.getColumnIndexOrThrow(PetSyncEntry.COLUMN_PULL_CURSOR));
+        } finally {
+            state.close();
+        }
+
+        try {
+            int petsPulled = 0;
+            boolean more = true;
+            while (more) {
+                JSONObject request = new JSONObject()
+                        .put(KEY_DEVICE, deviceId)
+                        .put(KEY_CURSOR, pullCursor)
+                        .put(KEY_LIMIT, mBatchSize);
+                JSONObject response = post(PATH_PULL, request);
+                JSONArray rows = response.getJSONArray(KEY_ROWS);
+                pullCursor = response.getLong(KEY_CURSOR);
+                more = response.optBoolean(KEY_MORE);
+
+                ArrayList<ContentProviderOperation> operations = toOperations(rows);
+                operations.add(ContentProviderOperation.newUpdate(PetSyncEntry.STATE_URI)
+                        .withValue(PetSyncEntry.COLUMN_PULL_CURSOR, pullCursor)
+                        .build());
+                mResolver.applyBatch(PetContract.CONTENT_AUTHORITY, operations);
+                petsPulled += rows.length();
+            }
+
+            int petsPushed = 0;
+            Uri changesUri = PetSyncEntry.CHANGES_URI.buildUpon()
+                    .appendQueryParameter(PetContract.QUERY_PARAMETER_LIMIT, String.valueOf(mBatchSize))
+                    .build();
+            while (true) {
+                JSONArray rows = new JSONArray();
+                long pushedSeq = readChanges(changesUri, deviceId, rows);
+                if (rows.length() == 0) {
+                    break;
+                }
+                JSONObject request = new JSONObject()
+                        .put(KEY_DEVICE, deviceId)
+                        .put(KEY_ROWS, rows);
+                JSONObject response = post(PATH_PUSH, request);
+                JSONArray rejected = response.getJSONArray(KEY_REJECTED);
+
+                // If nobody else pushed since our last pull, the server's log up to its new cursor is only our own
+                // changes, so the next pull can skip them instead of getting them back.
+                ArrayList<ContentProviderOperation> operations = toOperations(rejected);
+                ContentProviderOperation.Builder acknowledge = ContentProviderOperation.newUpdate(PetSyncEntry.STATE_URI)
+                        .withValue(PetSyncEntry.COLUMN_PUSHED_SEQ, pushedSeq);
+                if (response.getLong(KEY_BASE) == pullCursor) {
+                    pullCursor = response.getLong(KEY_CURSOR);
+                    acknowledge.withValue(PetSyncEntry.COLUMN_PULL_CURSOR, pullCursor);
+                }
+                operations.add(acknowledge.build());
+                mResolver.applyBatch(PetContract.CONTENT_AUTHORITY, operations);
+                petsPushed += rows.length();
+                petsPulled += rejected.length();
+            }
+            return new Result(petsPulled, petsPushed, mBytesSent, mBytesReceived);
+        } catch (JSONException e) {
+            throw new IOException("Invalid response from the sync server", e);
+        }
+    }
+
+    /**
+     * Read the next page of changes to push into the given rows, with only the dirty columns of each pet.
+     *
+     * @return the seq of the last change read, which acknowledges the page
+     */
+    private long readChanges(Uri changesUri, String deviceId, JSONArray rows) throws JSONException {
+        Cursor cursor = mResolver.query(changesUri, null, null, null, null);
+        if (cursor == null) {
+            return 0;
+        }
+        long seq = 0;
+        try {
+            int nameIndex = PetSyncTracker.CHANGES_FIRST_VALUE;
+            int deletedIndex = PetSyncTracker.CHANGES_FIRST_VALUE + PetSyncEntry.SYNCED_COLUMNS.length - 1;
+            while (cursor.moveToNext()) {
+                seq = cursor.getLong(PetSyncTracker.CHANGES_SEQ);
+                int dirty = cursor.getInt(PetSyncTracker.CHANGES_DIRTY);
+
+                // A pet that is gone only has its deletion left to push
+                boolean gone = cursor.isNull(nameIndex);
+                JSONObject columns = new JSONObject();
+                for (int i = 0; i < PetSyncEntry.SYNCED_COLUMNS.length; i++) {
+                    int valueIndex = PetSyncTracker.CHANGES_FIRST_VALUE + i;
+                    if ((dirty & (1 << i)) == 0 || (gone && valueIndex != deletedIndex)) {
+                        continue;
+                    }
+                    Object value;
+                    switch (cursor.getType(valueIndex)) {
+                        case Cursor.FIELD_TYPE_NULL:
+                            value = JSONObject.NULL;
+                            break;
+                        case Cursor.FIELD_TYPE_INTEGER:
+                            value = cursor.getLong(valueIndex);
+                            break;
+                        default:
+                            value = cursor.getString(valueIndex);
+                            break;
+                    }
+                    columns.put(PetSyncEntry.SYNCED_COLUMNS[i], new JSONArray()
+                            .put(value)
+                            .put(cursor.getLong(PetSyncTracker.CHANGES_FIRST_CLOCK + i))
+                            .put(deviceId));
+                }
+                rows.put(new JSONObject()
+                        .put(KEY_ORIGIN, cursor.getString(PetSyncTracker.CHANGES_ORIGIN))
+                        .put(KEY_ID, cursor.getLong(PetSyncTracker.CHANGES_ORIGIN_ID))
+                        .put(KEY_COLUMNS, columns));
+            }
+        } finally {
+            cursor.close();
+        }
+        return seq;
+    }
+
+    /**
+     * Returns the operations that apply the given rows from the server to their pets.
+     */
+    private static ArrayList<ContentProviderOperation> toOperations(JSONArray rows) throws JSONException {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>(rows.length() + 1);
+        for (int i = 0; i < rows.length(); i++) {
+            JSONObject row = rows.getJSONObject(i);
+            ContentValues values = new ContentValues();
+            values.put(PetSyncEntry.COLUMN_ORIGIN, row.getString(KEY_ORIGIN));
+            values.put(PetSyncEntry.COLUMN_ORIGIN_ID, row.getLong(KEY_ID));
+            JSONObject columns = row.getJSONObject(KEY_COLUMNS);
+            for (int j = 0; j < PetSyncEntry.SYNCED_COLUMNS.length; j++) {
+                JSONArray column = columns.optJSONArray(PetSyncEntry.SYNCED_COLUMNS[j]);
+                if (column == null) {
+                    continue;
+                }
+                if (column.isNull(0)) {
+                    values.putNull(PetSyncEntry.SYNCED_COLUMNS[j]);
+                } else {
+                    values.put(PetSyncEntry.SYNCED_COLUMNS[j], column.getString(0));
+                }
+                values.put(PetSyncEntry.CLOCK_COLUMNS[j], column.getLong(1));
+                values.put(PetSyncEntry.WRITER_KEYS[j], column.getString(2));
+            }
+            operations.add(ContentProviderOperation.newInsert(PetSyncEntry.CHANGES_URI)
+                    .withValues(values)
+                    .build());
+        }
+        return operations;
+    }
+
+    /**
+     * Send a request to the server and return its response, both compressed with gzip.
+     */
+    private JSONObject post(String path, JSONObject request) throws IOException, JSONException {
+        byte[] body = gzip(request.toString().getBytes("UTF-8"));
+        HttpURLConnection connection = (HttpURLConnection) new URL(mServerUrl + "/" + path).openConnection();
+        try {
+            connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+            connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(body.length);
+            connection.setRequestProperty("Content-Type", PetContract.MIME_TYPE_JSON);
+            connection.setRequestProperty("Content-Encoding", "gzip");
+            // Asking for gzip ourselves means the response isn't decompressed behind our back, so it can be counted
+            connection.setRequestProperty("Accept-Encoding", "gzip");
+
+            OutputStream out = connection.getOutputStream();
+            try {
+                out.write(body);
+            } finally {
+                out.close();
+            }
+            mBytesSent += body.length;
+
+            int responseCode = connection.getResponseCode();
+            if (responseCode != HttpURLConnection.HTTP_OK) {
+                throw new IOException("The sync server returned " + responseCode + " for " + path);
+            }
+            byte[] response = readFully(connection.getInputStream());
+            mBytesReceived += response.length;
+            if ("gzip".equalsIgnoreCase(connection.getContentEncoding())) {
+                response = readFully(new GZIPInputStream(new ByteArrayInputStream(response)));
+            }
+            return new JSONObject(new String(response, "UTF-8"));
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Returns the given bytes compressed with gzip.
+     */
+    static byte[] gzip(byte[] bytes) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(bytes.length / 4 + 64);
+        GZIPOutputStream out = new GZIPOutputStream(compressed);
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+        return compressed.toByteArray();
+    }
+
+    /**
+     * Read the input until its end and close it.
+     */
+    static byte[] readFully(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                bytes.write(buffer, 0, count);
+            }
+            return bytes.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
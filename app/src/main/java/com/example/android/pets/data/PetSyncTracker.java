@@ -0,0 +1,485 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.util.Log;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetContract.PetSyncEntry;
+
+import java.util.UUID;
+
+/**
+ * The change tracking of the sync, on the database of {@link PetProvider}: see {@link PetSyncEntry}.
+ *
+ * Until the device first syncs, nothing is tracked. {@link #start(SQLiteDatabase)} then makes up the ID of the
+ * device, gives every pet a row in the pet_sync table (all of its columns dirty, so the first push sends them all),
+ * and adds the triggers that keep those rows up to date from then on. Every later change of a synced column takes
+ * the next clock value, one more than the highest seq or than the highest clock seen from the server, whichever
+ * is higher. Finding that is a single seek into pet_sync_seq_idx, so the triggers cost the same on any number of pets.
+ *
+ * Incoming changes are merged one column at a time: the value with the higher clock wins, and when a column has
+ * the same clock on both sides it can only be a column that was written here with that value, so the device whose
+ * ID sorts last wins (which is the same rule the server uses). A deletion always wins over the other columns,
+ * and deleted pets are never brought back.
+ */
+final class PetSyncTracker {
+
+    // This class only holds static methods, so it can't be instantiated.
+    private PetSyncTracker() {}
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = PetSyncTracker.class.getSimpleName();
+
+    /** The dirty bits of all of the synced columns */
+    static final int ALL_COLUMNS = (1 << PetSyncEntry.SYNCED_COLUMNS.length) - 1;
+
+    /** Index of the deleted column in {@link PetSyncEntry#SYNCED_COLUMNS}, which merges differently */
+    private static final int DELETED_INDEX = PetSyncEntry.SYNCED_COLUMNS.length - 1;
+
+    /** The next clock value, as an SQL expression */
+    private static final String NEXT_CLOCK = "(SELECT MAX(" + PetSyncEntry.COLUMN_CLOCK + ", IFNULL((SELECT MAX("
+            + PetSyncEntry.COLUMN_SEQ + ") FROM " + PetSyncEntry.TABLE_NAME + "), 0)) + 1 FROM "
+            + PetSyncEntry.STATE_TABLE_NAME + ")";
+
+    /**
+     * The table of the changes to push: each pet_sync row with its pet, if the pet is still there.
+     * With {@link #CHANGES_PROJECTION} and {@link #CHANGES_SELECTION}, ordered by {@link #CHANGES_SORT_ORDER}.
+     */
+    static final String CHANGES_TABLE = PetSyncEntry.TABLE_NAME + " LEFT JOIN " + PetEntry.TABLE_NAME
+            + " ON " + PetEntry.TABLE_NAME + "." + PetEntry._ID + " = " + PetSyncEntry.COLUMN_PET_ID;
+
+    /**
+     * The columns of the changes to push: the origin, origin_id, seq and dirty bits of the pet, then the values of
+     * the synced columns (deleted is 1 for a pet that is gone), then their clocks.
+     */
+    static final String[] CHANGES_PROJECTION = buildChangesProjection();
+
+    /** The pets that were changed after the last push */
+    static final String CHANGES_SELECTION = PetSyncEntry.COLUMN_SEQ + " > (SELECT " + PetSyncEntry.COLUMN_PUSHED_SEQ
+            + " FROM " + PetSyncEntry.STATE_TABLE_NAME + ") AND " + PetSyncEntry.COLUMN_DIRTY + " != 0";
+
+    static final String CHANGES_SORT_ORDER = PetSyncEntry.COLUMN_SEQ + " ASC";
+
+    /** Indexes of the columns in {@link #CHANGES_PROJECTION} */
+    static final int CHANGES_ORIGIN = 0;
+    static final int CHANGES_ORIGIN_ID = 1;
+    static final int CHANGES_SEQ = 2;
+    static final int CHANGES_DIRTY = 3;
+    static final int CHANGES_FIRST_VALUE = 4;
+    static final int CHANGES_FIRST_CLOCK = CHANGES_FIRST_VALUE + PetSyncEntry.SYNCED_COLUMNS.length;
+
+    /** The columns of the state */
+    static final String[] STATE_PROJECTION = {
+            PetSyncEntry.COLUMN_DEVICE_ID,
+            PetSyncEntry.COLUMN_CLOCK,
+            PetSyncEntry.COLUMN_PULL_CURSOR,
+            PetSyncEntry.COLUMN_PUSHED_SEQ };
+
+    private static String[] buildChangesProjection() {
+        String[] projection = new String[CHANGES_FIRST_CLOCK + PetSyncEntry.CLOCK_COLUMNS.length];
+        projection[CHANGES_ORIGIN] = PetSyncEntry.COLUMN_ORIGIN;
+        projection[CHANGES_ORIGIN_ID] = PetSyncEntry.COLUMN_ORIGIN_ID;
+        projection[CHANGES_SEQ] = PetSyncEntry.COLUMN_SEQ;
+        projection[CHANGES_DIRTY] = PetSyncEntry.COLUMN_DIRTY;
+        for (int i = 0; i < PetSyncEntry.SYNCED_COLUMNS.length; i++) {
+            String column = PetEntry.TABLE_NAME + "." + PetSyncEntry.SYNCED_COLUMNS[i];
+            projection[CHANGES_FIRST_VALUE + i] = i == DELETED_INDEX
+                    ? "IFNULL(" + column + ", 1) AS " + PetSyncEntry.SYNCED_COLUMNS[i]
+                    : column + " AS " + PetSyncEntry.SYNCED_COLUMNS[i];
+            projection[CHANGES_FIRST_CLOCK + i] = PetSyncEntry.CLOCK_COLUMNS[i];
+        }
+        return projection;
+    }
+
+
+    /**
+     * Returns true once the device has started syncing.
+     */
+    static boolean isStarted(SQLiteDatabase db) {
+        return DatabaseUtils.queryNumEntries(db, PetSyncEntry.STATE_TABLE_NAME) != 0;
+    }
+
+    /**
+     * Start tracking the changes to the pets, if that hasn't been done yet.
+     * This takes a moment for a large shelter (it writes a row for every pet), but only happens once.
+     */
+    static void start(SQLiteDatabase db) {
+        if (isStarted(db)) {
+            return;
+        }
+        db.beginTransaction();
+        try {
+            if (isStarted(db)) {
+                db.setTransactionSuccessful();
+                return;
+            }
+            String deviceId = UUID.randomUUID().toString();
+            ContentValues state = new ContentValues();
+            state.put(PetSyncEntry.COLUMN_DEVICE_ID, deviceId);
+            db.insertOrThrow(PetSyncEntry.STATE_TABLE_NAME, null, state);
+
+            // Every live pet is a change to push. Its _ID is unique, so it serves as its first clock value too.
+            StringBuilder clocks = new StringBuilder();
+            StringBuilder ids = new StringBuilder();
+            for (String clockColumn : PetSyncEntry.CLOCK_COLUMNS) {
+                clocks.append(", ").append(clockColumn);
+                ids.append(", ").append(PetEntry._ID);
+            }
+            db.execSQL("INSERT INTO " + PetSyncEntry.TABLE_NAME + " (" + PetSyncEntry.COLUMN_PET_ID + ", "
+                    + PetSyncEntry.COLUMN_ORIGIN + ", " + PetSyncEntry.COLUMN_ORIGIN_ID + ", "
+                    + PetSyncEntry.COLUMN_SEQ + ", " + PetSyncEntry.COLUMN_DIRTY + clocks + ") "
+                    + "SELECT " + PetEntry._ID + ", ?, " + PetEntry._ID + ", " + PetEntry._ID + ", " + ALL_COLUMNS + ids
+                    + " FROM " + PetEntry.TABLE_NAME + " WHERE " + PetEntry.COLUMN_PET_DELETED + " = 0",
+                    new Object[] { deviceId });
+
+            createTriggers(db);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Add the triggers that track the changes to the synced columns of the pets.
+     */
+    private static void createTriggers(SQLiteDatabase db) {
+        StringBuilder clockColumns = new StringBuilder();
+        StringBuilder nextClocks = new StringBuilder();
+        for (String clockColumn : PetSyncEntry.CLOCK_COLUMNS) {
+            clockColumns.append(", ").append(clockColumn);
+            nextClocks.append(", next_clock");
+        }
+        db.execSQL("CREATE TRIGGER pets_sync_insert AFTER INSERT ON " + PetEntry.TABLE_NAME + " BEGIN "
+                + "INSERT INTO " + PetSyncEntry.TABLE_NAME + " (" + PetSyncEntry.COLUMN_PET_ID + ", "
+                + PetSyncEntry.COLUMN_ORIGIN + ", " + PetSyncEntry.COLUMN_ORIGIN_ID + ", "
+                + PetSyncEntry.COLUMN_SEQ + ", " + PetSyncEntry.COLUMN_DIRTY + clockColumns + ") "
+                + "SELECT new." + PetEntry._ID + ", " + PetSyncEntry.COLUMN_DEVICE_ID + ", new." + PetEntry._ID
+                + ", next_clock, " + ALL_COLUMNS + nextClocks
+                + " FROM (SELECT " + PetSyncEntry.COLUMN_DEVICE_ID + ", " + NEXT_CLOCK + " AS next_clock"
+                + " FROM " + PetSyncEntry.STATE_TABLE_NAME + "); "
+                + "END;");
+
+        // One trigger for all of the synced columns, so a change to several of them writes the row once
+        StringBuilder columns = new StringBuilder();
+        StringBuilder anyChanged = new StringBuilder();
+        StringBuilder dirty = new StringBuilder(PetSyncEntry.COLUMN_DIRTY);
+        StringBuilder clocks = new StringBuilder();
+        for (int i = 0; i < PetSyncEntry.SYNCED_COLUMNS.length; i++) {
+            String column = PetSyncEntry.SYNCED_COLUMNS[i];
+            String changed = "old." + column + " IS NOT new." + column;
+            columns.append(i == 0 ? "" : ", ").append(column);
+            anyChanged.append(i == 0 ? "" : " OR ").append(changed);
+            dirty.append(" | (CASE WHEN ").append(changed).append(" THEN ").append(1 << i).append(" ELSE 0 END)");
+            clocks.append(", ").append(PetSyncEntry.CLOCK_COLUMNS[i]).append(" = CASE WHEN ").append(changed)
+                    .append(" THEN ").append(NEXT_CLOCK).append(" ELSE ").append(PetSyncEntry.CLOCK_COLUMNS[i])
+                    .append(" END");
+        }
+        db.execSQL("CREATE TRIGGER pets_sync_update AFTER UPDATE OF " + columns + " ON " + PetEntry.TABLE_NAME
+                + " WHEN " + anyChanged + " BEGIN "
+                + "UPDATE " + PetSyncEntry.TABLE_NAME + " SET "
+                + PetSyncEntry.COLUMN_SEQ + " = " + NEXT_CLOCK + ", "
+                + PetSyncEntry.COLUMN_DIRTY + " = " + dirty
+                + clocks
+                + " WHERE " + PetSyncEntry.COLUMN_PET_ID + " = new." + PetEntry._ID + "; "
+                + "END;");
+
+        // A pet that was already soft-deleted (which is how most pets go, see PetCompactor) has its deletion tracked
+        // already, so its row is only kept for as long as the deletion still has to be pushed.
+        // A pet deleted right away becomes a deletion to push.
+        String wasLive = "old." + PetEntry.COLUMN_PET_DELETED + " = 0";
+        db.execSQL("CREATE TRIGGER pets_sync_delete AFTER DELETE ON " + PetEntry.TABLE_NAME + " BEGIN "
+                + "DELETE FROM " + PetSyncEntry.TABLE_NAME + " WHERE " + PetSyncEntry.COLUMN_PET_ID + " = old."
+                + PetEntry._ID + " AND NOT " + wasLive + " AND " + PetSyncEntry.COLUMN_DIRTY + " = 0; "
+                + "UPDATE " + PetSyncEntry.TABLE_NAME + " SET "
+                + PetSyncEntry.COLUMN_PET_ID + " = NULL, "
+                + PetSyncEntry.COLUMN_SEQ + " = CASE WHEN " + wasLive + " THEN " + NEXT_CLOCK
+                + " ELSE " + PetSyncEntry.COLUMN_SEQ + " END, "
+                + PetSyncEntry.COLUMN_DIRTY + " = CASE WHEN " + wasLive + " THEN " + PetSyncEntry.COLUMN_DIRTY
+                + " | " + (1 << DELETED_INDEX) + " ELSE " + PetSyncEntry.COLUMN_DIRTY + " END, "
+                + PetSyncEntry.CLOCK_COLUMNS[DELETED_INDEX] + " = CASE WHEN " + wasLive + " THEN " + NEXT_CLOCK
+                + " ELSE " + PetSyncEntry.CLOCK_COLUMNS[DELETED_INDEX] + " END"
+                + " WHERE " + PetSyncEntry.COLUMN_PET_ID + " = old." + PetEntry._ID + "; "
+                + "END;");
+    }
+
+    /**
+     * Track the deletion of every pet, for {@link PetProvider}'s fast delete-all, which clears the table with
+     * its triggers dropped. Must be called in its transaction, before the pets are deleted.
+     * This has to write the row of every pet, because the other devices have to hear about each of them.
+     */
+    static void onClear(SQLiteDatabase db) {
+        if (!isStarted(db)) {
+            return;
+        }
+        String live = PetSyncEntry.COLUMN_PET_ID + " IN (SELECT " + PetEntry._ID + " FROM " + PetEntry.TABLE_NAME
+                + " WHERE " + PetEntry.COLUMN_PET_DELETED + " = 0)";
+
+        // The same as the delete trigger, but for all of the pets at once. Each deletion still gets
+        // its own clock value (from the rowid), so that the pushes can be acknowledged a page at a time.
+        long base = DatabaseUtils.longForQuery(db, "SELECT " + NEXT_CLOCK, null);
+        db.execSQL("DELETE FROM " + PetSyncEntry.TABLE_NAME + " WHERE " + PetSyncEntry.COLUMN_PET_ID
+                + " IS NOT NULL AND NOT " + live + " AND " + PetSyncEntry.COLUMN_DIRTY + " = 0");
+        db.execSQL("UPDATE " + PetSyncEntry.TABLE_NAME + " SET "
+                + PetSyncEntry.COLUMN_SEQ + " = " + base + " + rowid, "
+                + PetSyncEntry.COLUMN_DIRTY + " = " + PetSyncEntry.COLUMN_DIRTY + " | " + (1 << DELETED_INDEX) + ", "
+                + PetSyncEntry.CLOCK_COLUMNS[DELETED_INDEX] + " = " + base + " + rowid"
+                + " WHERE " + live);
+        db.execSQL("UPDATE " + PetSyncEntry.TABLE_NAME + " SET " + PetSyncEntry.COLUMN_PET_ID + " = NULL"
+                + " WHERE " + PetSyncEntry.COLUMN_PET_ID + " IS NOT NULL");
+    }
+
+    /**
+     * Apply a change pulled from the server: the values of the synced columns of one pet (any of them) with their
+     * clocks and writers, and the origin and origin_id of the pet. It is merged with the pet here as described
+     * above, creating the pet if it is new to this device. The columns that are taken from the server are no
+     * longer dirty, and the rest of the pet stays as it was.
+     *
+     * @return the URI of the change of the pet (see {@link PetEntry#buildChangeUri}), or null if it didn't change
+     */
+    static Uri apply(SQLiteDatabase db, ContentValues change) {
+        String origin = change.getAsString(PetSyncEntry.COLUMN_ORIGIN);
+        Long originId = change.getAsLong(PetSyncEntry.COLUMN_ORIGIN_ID);
+        if (origin == null || originId == null) {
+            throw new IllegalArgumentException("A change needs the origin and origin_id of its pet");
+        }
+
+        db.beginTransaction();
+        try {
+            Uri changeUri = merge(db, origin, originId, change);
+
+            // The changes made here from now on must come after the ones pulled, see NEXT_CLOCK
+            long maxClock = 0;
+            for (String clockColumn : PetSyncEntry.CLOCK_COLUMNS) {
+                Long clock = change.getAsLong(clockColumn);
+                if (clock != null) {
+                    maxClock = Math.max(maxClock, clock);
+                }
+            }
+            raiseClock(db, maxClock);
+            db.setTransactionSuccessful();
+            return changeUri;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private static Uri merge(SQLiteDatabase db, String origin, long originId, ContentValues change) {
+        String deviceId = DatabaseUtils.stringForQuery(db, "SELECT " + PetSyncEntry.COLUMN_DEVICE_ID
+                + " FROM " + PetSyncEntry.STATE_TABLE_NAME, null);
+        String[] projection = new String[4 + PetSyncEntry.CLOCK_COLUMNS.length];
+        projection[0] = "rowid";
+        projection[1] = PetSyncEntry.COLUMN_PET_ID;
+        projection[2] = PetSyncEntry.COLUMN_SEQ;
+        projection[3] = PetSyncEntry.COLUMN_DIRTY;
+        System.arraycopy(PetSyncEntry.CLOCK_COLUMNS, 0, projection, 4, PetSyncEntry.CLOCK_COLUMNS.length);
+        Cursor cursor = db.query(PetSyncEntry.TABLE_NAME, projection,
+                PetSyncEntry.COLUMN_ORIGIN + "=? AND " + PetSyncEntry.COLUMN_ORIGIN_ID + "=?",
+                new String[] { origin, String.valueOf(originId) }, null, null, null);
+        try {
+            if (!cursor.moveToFirst()) {
+                // A pet that was created here but isn't known anymore was deleted here, and stays deleted.
+                return origin.equals(deviceId) ? null : insertPet(db, origin, originId, change);
+            }
+            if (cursor.isNull(1)) {
+                // Deleted here, and the deletion still has to be pushed
+                return null;
+            }
+
+            long petId = cursor.getLong(1);
+            int dirty = cursor.getInt(3);
+            ContentValues petValues = new ContentValues();
+            ContentValues syncValues = new ContentValues();
+            int taken = 0;
+            for (int i = 0; i < DELETED_INDEX; i++) {
+                String column = PetSyncEntry.SYNCED_COLUMNS[i];
+                Long clock = change.getAsLong(PetSyncEntry.CLOCK_COLUMNS[i]);
+                if (!change.containsKey(column) || clock == null) {
+                    continue;
+                }
+                boolean localDirty = (dirty & (1 << i)) != 0;
+                if (!remoteWins(clock, change.getAsString(PetSyncEntry.WRITER_KEYS[i]),
+                        cursor.getLong(4 + i), localDirty, deviceId)) {
+                    continue;
+                }
+                if (!isValidValue(column, change)) {
+                    Log.w(LOG_TAG, "Ignoring invalid " + column + " of pet " + origin + "/" + originId);
+                    continue;
+                }
+                petValues.put(column, change.getAsString(column));
+                syncValues.put(PetSyncEntry.CLOCK_COLUMNS[i], clock);
+                taken |= 1 << i;
+            }
+
+            // A deletion always wins
+            Integer deleted = change.getAsInteger(PetEntry.COLUMN_PET_DELETED);
+            Long deletedClock = change.getAsLong(PetSyncEntry.CLOCK_COLUMNS[DELETED_INDEX]);
+            if (deleted != null && deleted != 0 && deletedClock != null) {
+                petValues.put(PetEntry.COLUMN_PET_DELETED, 1);
+                syncValues.put(PetSyncEntry.CLOCK_COLUMNS[DELETED_INDEX], deletedClock);
+                taken |= 1 << DELETED_INDEX;
+            }
+            if (taken == 0) {
+                return null;
+            }
+
+            // The trigger sees this as a change made here, so put back the seq, and keep only the dirty bits
+            // of the columns that weren't taken from the server.
+            int rowsUpdated = db.update(PetEntry.TABLE_NAME, petValues, PetEntry._ID + "=? AND "
+                    + PetEntry.COLUMN_PET_DELETED + "=0", new String[] { String.valueOf(petId) });
+            syncValues.put(PetSyncEntry.COLUMN_SEQ, cursor.getLong(2));
+            syncValues.put(PetSyncEntry.COLUMN_DIRTY, dirty & ~taken);
+            db.update(PetSyncEntry.TABLE_NAME, syncValues, "rowid=?", new String[] { cursor.getString(0) });
+            if (rowsUpdated == 0) {
+                // Soft-deleted here, and it stays that way
+                return null;
+            }
+            return PetEntry.buildChangeUri(petId, (taken & (1 << DELETED_INDEX)) != 0
+                    ? PetContract.CHANGE_DELETE : PetContract.CHANGE_UPDATE);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Create a pet that is new to this device, if the change has all of its columns and it isn't deleted.
+     * The values written here don't count as changes made here.
+     */
+    private static Uri insertPet(SQLiteDatabase db, String origin, long originId, ContentValues change) {
+        Integer deleted = change.getAsInteger(PetEntry.COLUMN_PET_DELETED);
+        if (deleted == null || deleted != 0) {
+            return null;
+        }
+        ContentValues petValues = new ContentValues();
+        ContentValues syncValues = new ContentValues();
+        for (int i = 0; i < PetSyncEntry.SYNCED_COLUMNS.length; i++) {
+            String column = PetSyncEntry.SYNCED_COLUMNS[i];
+            Long clock = change.getAsLong(PetSyncEntry.CLOCK_COLUMNS[i]);
+            if (!change.containsKey(column) || clock == null || !isValidValue(column, change)) {
+                Log.w(LOG_TAG, "Not creating pet " + origin + "/" + originId + ": missing or invalid " + column);
+                return null;
+            }
+            petValues.put(column, change.getAsString(column));
+            syncValues.put(PetSyncEntry.CLOCK_COLUMNS[i], clock);
+        }
+
+        long petId = db.insertOrThrow(PetEntry.TABLE_NAME, null, petValues);
+        syncValues.put(PetSyncEntry.COLUMN_ORIGIN, origin);
+        syncValues.put(PetSyncEntry.COLUMN_ORIGIN_ID, originId);
+        syncValues.put(PetSyncEntry.COLUMN_SEQ, 0);
+        syncValues.put(PetSyncEntry.COLUMN_DIRTY, 0);
+        db.update(PetSyncEntry.TABLE_NAME, syncValues, PetSyncEntry.COLUMN_PET_ID + "=?",
+                new String[] { String.valueOf(petId) });
+        return PetEntry.buildChangeUri(petId, PetContract.CHANGE_INSERT);
+    }
+
+    /**
+     * Returns true if the value of a column from the server should replace the one here.
+     */
+    private static boolean remoteWins(long remoteClock, String remoteWriter, long localClock, boolean localDirty,
+                                      String deviceId) {
+        if (remoteClock != localClock) {
+            return remoteClock > localClock;
+        }
+        // A column that isn't dirty already has the value of the server
+        return !localDirty || (remoteWriter != null && remoteWriter.compareTo(deviceId) > 0);
+    }
+
+    /**
+     * Returns true if the value of the given column in the change is valid for a pet, like PetProvider checks.
+     */
+    private static boolean isValidValue(String column, ContentValues change) {
+        switch (column) {
+            case PetEntry.COLUMN_PET_NAME:
+                return change.getAsString(column) != null;
+            case PetEntry.COLUMN_PET_GENDER:
+                Integer gender = change.getAsInteger(column);
+                return gender != null && PetEntry.isValidGender(gender);
+            case PetEntry.COLUMN_PET_WEIGHT:
+                Integer weight = change.getAsInteger(column);
+                return weight != null && weight >= 0;
+            default:
+                // The breed can be anything, and deleted is checked by the caller
+                return true;
+        }
+    }
+
+    /**
+     * Update the state of the sync with the given values: a new pull cursor, a higher clock seen from the server,
+     * and the seq up to which the changes of this device have been pushed. Acknowledging a push clears the dirty
+     * bits of the pets up to that seq, and forgets the pets that were deleted here, now that the server knows.
+     *
+     * @return the number of rows updated, 1
+     */
+    static int updateState(SQLiteDatabase db, ContentValues values) {
+        for (String key : values.keySet()) {
+            if (!PetSyncEntry.COLUMN_PULL_CURSOR.equals(key) && !PetSyncEntry.COLUMN_CLOCK.equals(key)
+                    && !PetSyncEntry.COLUMN_PUSHED_SEQ.equals(key)) {
+                throw new IllegalArgumentException("Can't update " + key + " of the sync state");
+            }
+        }
+
+        db.beginTransaction();
+        try {
+            Long pullCursor = values.getAsLong(PetSyncEntry.COLUMN_PULL_CURSOR);
+            if (pullCursor != null) {
+                ContentValues state = new ContentValues();
+                state.put(PetSyncEntry.COLUMN_PULL_CURSOR, pullCursor);
+                db.update(PetSyncEntry.STATE_TABLE_NAME, state, null, null);
+            }
+            Long clock = values.getAsLong(PetSyncEntry.COLUMN_CLOCK);
+            if (clock != null) {
+                raiseClock(db, clock);
+            }
+
+            Long pushedSeq = values.getAsLong(PetSyncEntry.COLUMN_PUSHED_SEQ);
+            long oldPushedSeq = DatabaseUtils.longForQuery(db, "SELECT " + PetSyncEntry.COLUMN_PUSHED_SEQ
+                    + " FROM " + PetSyncEntry.STATE_TABLE_NAME, null);
+            if (pushedSeq != null && pushedSeq > oldPushedSeq) {
+                String pushed = PetSyncEntry.COLUMN_SEQ + " > ? AND " + PetSyncEntry.COLUMN_SEQ + " <= ?";
+                String[] pushedArgs = { String.valueOf(oldPushedSeq), String.valueOf(pushedSeq) };
+                db.delete(PetSyncEntry.TABLE_NAME, pushed + " AND " + PetSyncEntry.COLUMN_PET_ID + " IS NULL",
+                        pushedArgs);
+                ContentValues clean = new ContentValues();
+                clean.put(PetSyncEntry.COLUMN_DIRTY, 0);
+                db.update(PetSyncEntry.TABLE_NAME, clean, pushed, pushedArgs);
+
+                // Keep the clock past the seqs of the rows just deleted, see NEXT_CLOCK
+                ContentValues state = new ContentValues();
+                state.put(PetSyncEntry.COLUMN_PUSHED_SEQ, pushedSeq);
+                db.update(PetSyncEntry.STATE_TABLE_NAME, state, null, null);
+                raiseClock(db, pushedSeq);
+            }
+            db.setTransactionSuccessful();
+            return 1;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Make sure that the next clock value is higher than the given one.
+     */
+    private static void raiseClock(SQLiteDatabase db, long clock) {
+        db.execSQL("UPDATE " + PetSyncEntry.STATE_TABLE_NAME + " SET " + PetSyncEntry.COLUMN_CLOCK + " = MAX("
+                + PetSyncEntry.COLUMN_CLOCK + ", ?)", new Object[] { clock });
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.io.PrintWriter;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Opens the database on a background thread as soon as {@link PetProvider} is created, so that the catalog's
+ * first query doesn't have to.
+ *
+ * Opening shelter.db means opening the file, configuring the connection, checking the schema version (and running
+ * the migrations after an update), and then the first query reads its pages from storage. Without the warm-up all of
+ * that happens inside the catalog's first load, while the user looks at an empty screen. Here it starts while the
+ * activity is still being created: the database is opened, and the first page of the catalog is read once, the way
+ * the catalog reads it, so that its pages of the table are already in memory when the real query comes.
+ *
+ * {@link SQLiteOpenHelper} opens the database under a lock, so a query that arrives while the warm-up is still
+ * opening it simply waits for it, instead of opening it a second time.
+ */
+class PetWarmUp implements Runnable {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = PetWarmUp.class.getSimpleName();
+
+    private final SQLiteOpenHelper mDbHelper;
+
+    /** Number of pets on the first page of the catalog */
+    private final int mPageSize;
+
+    /** How long it took to open the database, or -1 if it isn't open yet */
+    private volatile long mOpenMillis = -1;
+
+    /** How long it took to read the first page of the catalog, or -1 if it isn't read yet */
+    private volatile long mPreloadMillis = -1;
+
+    /**
+     * Constructs a new {@link PetWarmUp}.
+     *
+     * @param dbHelper of the database to open
+     * @param pageSize number of pets on the first page of the catalog
+     */
+    PetWarmUp(SQLiteOpenHelper dbHelper, int pageSize) {
+        mDbHelper = dbHelper;
+        mPageSize = pageSize;
+    }
+
+    /**
+     * Start warming up on a new thread. The thread keeps the normal priority, because the catalog is waiting for it.
+     */
+    void start() {
+        new Thread(this, "PetWarmUp").start();
+    }
+
+    @Override
+    public void run() {
+        try {
+            long startNanos = System.nanoTime();
+            SQLiteDatabase database = mDbHelper.getWritableDatabase();
+            long openedNanos = System.nanoTime();
+            mOpenMillis = TimeUnit.NANOSECONDS.toMillis(openedNanos - startNanos);
+
+            preloadFirstPage(database);
+            mPreloadMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - openedNanos);
+            Log.i(LOG_TAG, "Opened the database in " + mOpenMillis + " ms and preloaded the first page in "
+                    + mPreloadMillis + " ms");
+        } catch (RuntimeException e) {
+            // The first query will open the database itself, and report the error if there really is one.
+            Log.w(LOG_TAG, "Failed to warm up the database", e);
+        }
+    }
+
+    /**
+     * Read the first page of the catalog the way it does on its first load: the first pets in _ID order,
+     * with the columns of the catalog.
+     */
+    private void preloadFirstPage(SQLiteDatabase database) {
+        Cursor cursor = database.query(PetEntry.TABLE_NAME,
+                new String[] { PetEntry._ID, PetEntry.COLUMN_PET_NAME, PetEntry.COLUMN_PET_BREED,
+                        PetEntry.COLUMN_PET_WEIGHT, PetEntry.COLUMN_PET_PHOTO },
+                PetEntry.COLUMN_PET_DELETED + "=0", null, null, null, PetEntry._ID + " ASC",
+                String.valueOf(mPageSize));
+        try {
+            // Filling the cursor window reads every row of the page
+            cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Print how long the warm-up took.
+     */
+    void dump(PrintWriter writer) {
+        writer.println("Warm-up: " + (mOpenMillis < 0 ? "not finished" : "opened in " + mOpenMillis + " ms")
+                + (mPreloadMillis < 0 ? "" : ", first page preloaded in " + mPreloadMillis + " ms"));
+    }
+}
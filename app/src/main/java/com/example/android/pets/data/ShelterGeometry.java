@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.pets.data;
+
+/**
+ * The geometry of the nearby pets query of {@link PetProvider}: the distance between two locations, and the
+ * bounding boxes of a circle around a location, for searching the spatial index of the shelters.
+ *
+ * SQLite on Android has no trigonometric functions, so the index is searched with a box in plain degrees,
+ * and the distances of the shelters inside the box are computed here to keep only the ones inside the circle.
+ */
+final class ShelterGeometry {
+
+    // This class only holds static methods, so it can't be instantiated.
+    private ShelterGeometry() {}
+
+    /** Mean radius of the Earth, in kilometers */
+    private static final double EARTH_RADIUS_KM = 6371.0088;
+
+    /**
+     * Margin added around the bounding boxes, in degrees (about 10 meters). An R*Tree stores its coordinates
+     * as 32-bit floats, so a shelter right on the edge of a box could otherwise fall just outside of it.
+     */
+    private static final double BOX_MARGIN_DEGREES = 1e-4;
+
+    /**
+     * Returns the great-circle distance between two locations in decimal degrees, in kilometers
+     * (the haversine formula, which stays accurate for small distances).
+     */
+    static double distanceKm(double latitude1, double longitude1, double latitude2, double longitude2) {
+        double dLatitude = Math.toRadians(latitude2 - latitude1);
+        double dLongitude = Math.toRadians(longitude2 - longitude1);
+        double sinLatitude = Math.sin(dLatitude / 2);
+        double sinLongitude = Math.sin(dLongitude / 2);
+        double a = sinLatitude * sinLatitude + Math.cos(Math.toRadians(latitude1))
+                * Math.cos(Math.toRadians(latitude2)) * sinLongitude * sinLongitude;
+        return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    /**
+     * Returns the boxes, as {min latitude, max latitude, min longitude, max longitude}, that together cover every
+     * location within the given distance of the given one. That is one box, or two if the circle crosses the
+     * antimeridian (longitude 180). Near a pole the box spans all longitudes.
+     */
+    static double[][] boundingBoxes(double latitude, double longitude, double radiusKm) {
+        double radiusDegrees = Math.toDegrees(radiusKm / EARTH_RADIUS_KM) + BOX_MARGIN_DEGREES;
+        double minLatitude = latitude - radiusDegrees;
+        double maxLatitude = latitude + radiusDegrees;
+        if (minLatitude <= -90 || maxLatitude >= 90) {
+            // The circle contains a pole, so it reaches every longitude
+            return new double[][] { { Math.max(minLatitude, -90), Math.min(maxLatitude, 90), -180, 180 } };
+        }
+
+        // A degree of longitude gets shorter away from the equator. This is the widest the circle gets
+        // (at the latitude where it touches its tangent meridians).
+        double longitudeDegrees = Math.toDegrees(Math.asin(Math.min(1,
+                Math.sin(radiusKm / EARTH_RADIUS_KM) / Math.cos(Math.toRadians(latitude))))) + BOX_MARGIN_DEGREES;
+        double minLongitude = longitude - longitudeDegrees;
+        double maxLongitude = longitude + longitudeDegrees;
+        if (maxLongitude - minLongitude >= 360) {
+            return new double[][] { { minLatitude, maxLatitude, -180, 180 } };
+        }
+        if (minLongitude < -180) {
+            return new double[][] {
+                    { minLatitude, maxLatitude, -180, maxLongitude },
+                    { minLatitude, maxLatitude, minLongitude + 360, 180 } };
+        }
+        if (maxLongitude > 180) {
+            return new double[][] {
+                    { minLatitude, maxLatitude, minLongitude, 180 },
+                    { minLatitude, maxLatitude, -180, maxLongitude - 360 } };
+        }
+        return new double[][] { { minLatitude, maxLatitude, minLongitude, maxLongitude } };
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.pets;
+
+import android.content.ContentValues;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.util.ListUpdateCallback;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetDataGenerator;
+import com.example.android.pets.data.PetProviderBenchmark;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Measures what the catalog does when one pet changes in a list of 50k pets, and how fast it binds rows.
+ *
+ * The diff runs on a background thread, so its latency is how long the change takes to show up, not frame time.
+ * What runs on the UI thread is dispatching the diff and binding the rows it touched, so the test checks that one
+ * change or insert dispatches exactly one update, whatever the size of the list, and measures the bind
+ * throughput. The metrics are catalog_diff_latency_change and catalog_diff_latency_insert (diffs per second of
+ * the median) and catalog_bind (rows bound per second).
+ *
+ * The rows are bound on Robolectric's views, which are not a device's, so catalog_bind only catches something
+ * like a query or a decode in onBindViewHolder, not a few percent.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class PetCatalogBenchmarkTest {
+
+    /** Number of pets in the list */
+    private static final int SIZE = 50000;
+
+    /** Number of times each diff is computed */
+    private static final int ROUNDS = 20;
+
+    /** Number of view holders the rows are bound to, about a screen of them */
+    private static final int VIEW_HOLDERS = 12;
+
+    /** Number of rows bound */
+    private static final int BINDS = 100000;
+
+    @Test
+    public void oneChangedPetIsOneUpdate() throws Exception {
+        PetProviderBenchmark benchmark = new PetProviderBenchmark("catalog_diff");
+        List<PetListItem> oldItems = createItems(SIZE);
+
+        // The name of the pet in the middle of the list changes, the way an edit in the editor does
+        List<PetListItem> changedItems = new ArrayList<>(oldItems);
+        PetListItem pet = changedItems.get(SIZE / 2);
+        changedItems.set(SIZE / 2, new PetListItem(pet.id, pet.name + " II", pet.breed, pet.weight, pet.photo));
+        changedItems = Collections.unmodifiableList(changedItems);
+
+        UpdateCounter counter = new UpdateCounter();
+        long[] latencies = new long[ROUNDS];
+        for (int round = 0; round < ROUNDS; round++) {
+            latencies[round] = diff(oldItems, changedItems, counter);
+        }
+        assertEquals(ROUNDS, counter.changed);
+        assertEquals(0, counter.inserted);
+        assertEquals(0, counter.removed);
+        assertEquals(0, counter.moved);
+        assertEquals(ROUNDS, counter.rows);
+        benchmark.recordLatencies(SIZE, "catalog_diff_latency_change", latencies);
+
+        benchmark.finish();
+    }
+
+    @Test
+    public void oneInsertedPetIsOneUpdate() throws Exception {
+        PetProviderBenchmark benchmark = new PetProviderBenchmark("catalog_diff_insert");
+        List<PetListItem> oldItems = createItems(SIZE);
+
+        // A new pet is sorted into the middle of the list, the way one is when the catalog is sorted by name
+        List<PetListItem> insertedItems = new ArrayList<>(oldItems);
+        insertedItems.add(SIZE / 2, new PetListItem(SIZE + 1, "Bella", "Beagle", 10, null));
+        insertedItems = Collections.unmodifiableList(insertedItems);
+
+        UpdateCounter counter = new UpdateCounter();
+        long[] latencies = new long[ROUNDS];
+        for (int round = 0; round < ROUNDS; round++) {
+            latencies[round] = diff(oldItems, insertedItems, counter);
+        }
+        assertEquals(ROUNDS, counter.inserted);
+        assertEquals(0, counter.changed);
+        assertEquals(0, counter.removed);
+        assertEquals(0, counter.moved);
+        assertEquals(ROUNDS, counter.rows);
+        benchmark.recordLatencies(SIZE, "catalog_diff_latency_insert", latencies);
+
+        benchmark.finish();
+    }
+
+    @Test
+    public void bindThroughput() throws Exception {
+        PetProviderBenchmark benchmark = new PetProviderBenchmark("catalog_bind");
+        PetRecyclerAdapter adapter = new PetRecyclerAdapter(
+                PetThumbnailCache.getInstance(RuntimeEnvironment.application), null);
+        // The adapter is empty, so the list is shown right away without a background diff
+        adapter.submitList(createItems(SIZE));
+
+        RecyclerView parent = new RecyclerView(RuntimeEnvironment.application);
+        parent.setLayoutManager(new LinearLayoutManager(RuntimeEnvironment.application));
+        List<PetRecyclerAdapter.PetViewHolder> holders = new ArrayList<>();
+        for (int i = 0; i < VIEW_HOLDERS; i++) {
+            holders.add(adapter.onCreateViewHolder(parent, 0));
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < BINDS; i++) {
+            adapter.onBindViewHolder(holders.get(i % VIEW_HOLDERS), i % SIZE);
+        }
+        benchmark.record(SIZE, "catalog_bind", BINDS, start);
+
+        benchmark.finish();
+    }
+
+    /**
+     * Make a list of the given number of generated pets, in the order they were added, without photos
+     * so that binding them doesn't wait on the thumbnails.
+     */
+    private static List<PetListItem> createItems(int size) {
+        PetDataGenerator generator = new PetDataGenerator(PetProviderBenchmark.SEED);
+        List<PetListItem> items = new ArrayList<>(size);
+        for (int id = 1; id <= size; id++) {
+            ContentValues values = generator.nextPet();
+            items.add(new PetListItem(id, values.getAsString(PetEntry.COLUMN_PET_NAME),
+                    values.getAsString(PetEntry.COLUMN_PET_BREED),
+                    values.getAsInteger(PetEntry.COLUMN_PET_WEIGHT), null));
+        }
+        return Collections.unmodifiableList(items);
+    }
+
+    /**
+     * Compute the diff between the two lists the way the adapter does, and dispatch it to the given counter.
+     *
+     * @return the latency of computing the diff, in nanoseconds
+     */
+    private static long diff(List<PetListItem> oldItems, List<PetListItem> newItems, UpdateCounter counter) {
+        long start = System.nanoTime();
+        DiffUtil.DiffResult result = DiffUtil.calculateDiff(
+                new PetRecyclerAdapter.PetDiffCallback(oldItems, newItems), false);
+        long latency = System.nanoTime() - start;
+        result.dispatchUpdatesTo(counter);
+        return latency;
+    }
+
+    /**
+     * Counts the updates that a diff dispatches, and the rows they touch.
+     */
+    private static class UpdateCounter implements ListUpdateCallback {
+
+        int inserted;
+        int removed;
+        int moved;
+        int changed;
+
+        /** Number of rows inserted, removed, moved or changed */
+        int rows;
+
+        @Override
+        public void onInserted(int position, int count) {
+            inserted++;
+            rows += count;
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            removed++;
+            rows += count;
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+            moved++;
+            rows++;
+        }
+
+        @Override
+        public void onChanged(int position, int count, Object payload) {
+            changed++;
+            rows += count;
+        }
+    }
+}
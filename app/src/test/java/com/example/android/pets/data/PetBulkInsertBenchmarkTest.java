@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.pets.data;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/**
+ * Compares the rows per second of a mass intake through bulkInsert, which writes all pets in one transaction,
+ * with the same pets inserted one insert() (and one implicit transaction) at a time. The metrics are:
+ * <ul>
+ * <li>intake_bulk_insert: rows per second through bulkInsert</li>
+ * <li>intake_per_row_insert: rows per second through insert(); it has no threshold of its own</li>
+ * <li>intake_bulk_insert_speedup: how many times faster bulkInsert is than insert()</li>
+ * </ul>
+ */
+@RunWith(RobolectricTestRunner.class)
+public class PetBulkInsertBenchmarkTest {
+
+    /**
+     * Upper limit of the pets inserted one at a time. The rows per second don't depend on the number of pets,
+     * and one transaction per pet gets too slow for 1M.
+     */
+    private static final int MAX_PER_ROW_PETS = 10000;
+
+    @Test
+    public void bulkInsertThroughput() throws Exception {
+        PetProviderBenchmark benchmark = new PetProviderBenchmark("bulk_insert");
+        for (int size : PetProviderBenchmark.sizes()) {
+            PetProvider provider = PetProviderBenchmark.createProvider();
+            double bulkRowsPerSecond;
+            try {
+                long start = System.nanoTime();
+                PetProviderBenchmark.fill(provider, size, new PetDataGenerator(PetProviderBenchmark.SEED));
+                bulkRowsPerSecond = size * 1e9 / Math.max(1, System.nanoTime() - start);
+            } finally {
+                provider.shutdown();
+            }
+
+            int perRowPets = Math.min(size, MAX_PER_ROW_PETS);
+            provider = PetProviderBenchmark.createProvider();
+            double perRowRowsPerSecond;
+            try {
+                PetDataGenerator generator = new PetDataGenerator(PetProviderBenchmark.SEED);
+                long start = System.nanoTime();
+                for (int i = 0; i < perRowPets; i++) {
+                    provider.insert(PetEntry.CONTENT_URI, generator.nextPet());
+                }
+                perRowRowsPerSecond = perRowPets * 1e9 / Math.max(1, System.nanoTime() - start);
+            } finally {
+                provider.shutdown();
+            }
+
+            benchmark.record(size, "intake_bulk_insert", bulkRowsPerSecond);
+            benchmark.record(size, "intake_per_row_insert", perRowRowsPerSecond);
+            benchmark.record(size, "intake_bulk_insert_speedup", bulkRowsPerSecond / perRowRowsPerSecond);
+        }
+        benchmark.finish();
+    }
+}
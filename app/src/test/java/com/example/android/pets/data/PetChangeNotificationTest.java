@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.pets.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.database.ContentObserver;
+import android.net.Uri;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests of the change notifications of {@link PetProvider}, as an observer of the pets URI (and the URIs under it)
+ * like the catalog gets them: the row URI of each pet that is inserted, updated or deleted, with the kind of
+ * change, and one notification of the whole table for a batch.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class PetChangeNotificationTest {
+
+    private PetProvider mProvider;
+
+    /** The URIs notified to the observer, in order */
+    private final List<Uri> mNotifiedUris = new ArrayList<>();
+
+    private final ContentObserver mObserver = new ContentObserver(null) {
+        @Override
+        public void onChange(boolean selfChange) {
+            onChange(selfChange, null);
+        }
+
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            mNotifiedUris.add(uri);
+        }
+    };
+
+    @Before
+    public void setUp() {
+        mProvider = PetProviderBenchmark.createProvider();
+        RuntimeEnvironment.application.getContentResolver().registerContentObserver(PetEntry.CONTENT_URI, true,
+                mObserver);
+    }
+
+    @After
+    public void tearDown() {
+        RuntimeEnvironment.application.getContentResolver().unregisterContentObserver(mObserver);
+        mProvider.shutdown();
+    }
+
+    @Test
+    public void insertNotifiesTheRowOfThePet() {
+        Uri uri = mProvider.insert(PetEntry.CONTENT_URI, newPet("Toto"));
+
+        assertEquals(Collections.singletonList(PetEntry.buildChangeUri(ContentUris.parseId(uri),
+                PetContract.CHANGE_INSERT)), mNotifiedUris);
+    }
+
+    @Test
+    public void updateNotifiesTheRowOfThePet() {
+        Uri uri = mProvider.insert(PetEntry.CONTENT_URI, newPet("Toto"));
+        mNotifiedUris.clear();
+
+        ContentValues values = new ContentValues();
+        values.put(PetEntry.COLUMN_PET_WEIGHT, 9);
+        assertEquals(1, mProvider.update(uri, values, null, null));
+
+        assertEquals(Collections.singletonList(PetEntry.buildChangeUri(ContentUris.parseId(uri),
+                PetContract.CHANGE_UPDATE)), mNotifiedUris);
+    }
+
+    @Test
+    public void deleteNotifiesTheRowOfThePet() {
+        Uri uri = mProvider.insert(PetEntry.CONTENT_URI, newPet("Toto"));
+        mNotifiedUris.clear();
+
+        assertEquals(1, mProvider.delete(uri, null, null));
+
+        assertEquals(Collections.singletonList(PetEntry.buildChangeUri(ContentUris.parseId(uri),
+                PetContract.CHANGE_DELETE)), mNotifiedUris);
+    }
+
+    @Test
+    public void writesThatChangeNothingDoNotNotify() {
+        Uri missing = PetProviderBenchmark.petUri(42);
+        ContentValues values = new ContentValues();
+        values.put(PetEntry.COLUMN_PET_WEIGHT, 9);
+
+        assertEquals(0, mProvider.update(missing, values, null, null));
+        assertEquals(0, mProvider.delete(missing, null, null));
+        assertEquals(Collections.<Uri>emptyList(), mNotifiedUris);
+    }
+
+    @Test
+    public void batchNotifiesOnce() throws Exception {
+        Uri toto = mProvider.insert(PetEntry.CONTENT_URI, newPet("Toto"));
+        Uri rex = mProvider.insert(PetEntry.CONTENT_URI, newPet("Rex"));
+        mNotifiedUris.clear();
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>(Arrays.asList(
+                ContentProviderOperation.newInsert(PetEntry.CONTENT_URI).withValues(newPet("Binx")).build(),
+                ContentProviderOperation.newInsert(PetEntry.CONTENT_URI).withValues(newPet("Mochi")).build(),
+                ContentProviderOperation.newUpdate(toto).withValue(PetEntry.COLUMN_PET_WEIGHT, 9).build(),
+                ContentProviderOperation.newDelete(rex).build()));
+        mProvider.applyBatch(operations);
+
+        assertEquals(Collections.singletonList(PetEntry.CONTENT_URI), mNotifiedUris);
+    }
+
+    @Test
+    public void failedBatchDoesNotNotify() {
+        ContentValues invalid = newPet("Rex");
+        invalid.put(PetEntry.COLUMN_PET_WEIGHT, -1);
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>(Arrays.asList(
+                ContentProviderOperation.newInsert(PetEntry.CONTENT_URI).withValues(newPet("Toto")).build(),
+                ContentProviderOperation.newInsert(PetEntry.CONTENT_URI).withValues(invalid).build()));
+        try {
+            mProvider.applyBatch(operations);
+            fail("applyBatch accepted a pet with a negative weight");
+        } catch (IllegalArgumentException | OperationApplicationException expected) {
+            // Rolled back, so there is nothing to tell the observers
+        }
+
+        assertEquals(Collections.<Uri>emptyList(), mNotifiedUris);
+    }
+
+    @Test
+    public void bulkInsertNotifiesOnce() {
+        PetDataGenerator generator = new PetDataGenerator(PetProviderBenchmark.SEED);
+        ContentValues[] values = { generator.nextPet(), generator.nextPet(), generator.nextPet() };
+
+        assertEquals(3, mProvider.bulkInsert(PetEntry.CONTENT_URI, values));
+
+        assertEquals(Collections.singletonList(PetEntry.CONTENT_URI), mNotifiedUris);
+    }
+
+    private static ContentValues newPet(String name) {
+        ContentValues values = new ContentValues();
+        values.put(PetEntry.COLUMN_PET_NAME, name);
+        values.put(PetEntry.COLUMN_PET_GENDER, PetEntry.GENDER_UNKNOWN);
+        values.put(PetEntry.COLUMN_PET_WEIGHT, 4);
+        return values;
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Measures the latency of the catalog's page reads while the editor and imports are writing, with the
+ * write-ahead log the provider uses and with the rollback journal it replaced.
+ *
+ * With the rollback journal the database has a single connection, so every read waits for the write transaction
+ * in progress to finish; with WAL the reads run on their own connections next to the writer. The metrics are
+ * the median (and 95th percentile) latency of a page read, as reads per second of the median:
+ * <ul>
+ * <li>idle_read_wal: no writes in progress</li>
+ * <li>concurrent_read_wal, concurrent_read_rollback: while a writer thread keeps inserting and updating pets</li>
+ * <li>concurrent_read_wal_speedup: how many times lower the median latency is with WAL than with the rollback
+ * journal, while writing</li>
+ * </ul>
+ */
+@RunWith(RobolectricTestRunner.class)
+public class PetConcurrencyBenchmarkTest {
+
+    /** Number of reader threads, the catalog and its prefetching */
+    private static final int READERS = 2;
+
+    /** Number of pages each reader reads */
+    private static final int READS_PER_READER = 200;
+
+    /** Number of pets per page, the same as the catalog */
+    private static final int PAGE_SIZE = 50;
+
+    /** Number of pets the writer inserts per transaction, like a chunk of an import */
+    private static final int WRITE_CHUNK_SIZE = 1000;
+
+    /** Projection of the catalog's pages */
+    private static final String[] CATALOG_PROJECTION = {
+            PetEntry._ID, PetEntry.COLUMN_PET_NAME, PetEntry.COLUMN_PET_BREED };
+
+    @Test
+    public void readLatencyWhileWriting() throws Exception {
+        PetProviderBenchmark benchmark = new PetProviderBenchmark("concurrency");
+        for (int size : PetProviderBenchmark.sizes()) {
+            PetProvider provider = PetProviderBenchmark.createProvider();
+            try {
+                PetProviderBenchmark.fill(provider, size, new PetDataGenerator(PetProviderBenchmark.SEED));
+
+                // The journal mode can only change while no connection is in use, so before the threads start.
+                provider.getDbHelper().setWriteAheadLoggingEnabled(false);
+                PetProviderBenchmark.Result rollback = benchmark.recordLatencies(size, "concurrent_read_rollback",
+                        readWhileWriting(provider, size, true));
+
+                provider.getDbHelper().setWriteAheadLoggingEnabled(true);
+                benchmark.recordLatencies(size, "idle_read_wal", readWhileWriting(provider, size, false));
+                PetProviderBenchmark.Result wal = benchmark.recordLatencies(size, "concurrent_read_wal",
+                        readWhileWriting(provider, size, true));
+
+                benchmark.record(size, "concurrent_read_wal_speedup", rollback.p50Millis / wal.p50Millis);
+            } finally {
+                provider.shutdown();
+            }
+        }
+        benchmark.finish();
+    }
+
+    /**
+     * Read random pages of the catalog on {@link #READERS} threads, optionally while another thread keeps writing.
+     *
+     * @return the latency of each read, in nanoseconds
+     */
+    private static long[] readWhileWriting(final PetProvider provider, final int size, boolean writing)
+            throws Exception {
+        final AtomicBoolean done = new AtomicBoolean();
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    PetDataGenerator generator = new PetDataGenerator(PetProviderBenchmark.SEED + 1);
+                    Random random = new Random(PetProviderBenchmark.SEED);
+                    while (!done.get()) {
+                        ContentValues[] chunk = new ContentValues[WRITE_CHUNK_SIZE];
+                        for (int i = 0; i < chunk.length; i++) {
+                            chunk[i] = generator.nextPet();
+                        }
+                        provider.bulkInsert(PetEntry.CONTENT_URI, chunk);
+
+                        ContentValues values = new ContentValues();
+                        values.put(PetEntry.COLUMN_PET_WEIGHT, 1 + random.nextInt(50));
+                        provider.update(PetProviderBenchmark.petUri(1 + random.nextInt(size)), values, null, null);
+                    }
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                }
+            }
+        }, "PetBenchmarkWriter");
+
+        final long[] latencies = new long[READERS * READS_PER_READER];
+        Thread[] readers = new Thread[READERS];
+        for (int r = 0; r < READERS; r++) {
+            final int reader = r;
+            readers[r] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Random random = new Random(PetProviderBenchmark.SEED + reader);
+                        for (int i = 0; i < READS_PER_READER; i++) {
+                            long afterId = random.nextInt(Math.max(1, size - PAGE_SIZE));
+                            long start = System.nanoTime();
+                            Cursor cursor = provider.query(
+                                    PetEntry.buildPageUri(PetEntry.CONTENT_URI, afterId, PAGE_SIZE),
+                                    CATALOG_PROJECTION, null, null, null);
+                            try {
+                                while (cursor.moveToNext()) {
+                                    cursor.getString(1);
+                                    cursor.getString(2);
+                                }
+                            } finally {
+                                cursor.close();
+                            }
+                            latencies[reader * READS_PER_READER + i] = System.nanoTime() - start;
+                        }
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    }
+                }
+            }, "PetBenchmarkReader" + r);
+        }
+
+        if (writing) {
+            writer.start();
+        }
+        for (Thread reader : readers) {
+            reader.start();
+        }
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        done.set(true);
+        if (writing) {
+            writer.join();
+        }
+
+        if (failure.get() != null) {
+            throw new AssertionError("Benchmark thread failed", failure.get());
+        }
+        return latencies;
+    }
+}
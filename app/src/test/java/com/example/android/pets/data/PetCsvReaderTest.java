@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.pets.data;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests of {@link PetCsvReader}, on the quoting and line endings of the files that partner shelters send us.
+ */
+public class PetCsvReaderTest {
+
+    @Test
+    public void readsPlainRecords() throws IOException {
+        assertRecords("name,gender\nToto,1\nTommy,2\n",
+                Arrays.asList("name", "gender"),
+                Arrays.asList("Toto", "1"),
+                Arrays.asList("Tommy", "2"));
+    }
+
+    @Test
+    public void readsQuotedFields() throws IOException {
+        assertRecords("\"Toto\",\"1\"\n", Arrays.asList("Toto", "1"));
+    }
+
+    @Test
+    public void keepsCommasInQuotedFields() throws IOException {
+        assertRecords("\"Toto, the second\",1\n", Arrays.asList("Toto, the second", "1"));
+    }
+
+    @Test
+    public void unescapesDoubledQuotes() throws IOException {
+        assertRecords("\"Toto \"\"Junior\"\"\",\"\"\"\"\n", Arrays.asList("Toto \"Junior\"", "\""));
+    }
+
+    @Test
+    public void keepsLineBreaksInQuotedFields() throws IOException {
+        assertRecords("\"Toto\nthe second\",\"a\r\nb\"\nTommy,2\n",
+                Arrays.asList("Toto\nthe second", "a\r\nb"),
+                Arrays.asList("Tommy", "2"));
+    }
+
+    @Test
+    public void readsEmptyFields() throws IOException {
+        assertRecords(",\"\",\n", Arrays.asList("", "", ""));
+    }
+
+    @Test
+    public void readsCrlfLineEndings() throws IOException {
+        assertRecords("name,gender\r\nToto,1\r\nTommy,2\r\n",
+                Arrays.asList("name", "gender"),
+                Arrays.asList("Toto", "1"),
+                Arrays.asList("Tommy", "2"));
+    }
+
+    @Test
+    public void skipsTheByteOrderMark() throws IOException {
+        assertRecords("\uFEFFname,gender\nToto,1\n",
+                Arrays.asList("name", "gender"),
+                Arrays.asList("Toto", "1"));
+    }
+
+    @Test
+    public void skipsTheByteOrderMarkBeforeAQuotedField() throws IOException {
+        assertRecords("\uFEFF\"name\",gender\n", Arrays.asList("name", "gender"));
+    }
+
+    @Test
+    public void readsTheLastRecordWithoutALineBreak() throws IOException {
+        assertRecords("name,gender\nToto,1", Arrays.asList("name", "gender"), Arrays.asList("Toto", "1"));
+        assertRecords("name,gender\r\n\"Toto\",\"1\"", Arrays.asList("name", "gender"), Arrays.asList("Toto", "1"));
+    }
+
+    @Test
+    public void skipsBlankLines() throws IOException {
+        assertRecords("\nname,gender\n\r\n\nToto,1\n\n", Arrays.asList("name", "gender"), Arrays.asList("Toto", "1"));
+    }
+
+    @Test
+    public void readsNothingFromAnEmptyFile() throws IOException {
+        assertRecords("");
+        assertRecords("\uFEFF");
+    }
+
+    @Test
+    public void rejectsAMissingClosingQuote() {
+        PetCsvReader reader = new PetCsvReader(new StringReader("name\n\"Toto,1\n"));
+        try {
+            reader.readRecord();
+            reader.readRecord();
+            fail("Read a record with a missing closing quote");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().contains("record 2"));
+        }
+    }
+
+    @Test
+    public void rejectsARecordThatIsTooLong() {
+        StringBuilder csv = new StringBuilder("\"");
+        for (int i = 0; i < PetCsvReader.MAX_RECORD_LENGTH; i++) {
+            csv.append('x');
+        }
+        PetCsvReader reader = new PetCsvReader(new StringReader(csv.toString()));
+        try {
+            reader.readRecord();
+            fail("Read a record longer than the maximum");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().contains("longer than"));
+        }
+    }
+
+    /**
+     * Assert that reading the CSV gives exactly the given records, and then the end of the file.
+     */
+    @SafeVarargs
+    private static void assertRecords(String csv, List<String>... expected) throws IOException {
+        PetCsvReader reader = new PetCsvReader(new StringReader(csv));
+        List<List<String>> records = new ArrayList<>();
+        List<String> record;
+        while ((record = reader.readRecord()) != null) {
+            records.add(record);
+        }
+        assertEquals(Arrays.asList(expected), records);
+        assertNull(reader.readRecord());
+    }
+}
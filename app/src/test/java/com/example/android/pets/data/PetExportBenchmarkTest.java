@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.database.AbstractCursor;
+import android.database.Cursor;
+import android.os.ParcelFileDescriptor;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures the throughput and the memory of {@link PetExportWriter} at 1M pets, in both formats.
+ *
+ * The pets come from a cursor that generates each row as it moves to it, rather than from the database, so that
+ * only the writer's own memory is measured. (On a device the cursor's window is SQLite's, a fixed 2 MB, while the
+ * cursor windows of the test's SQLite may hold the whole result.) The heap in use is sampled after a full GC
+ * every {@link #SAMPLE_ROWS} rows, and the export fails if it ever grew by more than {@link #MAX_HEAP_GROWTH_BYTES}.
+ * The metrics are export_csv and export_json, in rows per second.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class PetExportBenchmarkTest {
+
+    /** Number of pets exported */
+    private static final int SIZE = 1000000;
+
+    /** Number of rows between two samples of the heap */
+    private static final int SAMPLE_ROWS = 100000;
+
+    /** Most the heap in use may grow by during an export, whatever its size */
+    private static final long MAX_HEAP_GROWTH_BYTES = 4 * 1024 * 1024;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void exportThroughputAndMemory() throws Exception {
+        PetProviderBenchmark benchmark = new PetProviderBenchmark("export");
+        for (String format : new String[] { PetContract.EXPORT_FORMAT_CSV, PetContract.EXPORT_FORMAT_JSON }) {
+            File file = mFolder.newFile();
+            ParcelFileDescriptor output = ParcelFileDescriptor.open(file,
+                    ParcelFileDescriptor.MODE_WRITE_ONLY | ParcelFileDescriptor.MODE_TRUNCATE);
+            GeneratedPetsCursor cursor = new GeneratedPetsCursor(SIZE);
+            long baseline = usedHeapBytes();
+            long start = System.nanoTime();
+            try {
+                new PetExportWriter(format).writeDataToPipe(output, PetEntry.buildExportUri(format),
+                        PetExportWriter.getMimeType(format), null, cursor);
+            } finally {
+                output.close();
+            }
+            // The sampling GCs are part of the time, a small part at one every 100k rows
+            benchmark.record(SIZE, "export_" + format, SIZE, start);
+
+            assertEquals(SIZE, cursor.getPosition());
+            long growth = cursor.mPeakUsedHeapBytes - baseline;
+            System.out.println("export_" + format + ": heap grew by at most " + (growth / 1024) + " KB, wrote "
+                    + (file.length() / 1024) + " KB");
+            assertTrue(format + " export grew the heap by " + growth + " bytes", growth <= MAX_HEAP_GROWTH_BYTES);
+            assertTrue(file.delete());
+        }
+        benchmark.finish();
+    }
+
+    /**
+     * Returns the bytes in use on the heap, after a full GC.
+     */
+    private static long usedHeapBytes() {
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * A cursor with the columns of an export, that generates each pet when it moves to it, and samples the heap
+     * as it goes. It can only move forward, which is all an export does.
+     */
+    private static final class GeneratedPetsCursor extends AbstractCursor {
+
+        private static final String[] COLUMNS = {
+                PetEntry._ID, PetEntry.COLUMN_PET_NAME, PetEntry.COLUMN_PET_BREED, PetEntry.COLUMN_PET_GENDER,
+                PetEntry.COLUMN_PET_WEIGHT };
+
+        private final int mCount;
+
+        private final PetDataGenerator mGenerator = new PetDataGenerator(PetProviderBenchmark.SEED);
+
+        /** The pet at the current position */
+        private ContentValues mPet;
+
+        /** Most bytes in use on the heap at any of the samples */
+        long mPeakUsedHeapBytes;
+
+        GeneratedPetsCursor(int count) {
+            mCount = count;
+        }
+
+        @Override
+        public boolean onMove(int oldPosition, int newPosition) {
+            if (newPosition != oldPosition + 1) {
+                throw new UnsupportedOperationException("Can only move to the next row");
+            }
+            if (newPosition % SAMPLE_ROWS == 0) {
+                mPeakUsedHeapBytes = Math.max(mPeakUsedHeapBytes, usedHeapBytes());
+            }
+            mPet = mGenerator.nextPet();
+            mPet.put(PetEntry._ID, newPosition + 1);
+            return true;
+        }
+
+        @Override
+        public int getCount() {
+            return mCount;
+        }
+
+        @Override
+        public String[] getColumnNames() {
+            return COLUMNS;
+        }
+
+        @Override
+        public int getType(int column) {
+            Object value = mPet.get(COLUMNS[column]);
+            if (value == null) {
+                return Cursor.FIELD_TYPE_NULL;
+            }
+            return value instanceof String ? Cursor.FIELD_TYPE_STRING : Cursor.FIELD_TYPE_INTEGER;
+        }
+
+        @Override
+        public String getString(int column) {
+            return mPet.getAsString(COLUMNS[column]);
+        }
+
+        @Override
+        public short getShort(int column) {
+            return mPet.getAsShort(COLUMNS[column]);
+        }
+
+        @Override
+        public int getInt(int column) {
+            return mPet.getAsInteger(COLUMNS[column]);
+        }
+
+        @Override
+        public long getLong(int column) {
+            return mPet.getAsLong(COLUMNS[column]);
+        }
+
+        @Override
+        public float getFloat(int column) {
+            return mPet.getAsFloat(COLUMNS[column]);
+        }
+
+        @Override
+        public double getDouble(int column) {
+            return mPet.getAsDouble(COLUMNS[column]);
+        }
+
+        @Override
+        public boolean isNull(int column) {
+            return mPet.get(COLUMNS[column]) == null;
+        }
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.os.ParcelFileDescriptor;
+import android.text.TextUtils;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests of the exports of {@link PetProvider}: that {@link PetExportWriter} writes CSV and JSON that read back as the
+ * same pets, and stops cleanly when its output goes away. The writer is given the provider's export query and
+ * a file to write to, so that the tests don't depend on the background thread of openFile's pipe.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class PetExportTest {
+
+    /** The columns of an export, the same as the provider's */
+    private static final String[] EXPORT_COLUMNS = {
+            PetEntry._ID, PetEntry.COLUMN_PET_NAME, PetEntry.COLUMN_PET_BREED, PetEntry.COLUMN_PET_GENDER,
+            PetEntry.COLUMN_PET_WEIGHT };
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private PetProvider mProvider;
+
+    @Before
+    public void setUp() {
+        mProvider = PetProviderBenchmark.createProvider();
+    }
+
+    @After
+    public void tearDown() {
+        mProvider.shutdown();
+    }
+
+    @Test
+    public void csvExportReadsBackAsTheSamePets() throws Exception {
+        insertTrickyPets();
+
+        File file = export(PetContract.EXPORT_FORMAT_CSV, exportCursor());
+        Reader reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+        try {
+            PetCsvReader csv = new PetCsvReader(reader);
+            assertEquals(Arrays.asList(EXPORT_COLUMNS), csv.readRecord());
+            // A null breed is an empty field
+            assertEquals(Arrays.asList("1", "Toto, Jr.", "", "1", "7"), csv.readRecord());
+            assertEquals(Arrays.asList("2", "Mr \"Whiskers\"", "Tabby, grey", "2", "4"), csv.readRecord());
+            assertEquals(Arrays.asList("3", "Two\r\nlines", "Back\\slash", "0", "0"), csv.readRecord());
+            assertEquals(Arrays.asList("4", "Zo\u00eb", "\"", "1", "12"), csv.readRecord());
+            assertNull(csv.readRecord());
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void jsonExportReadsBackAsTheSamePets() throws Exception {
+        insertTrickyPets();
+
+        File file = export(PetContract.EXPORT_FORMAT_JSON, exportCursor());
+        JSONArray pets = new JSONArray(readFile(file));
+        assertEquals(4, pets.length());
+
+        JSONObject toto = pets.getJSONObject(0);
+        assertEquals(1, toto.getLong(PetEntry._ID));
+        assertEquals("Toto, Jr.", toto.getString(PetEntry.COLUMN_PET_NAME));
+        assertTrue(toto.isNull(PetEntry.COLUMN_PET_BREED));
+        assertEquals(PetEntry.GENDER_MALE, toto.getInt(PetEntry.COLUMN_PET_GENDER));
+        assertEquals(7, toto.getInt(PetEntry.COLUMN_PET_WEIGHT));
+        assertEquals("Mr \"Whiskers\"", pets.getJSONObject(1).getString(PetEntry.COLUMN_PET_NAME));
+        assertEquals("Tabby, grey", pets.getJSONObject(1).getString(PetEntry.COLUMN_PET_BREED));
+        assertEquals("Two\r\nlines", pets.getJSONObject(2).getString(PetEntry.COLUMN_PET_NAME));
+        assertEquals("Back\\slash", pets.getJSONObject(2).getString(PetEntry.COLUMN_PET_BREED));
+        assertEquals("Zo\u00eb", pets.getJSONObject(3).getString(PetEntry.COLUMN_PET_NAME));
+        assertEquals("\"", pets.getJSONObject(3).getString(PetEntry.COLUMN_PET_BREED));
+    }
+
+    @Test
+    public void emptyExportsAreValid() throws Exception {
+        File csv = export(PetContract.EXPORT_FORMAT_CSV, exportCursor());
+        assertEquals(TextUtils.join(",", EXPORT_COLUMNS) + "\r\n", readFile(csv));
+
+        File json = export(PetContract.EXPORT_FORMAT_JSON, exportCursor());
+        assertEquals(0, new JSONArray(readFile(json)).length());
+    }
+
+    @Test
+    public void exportStopsWhenItsOutputIsClosed() throws Exception {
+        int size = 20000;
+        PetProviderBenchmark.fill(mProvider, size, new PetDataGenerator(PetProviderBenchmark.SEED));
+
+        // The reader goes away after 1000 pets: the writes after that fail, like they do on a closed pipe
+        File file = mFolder.newFile();
+        final ParcelFileDescriptor output = ParcelFileDescriptor.open(file,
+                ParcelFileDescriptor.MODE_WRITE_ONLY | ParcelFileDescriptor.MODE_TRUNCATE);
+        Cursor cursor = new CursorWrapper(exportCursor()) {
+            @Override
+            public boolean moveToNext() {
+                if (getPosition() == 1000) {
+                    try {
+                        output.close();
+                    } catch (IOException e) {
+                        throw new AssertionError(e);
+                    }
+                }
+                return super.moveToNext();
+            }
+        };
+
+        // The writer must return without throwing, without reading the rest of the pets, and close the cursor
+        new PetExportWriter(PetContract.EXPORT_FORMAT_CSV).writeDataToPipe(output, PetEntry.buildExportUri(
+                PetContract.EXPORT_FORMAT_CSV), PetContract.MIME_TYPE_CSV, null, cursor);
+        assertTrue(cursor.isClosed());
+        assertTrue("Read " + cursor.getPosition() + " pets", cursor.getPosition() < 2000);
+    }
+
+    @Test
+    public void openFileRejectsWritesAndUnknownFormats() throws Exception {
+        try {
+            mProvider.openFile(PetEntry.buildExportUri(PetContract.EXPORT_FORMAT_CSV), "w");
+            fail("An export was opened for writing");
+        } catch (FileNotFoundException expected) {
+            // Exports are read-only
+        }
+        try {
+            mProvider.openFile(PetEntry.buildExportUri("xml"), "r");
+            fail("An export was opened in an unknown format");
+        } catch (FileNotFoundException expected) {
+            // Only CSV and JSON
+        }
+        assertNull(mProvider.getType(PetEntry.buildExportUri("xml")));
+        assertEquals(PetContract.MIME_TYPE_JSON,
+                mProvider.getType(PetEntry.buildExportUri(PetContract.EXPORT_FORMAT_JSON)));
+    }
+
+    /**
+     * Insert pets with the fields that need quoting or escaping, and a null breed.
+     */
+    private void insertTrickyPets() {
+        insertPet("Toto, Jr.", null, PetEntry.GENDER_MALE, 7);
+        insertPet("Mr \"Whiskers\"", "Tabby, grey", PetEntry.GENDER_FEMALE, 4);
+        insertPet("Two\r\nlines", "Back\\slash", PetEntry.GENDER_UNKNOWN, 0);
+        insertPet("Zo\u00eb", "\"", PetEntry.GENDER_MALE, 12);
+    }
+
+    private void insertPet(String name, String breed, int gender, int weight) {
+        ContentValues values = new ContentValues();
+        values.put(PetEntry.COLUMN_PET_NAME, name);
+        values.put(PetEntry.COLUMN_PET_BREED, breed);
+        values.put(PetEntry.COLUMN_PET_GENDER, gender);
+        values.put(PetEntry.COLUMN_PET_WEIGHT, weight);
+        mProvider.insert(PetEntry.CONTENT_URI, values);
+    }
+
+    /**
+     * Returns the live pets with the columns of an export, in the same order.
+     */
+    private Cursor exportCursor() {
+        return mProvider.query(PetEntry.CONTENT_URI, EXPORT_COLUMNS, null, null, PetEntry._ID + " ASC");
+    }
+
+    /**
+     * Write the export of the cursor in the given format to a new file, and return the file.
+     */
+    private File export(String format, Cursor cursor) throws IOException {
+        File file = mFolder.newFile();
+        ParcelFileDescriptor output = ParcelFileDescriptor.open(file,
+                ParcelFileDescriptor.MODE_WRITE_ONLY | ParcelFileDescriptor.MODE_TRUNCATE);
+        try {
+            new PetExportWriter(format).writeDataToPipe(output, PetEntry.buildExportUri(format),
+                    PetExportWriter.getMimeType(format), null, cursor);
+        } finally {
+            output.close();
+        }
+        assertTrue(cursor.isClosed());
+        return file;
+    }
+
+    private static String readFile(File file) throws IOException {
+        Reader reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+        try {
+            StringBuilder text = new StringBuilder();
+            char[] buffer = new char[4096];
+            int count;
+            while ((count = reader.read(buffer)) != -1) {
+                text.append(buffer, 0, count);
+            }
+            return text.toString();
+        } finally {
+            reader.close();
+        }
+    }
+}
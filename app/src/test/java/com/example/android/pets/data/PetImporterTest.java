@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetContract.PetImportEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests of {@link PetImporter}, through the content resolver like the app, on an empty database in the
+ * test's sandbox.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class PetImporterTest {
+
+    /** Where the test file is "imported from", which identifies its progress */
+    private static final String SOURCE = "partner-shelter.csv";
+
+    /** Number of records per transaction */
+    private static final int CHUNK_SIZE = 10;
+
+    /** Number of records in the test file, not counting the header */
+    private static final int RECORDS = 25;
+
+    private PetProvider mProvider;
+
+    private ContentResolver mResolver;
+
+    @Before
+    public void setUp() {
+        mProvider = PetProviderBenchmark.createProvider();
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+    }
+
+    @After
+    public void tearDown() {
+        mProvider.shutdown();
+    }
+
+    @Test
+    public void importsQuotedRecords() throws Exception {
+        String csv = "\uFEFF_id,\"name\",breed,gender,weight\r\n"
+                + "7,\"Toto, the second\",\"Terrier \"\"mix\"\"\",male,12\r\n"
+                + "8,\"Tommy\r\nJunior\",,2,\r\n"
+                + "9,Binx,Tabby,0,4";
+        PetImporter.Progress progress = new PetImporter(mResolver, CHUNK_SIZE)
+                .importCsv(SOURCE, new StringReader(csv), null);
+
+        assertTrue(progress.finished);
+        assertEquals(3, progress.recordsRead);
+        assertEquals(3, progress.petsImported);
+        assertEquals(0, progress.recordsRejected);
+        List<String> expected = new ArrayList<>();
+        expected.add("Toto, the second|Terrier \"mix\"|" + PetEntry.GENDER_MALE + "|12");
+        expected.add("Tommy\r\nJunior|null|" + PetEntry.GENDER_FEMALE + "|0");
+        expected.add("Binx|Tabby|" + PetEntry.GENDER_UNKNOWN + "|4");
+        assertEquals(expected, queryPets());
+    }
+
+    @Test
+    public void rejectsInvalidRecords() throws Exception {
+        String csv = "name,gender,weight\n"
+                + "Toto,1,12\n"
+                + ",1,12\n"
+                + "Tommy,3,12\n"
+                + "Binx,dog,12\n"
+                + "Toby,1,-1\n"
+                + "Tiger,1,heavy\n"
+                + "Tina,female,\n";
+        PetImporter.Progress progress = new PetImporter(mResolver, CHUNK_SIZE)
+                .importCsv(SOURCE, new StringReader(csv), null);
+
+        assertEquals(7, progress.recordsRead);
+        assertEquals(2, progress.petsImported);
+        assertEquals(5, progress.recordsRejected);
+        assertEquals(2, queryPets().size());
+    }
+
+    @Test
+    public void resumesAfterTheLastCommittedChunk() throws Exception {
+        // Die after the second chunk has been committed, like the app being killed in the middle of an import
+        final List<PetImporter.Progress> reported = new ArrayList<>();
+        PetImporter.ProgressListener dying = new PetImporter.ProgressListener() {
+            @Override
+            public void onProgress(PetImporter.Progress progress) {
+                reported.add(progress);
+                if (reported.size() == 2) {
+                    throw new IllegalStateException("Killed");
+                }
+            }
+        };
+        try {
+            new PetImporter(mResolver, CHUNK_SIZE).importCsv(SOURCE, new StringReader(buildCsv()), dying);
+            fail("The import wasn't interrupted");
+        } catch (IllegalStateException expected) {
+            // The two chunks before stay committed
+        }
+
+        long[] saved = querySavedProgress();
+        assertEquals(2 * CHUNK_SIZE, saved[0]);
+        assertEquals(0, saved[3]);
+        assertEquals(saved[1], queryPets().size());
+
+        // Import the same file again from the start: only the records of the last chunk are read and inserted
+        reported.clear();
+        PetImporter.ProgressListener listener = new PetImporter.ProgressListener() {
+            @Override
+            public void onProgress(PetImporter.Progress progress) {
+                reported.add(progress);
+            }
+        };
+        PetImporter.Progress progress = new PetImporter(mResolver, CHUNK_SIZE)
+                .importCsv(SOURCE, new StringReader(buildCsv()), listener);
+
+        assertEquals(1, reported.size());
+        assertTrue(progress.finished);
+        assertEquals(RECORDS, progress.recordsRead);
+        assertEquals(RECORDS - rejectedRecords(), progress.petsImported);
+        assertEquals(rejectedRecords(), progress.recordsRejected);
+        assertEquals(expectedPets(), queryPets());
+        assertEquals(1, querySavedProgress()[3]);
+    }
+
+    @Test
+    public void doesNotImportAFinishedSourceAgain() throws Exception {
+        new PetImporter(mResolver, CHUNK_SIZE).importCsv(SOURCE, new StringReader(buildCsv()), null);
+        PetImporter.Progress progress = new PetImporter(mResolver, CHUNK_SIZE)
+                .importCsv(SOURCE, new StringReader(buildCsv()), null);
+
+        assertTrue(progress.finished);
+        assertEquals(RECORDS, progress.recordsRead);
+        assertEquals(expectedPets(), queryPets());
+    }
+
+    @Test
+    public void rejectsAFileShorterThanItsProgress() throws Exception {
+        new PetImporter(mResolver, CHUNK_SIZE).importCsv(SOURCE, new StringReader(buildCsv()), null);
+        // Pretend the import didn't finish, and the file was replaced by a shorter one
+        ContentValues values = new ContentValues();
+        values.put(PetImportEntry.COLUMN_RECORDS_READ, RECORDS);
+        values.put(PetImportEntry.COLUMN_PETS_IMPORTED, RECORDS - rejectedRecords());
+        values.put(PetImportEntry.COLUMN_RECORDS_REJECTED, rejectedRecords());
+        values.put(PetImportEntry.COLUMN_FINISHED, 0);
+        mResolver.insert(PetImportEntry.buildImportUri(SOURCE), values);
+
+        try {
+            new PetImporter(mResolver, CHUNK_SIZE).importCsv(SOURCE, new StringReader("name,gender\nToto,1\n"), null);
+            fail("Resumed past the end of the file");
+        } catch (IOException expected) {
+            assertFalse(expected.getMessage().isEmpty());
+        }
+    }
+
+    /**
+     * Returns the test file: a header with a byte order mark and CRLF line endings, and {@link #RECORDS} records
+     * with quoted names, every seventh of which is rejected for its gender.
+     */
+    private static String buildCsv() {
+        StringBuilder csv = new StringBuilder("\uFEFFname,breed,gender,weight\r\n");
+        for (int i = 0; i < RECORDS; i++) {
+            String gender = i % 7 == 6 ? "dog" : String.valueOf(i % 3);
+            csv.append("\"Pet ").append(i).append(", \"\"").append(i).append("\"\"\",Breed,")
+                    .append(gender).append(',').append(i).append("\r\n");
+        }
+        return csv.toString();
+    }
+
+    private static int rejectedRecords() {
+        return RECORDS / 7;
+    }
+
+    /**
+     * Returns the pets of {@link #buildCsv()}, each once, as {@link #queryPets()} does.
+     */
+    private static List<String> expectedPets() {
+        List<String> pets = new ArrayList<>();
+        for (int i = 0; i < RECORDS; i++) {
+            if (i % 7 != 6) {
+                pets.add("Pet " + i + ", \"" + i + "\"|Breed|" + (i % 3) + "|" + i);
+            }
+        }
+        return pets;
+    }
+
+    /**
+     * Returns the live pets in the order they were inserted, as "name|breed|gender|weight".
+     */
+    private List<String> queryPets() {
+        String[] projection = { PetEntry.COLUMN_PET_NAME, PetEntry.COLUMN_PET_BREED, PetEntry.COLUMN_PET_GENDER,
+                PetEntry.COLUMN_PET_WEIGHT };
+        Cursor cursor = mResolver.query(PetEntry.CONTENT_URI, projection, null, null, PetEntry._ID);
+        List<String> pets = new ArrayList<>();
+        try {
+            while (cursor.moveToNext()) {
+                pets.add(cursor.getString(0) + "|" + cursor.getString(1) + "|" + cursor.getInt(2) + "|"
+                        + cursor.getInt(3));
+            }
+        } finally {
+            cursor.close();
+        }
+        return pets;
+    }
+
+    /**
+     * Returns the saved progress of {@link #SOURCE}: records read, pets imported, records rejected and finished.
+     */
+    private long[] querySavedProgress() {
+        String[] projection = { PetImportEntry.COLUMN_RECORDS_READ, PetImportEntry.COLUMN_PETS_IMPORTED,
+                PetImportEntry.COLUMN_RECORDS_REJECTED, PetImportEntry.COLUMN_FINISHED };
+        Cursor cursor = mResolver.query(PetImportEntry.buildImportUri(SOURCE), projection, null, null, null);
+        try {
+            assertTrue("No saved progress", cursor.moveToFirst());
+            return new long[] { cursor.getLong(0), cursor.getLong(1), cursor.getLong(2), cursor.getLong(3) };
+        } finally {
+            cursor.close();
+        }
+    }
+}
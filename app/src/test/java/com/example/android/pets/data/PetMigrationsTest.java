@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetContract.PetStatsEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests that {@link PetMigrations} upgrade every older database to exactly the schema of a new install,
+ * and keep the pets that are already stored.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class PetMigrationsTest {
+
+    /**
+     * The pets table as version 1 shipped it. This is a copy on purpose: PetDbHelper may change how it creates
+     * new databases, but databases created by version 1 will always look like this.
+     */
+    private static final String VERSION_1_SCHEMA = "CREATE TABLE pets ("
+            + "_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+            + "name TEXT NOT NULL, "
+            + "breed TEXT, "
+            + "gender INTEGER NOT NULL, "
+            + "weight INTEGER NOT NULL DEFAULT 0);";
+
+    /** The pets stored before an upgrade: name, breed, gender and weight */
+    private static final Object[][] PETS = {
+            { "Toto", "Terrier", PetEntry.GENDER_MALE, 7 },
+            { "Binx", null, PetEntry.GENDER_UNKNOWN, 4 },
+            { "Tommy", "Pug", PetEntry.GENDER_FEMALE, 9 },
+    };
+
+    private final List<SQLiteDatabase> mDatabases = new ArrayList<>();
+
+    private String mFreshSchema;
+
+    @Before
+    public void setUp() {
+        SQLiteDatabase fresh = createDatabase();
+        new PetDbHelper(RuntimeEnvironment.application).onCreate(fresh);
+        mFreshSchema = dumpSchema(fresh);
+    }
+
+    @After
+    public void tearDown() {
+        for (SQLiteDatabase database : mDatabases) {
+            database.close();
+        }
+    }
+
+    @Test
+    public void migratesVersion1ToLatest() {
+        SQLiteDatabase db = createVersion1Database();
+
+        PetMigrations.migrate(db, 1, PetMigrations.LATEST_VERSION);
+
+        assertEquals(mFreshSchema, dumpSchema(db));
+        assertPetsKept(db);
+    }
+
+    @Test
+    public void everyUpgradePathMatchesFreshSchema() {
+        for (int version = 1; version < PetMigrations.LATEST_VERSION; version++) {
+            SQLiteDatabase db = createDatabase();
+            db.execSQL(VERSION_1_SCHEMA);
+            PetMigrations.migrate(db, 1, version);
+            insertPets(db);
+
+            PetMigrations.migrate(db, version, PetMigrations.LATEST_VERSION);
+
+            assertEquals("Schema after upgrading from version " + version, mFreshSchema, dumpSchema(db));
+            assertPetsKept(db);
+        }
+    }
+
+    @Test
+    public void upgradingOneVersionAtATimeMatchesFreshSchema() {
+        SQLiteDatabase db = createVersion1Database();
+
+        for (int version = 1; version < PetMigrations.LATEST_VERSION; version++) {
+            PetMigrations.migrate(db, version, version + 1);
+        }
+
+        assertEquals(mFreshSchema, dumpSchema(db));
+        assertPetsKept(db);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void migrateRejectsUnknownVersion() {
+        PetMigrations.migrate(createVersion1Database(), 1, PetMigrations.LATEST_VERSION + 1);
+    }
+
+    private SQLiteDatabase createDatabase() {
+        SQLiteDatabase db = SQLiteDatabase.create(null);
+        mDatabases.add(db);
+        return db;
+    }
+
+    private SQLiteDatabase createVersion1Database() {
+        SQLiteDatabase db = createDatabase();
+        db.execSQL(VERSION_1_SCHEMA);
+        insertPets(db);
+        return db;
+    }
+
+    private static void insertPets(SQLiteDatabase db) {
+        for (Object[] pet : PETS) {
+            db.execSQL("INSERT INTO pets (name, breed, gender, weight) VALUES (?, ?, ?, ?)", pet);
+        }
+    }
+
+    /**
+     * Assert that the pets inserted before the upgrade are all still there, and counted in the statistics
+     * and the search table that later versions added.
+     */
+    private static void assertPetsKept(SQLiteDatabase db) {
+        Cursor cursor = db.rawQuery("SELECT " + PetEntry.COLUMN_PET_NAME + ", " + PetEntry.COLUMN_PET_BREED + ", "
+                + PetEntry.COLUMN_PET_GENDER + ", " + PetEntry.COLUMN_PET_WEIGHT + ", " + PetEntry.COLUMN_PET_DELETED
+                + " FROM " + PetEntry.TABLE_NAME + " ORDER BY " + PetEntry._ID, null);
+        try {
+            assertEquals(PETS.length, cursor.getCount());
+            for (Object[] pet : PETS) {
+                cursor.moveToNext();
+                assertEquals(pet[0], cursor.getString(0));
+                assertEquals(pet[1], cursor.getString(1));
+                assertEquals(pet[2], cursor.getInt(2));
+                assertEquals(pet[3], cursor.getInt(3));
+                assertEquals(0, cursor.getInt(4));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        assertEquals(PETS.length, queryLong(db, "SELECT SUM(" + PetStatsEntry.COLUMN_PET_COUNT + ") FROM "
+                + PetStatsEntry.GENDER_TABLE_NAME));
+        assertEquals(1, queryLong(db, "SELECT COUNT(*) FROM " + PetEntry.SEARCH_TABLE_NAME
+                + " WHERE " + PetEntry.SEARCH_TABLE_NAME + " MATCH 'toto'"));
+    }
+
+    private static long queryLong(SQLiteDatabase db, String sql) {
+        Cursor cursor = db.rawQuery(sql, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns every table, index, trigger and view of the database with its SQL, in a stable order.
+     */
+    private static String dumpSchema(SQLiteDatabase db) {
+        Cursor cursor = db.rawQuery("SELECT type, name, tbl_name, sql FROM sqlite_master ORDER BY type, name", null);
+        try {
+            StringBuilder schema = new StringBuilder();
+            while (cursor.moveToNext()) {
+                schema.append(cursor.getString(0)).append(' ').append(cursor.getString(1))
+                        .append(" ON ").append(cursor.getString(2))
+                        .append(": ").append(cursor.getString(3)).append('\n');
+            }
+            return schema.toString();
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.pets.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetContract.ShelterEntry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.Random;
+
+/**
+ * Measures the latency of the nearby pets query with thousands of shelters, spread over a region the size of a
+ * large country, and their pets. Each query is around a random location of the region, like the catalog asks.
+ *
+ * It always runs at {@link #SHELTERS} shelters and {@link #SIZE} pets, whatever the benchmark.sizes.
+ * The metrics are the median (and 95th percentile) latency of a query, as queries per second of the median:
+ * <ul>
+ * <li>nearby_latency: the nearest {@link #LIMIT} pets within {@link #RADIUS_KM}</li>
+ * <li>nearby_latency_gender: the same, of one gender</li>
+ * </ul>
+ */
+@RunWith(RobolectricTestRunner.class)
+public class PetNearbyBenchmarkTest {
+
+    /** Number of pets in the database */
+    private static final int SIZE = 100000;
+
+    /** Number of shelters the pets are spread over */
+    private static final int SHELTERS = 5000;
+
+    /** The region of the shelters: 10 degrees either way (about 1,100 by 800 km) */
+    private static final double MIN_LATITUDE = 40;
+    private static final double MIN_LONGITUDE = -100;
+    private static final double REGION_DEGREES = 10;
+
+    /** Radius of the queries: about 8 shelters in it, on average */
+    private static final double RADIUS_KM = 25;
+
+    /** Number of pets per query, the same as a page of the catalog */
+    private static final int LIMIT = 50;
+
+    /** Number of queries for each metric */
+    private static final int QUERIES = 100;
+
+    @Test
+    public void nearbyLatency() throws Exception {
+        PetProviderBenchmark benchmark = new PetProviderBenchmark("nearby");
+        PetProvider provider = PetProviderBenchmark.createProvider();
+        try {
+            Random random = new Random(PetProviderBenchmark.SEED);
+            long[] shelterIds = new long[SHELTERS];
+            for (int i = 0; i < SHELTERS; i++) {
+                ContentValues values = new ContentValues();
+                values.put(ShelterEntry.COLUMN_SHELTER_NAME, "Shelter " + i);
+                values.put(ShelterEntry.COLUMN_SHELTER_LATITUDE, MIN_LATITUDE + random.nextDouble() * REGION_DEGREES);
+                values.put(ShelterEntry.COLUMN_SHELTER_LONGITUDE, MIN_LONGITUDE + random.nextDouble() * REGION_DEGREES);
+                shelterIds[i] = ContentUris.parseId(provider.insert(ShelterEntry.CONTENT_URI, values));
+            }
+
+            PetDataGenerator generator = new PetDataGenerator(PetProviderBenchmark.SEED);
+            for (int inserted = 0; inserted < SIZE; inserted += PetProviderBenchmark.BULK_INSERT_CHUNK_SIZE) {
+                ContentValues[] chunk = new ContentValues[Math.min(PetProviderBenchmark.BULK_INSERT_CHUNK_SIZE,
+                        SIZE - inserted)];
+                for (int i = 0; i < chunk.length; i++) {
+                    chunk[i] = generator.nextPet();
+                    chunk[i].put(PetEntry.COLUMN_PET_SHELTER, shelterIds[random.nextInt(SHELTERS)]);
+                }
+                provider.bulkInsert(PetEntry.CONTENT_URI, chunk);
+            }
+
+            benchmark.recordLatencies(SIZE, "nearby_latency",
+                    queryNearby(provider, random, PetEntry.ANY_GENDER));
+            benchmark.recordLatencies(SIZE, "nearby_latency_gender",
+                    queryNearby(provider, random, PetEntry.GENDER_FEMALE));
+        } finally {
+            provider.shutdown();
+        }
+        benchmark.finish();
+    }
+
+    /**
+     * Run {@link #QUERIES} nearby queries, each around a random location of the region.
+     *
+     * @return the latency of each query, in nanoseconds
+     */
+    private static long[] queryNearby(PetProvider provider, Random random, int gender) {
+        long[] latencies = new long[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            double latitude = MIN_LATITUDE + random.nextDouble() * REGION_DEGREES;
+            double longitude = MIN_LONGITUDE + random.nextDouble() * REGION_DEGREES;
+            long start = System.nanoTime();
+            Cursor cursor = provider.query(PetEntry.buildNearbyUri(latitude, longitude, RADIUS_KM, gender, LIMIT),
+                    null, null, null, null);
+            try {
+                while (cursor.moveToNext()) {
+                    cursor.getLong(0);
+                    cursor.getString(1);
+                }
+            } finally {
+                cursor.close();
+            }
+            latencies[i] = System.nanoTime() - start;
+        }
+        return latencies;
+    }
+}
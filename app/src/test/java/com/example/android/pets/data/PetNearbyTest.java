@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.pets.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetContract.ShelterEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the nearby pets query of {@link PetProvider}: the order, the radius, the gender and the limit,
+ * around the antimeridian and the poles, on the R*Tree and on the plain table it falls back to without one.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class PetNearbyTest {
+
+    private PetProvider mProvider;
+
+    @Before
+    public void setUp() {
+        mProvider = PetProviderBenchmark.createProvider();
+    }
+
+    @After
+    public void tearDown() {
+        mProvider.shutdown();
+    }
+
+    @Test
+    public void petsComeNearestShelterFirst() {
+        long far = insertShelter("Far", 0, 0.05);
+        long near = insertShelter("Near", 0, 0.01);
+        long middle = insertShelter("Middle", 0, 0.02);
+        insertPet("Rex", PetEntry.GENDER_MALE, far);
+        insertPet("Toto", PetEntry.GENDER_MALE, near);
+        insertPet("Binx", PetEntry.GENDER_FEMALE, middle);
+
+        assertEquals(Arrays.asList("Toto", "Binx", "Rex"), nearbyPets(0, 0, 10, PetEntry.ANY_GENDER, 10));
+
+        Cursor cursor = mProvider.query(PetEntry.buildNearbyUri(0, 0, 10, PetEntry.ANY_GENDER, 10),
+                new String[] { PetEntry.COLUMN_DISTANCE_KM }, null, null, null);
+        try {
+            double[] expected = { 1.11, 2.22, 5.56 };
+            for (double distanceKm : expected) {
+                assertTrue(cursor.moveToNext());
+                assertEquals(distanceKm, cursor.getDouble(0), 0.01);
+            }
+            assertEquals(expected.length, cursor.getCount());
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void sheltersInTheCornersOfTheBoxAreLeftOut() {
+        // The first two are in the bounding box of a 10 km circle, which is about 0.09 degrees either way,
+        // but only the first is in the circle: the second is 12.6 km away. The third is 11.1 km away.
+        insertPet("Toto", PetEntry.GENDER_MALE, insertShelter("Edge", 0.085, 0));
+        insertPet("Rex", PetEntry.GENDER_MALE, insertShelter("Corner", 0.08, 0.08));
+        insertPet("Binx", PetEntry.GENDER_FEMALE, insertShelter("Outside", 0, 0.1));
+
+        assertEquals(Arrays.asList("Toto"), nearbyPets(0, 0, 10, PetEntry.ANY_GENDER, 10));
+        assertEquals(Arrays.asList("Toto", "Binx", "Rex"), nearbyPets(0, 0, 13, PetEntry.ANY_GENDER, 10));
+    }
+
+    @Test
+    public void genderKeepsOnlyThePetsOfThatGender() {
+        long shelter = insertShelter("Shelter", 0, 0.01);
+        insertPet("Toto", PetEntry.GENDER_MALE, shelter);
+        insertPet("Binx", PetEntry.GENDER_FEMALE, shelter);
+        insertPet("Rex", PetEntry.GENDER_MALE, shelter);
+        insertPet("Mochi", PetEntry.GENDER_UNKNOWN, insertShelter("Other", 0, 0.02));
+
+        assertEquals(Arrays.asList("Toto", "Rex"), nearbyPets(0, 0, 10, PetEntry.GENDER_MALE, 10));
+        assertEquals(Arrays.asList("Binx"), nearbyPets(0, 0, 10, PetEntry.GENDER_FEMALE, 10));
+        assertEquals(Arrays.asList("Mochi"), nearbyPets(0, 0, 10, PetEntry.GENDER_UNKNOWN, 10));
+    }
+
+    @Test
+    public void limitSpansTheShelters() {
+        long near = insertShelter("Near", 0, 0.01);
+        long far = insertShelter("Far", 0, 0.02);
+        insertPet("Far 1", PetEntry.GENDER_MALE, far);
+        insertPet("Near 1", PetEntry.GENDER_MALE, near);
+        insertPet("Near 2", PetEntry.GENDER_MALE, near);
+        insertPet("Far 2", PetEntry.GENDER_MALE, far);
+        insertPet("Near 3", PetEntry.GENDER_MALE, near);
+
+        // All the pets of the nearest shelter in _ID order, then the first ones of the next
+        assertEquals(Arrays.asList("Near 1", "Near 2", "Near 3", "Far 1"),
+                nearbyPets(0, 0, 10, PetEntry.ANY_GENDER, 4));
+        assertEquals(Arrays.asList("Near 1", "Near 2"), nearbyPets(0, 0, 10, PetEntry.ANY_GENDER, 2));
+    }
+
+    @Test
+    public void deletedPetsAreLeftOut() {
+        long shelter = insertShelter("Shelter", 0, 0.01);
+        insertPet("Toto", PetEntry.GENDER_MALE, shelter);
+        Uri binx = insertPet("Binx", PetEntry.GENDER_FEMALE, shelter);
+        assertEquals(1, mProvider.delete(binx, null, null));
+
+        assertEquals(Arrays.asList("Toto"), nearbyPets(0, 0, 10, PetEntry.ANY_GENDER, 10));
+    }
+
+    @Test
+    public void sheltersAcrossTheAntimeridianAreFound() {
+        // 2.2 km apart, on either side of longitude 180
+        insertPet("Toto", PetEntry.GENDER_MALE, insertShelter("East", 0, -179.99));
+        insertPet("Rex", PetEntry.GENDER_MALE, insertShelter("West", 0, 179.99));
+
+        assertEquals(Arrays.asList("Rex", "Toto"), nearbyPets(0, 179.995, 5, PetEntry.ANY_GENDER, 10));
+        assertEquals(Arrays.asList("Toto", "Rex"), nearbyPets(0, -179.995, 5, PetEntry.ANY_GENDER, 10));
+    }
+
+    @Test
+    public void sheltersAcrossAPoleAreFound() {
+        // 2.2 km apart, on either side of the North Pole
+        insertPet("Toto", PetEntry.GENDER_MALE, insertShelter("Near side", 89.99, 0));
+        insertPet("Rex", PetEntry.GENDER_MALE, insertShelter("Far side", 89.99, 180));
+        insertPet("Binx", PetEntry.GENDER_FEMALE, insertShelter("Oslo", 59.91, 10.75));
+
+        assertEquals(Arrays.asList("Toto", "Rex"), nearbyPets(89.99, 0, 5, PetEntry.ANY_GENDER, 10));
+    }
+
+    @Test
+    public void plainTableIndexGivesTheSameResults() {
+        long[][] shelters = {
+                { insertShelter("Near", 0, 0.01), PetEntry.GENDER_MALE },
+                { insertShelter("Corner", 0.08, 0.08), PetEntry.GENDER_FEMALE },
+                { insertShelter("East", 0, -179.99), PetEntry.GENDER_MALE },
+                { insertShelter("West", 0, 179.99), PetEntry.GENDER_FEMALE },
+                { insertShelter("Near side", 89.99, 0), PetEntry.GENDER_MALE },
+                { insertShelter("Far side", 89.99, 180), PetEntry.GENDER_FEMALE } };
+        for (long[] shelter : shelters) {
+            insertPet("Pet " + shelter[0], (int) shelter[1], shelter[0]);
+        }
+        double[][] queries = { { 0, 0, 10 }, { 0, 0, 13 }, { 0, 179.995, 5 }, { 89.99, 0, 5 }, { 45, 0, 20000 } };
+        List<List<String>> expected = new ArrayList<>();
+        for (double[] query : queries) {
+            expected.add(nearbyPets(query[0], query[1], query[2], PetEntry.ANY_GENDER, 10));
+            expected.add(nearbyPets(query[0], query[1], query[2], PetEntry.GENDER_FEMALE, 10));
+        }
+
+        // Swap the spatial index for the table of a SQLite without the R*Tree module, with the same shelters
+        SQLiteDatabase database = mProvider.getDbHelper().getWritableDatabase();
+        database.execSQL("DROP TABLE " + ShelterEntry.RTREE_TABLE_NAME);
+        PetMigrations.createShelterBTreeIndex(database);
+        database.execSQL("INSERT INTO " + ShelterEntry.RTREE_TABLE_NAME
+                + " (id, min_lat, max_lat, min_lon, max_lon) SELECT " + ShelterEntry._ID + ", "
+                + ShelterEntry.COLUMN_SHELTER_LATITUDE + ", " + ShelterEntry.COLUMN_SHELTER_LATITUDE + ", "
+                + ShelterEntry.COLUMN_SHELTER_LONGITUDE + ", " + ShelterEntry.COLUMN_SHELTER_LONGITUDE
+                + " FROM " + ShelterEntry.TABLE_NAME);
+
+        List<List<String>> actual = new ArrayList<>();
+        for (double[] query : queries) {
+            actual.add(nearbyPets(query[0], query[1], query[2], PetEntry.ANY_GENDER, 10));
+            actual.add(nearbyPets(query[0], query[1], query[2], PetEntry.GENDER_FEMALE, 10));
+        }
+        assertEquals(expected, actual);
+        assertEquals(6, expected.get(expected.size() - 2).size());
+    }
+
+    private long insertShelter(String name, double latitude, double longitude) {
+        ContentValues values = new ContentValues();
+        values.put(ShelterEntry.COLUMN_SHELTER_NAME, name);
+        values.put(ShelterEntry.COLUMN_SHELTER_LATITUDE, latitude);
+        values.put(ShelterEntry.COLUMN_SHELTER_LONGITUDE, longitude);
+        return ContentUris.parseId(mProvider.insert(ShelterEntry.CONTENT_URI, values));
+    }
+
+    private Uri insertPet(String name, int gender, long shelterId) {
+        ContentValues values = new ContentValues();
+        values.put(PetEntry.COLUMN_PET_NAME, name);
+        values.put(PetEntry.COLUMN_PET_GENDER, gender);
+        values.put(PetEntry.COLUMN_PET_WEIGHT, 5);
+        values.put(PetEntry.COLUMN_PET_SHELTER, shelterId);
+        return mProvider.insert(PetEntry.CONTENT_URI, values);
+    }
+
+    /**
+     * Returns the names of the nearby pets, in the order of the query.
+     */
+    private List<String> nearbyPets(double latitude, double longitude, double radiusKm, int gender, int limit) {
+        Cursor cursor = mProvider.query(PetEntry.buildNearbyUri(latitude, longitude, radiusKm, gender, limit),
+                new String[] { PetEntry.COLUMN_PET_NAME }, null, null, null);
+        List<String> names = new ArrayList<>();
+        try {
+            while (cursor.moveToNext()) {
+                names.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return names;
+    }
+}
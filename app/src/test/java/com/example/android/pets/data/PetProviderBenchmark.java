@@ -0,0 +1,337 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.pets.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.net.Uri;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.robolectric.Robolectric;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Records the results of the provider benchmarks and checks them against the minimum throughputs in
+ * benchmark_thresholds.json, so that a change that makes things noticeably slower fails the test run.
+ *
+ * The benchmarks run on Robolectric, so the provider works on the SQLite of the JVM host, in the sandboxed files
+ * directory of the test. That is never the shelter's database on a device. The provider is called directly,
+ * without going through the binder, so the numbers only measure the provider and SQLite. The database sizes come
+ * from the benchmark.sizes system property (see app/build.gradle), and the results of each benchmark are written
+ * as JSON to build/benchmark-results/ of the app module.
+ *
+ * The catalog benchmark, in the package of the catalog, records its results here too, so what it uses is public.
+ */
+public final class PetProviderBenchmark {
+
+    /** Name of the resource with the thresholds, a JSON object of metric name to minimum operations per second */
+    private static final String THRESHOLDS_RESOURCE = "/benchmark_thresholds.json";
+
+    /** Name of the system property with the comma-separated database sizes */
+    private static final String SIZES_PROPERTY = "benchmark.sizes";
+
+    /** The database sizes that are measured when the system property isn't set */
+    private static final String DEFAULT_SIZES = "1000,100000";
+
+    /** Directory the results are written to, relative to the app module that the unit tests run in */
+    private static final String RESULTS_DIRECTORY = "build/benchmark-results";
+
+    /** Seed of the generated pets and of the pets picked for the single-pet operations */
+    public static final long SEED = 1L;
+
+    /** Number of pets per bulkInsert while filling the database */
+    static final int BULK_INSERT_CHUNK_SIZE = 5000;
+
+    /**
+     * The throughput measured for one metric at one database size.
+     */
+    public static final class Result {
+
+        /** Number of pets in the database */
+        final int size;
+
+        /** Name of the metric */
+        final String metric;
+
+        /** Measured operations (or rows) per second */
+        final double opsPerSecond;
+
+        /** Minimum operations per second from the thresholds, or 0 if there is no threshold */
+        final double minOpsPerSecond;
+
+        /** Median and 95th percentile latency of one operation in milliseconds, or NaN if not measured */
+        final double p50Millis;
+        final double p95Millis;
+
+        /** Bytes allocated on the benchmark's thread per operation, or NaN if not measured */
+        final double bytesPerOp;
+
+        Result(int size, String metric, double opsPerSecond, double minOpsPerSecond, double p50Millis,
+               double p95Millis, double bytesPerOp) {
+            this.size = size;
+            this.metric = metric;
+            this.opsPerSecond = opsPerSecond;
+            this.minOpsPerSecond = minOpsPerSecond;
+            this.p50Millis = p50Millis;
+            this.p95Millis = p95Millis;
+            this.bytesPerOp = bytesPerOp;
+        }
+
+        /** Returns true if the throughput is at or above its threshold */
+        boolean passed() {
+            return opsPerSecond >= minOpsPerSecond;
+        }
+
+        @Override
+        public String toString() {
+            return metric + " at " + size + " pets: " + round(opsPerSecond) + "/s (minimum "
+                    + round(minOpsPerSecond) + "/s)";
+        }
+    }
+
+    /** Name of the benchmark, used for the results file */
+    private final String mName;
+
+    /** Minimum operations per second by metric name */
+    private final JSONObject mThresholds;
+
+    /** The results so far */
+    private final List<Result> mResults = new ArrayList<>();
+
+    /**
+     * Constructs a new {@link PetProviderBenchmark}.
+     *
+     * @param name of the benchmark, the results are written to build/benchmark-results/name.json
+     */
+    public PetProviderBenchmark(String name) throws IOException, JSONException {
+        mName = name;
+        mThresholds = loadThresholds();
+    }
+
+    /**
+     * Returns the database sizes to measure, from the benchmark.sizes system property.
+     */
+    static int[] sizes() {
+        String[] values = System.getProperty(SIZES_PROPERTY, DEFAULT_SIZES).split(",");
+        int[] sizes = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            sizes[i] = Integer.parseInt(values[i].trim());
+        }
+        return sizes;
+    }
+
+    /**
+     * Returns the largest of the database {@link #sizes()}.
+     */
+    static int largestSize() {
+        int largest = 0;
+        for (int size : sizes()) {
+            largest = Math.max(largest, size);
+        }
+        return largest;
+    }
+
+    /**
+     * Create a provider on an empty database. Call shutdown() on it when done, before creating the next one.
+     */
+    static PetProvider createProvider() {
+        Context context = RuntimeEnvironment.application;
+        context.deleteDatabase(PetDbHelper.DATABASE_NAME);
+        return Robolectric.setupContentProvider(PetProvider.class, PetContract.CONTENT_AUTHORITY);
+    }
+
+    /**
+     * Returns the file of the provider's database, for opening a second connection to it.
+     */
+    static File getDatabaseFile() {
+        return RuntimeEnvironment.application.getDatabasePath(PetDbHelper.DATABASE_NAME);
+    }
+
+    /**
+     * Fill the provider's database with the given number of pets from the generator, through bulkInsert.
+     */
+    static void fill(PetProvider provider, int size, PetDataGenerator generator) {
+        for (int inserted = 0; inserted < size; inserted += BULK_INSERT_CHUNK_SIZE) {
+            ContentValues[] chunk = new ContentValues[Math.min(BULK_INSERT_CHUNK_SIZE, size - inserted)];
+            for (int i = 0; i < chunk.length; i++) {
+                chunk[i] = generator.nextPet();
+            }
+            provider.bulkInsert(PetEntry.CONTENT_URI, chunk);
+        }
+    }
+
+    static Uri petUri(long id) {
+        return ContentUris.withAppendedId(PetEntry.CONTENT_URI, id);
+    }
+
+    /**
+     * Add the result of a metric that did the given number of operations since the given System.nanoTime().
+     */
+    public void record(int size, String metric, int operations, long startNanos) {
+        long elapsedNanos = Math.max(1, System.nanoTime() - startNanos);
+        record(size, metric, operations * 1e9 / elapsedNanos);
+    }
+
+    /**
+     * Add the result of a metric with the given operations per second.
+     */
+    void record(int size, String metric, double opsPerSecond) {
+        mResults.add(new Result(size, metric, opsPerSecond, mThresholds.optDouble(metric, 0), Double.NaN,
+                Double.NaN, Double.NaN));
+    }
+
+    /**
+     * Add the result of a metric that did the given number of operations since the given System.nanoTime(),
+     * with the bytes that the current thread allocated since the given {@link #allocatedBytes()}.
+     *
+     * @return the result
+     */
+    Result record(int size, String metric, int operations, long startNanos, long startAllocatedBytes) {
+        long elapsedNanos = Math.max(1, System.nanoTime() - startNanos);
+        long endAllocatedBytes = allocatedBytes();
+        double bytesPerOp = startAllocatedBytes < 0 || endAllocatedBytes < 0 ? Double.NaN
+                : (endAllocatedBytes - startAllocatedBytes) / (double) operations;
+        Result result = new Result(size, metric, operations * 1e9 / elapsedNanos, mThresholds.optDouble(metric, 0),
+                Double.NaN, Double.NaN, bytesPerOp);
+        mResults.add(result);
+        return result;
+    }
+
+    /**
+     * Returns the number of bytes the current thread has allocated so far, or -1 if the JVM can't tell.
+     */
+    static long allocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Add the result of a metric from the latencies of its operations, in nanoseconds. Its operations per second
+     * are the ones of the median latency, so that is what its threshold applies to.
+     *
+     * @return the result
+     */
+    public Result recordLatencies(int size, String metric, long[] latencyNanos) {
+        long[] sorted = latencyNanos.clone();
+        Arrays.sort(sorted);
+        double p50Nanos = Math.max(1, sorted[(sorted.length - 1) / 2]);
+        double p95Nanos = sorted[(int) Math.ceil(sorted.length * 0.95) - 1];
+        Result result = new Result(size, metric, 1e9 / p50Nanos, mThresholds.optDouble(metric, 0), p50Nanos / 1e6,
+                p95Nanos / 1e6, Double.NaN);
+        mResults.add(result);
+        return result;
+    }
+
+    /**
+     * Write the results to build/benchmark-results/, and fail if any of them is below its threshold.
+     */
+    public void finish() throws IOException, JSONException {
+        JSONObject json = toJson();
+        File directory = new File(RESULTS_DIRECTORY);
+        if (directory.isDirectory() || directory.mkdirs()) {
+            FileOutputStream out = new FileOutputStream(new File(directory, mName + ".json"));
+            try {
+                out.write(json.toString(2).getBytes("UTF-8"));
+            } finally {
+                out.close();
+            }
+        }
+        System.out.println(mName + ": " + json);
+
+        List<Result> failed = new ArrayList<>();
+        for (Result result : mResults) {
+            if (!result.passed()) {
+                failed.add(result);
+            }
+        }
+        assertTrue("Below threshold: " + failed, failed.isEmpty());
+    }
+
+    /**
+     * Returns the results as JSON: {"passed": true/false, "results": [{"size", "metric", "ops_per_second",
+     * "min_ops_per_second", "passed"}, ...]}. The results of latencies also have "p50_ms" and "p95_ms",
+     * and the ones with allocations "bytes_per_op".
+     */
+    private JSONObject toJson() throws JSONException {
+        JSONArray array = new JSONArray();
+        boolean passed = true;
+        for (Result result : mResults) {
+            JSONObject json = new JSONObject()
+                    .put("size", result.size)
+                    .put("metric", result.metric)
+                    .put("ops_per_second", round(result.opsPerSecond))
+                    .put("min_ops_per_second", round(result.minOpsPerSecond))
+                    .put("passed", result.passed());
+            if (!Double.isNaN(result.p50Millis)) {
+                json.put("p50_ms", round(result.p50Millis)).put("p95_ms", round(result.p95Millis));
+            }
+            if (!Double.isNaN(result.bytesPerOp)) {
+                json.put("bytes_per_op", round(result.bytesPerOp));
+            }
+            array.put(json);
+            passed &= result.passed();
+        }
+        return new JSONObject()
+                .put("passed", passed)
+                .put("results", array);
+    }
+
+    /**
+     * Round to two decimals, which is enough for the ratios and keeps the JSON readable.
+     */
+    private static double round(double value) {
+        return Math.round(value * 100) / 100.0;
+    }
+
+    private static JSONObject loadThresholds() throws IOException, JSONException {
+        InputStream in = PetProviderBenchmark.class.getResourceAsStream(THRESHOLDS_RESOURCE);
+        if (in == null) {
+            throw new IOException("Missing " + THRESHOLDS_RESOURCE);
+        }
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                bytes.write(buffer, 0, count);
+            }
+            return new JSONObject(bytes.toString("UTF-8"));
+        } finally {
+            in.close();
+        }
+    }
+}
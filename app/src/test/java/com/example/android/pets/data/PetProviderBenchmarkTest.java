@@ -0,0 +1,267 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.Random;
+
+import static com.example.android.pets.data.PetProviderBenchmark.petUri;
+
+/**
+ * Measures the throughput of {@link PetProvider} at each of the benchmark sizes. The metrics, in operations
+ * (or rows) per second, are:
+ * <ul>
+ * <li>bulk_insert: rows inserted through bulkInsert while filling the database</li>
+ * <li>insert: single pets inserted one insert() at a time</li>
+ * <li>query_all: rows read by a query for all pets with all columns</li>
+ * <li>query_by_id: single pets queried by their row URI</li>
+ * <li>update: single pets updated by their row URI</li>
+ * <li>delete: single pets deleted by their row URI</li>
+ * <li>catalog_pages: rows read page by page, the way the catalog loads and binds its list</li>
+ * <li>sorted_pages_name, sorted_pages_breed, sorted_pages_weight: rows read page by page in the order of
+ * that column, from the start of the list, the way the sorted catalog loads them</li>
+ * <li>filtered_sorted_pages: the same for the female pets sorted by name</li>
+ * <li>unindexed_sorted_pages: the same pages by name, but with SQLite kept off the indexes, so it has to scan
+ * and sort the whole table for every page. It has no threshold: it is there to compare with sorted_pages_name.</li>
+ * </ul>
+ */
+@RunWith(RobolectricTestRunner.class)
+public class PetProviderBenchmarkTest {
+
+    /** Number of operations for the single-pet metrics (or the size of the database, if it is smaller) */
+    private static final int SINGLE_OPERATIONS = 1000;
+
+    /** Number of pets per page for the page metrics, the same as the catalog */
+    private static final int PAGE_SIZE = 50;
+
+    /** Projection of the catalog_pages metric, the same as the catalog */
+    private static final String[] CATALOG_PROJECTION = {
+            PetEntry._ID, PetEntry.COLUMN_PET_NAME, PetEntry.COLUMN_PET_BREED };
+
+    /** Projection of the sorted page metrics, the same as the catalog when it is sorted */
+    private static final String[] SORTED_PROJECTION = {
+            PetEntry._ID, PetEntry.COLUMN_PET_NAME, PetEntry.COLUMN_PET_BREED, PetEntry.COLUMN_PET_WEIGHT };
+
+    /**
+     * Number of pages read by each of the sorted page metrics (or fewer, if the database runs out).
+     * It is the first pages that the user waits for, and the unindexed pages get too slow for more at 1M pets.
+     */
+    private static final int SORTED_PAGES = 20;
+
+    @Test
+    public void providerThroughput() throws Exception {
+        PetProviderBenchmark benchmark = new PetProviderBenchmark("provider");
+        for (int size : PetProviderBenchmark.sizes()) {
+            PetProvider provider = PetProviderBenchmark.createProvider();
+            try {
+                runSize(benchmark, provider, size);
+            } finally {
+                provider.shutdown();
+            }
+        }
+        benchmark.finish();
+    }
+
+    /**
+     * Fill the provider's empty database with the given number of pets, and measure every metric on it.
+     * The metrics that delete pets run last, so the others all see the full database.
+     */
+    private static void runSize(PetProviderBenchmark benchmark, PetProvider provider, int size) {
+        int singleOperations = Math.min(SINGLE_OPERATIONS, size);
+        Random random = new Random(PetProviderBenchmark.SEED);
+
+        // bulk_insert: fill the database
+        PetDataGenerator generator = new PetDataGenerator(PetProviderBenchmark.SEED);
+        long start = System.nanoTime();
+        PetProviderBenchmark.fill(provider, size, generator);
+        benchmark.record(size, "bulk_insert", size, start);
+
+        // query_all: read every column of every pet
+        start = System.nanoTime();
+        int rows = 0;
+        Cursor cursor = provider.query(PetEntry.CONTENT_URI, null, null, null, null);
+        try {
+            int columnCount = cursor.getColumnCount();
+            while (cursor.moveToNext()) {
+                for (int column = 0; column < columnCount; column++) {
+                    cursor.getString(column);
+                }
+                rows++;
+            }
+        } finally {
+            cursor.close();
+        }
+        benchmark.record(size, "query_all", rows, start);
+
+        // catalog_pages: read the catalog's columns one page at a time, through keyset pagination
+        start = System.nanoTime();
+        rows = 0;
+        long afterId = 0;
+        boolean lastPage = false;
+        while (!lastPage) {
+            cursor = provider.query(PetEntry.buildPageUri(PetEntry.CONTENT_URI, afterId, PAGE_SIZE),
+                    CATALOG_PROJECTION, null, null, null);
+            try {
+                int pageRows = 0;
+                while (cursor.moveToNext()) {
+                    afterId = cursor.getLong(0);
+                    cursor.getString(1);
+                    cursor.getString(2);
+                    pageRows++;
+                }
+                rows += pageRows;
+                lastPage = pageRows < PAGE_SIZE;
+            } finally {
+                cursor.close();
+            }
+        }
+        benchmark.record(size, "catalog_pages", rows, start);
+
+        // sorted_pages_*: the first pages of the catalog in the order of each sort column, off its covering index
+        String[] sortColumns = { PetEntry.COLUMN_PET_NAME, PetEntry.COLUMN_PET_BREED, PetEntry.COLUMN_PET_WEIGHT };
+        for (String sortColumn : sortColumns) {
+            start = System.nanoTime();
+            rows = readSortedPages(provider, sortColumn, null, null);
+            benchmark.record(size, "sorted_pages_" + sortColumn, rows, start);
+        }
+
+        // filtered_sorted_pages: the first pages of the female pets by name
+        start = System.nanoTime();
+        rows = readSortedPages(provider, PetEntry.COLUMN_PET_NAME, PetEntry.COLUMN_PET_GENDER + "=?",
+                new String[] { String.valueOf(PetEntry.GENDER_FEMALE) });
+        benchmark.record(size, "filtered_sorted_pages", rows, start);
+
+        // unindexed_sorted_pages: the same pages as sorted_pages_name, but scanning and sorting the whole table
+        start = System.nanoTime();
+        rows = readUnindexedSortedPages(size);
+        benchmark.record(size, "unindexed_sorted_pages", rows, start);
+
+        // query_by_id: random pets by their row URI (the first time for a pet misses the provider's cache)
+        start = System.nanoTime();
+        for (int i = 0; i < singleOperations; i++) {
+            cursor = provider.query(petUri(1 + random.nextInt(size)), null, null, null, null);
+            try {
+                cursor.moveToFirst();
+            } finally {
+                cursor.close();
+            }
+        }
+        benchmark.record(size, "query_by_id", singleOperations, start);
+
+        // update: change the weight of random pets
+        start = System.nanoTime();
+        for (int i = 0; i < singleOperations; i++) {
+            ContentValues values = new ContentValues();
+            values.put(PetEntry.COLUMN_PET_WEIGHT, 1 + random.nextInt(50));
+            provider.update(petUri(1 + random.nextInt(size)), values, null, null);
+        }
+        benchmark.record(size, "update", singleOperations, start);
+
+        // insert: add pets one at a time
+        start = System.nanoTime();
+        for (int i = 0; i < singleOperations; i++) {
+            provider.insert(PetEntry.CONTENT_URI, generator.nextPet());
+        }
+        benchmark.record(size, "insert", singleOperations, start);
+
+        // delete: remove distinct pets, starting from the oldest
+        start = System.nanoTime();
+        for (int i = 0; i < singleOperations; i++) {
+            provider.delete(petUri(1 + i), null, null);
+        }
+        benchmark.record(size, "delete", singleOperations, start);
+    }
+
+    /**
+     * Read the first {@link #SORTED_PAGES} pages of pets in the order of the given column, through the provider's
+     * keyset pagination, each page starting after the last pet of the one before.
+     *
+     * @return the number of rows read
+     */
+    private static int readSortedPages(PetProvider provider, String sortColumn, String selection,
+                                       String[] selectionArgs) {
+        int rows = 0;
+        String afterKey = null;
+        long afterId = 0;
+        for (int page = 0; page < SORTED_PAGES; page++) {
+            Cursor cursor = provider.query(PetEntry.buildPageUri(PetEntry.CONTENT_URI, afterKey, afterId, PAGE_SIZE),
+                    SORTED_PROJECTION, selection, selectionArgs, sortColumn);
+            int keyColumnIndex = cursor.getColumnIndex(sortColumn);
+            int pageRows = 0;
+            try {
+                while (cursor.moveToNext()) {
+                    afterId = cursor.getLong(0);
+                    cursor.getString(1);
+                    cursor.getString(2);
+                    afterKey = cursor.getString(keyColumnIndex);
+                    pageRows++;
+                }
+            } finally {
+                cursor.close();
+            }
+            rows += pageRows;
+            if (pageRows < PAGE_SIZE) {
+                break;
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Read the same pages as {@link #readSortedPages} by name, on a second connection to the database,
+     * with "NOT INDEXED" so that SQLite has to scan the table and sort it in a temp B-tree for every page.
+     * This is what every sorted page would cost without the covering indexes.
+     *
+     * @return the number of rows read
+     */
+    private static int readUnindexedSortedPages(int size) {
+        SQLiteDatabase database = SQLiteDatabase.openDatabase(PetProviderBenchmark.getDatabaseFile().getPath(),
+                null, SQLiteDatabase.OPEN_READONLY);
+        try {
+            int rows = 0;
+            for (int page = 0; page < SORTED_PAGES && rows < size; page++) {
+                Cursor cursor = database.rawQuery("SELECT " + PetEntry._ID + ", " + PetEntry.COLUMN_PET_NAME + ", "
+                        + PetEntry.COLUMN_PET_BREED + ", " + PetEntry.COLUMN_PET_WEIGHT
+                        + " FROM " + PetEntry.TABLE_NAME + " NOT INDEXED"
+                        + " WHERE " + PetEntry.COLUMN_PET_DELETED + " = 0"
+                        + " ORDER BY " + PetEntry.COLUMN_PET_NAME + ", " + PetEntry._ID
+                        + " LIMIT " + PAGE_SIZE + " OFFSET " + (page * PAGE_SIZE), null);
+                try {
+                    while (cursor.moveToNext()) {
+                        cursor.getLong(0);
+                        cursor.getString(1);
+                        cursor.getString(2);
+                        rows++;
+                    }
+                } finally {
+                    cursor.close();
+                }
+            }
+            return rows;
+        } finally {
+            database.close();
+        }
+    }
+}
@@ -0,0 +1,529 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.pets.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
+import android.net.Uri;
+import android.os.Bundle;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests of the {@link PetProvider} write paths, sorted pages and provider methods, on an empty database in
+ * the test's sandbox.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class PetProviderTest {
+
+    /** Number of pets per page, the same as the catalog */
+    private static final int PAGE_SIZE = 50;
+
+    private PetProvider mProvider;
+
+    @Before
+    public void setUp() {
+        mProvider = PetProviderBenchmark.createProvider();
+    }
+
+    @After
+    public void tearDown() {
+        mProvider.shutdown();
+    }
+
+    @Test
+    public void bulkInsertInsertsAllPets() {
+        PetDataGenerator generator = new PetDataGenerator(PetProviderBenchmark.SEED);
+        ContentValues[] values = { generator.nextPet(), generator.nextPet(), generator.nextPet() };
+
+        assertEquals(3, mProvider.bulkInsert(PetEntry.CONTENT_URI, values));
+        assertEquals(3, countPets());
+    }
+
+    @Test
+    public void bulkInsertKeepsNothingWhenAPetIsInvalid() {
+        PetDataGenerator generator = new PetDataGenerator(PetProviderBenchmark.SEED);
+        ContentValues invalid = generator.nextPet();
+        invalid.put(PetEntry.COLUMN_PET_WEIGHT, -1);
+        ContentValues[] values = { generator.nextPet(), generator.nextPet(), invalid, generator.nextPet() };
+
+        try {
+            mProvider.bulkInsert(PetEntry.CONTENT_URI, values);
+            fail("bulkInsert accepted a pet with a negative weight");
+        } catch (IllegalArgumentException expected) {
+            // The pets before the invalid one must have been rolled back with it
+        }
+        assertEquals(0, countPets());
+    }
+
+    @Test
+    public void bulkInsertKeepsNothingWhenAPetCannotBeInserted() {
+        PetDataGenerator generator = new PetDataGenerator(PetProviderBenchmark.SEED);
+        ContentValues first = generator.nextPet();
+        first.put(PetEntry._ID, 1L);
+        ContentValues duplicate = generator.nextPet();
+        duplicate.put(PetEntry._ID, 1L);
+        ContentValues[] values = { first, generator.nextPet(), duplicate };
+
+        try {
+            mProvider.bulkInsert(PetEntry.CONTENT_URI, values);
+            fail("bulkInsert accepted two pets with the same id");
+        } catch (SQLException expected) {
+            // The insert of the duplicate returned -1, which must roll back the whole batch
+        }
+        assertEquals(0, countPets());
+    }
+
+    @Test
+    public void updatePetOnlyWritesTheGivenColumns() {
+        Uri toto = insertPet("Toto", "Terrier", PetEntry.GENDER_MALE, 7);
+        Uri binx = insertPet("Binx", "Tabby", PetEntry.GENDER_FEMALE, 4);
+
+        ContentValues weight = new ContentValues();
+        weight.put(PetEntry.COLUMN_PET_WEIGHT, 9);
+        assertEquals(1, mProvider.update(toto, weight, null, null));
+        assertEquals("Toto|Terrier|" + PetEntry.GENDER_MALE + "|9", readPet(toto));
+
+        // A null breed is a valid value, unlike a null name
+        ContentValues nameAndBreed = new ContentValues();
+        nameAndBreed.put(PetEntry.COLUMN_PET_NAME, "Rex");
+        nameAndBreed.putNull(PetEntry.COLUMN_PET_BREED);
+        assertEquals(1, mProvider.update(toto, nameAndBreed, null, null));
+        assertEquals("Rex|null|" + PetEntry.GENDER_MALE + "|9", readPet(toto));
+
+        // The other pet is left alone
+        assertEquals("Binx|Tabby|" + PetEntry.GENDER_FEMALE + "|4", readPet(binx));
+    }
+
+    @Test
+    public void updatePetWithASelectionOnlyUpdatesAMatch() {
+        Uri toto = insertPet("Toto", "Terrier", PetEntry.GENDER_MALE, 7);
+        ContentValues weight = new ContentValues();
+        weight.put(PetEntry.COLUMN_PET_WEIGHT, 9);
+
+        assertEquals(0, mProvider.update(toto, weight, PetEntry.COLUMN_PET_GENDER + "=?",
+                new String[] { String.valueOf(PetEntry.GENDER_FEMALE) }));
+        assertEquals("Toto|Terrier|" + PetEntry.GENDER_MALE + "|7", readPet(toto));
+
+        assertEquals(1, mProvider.update(toto, weight, PetEntry.COLUMN_PET_GENDER + "=?",
+                new String[] { String.valueOf(PetEntry.GENDER_MALE) }));
+        assertEquals("Toto|Terrier|" + PetEntry.GENDER_MALE + "|9", readPet(toto));
+    }
+
+    @Test
+    public void updatePetRejectsInvalidValues() {
+        Uri toto = insertPet("Toto", "Terrier", PetEntry.GENDER_MALE, 7);
+        ContentValues[] invalid = new ContentValues[4];
+        for (int i = 0; i < invalid.length; i++) {
+            invalid[i] = new ContentValues();
+        }
+        invalid[0].putNull(PetEntry.COLUMN_PET_NAME);
+        invalid[1].put(PetEntry.COLUMN_PET_GENDER, 7);
+        invalid[2].put(PetEntry.COLUMN_PET_WEIGHT, -1);
+        invalid[3].put(PetEntry.COLUMN_PET_DELETED, 1);
+
+        for (ContentValues values : invalid) {
+            for (Uri uri : new Uri[] { toto, PetEntry.CONTENT_URI }) {
+                try {
+                    mProvider.update(uri, values, null, null);
+                    fail("Updated " + uri + " with " + values);
+                } catch (IllegalArgumentException expected) {
+                    // Nothing is written
+                }
+            }
+        }
+        assertEquals("Toto|Terrier|" + PetEntry.GENDER_MALE + "|7", readPet(toto));
+    }
+
+    @Test
+    public void updateWithoutValuesOrOfADeletedPetChangesNothing() {
+        Uri toto = insertPet("Toto", "Terrier", PetEntry.GENDER_MALE, 7);
+        assertEquals(0, mProvider.update(toto, new ContentValues(), null, null));
+        assertEquals(0, mProvider.update(PetEntry.CONTENT_URI, new ContentValues(), null, null));
+
+        assertEquals(1, mProvider.delete(PetEntry.buildSoftDeleteUri(toto), null, null));
+        ContentValues weight = new ContentValues();
+        weight.put(PetEntry.COLUMN_PET_WEIGHT, 9);
+        assertEquals(0, mProvider.update(toto, weight, null, null));
+        assertEquals(0, mProvider.update(PetEntry.CONTENT_URI, weight, null, null));
+    }
+
+    @Test
+    public void updatePetsUpdatesTheMatchingLivePets() {
+        Uri toto = insertPet("Toto", "Terrier", PetEntry.GENDER_MALE, 7);
+        Uri rex = insertPet("Rex", "Pug", PetEntry.GENDER_MALE, 8);
+        Uri binx = insertPet("Binx", "Tabby", PetEntry.GENDER_FEMALE, 4);
+        Uri gone = insertPet("Gone", "Pug", PetEntry.GENDER_MALE, 5);
+        assertEquals(1, mProvider.delete(PetEntry.buildSoftDeleteUri(gone), null, null));
+
+        ContentValues breed = new ContentValues();
+        breed.put(PetEntry.COLUMN_PET_BREED, "Mixed");
+        assertEquals(2, mProvider.update(PetEntry.CONTENT_URI, breed, PetEntry.COLUMN_PET_GENDER + "=?",
+                new String[] { String.valueOf(PetEntry.GENDER_MALE) }));
+
+        assertEquals("Toto|Mixed|" + PetEntry.GENDER_MALE + "|7", readPet(toto));
+        assertEquals("Rex|Mixed|" + PetEntry.GENDER_MALE + "|8", readPet(rex));
+        assertEquals("Binx|Tabby|" + PetEntry.GENDER_FEMALE + "|4", readPet(binx));
+    }
+
+    @Test
+    public void softDeletedPetIsHiddenUntilItIsPurged() {
+        Uri toto = insertPet("Toto", "Terrier", PetEntry.GENDER_MALE, 7);
+        Uri rex = insertPet("Rex", "Pug", PetEntry.GENDER_MALE, 8);
+        long totoId = ContentUris.parseId(toto);
+
+        assertEquals(1, mProvider.delete(PetEntry.buildSoftDeleteUri(toto), null, null));
+        assertNull(readPet(toto));
+        assertEquals(1, countPets());
+        assertEquals(0, countRows(PetEntry.buildSearchUri("Toto")));
+        // The row is still there, only marked, until it is purged
+        assertEquals(1, countRawRows(PetEntry.TABLE_NAME, PetEntry._ID + "=" + totoId));
+        assertEquals(1, countRawRows(PetEntry.SEARCH_TABLE_NAME, "docid=" + totoId));
+
+        PetCompactor compactor = new PetCompactor(mProvider.getDbHelper(),
+                new PetPhotoStore(RuntimeEnvironment.application));
+        try {
+            assertEquals(1, compactor.purgeDeletedPets(mProvider.getDbHelper().getWritableDatabase()));
+            assertEquals(0, compactor.purgeDeletedPets(mProvider.getDbHelper().getWritableDatabase()));
+        } finally {
+            compactor.shutdown();
+        }
+        assertEquals(0, countRawRows(PetEntry.TABLE_NAME, PetEntry._ID + "=" + totoId));
+        assertEquals(0, countRawRows(PetEntry.SEARCH_TABLE_NAME, "docid=" + totoId));
+        assertEquals("Rex|Pug|" + PetEntry.GENDER_MALE + "|8", readPet(rex));
+        assertEquals(1, countRows(PetEntry.buildSearchUri("Rex")));
+    }
+
+    @Test
+    public void softDeleteOfThePetsOnlyMarksTheMatches() {
+        insertPet("Toto", "Terrier", PetEntry.GENDER_MALE, 7);
+        insertPet("Rex", "Pug", PetEntry.GENDER_MALE, 8);
+        insertPet("Binx", "Tabby", PetEntry.GENDER_FEMALE, 4);
+
+        assertEquals(2, mProvider.delete(PetEntry.buildSoftDeleteUri(PetEntry.CONTENT_URI),
+                PetEntry.COLUMN_PET_GENDER + "=?", new String[] { String.valueOf(PetEntry.GENDER_MALE) }));
+        assertEquals(1, countPets());
+        assertEquals(3, countRawRows(PetEntry.TABLE_NAME, null));
+
+        // Deleting them again finds nothing, they are already gone as far as the provider is concerned
+        assertEquals(0, mProvider.delete(PetEntry.buildSoftDeleteUri(PetEntry.CONTENT_URI),
+                PetEntry.COLUMN_PET_GENDER + "=?", new String[] { String.valueOf(PetEntry.GENDER_MALE) }));
+    }
+
+    @Test
+    public void deleteAllRemovesEveryPetAtOnce() {
+        PetProviderBenchmark.fill(mProvider, 1000, new PetDataGenerator(PetProviderBenchmark.SEED));
+        assertEquals(1, mProvider.delete(PetEntry.buildSoftDeleteUri(PetProviderBenchmark.petUri(1)), null, null));
+
+        // It returns the number of live pets there were
+        assertEquals(999, mProvider.delete(PetEntry.CONTENT_URI, null, null));
+        assertEquals(0, countPets());
+        assertEquals(0, countRawRows(PetEntry.TABLE_NAME, null));
+        assertEquals(0, countRawRows(PetEntry.SEARCH_TABLE_NAME, null));
+
+        // The table works as before afterwards
+        Uri toto = insertPet("Toto", "Terrier", PetEntry.GENDER_MALE, 7);
+        assertEquals("Toto|Terrier|" + PetEntry.GENDER_MALE + "|7", readPet(toto));
+        assertEquals(1, countRows(PetEntry.buildSearchUri("Toto")));
+    }
+
+    @Test
+    public void closedStatementsCanNotBeUsed() {
+        Uri toto = insertPet("Toto", "Terrier", PetEntry.GENDER_MALE, 7);
+        PetStatements statements = new PetStatements(mProvider.getDbHelper().getWritableDatabase());
+        ContentValues values = new ContentValues();
+        values.put(PetEntry.COLUMN_PET_WEIGHT, 8);
+        assertEquals(1, statements.updateById(ContentUris.parseId(toto), values));
+
+        statements.close();
+        try {
+            statements.updateById(ContentUris.parseId(toto), values);
+            fail("Updated a pet with a closed statement");
+        } catch (IllegalStateException expected) {
+        }
+        try {
+            statements.deleteById(ContentUris.parseId(toto));
+            fail("Deleted a pet with a closed statement");
+        } catch (IllegalStateException expected) {
+        }
+
+        // The provider's own statements are unaffected
+        assertEquals("Toto|Terrier|" + PetEntry.GENDER_MALE + "|8", readPet(toto));
+    }
+
+    @Test
+    public void sortedPagesMatchAFullSort() {
+        PetProviderBenchmark.fill(mProvider, 1000, new PetDataGenerator(PetProviderBenchmark.SEED));
+        String[] projection = { PetEntry._ID, PetEntry.COLUMN_PET_NAME, PetEntry.COLUMN_PET_BREED,
+                PetEntry.COLUMN_PET_WEIGHT };
+        String[] sortColumns = { PetEntry.COLUMN_PET_NAME, PetEntry.COLUMN_PET_BREED, PetEntry.COLUMN_PET_WEIGHT };
+        for (String sortColumn : sortColumns) {
+            List<Long> expected = new ArrayList<>();
+            Cursor cursor = mProvider.getDbHelper().getReadableDatabase().rawQuery("SELECT " + PetEntry._ID
+                    + " FROM " + PetEntry.TABLE_NAME + " WHERE " + PetEntry.COLUMN_PET_DELETED + "=0 ORDER BY "
+                    + sortColumn + ", " + PetEntry._ID, null);
+            try {
+                while (cursor.moveToNext()) {
+                    expected.add(cursor.getLong(0));
+                }
+            } finally {
+                cursor.close();
+            }
+
+            List<Long> paged = new ArrayList<>();
+            String afterKey = null;
+            long afterId = 0;
+            int pageRows = PAGE_SIZE;
+            while (pageRows == PAGE_SIZE) {
+                cursor = mProvider.query(PetEntry.buildPageUri(PetEntry.CONTENT_URI, afterKey, afterId, PAGE_SIZE),
+                        projection, null, null, sortColumn);
+                try {
+                    pageRows = cursor.getCount();
+                    int keyColumnIndex = cursor.getColumnIndex(sortColumn);
+                    while (cursor.moveToNext()) {
+                        afterId = cursor.getLong(0);
+                        afterKey = cursor.getString(keyColumnIndex);
+                        paged.add(afterId);
+                    }
+                } finally {
+                    cursor.close();
+                }
+            }
+            assertEquals("Pages by " + sortColumn, expected, paged);
+        }
+    }
+
+    @Test
+    public void sortedPageOnlyHasTheProjection() {
+        PetProviderBenchmark.fill(mProvider, 100, new PetDataGenerator(PetProviderBenchmark.SEED));
+        Cursor cursor = mProvider.query(PetEntry.buildPageUri(PetEntry.CONTENT_URI, "8", 10, PAGE_SIZE),
+                new String[] { PetEntry.COLUMN_PET_NAME }, null, null, PetEntry.COLUMN_PET_WEIGHT);
+        try {
+            assertEquals(1, cursor.getColumnCount());
+            assertEquals(PetEntry.COLUMN_PET_NAME, cursor.getColumnName(0));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void sortedPageByWeightRejectsANonNumericKey() {
+        mProvider.query(PetEntry.buildPageUri(PetEntry.CONTENT_URI, "heavy", 10, PAGE_SIZE),
+                new String[] { PetEntry._ID }, null, null, PetEntry.COLUMN_PET_WEIGHT);
+    }
+
+    @Test
+    public void metricsCountTheCallsRowsAndErrors() {
+        Map<String, long[]> before = readMetrics();
+
+        Uri toto = insertPet("Toto", "Terrier", PetEntry.GENDER_MALE, 7);
+        insertPet("Rex", "Pug", PetEntry.GENDER_MALE, 8);
+        try {
+            insertPet(null, "Pug", PetEntry.GENDER_MALE, 8);
+            fail("Inserted a pet without a name");
+        } catch (IllegalArgumentException expected) {
+            // Counted as an error
+        }
+        PetDataGenerator generator = new PetDataGenerator(PetProviderBenchmark.SEED);
+        mProvider.bulkInsert(PetEntry.CONTENT_URI, new ContentValues[] { generator.nextPet(), generator.nextPet() });
+        assertEquals(4, countPets());
+        readPet(toto);
+        ContentValues weight = new ContentValues();
+        weight.put(PetEntry.COLUMN_PET_WEIGHT, 9);
+        mProvider.update(toto, weight, null, null);
+        mProvider.delete(toto, null, null);
+        try {
+            mProvider.query(Uri.parse("content://" + PetContract.CONTENT_AUTHORITY + "/nothing"), null, null, null,
+                    null);
+            fail("Queried an unknown URI");
+        } catch (IllegalArgumentException expected) {
+            // Counted as an error of the unknown pattern
+        }
+
+        Map<String, long[]> after = readMetrics();
+        // calls, errors, rows
+        assertMetrics(before, after, "insert pets", 3, 1, 2);
+        assertMetrics(before, after, "bulk_insert pets", 1, 0, 2);
+        assertMetrics(before, after, "query pets", 1, 0, 4);
+        assertMetrics(before, after, "query pets/#", 1, 0, 1);
+        assertMetrics(before, after, "update pets/#", 1, 0, 1);
+        assertMetrics(before, after, "delete pets/#", 1, 0, 1);
+        assertMetrics(before, after, "query unknown", 1, 1, 0);
+    }
+
+    @Test
+    public void metricsHistogramMatchesTheCalls() {
+        for (int i = 0; i < 20; i++) {
+            insertPet("Pet " + i, null, PetEntry.GENDER_UNKNOWN, i);
+        }
+
+        Cursor cursor = mProvider.query(PetContract.PetMetricsEntry.CONTENT_URI, null, null, null, null);
+        try {
+            assertTrue(cursor.getCount() > 0);
+            while (cursor.moveToNext()) {
+                long calls = cursor.getLong(cursor.getColumnIndexOrThrow(PetContract.PetMetricsEntry.COLUMN_CALLS));
+                long bucketCalls = 0;
+                for (String bucket : cursor.getString(cursor.getColumnIndexOrThrow(
+                        PetContract.PetMetricsEntry.COLUMN_HISTOGRAM)).split(",")) {
+                    bucketCalls += Long.parseLong(bucket.substring(bucket.indexOf(':') + 1));
+                }
+                assertEquals(calls, bucketCalls);
+
+                long p50 = cursor.getLong(cursor.getColumnIndexOrThrow(PetContract.PetMetricsEntry.COLUMN_P50_MICROS));
+                long p90 = cursor.getLong(cursor.getColumnIndexOrThrow(PetContract.PetMetricsEntry.COLUMN_P90_MICROS));
+                long p99 = cursor.getLong(cursor.getColumnIndexOrThrow(PetContract.PetMetricsEntry.COLUMN_P99_MICROS));
+                long max = cursor.getLong(cursor.getColumnIndexOrThrow(PetContract.PetMetricsEntry.COLUMN_MAX_MICROS));
+                long total = cursor.getLong(cursor.getColumnIndexOrThrow(
+                        PetContract.PetMetricsEntry.COLUMN_TOTAL_MICROS));
+                assertTrue(p50 <= p90 && p90 <= p99);
+                assertTrue(max <= total);
+                // The percentiles are the upper bounds of their buckets, so none is above the bucket of the max
+                assertTrue(p99 <= Math.max(2, Long.highestOneBit(max) * 2));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void setSlowQueryThresholdAcceptsMilliseconds() {
+        mProvider.call(PetContract.METHOD_SET_SLOW_QUERY_THRESHOLD, "250", null);
+
+        Bundle slowQueries = mProvider.call(PetContract.METHOD_GET_SLOW_QUERIES, null, null);
+        assertEquals(250, slowQueries.getLong(PetContract.KEY_SLOW_QUERY_THRESHOLD_MILLIS));
+    }
+
+    @Test
+    public void setSlowQueryThresholdRejectsInvalidArgs() {
+        long threshold = mProvider.call(PetContract.METHOD_GET_SLOW_QUERIES, null, null)
+                .getLong(PetContract.KEY_SLOW_QUERY_THRESHOLD_MILLIS);
+        for (String arg : new String[] { null, "", "fast", "1.5", "-1", "99999999999999999999" }) {
+            try {
+                mProvider.call(PetContract.METHOD_SET_SLOW_QUERY_THRESHOLD, arg, null);
+                fail("Accepted the slow query threshold " + arg);
+            } catch (IllegalArgumentException expected) {
+                assertNotNull(expected.getMessage());
+            }
+        }
+        assertEquals(threshold, mProvider.call(PetContract.METHOD_GET_SLOW_QUERIES, null, null)
+                .getLong(PetContract.KEY_SLOW_QUERY_THRESHOLD_MILLIS));
+    }
+
+    private Uri insertPet(String name, String breed, int gender, int weight) {
+        ContentValues values = new ContentValues();
+        values.put(PetEntry.COLUMN_PET_NAME, name);
+        values.put(PetEntry.COLUMN_PET_BREED, breed);
+        values.put(PetEntry.COLUMN_PET_GENDER, gender);
+        values.put(PetEntry.COLUMN_PET_WEIGHT, weight);
+        return mProvider.insert(PetEntry.CONTENT_URI, values);
+    }
+
+    /**
+     * Returns the pet as "name|breed|gender|weight", or null if it isn't there (or is deleted).
+     */
+    private String readPet(Uri uri) {
+        String[] projection = { PetEntry.COLUMN_PET_NAME, PetEntry.COLUMN_PET_BREED, PetEntry.COLUMN_PET_GENDER,
+                PetEntry.COLUMN_PET_WEIGHT };
+        Cursor cursor = mProvider.query(uri, projection, null, null, null);
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            return cursor.getString(0) + "|" + cursor.getString(1) + "|" + cursor.getInt(2) + "|" + cursor.getInt(3);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private int countRows(Uri uri) {
+        Cursor cursor = mProvider.query(uri, new String[] { PetEntry._ID }, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns the number of rows of the table that match the selection, including the soft-deleted pets.
+     */
+    private long countRawRows(String table, String selection) {
+        return DatabaseUtils.queryNumEntries(mProvider.getDbHelper().getReadableDatabase(), table, selection);
+    }
+
+    /**
+     * Returns the calls, errors and rows of each row of the metrics, by "operation uri_pattern".
+     */
+    private Map<String, long[]> readMetrics() {
+        Map<String, long[]> metrics = new HashMap<>();
+        Cursor cursor = mProvider.query(PetContract.PetMetricsEntry.CONTENT_URI, new String[] {
+                PetContract.PetMetricsEntry.COLUMN_OPERATION, PetContract.PetMetricsEntry.COLUMN_URI_PATTERN,
+                PetContract.PetMetricsEntry.COLUMN_CALLS, PetContract.PetMetricsEntry.COLUMN_ERRORS,
+                PetContract.PetMetricsEntry.COLUMN_ROWS }, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                metrics.put(cursor.getString(0) + " " + cursor.getString(1),
+                        new long[] { cursor.getLong(2), cursor.getLong(3), cursor.getLong(4) });
+            }
+        } finally {
+            cursor.close();
+        }
+        return metrics;
+    }
+
+    /**
+     * Assert how much the calls, errors and rows of the given metric grew between the two snapshots.
+     */
+    private static void assertMetrics(Map<String, long[]> before, Map<String, long[]> after, String metric,
+                                      long calls, long errors, long rows) {
+        long[] start = before.containsKey(metric) ? before.get(metric) : new long[3];
+        long[] end = after.get(metric);
+        assertNotNull("No metrics for " + metric, end);
+        assertEquals(metric + " calls", calls, end[0] - start[0]);
+        assertEquals(metric + " errors", errors, end[1] - start[1]);
+        assertEquals(metric + " rows", rows, end[2] - start[2]);
+    }
+
+    private int countPets() {
+        Cursor cursor = mProvider.query(PetEntry.CONTENT_URI, new String[] { PetEntry._ID }, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+}
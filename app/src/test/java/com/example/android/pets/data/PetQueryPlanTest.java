@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Asserts the query plans of the provider's standard queries, so that a change that drops or no longer uses
+ * an index fails the build. The plans are the ones the provider itself captures in its slow query log, with the
+ * threshold at 0, so they are the plans of the exact SQL the provider runs.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class PetQueryPlanTest {
+
+    /** Number of pets per page, the same as the catalog */
+    private static final int PAGE_SIZE = 50;
+
+    /** Projection of the catalog's pages */
+    private static final String[] CATALOG_PROJECTION = {
+            PetEntry._ID, PetEntry.COLUMN_PET_NAME, PetEntry.COLUMN_PET_BREED };
+
+    /** Projection of the catalog's sorted pages */
+    private static final String[] SORTED_PROJECTION = {
+            PetEntry._ID, PetEntry.COLUMN_PET_NAME, PetEntry.COLUMN_PET_BREED, PetEntry.COLUMN_PET_WEIGHT };
+
+    /**
+     * A step that reads the pets table row by row. Older SQLite says "SCAN TABLE pets", newer "SCAN pets";
+     * either is fine as long as it goes through an index.
+     */
+    private static final Pattern PETS_SCAN = Pattern.compile("\\bSCAN (TABLE )?" + PetEntry.TABLE_NAME + "\\b");
+
+    private PetProvider mProvider;
+
+    @Before
+    public void setUp() {
+        mProvider = PetProviderBenchmark.createProvider();
+        PetProviderBenchmark.fill(mProvider, 1000, new PetDataGenerator(PetProviderBenchmark.SEED));
+        mProvider.call(PetContract.METHOD_SET_SLOW_QUERY_THRESHOLD, "0", null);
+    }
+
+    @After
+    public void tearDown() {
+        mProvider.shutdown();
+    }
+
+    @Test
+    public void catalogPageSeeksThePrimaryKey() {
+        String plan = planOf(PetEntry.buildPageUri(PetEntry.CONTENT_URI, 500, PAGE_SIZE), CATALOG_PROJECTION,
+                null, null, null);
+        assertUsesIndex(plan, "INTEGER PRIMARY KEY");
+        assertFalse(plan, plan.contains("TEMP B-TREE"));
+    }
+
+    @Test
+    public void singlePetSeeksThePrimaryKey() {
+        // With a selection the provider skips its cache and goes to the database
+        String plan = planOf(PetProviderBenchmark.petUri(7), null, PetEntry.COLUMN_PET_WEIGHT + ">=0", null, null);
+        assertUsesIndex(plan, "INTEGER PRIMARY KEY");
+    }
+
+    @Test
+    public void sortedPagesReadTheCoveringIndexes() {
+        String[] sortColumns = { PetEntry.COLUMN_PET_NAME, PetEntry.COLUMN_PET_BREED, PetEntry.COLUMN_PET_WEIGHT };
+        for (String sortColumn : sortColumns) {
+            String index = "COVERING INDEX pets_" + sortColumn + "_sort_idx";
+            assertUsesIndex(planOf(PetEntry.buildPageUri(PetEntry.CONTENT_URI, null, 0, PAGE_SIZE),
+                    SORTED_PROJECTION, null, null, sortColumn), index);
+            assertUsesIndex(planOf(PetEntry.buildPageUri(PetEntry.CONTENT_URI, "8", 100, PAGE_SIZE),
+                    SORTED_PROJECTION, null, null, sortColumn), index);
+        }
+    }
+
+    @Test
+    public void filteredSortedPageReadsTheCoveringIndex() {
+        String plan = planOf(PetEntry.buildPageUri(PetEntry.CONTENT_URI, "Max", 100, PAGE_SIZE), SORTED_PROJECTION,
+                PetEntry.COLUMN_PET_GENDER + "=?", new String[] { String.valueOf(PetEntry.GENDER_FEMALE) },
+                PetEntry.COLUMN_PET_NAME);
+        assertUsesIndex(plan, "COVERING INDEX pets_name_sort_idx");
+    }
+
+    @Test
+    public void searchLooksUpThePetsOfTheMatches() {
+        String plan = planOf(PetEntry.buildSearchUri("bel"), CATALOG_PROJECTION, null, null, null);
+        assertTrue(plan, plan.contains(PetEntry.SEARCH_TABLE_NAME));
+        assertUsesIndex(plan, "INTEGER PRIMARY KEY");
+    }
+
+    /**
+     * Run the query through the provider, and return the plan the slow query log captured for it.
+     */
+    private String planOf(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                          String sortOrder) {
+        Cursor cursor = mProvider.query(uri, projection, selection, selectionArgs, sortOrder);
+        cursor.close();
+
+        Bundle slowQueries = mProvider.call(PetContract.METHOD_GET_SLOW_QUERIES, null, null);
+        ArrayList<String> entries = slowQueries.getStringArrayList(PetContract.KEY_SLOW_QUERIES);
+        String entry = entries.get(entries.size() - 1);
+        return entry.substring(entry.indexOf("plan: ") + "plan: ".length());
+    }
+
+    /**
+     * Assert that the plan looks up the pets through the given index, and never reads the pets table
+     * without one.
+     */
+    private static void assertUsesIndex(String plan, String index) {
+        assertTrue("Expected USING " + index + " in:\n" + plan, plan.contains("USING " + index));
+        for (String step : plan.split("\n")) {
+            if (PETS_SCAN.matcher(step).find()) {
+                assertTrue("Scan of the pets table without an index in:\n" + plan, step.contains("INDEX"));
+            }
+        }
+    }
+}
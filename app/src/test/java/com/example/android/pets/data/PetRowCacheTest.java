@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.pets.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.os.Bundle;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the cache of single pets: {@link PetRowCache} on its own, and through the queries of {@link PetProvider}
+ * by row URI, with the hit and miss counts of {@link PetContract#METHOD_GET_CACHE_STATS}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class PetRowCacheTest {
+
+    /** The columns of a cached row in the tests of PetRowCache on its own */
+    private static final String[] COLUMNS = { PetEntry._ID, PetEntry.COLUMN_PET_NAME, PetEntry.COLUMN_PET_WEIGHT };
+
+    /** How long the threads of the batch test wait for each other, at most */
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private PetProvider mProvider;
+
+    @Before
+    public void setUp() {
+        RuntimeEnvironment.application.deleteDatabase(PetDbHelper.DATABASE_NAME);
+        mProvider = Robolectric.setupContentProvider(BlockingPetProvider.class, PetContract.CONTENT_AUTHORITY);
+    }
+
+    @After
+    public void tearDown() {
+        mProvider.shutdown();
+    }
+
+    @Test
+    public void cachedPetIsReadAgainAfterAnUpdate() {
+        Uri petUri = insertPet("Toto", 7);
+        long hits = cacheStats().getLong(PetContract.KEY_CACHE_HITS);
+        long misses = cacheStats().getLong(PetContract.KEY_CACHE_MISSES);
+
+        assertEquals(7, queryWeight(petUri));
+        assertCacheCounts(hits, misses + 1);
+        assertEquals(7, queryWeight(petUri));
+        assertCacheCounts(hits + 1, misses + 1);
+        assertEquals(1, cacheStats().getLong(PetContract.KEY_CACHE_ROWS));
+
+        ContentValues values = new ContentValues();
+        values.put(PetEntry.COLUMN_PET_WEIGHT, 9);
+        assertEquals(1, mProvider.update(petUri, values, null, null));
+
+        assertEquals(9, queryWeight(petUri));
+        assertCacheCounts(hits + 1, misses + 2);
+        assertEquals(9, queryWeight(petUri));
+        assertCacheCounts(hits + 2, misses + 2);
+    }
+
+    @Test
+    public void deletedPetIsNotAnsweredFromTheCache() {
+        Uri petUri = insertPet("Toto", 7);
+        assertEquals(7, queryWeight(petUri));
+
+        assertEquals(1, mProvider.delete(petUri, null, null));
+        Cursor cursor = mProvider.query(petUri, null, null, null, null);
+        try {
+            assertEquals(0, cursor.getCount());
+        } finally {
+            cursor.close();
+        }
+        assertEquals(0, cacheStats().getLong(PetContract.KEY_CACHE_ROWS));
+    }
+
+    @Test
+    public void projectionIsAnsweredFromTheWholeCachedRow() {
+        Uri petUri = insertPet("Toto", 7);
+        assertEquals(7, queryWeight(petUri));
+        long hits = cacheStats().getLong(PetContract.KEY_CACHE_HITS);
+
+        Cursor cursor = mProvider.query(petUri, new String[] { PetEntry.COLUMN_PET_NAME }, null, null, null);
+        try {
+            assertEquals(1, cursor.getColumnCount());
+            assertTrue(cursor.moveToFirst());
+            assertEquals("Toto", cursor.getString(0));
+        } finally {
+            cursor.close();
+        }
+        assertEquals(hits + 1, cacheStats().getLong(PetContract.KEY_CACHE_HITS));
+    }
+
+    @Test
+    public void rowReadBeforeAnInvalidationIsNotCached() {
+        PetRowCache cache = new PetRowCache(64 * 1024);
+        long generation = cache.getGeneration();
+        cache.invalidate(1);
+
+        Cursor row = cache.put(1, row(1, "Toto", 7), generation, null);
+        assertNotNull(row);
+        assertNull(cache.get(1, null));
+
+        cache.put(1, row(1, "Toto", 7), cache.getGeneration(), null);
+        Cursor cached = cache.get(1, new String[] { PetEntry.COLUMN_PET_WEIGHT });
+        assertNotNull(cached);
+        assertTrue(cached.moveToFirst());
+        assertEquals(7, cached.getInt(0));
+        assertNull(cache.get(1, new String[] { PetEntry.COLUMN_PET_BREED }));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    public void readDuringABatchUpdateDoesNotCacheTheOldRow() throws Exception {
+        final Uri petUri = insertPet("Toto", 7);
+        final BlockingPetProvider provider = (BlockingPetProvider) mProvider;
+        provider.mUpdated = new CountDownLatch(1);
+        provider.mRead = new CountDownLatch(1);
+
+        // Update the pet in a batch, which stops after the update until the pet has been read on this thread
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread batch = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+                    operations.add(ContentProviderOperation.newUpdate(petUri)
+                            .withValue(PetEntry.COLUMN_PET_WEIGHT, 9)
+                            .build());
+                    provider.applyBatch(operations);
+                } catch (Throwable t) {
+                    failure.set(t);
+                }
+            }
+        }, "PetBatch");
+        batch.start();
+        assertTrue("The batch didn't update the pet", provider.mUpdated.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        // The batch hasn't committed yet, so another connection still reads the old row, and may cache it
+        assertEquals(7, queryWeight(petUri));
+        provider.mRead.countDown();
+        batch.join();
+        assertNull(failure.get());
+
+        assertEquals(9, queryWeight(petUri));
+    }
+
+    private Uri insertPet(String name, int weight) {
+        ContentValues values = new ContentValues();
+        values.put(PetEntry.COLUMN_PET_NAME, name);
+        values.put(PetEntry.COLUMN_PET_GENDER, PetEntry.GENDER_MALE);
+        values.put(PetEntry.COLUMN_PET_WEIGHT, weight);
+        return mProvider.insert(PetEntry.CONTENT_URI, values);
+    }
+
+    /**
+     * Returns the weight of the pet, queried by its row URI like the editor does, so through the cache.
+     */
+    private int queryWeight(Uri petUri) {
+        Cursor cursor = mProvider.query(petUri, null, null, null, null);
+        try {
+            assertTrue("No pet " + petUri, cursor.moveToFirst());
+            return cursor.getInt(cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_WEIGHT));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private Bundle cacheStats() {
+        return mProvider.call(PetContract.METHOD_GET_CACHE_STATS, null, null);
+    }
+
+    private void assertCacheCounts(long hits, long misses) {
+        Bundle stats = cacheStats();
+        assertEquals("Hits", hits, stats.getLong(PetContract.KEY_CACHE_HITS));
+        assertEquals("Misses", misses, stats.getLong(PetContract.KEY_CACHE_MISSES));
+    }
+
+    private static Cursor row(long id, String name, int weight) {
+        MatrixCursor cursor = new MatrixCursor(COLUMNS, 1);
+        cursor.addRow(new Object[] { id, name, weight });
+        cursor.moveToFirst();
+        return cursor;
+    }
+
+    /**
+     * A provider that can hold a batch up right after an update, before the batch commits.
+     */
+    public static class BlockingPetProvider extends PetProvider {
+
+        /** Counted down after an update, and awaited before the update returns, if set */
+        volatile CountDownLatch mUpdated;
+        volatile CountDownLatch mRead;
+
+        @Override
+        public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+            int rowsUpdated = super.update(uri, values, selection, selectionArgs);
+            CountDownLatch updated = mUpdated;
+            CountDownLatch read = mRead;
+            if (updated != null && read != null) {
+                updated.countDown();
+                try {
+                    read.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return rowsUpdated;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/**
+ * Measures the latency of one page of search results at 500k pets, the way the catalog reads them while the user
+ * is typing: the first page for each of a few searches, from a short prefix that matches a lot of pets to a name
+ * and a breed together.
+ *
+ * It always runs at {@link #SIZE} pets, whatever the benchmark.sizes, because that is the size the search has to
+ * stay in the low milliseconds at. The metric is search_page_latency, the median (and 95th percentile) latency of
+ * a page, as pages per second of the median.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class PetSearchBenchmarkTest {
+
+    /** Number of pets in the database */
+    private static final int SIZE = 500000;
+
+    /** Number of pets per page, the same as the catalog */
+    private static final int PAGE_SIZE = 50;
+
+    /** Number of times each search is run */
+    private static final int ROUNDS = 10;
+
+    /** What the user types in, from a prefix that matches many pets to one that matches few */
+    private static final String[] SEARCHES = { "b", "lu", "Bella", "daisy mae", "Max Labrador", "Binx Sphynx" };
+
+    /** Projection of the catalog's pages */
+    private static final String[] PROJECTION = {
+            PetEntry._ID, PetEntry.COLUMN_PET_NAME, PetEntry.COLUMN_PET_BREED };
+
+    @Test
+    public void searchPageLatency() throws Exception {
+        PetProviderBenchmark benchmark = new PetProviderBenchmark("search");
+        PetProvider provider = PetProviderBenchmark.createProvider();
+        try {
+            PetProviderBenchmark.fill(provider, SIZE, new PetDataGenerator(PetProviderBenchmark.SEED));
+
+            long[] latencies = new long[ROUNDS * SEARCHES.length];
+            int count = 0;
+            for (int round = 0; round < ROUNDS; round++) {
+                for (String search : SEARCHES) {
+                    latencies[count++] = readFirstPage(provider, search);
+                }
+            }
+            benchmark.recordLatencies(SIZE, "search_page_latency", latencies);
+        } finally {
+            provider.shutdown();
+        }
+        benchmark.finish();
+    }
+
+    /**
+     * Read the first page of the search results for the given text.
+     *
+     * @return the latency of the page, in nanoseconds
+     */
+    private static long readFirstPage(PetProvider provider, String search) {
+        long start = System.nanoTime();
+        Cursor cursor = provider.query(PetEntry.buildPageUri(PetEntry.buildSearchUri(search), null, 0, PAGE_SIZE),
+                PROJECTION, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                cursor.getLong(0);
+                cursor.getString(1);
+                cursor.getString(2);
+            }
+        } finally {
+            cursor.close();
+        }
+        return System.nanoTime() - start;
+    }
+}
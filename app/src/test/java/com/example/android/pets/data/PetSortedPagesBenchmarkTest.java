@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/**
+ * Compares the latency of one page of the sorted catalog at 1M pets: through the provider's keyset pagination
+ * on the covering index of the sort column, and the way it was before the indexes, with SQLite scanning and
+ * sorting the whole table for every page (LIMIT/OFFSET with "NOT INDEXED", on a second connection).
+ *
+ * It always runs at {@link #SIZE} pets, whatever the benchmark.sizes, because that is the size the sorted catalog
+ * has to stay fast at. The metrics are the median (and 95th percentile) latency of a page, as pages per second
+ * of the median:
+ * <ul>
+ * <li>sorted_page_latency_name, sorted_page_latency_breed, sorted_page_latency_weight: keyset pages</li>
+ * <li>unindexed_sorted_page_latency_name: the same pages by name without the index; it has no threshold</li>
+ * <li>sorted_page_latency_speedup_name: how many times lower the median latency is with the index</li>
+ * </ul>
+ */
+@RunWith(RobolectricTestRunner.class)
+public class PetSortedPagesBenchmarkTest {
+
+    /** Number of pets in the database */
+    private static final int SIZE = 1000000;
+
+    /** Number of pets per page, the same as the catalog */
+    private static final int PAGE_SIZE = 50;
+
+    /** Number of pages read one after another for each metric, from the start of the list */
+    private static final int PAGES = 20;
+
+    /** Projection of the catalog's sorted pages */
+    private static final String[] SORTED_PROJECTION = {
+            PetEntry._ID, PetEntry.COLUMN_PET_NAME, PetEntry.COLUMN_PET_BREED, PetEntry.COLUMN_PET_WEIGHT };
+
+    @Test
+    public void sortedPageLatency() throws Exception {
+        PetProviderBenchmark benchmark = new PetProviderBenchmark("sorted_pages");
+        PetProvider provider = PetProviderBenchmark.createProvider();
+        try {
+            PetProviderBenchmark.fill(provider, SIZE, new PetDataGenerator(PetProviderBenchmark.SEED));
+
+            String[] sortColumns = { PetEntry.COLUMN_PET_NAME, PetEntry.COLUMN_PET_BREED, PetEntry.COLUMN_PET_WEIGHT };
+            PetProviderBenchmark.Result sortedByName = null;
+            for (String sortColumn : sortColumns) {
+                PetProviderBenchmark.Result result = benchmark.recordLatencies(SIZE,
+                        "sorted_page_latency_" + sortColumn, readSortedPages(provider, sortColumn));
+                if (PetEntry.COLUMN_PET_NAME.equals(sortColumn)) {
+                    sortedByName = result;
+                }
+            }
+
+            PetProviderBenchmark.Result unindexed = benchmark.recordLatencies(SIZE,
+                    "unindexed_sorted_page_latency_name", readUnindexedSortedPages());
+            benchmark.record(SIZE, "sorted_page_latency_speedup_name", unindexed.p50Millis / sortedByName.p50Millis);
+        } finally {
+            provider.shutdown();
+        }
+        benchmark.finish();
+    }
+
+    /**
+     * Read the first {@link #PAGES} pages in the order of the given column, through the provider's keyset
+     * pagination, each page starting after the last pet of the one before.
+     *
+     * @return the latency of each page, in nanoseconds
+     */
+    private static long[] readSortedPages(PetProvider provider, String sortColumn) {
+        long[] latencies = new long[PAGES];
+        String afterKey = null;
+        long afterId = 0;
+        for (int page = 0; page < PAGES; page++) {
+            long start = System.nanoTime();
+            Cursor cursor = provider.query(PetEntry.buildPageUri(PetEntry.CONTENT_URI, afterKey, afterId, PAGE_SIZE),
+                    SORTED_PROJECTION, null, null, sortColumn);
+            try {
+                int keyColumnIndex = cursor.getColumnIndex(sortColumn);
+                while (cursor.moveToNext()) {
+                    afterId = cursor.getLong(0);
+                    cursor.getString(1);
+                    cursor.getString(2);
+                    afterKey = cursor.getString(keyColumnIndex);
+                }
+            } finally {
+                cursor.close();
+            }
+            latencies[page] = System.nanoTime() - start;
+        }
+        return latencies;
+    }
+
+    /**
+     * Read the same pages as {@link #readSortedPages} by name, on a second connection to the database, with
+     * "NOT INDEXED" so that SQLite has to scan the table and sort it in a temp B-tree for every page.
+     *
+     * @return the latency of each page, in nanoseconds
+     */
+    private static long[] readUnindexedSortedPages() {
+        long[] latencies = new long[PAGES];
+        SQLiteDatabase database = SQLiteDatabase.openDatabase(PetProviderBenchmark.getDatabaseFile().getPath(),
+                null, SQLiteDatabase.OPEN_READONLY);
+        try {
+            for (int page = 0; page < PAGES; page++) {
+                long start = System.nanoTime();
+                Cursor cursor = database.rawQuery("SELECT " + PetEntry._ID + ", " + PetEntry.COLUMN_PET_NAME + ", "
+                        + PetEntry.COLUMN_PET_BREED + ", " + PetEntry.COLUMN_PET_WEIGHT
+                        + " FROM " + PetEntry.TABLE_NAME + " NOT INDEXED"
+                        + " WHERE " + PetEntry.COLUMN_PET_DELETED + " = 0"
+                        + " ORDER BY " + PetEntry.COLUMN_PET_NAME + ", " + PetEntry._ID
+                        + " LIMIT " + PAGE_SIZE + " OFFSET " + (page * PAGE_SIZE), null);
+                try {
+                    while (cursor.moveToNext()) {
+                        cursor.getLong(0);
+                        cursor.getString(1);
+                        cursor.getString(2);
+                    }
+                } finally {
+                    cursor.close();
+                }
+                latencies[page] = System.nanoTime() - start;
+            }
+        } finally {
+            database.close();
+        }
+        return latencies;
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.Random;
+
+/**
+ * Compares the per-row cost and allocations of the provider's write paths before and after the pool of
+ * precompiled statements: SQLiteDatabase.insert(), update() and delete() with ContentValues, which build and
+ * compile their SQL on every call, against the same writes through {@link PetStatements}.
+ *
+ * Each kind of write runs inside one transaction, so that the cost of committing doesn't hide the cost of
+ * the call itself. The allocations are the bytes allocated on the benchmark's thread, which is where the
+ * SQL strings, the statements and the bind arguments are created. The metrics are:
+ * <ul>
+ * <li>values_insert, values_update, values_delete: rows per second through SQLiteDatabase</li>
+ * <li>statement_insert, statement_update, statement_delete: rows per second through PetStatements</li>
+ * <li>statement_insert_speedup, ...: how many times faster PetStatements is</li>
+ * <li>statement_insert_allocation_ratio, ...: how many times fewer bytes PetStatements allocates per row</li>
+ * </ul>
+ */
+@RunWith(RobolectricTestRunner.class)
+public class PetStatementsBenchmarkTest {
+
+    /** Number of rows written by each kind of write */
+    private static final int ROWS = 5000;
+
+    /** The condition on the _ID of a live pet, the same as the provider's */
+    private static final String ID_SELECTION = PetEntry._ID + "=? AND " + PetEntry.COLUMN_PET_DELETED + "=0";
+
+    @Test
+    public void perRowCostAndAllocations() throws Exception {
+        PetProviderBenchmark benchmark = new PetProviderBenchmark("statements");
+        for (int size : PetProviderBenchmark.sizes()) {
+            PetProvider provider = PetProviderBenchmark.createProvider();
+            try {
+                PetProviderBenchmark.fill(provider, size, new PetDataGenerator(PetProviderBenchmark.SEED));
+                SQLiteDatabase database = provider.getDbHelper().getWritableDatabase();
+                runSize(benchmark, database, size);
+            } finally {
+                provider.shutdown();
+            }
+        }
+        benchmark.finish();
+    }
+
+    private static void runSize(PetProviderBenchmark benchmark, SQLiteDatabase database, int size) {
+        PetStatements statements = new PetStatements(database);
+        PetDataGenerator generator = new PetDataGenerator(PetProviderBenchmark.SEED + 1);
+        Random random = new Random(PetProviderBenchmark.SEED);
+
+        // The values are created up front, so that only the writes are timed and counted
+        ContentValues[] pets = new ContentValues[ROWS];
+        ContentValues[] weights = new ContentValues[ROWS];
+        for (int i = 0; i < ROWS; i++) {
+            pets[i] = generator.nextPet();
+            weights[i] = new ContentValues();
+            weights[i].put(PetEntry.COLUMN_PET_WEIGHT, 1 + random.nextInt(50));
+        }
+        long[] insertedIds = new long[ROWS];
+
+        // insert
+        database.beginTransaction();
+        long start = System.nanoTime();
+        long allocated = PetProviderBenchmark.allocatedBytes();
+        for (int i = 0; i < ROWS; i++) {
+            database.insert(PetEntry.TABLE_NAME, null, pets[i]);
+        }
+        PetProviderBenchmark.Result valuesInsert = benchmark.record(size, "values_insert", ROWS, start, allocated);
+        database.setTransactionSuccessful();
+        database.endTransaction();
+
+        database.beginTransaction();
+        start = System.nanoTime();
+        allocated = PetProviderBenchmark.allocatedBytes();
+        for (int i = 0; i < ROWS; i++) {
+            insertedIds[i] = statements.insert(pets[i]);
+        }
+        PetProviderBenchmark.Result statementInsert = benchmark.record(size, "statement_insert", ROWS, start,
+                allocated);
+        database.setTransactionSuccessful();
+        database.endTransaction();
+        compare(benchmark, size, "insert", valuesInsert, statementInsert);
+
+        // update, of random pets that were there before
+        long[] updateIds = new long[ROWS];
+        for (int i = 0; i < ROWS; i++) {
+            updateIds[i] = 1 + random.nextInt(size);
+        }
+        database.beginTransaction();
+        start = System.nanoTime();
+        allocated = PetProviderBenchmark.allocatedBytes();
+        for (int i = 0; i < ROWS; i++) {
+            database.update(PetEntry.TABLE_NAME, weights[i], ID_SELECTION,
+                    new String[] { String.valueOf(updateIds[i]) });
+        }
+        PetProviderBenchmark.Result valuesUpdate = benchmark.record(size, "values_update", ROWS, start, allocated);
+        database.setTransactionSuccessful();
+        database.endTransaction();
+
+        database.beginTransaction();
+        start = System.nanoTime();
+        allocated = PetProviderBenchmark.allocatedBytes();
+        for (int i = 0; i < ROWS; i++) {
+            statements.updateById(updateIds[i], weights[i]);
+        }
+        PetProviderBenchmark.Result statementUpdate = benchmark.record(size, "statement_update", ROWS, start,
+                allocated);
+        database.setTransactionSuccessful();
+        database.endTransaction();
+        compare(benchmark, size, "update", valuesUpdate, statementUpdate);
+
+        // delete: the pets the first insert added through SQLiteDatabase, then the ones of PetStatements
+        long firstValuesId = insertedIds[0] - ROWS;
+        database.beginTransaction();
+        start = System.nanoTime();
+        allocated = PetProviderBenchmark.allocatedBytes();
+        for (int i = 0; i < ROWS; i++) {
+            database.delete(PetEntry.TABLE_NAME, ID_SELECTION, new String[] { String.valueOf(firstValuesId + i) });
+        }
+        PetProviderBenchmark.Result valuesDelete = benchmark.record(size, "values_delete", ROWS, start, allocated);
+        database.setTransactionSuccessful();
+        database.endTransaction();
+
+        database.beginTransaction();
+        start = System.nanoTime();
+        allocated = PetProviderBenchmark.allocatedBytes();
+        for (int i = 0; i < ROWS; i++) {
+            statements.deleteById(insertedIds[i]);
+        }
+        PetProviderBenchmark.Result statementDelete = benchmark.record(size, "statement_delete", ROWS, start,
+                allocated);
+        database.setTransactionSuccessful();
+        database.endTransaction();
+        compare(benchmark, size, "delete", valuesDelete, statementDelete);
+    }
+
+    /**
+     * Record how many times faster the statement is, and how many times fewer bytes it allocates.
+     */
+    private static void compare(PetProviderBenchmark benchmark, int size, String write,
+                                PetProviderBenchmark.Result values, PetProviderBenchmark.Result statement) {
+        benchmark.record(size, "statement_" + write + "_speedup", statement.opsPerSecond / values.opsPerSecond);
+        if (!Double.isNaN(values.bytesPerOp) && !Double.isNaN(statement.bytesPerOp)) {
+            benchmark.record(size, "statement_" + write + "_allocation_ratio",
+                    values.bytesPerOp / Math.max(1, statement.bytesPerOp));
+        }
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetContract.PetStatsEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests that the summary tables the triggers maintain always match a full recomputation of the statistics
+ * from the pets table, after random workloads of inserts, updates, soft deletes, deletes, purges and clears.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class PetStatsConsistencyTest {
+
+    /** Number of rounds of random writes, with a check of the statistics after each */
+    private static final int ROUNDS = 40;
+
+    /** Number of writes per round */
+    private static final int WRITES_PER_ROUND = 50;
+
+    /** Breeds for the updates, including none, which is counted under an empty breed */
+    private static final String[] BREEDS = { null, "Tabby", "Pug", "Terrier", "Beagle" };
+
+    private PetProvider mProvider;
+
+    private SQLiteDatabase mDatabase;
+
+    private PetCompactor mCompactor;
+
+    private final Random mRandom = new Random(PetProviderBenchmark.SEED);
+
+    private final PetDataGenerator mGenerator = new PetDataGenerator(PetProviderBenchmark.SEED);
+
+    /** The highest _ID handed out so far, to pick random pets (some of which are gone) */
+    private long mMaxId;
+
+    @Before
+    public void setUp() {
+        mProvider = PetProviderBenchmark.createProvider();
+        mDatabase = mProvider.getDbHelper().getWritableDatabase();
+        mCompactor = new PetCompactor(mProvider.getDbHelper(), new PetPhotoStore(RuntimeEnvironment.application));
+    }
+
+    @After
+    public void tearDown() {
+        mCompactor.shutdown();
+        mProvider.shutdown();
+    }
+
+    @Test
+    public void statsMatchRecomputationAfterRandomWrites() {
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int write = 0; write < WRITES_PER_ROUND; write++) {
+                randomWrite();
+            }
+            assertStatsConsistent("after round " + round);
+
+            if (round % 5 == 4) {
+                mCompactor.purgeDeletedPets(mDatabase);
+                assertStatsConsistent("after the purge of round " + round);
+            }
+            if (round % 20 == 19) {
+                mProvider.delete(PetEntry.CONTENT_URI, null, null);
+                assertStatsConsistent("after the clear of round " + round);
+            }
+        }
+    }
+
+    @Test
+    public void statsAreEmptyAfterClear() {
+        PetProviderBenchmark.fill(mProvider, 500, mGenerator);
+        mProvider.delete(PetEntry.CONTENT_URI, null, null);
+
+        assertStatsConsistent("after the clear");
+        assertEquals(0, queryLong("SELECT COUNT(*) FROM " + PetStatsEntry.BREED_TABLE_NAME));
+        assertEquals(0, queryLong("SELECT TOTAL(" + PetStatsEntry.COLUMN_PET_COUNT + ") FROM "
+                + PetStatsEntry.GENDER_TABLE_NAME));
+    }
+
+    /**
+     * Do one random write through the provider.
+     */
+    private void randomWrite() {
+        int kind = mRandom.nextInt(10);
+        if (kind < 3 || mMaxId == 0) {
+            ContentValues[] pets = new ContentValues[1 + mRandom.nextInt(5)];
+            for (int i = 0; i < pets.length; i++) {
+                pets[i] = mGenerator.nextPet();
+            }
+            mProvider.bulkInsert(PetEntry.CONTENT_URI, pets);
+            mMaxId += pets.length;
+        } else if (kind < 7) {
+            ContentValues values = new ContentValues();
+            if (mRandom.nextBoolean()) {
+                values.put(PetEntry.COLUMN_PET_GENDER, mRandom.nextInt(3));
+            }
+            if (mRandom.nextBoolean()) {
+                values.put(PetEntry.COLUMN_PET_BREED, BREEDS[mRandom.nextInt(BREEDS.length)]);
+            }
+            values.put(PetEntry.COLUMN_PET_WEIGHT, mRandom.nextInt(60));
+            mProvider.update(randomPetUri(), values, null, null);
+        } else if (kind < 9) {
+            mProvider.delete(PetEntry.buildSoftDeleteUri(randomPetUri()), null, null);
+        } else {
+            mProvider.delete(randomPetUri(), null, null);
+        }
+    }
+
+    private Uri randomPetUri() {
+        return PetProviderBenchmark.petUri(1 + (long) mRandom.nextInt((int) mMaxId));
+    }
+
+    /**
+     * Assert that the gender and breed summary tables hold exactly the counts and total weights of
+     * a GROUP BY over the live pets.
+     */
+    private void assertStatsConsistent(String when) {
+        Map<String, String> expectedGenders = new TreeMap<>();
+        for (int gender : new int[] { PetEntry.GENDER_UNKNOWN, PetEntry.GENDER_MALE, PetEntry.GENDER_FEMALE }) {
+            // Every gender keeps its row, even without pets
+            expectedGenders.put(String.valueOf(gender), "0/0");
+        }
+        expectedGenders.putAll(queryStats("SELECT " + PetEntry.COLUMN_PET_GENDER + ", COUNT(*), TOTAL("
+                + PetEntry.COLUMN_PET_WEIGHT + ") FROM " + PetEntry.TABLE_NAME
+                + " WHERE " + PetEntry.COLUMN_PET_DELETED + " = 0 GROUP BY " + PetEntry.COLUMN_PET_GENDER));
+        assertEquals("Gender statistics " + when, expectedGenders, queryStats("SELECT "
+                + PetEntry.COLUMN_PET_GENDER + ", " + PetStatsEntry.COLUMN_PET_COUNT + ", "
+                + PetStatsEntry.COLUMN_WEIGHT_SUM + " FROM " + PetStatsEntry.GENDER_TABLE_NAME));
+
+        // The breeds without pets have no row at all
+        assertEquals("Breed statistics " + when, queryStats("SELECT IFNULL(" + PetEntry.COLUMN_PET_BREED
+                + ", ''), COUNT(*), TOTAL(" + PetEntry.COLUMN_PET_WEIGHT + ") FROM " + PetEntry.TABLE_NAME
+                + " WHERE " + PetEntry.COLUMN_PET_DELETED + " = 0 GROUP BY IFNULL(" + PetEntry.COLUMN_PET_BREED
+                + ", '')"), queryStats("SELECT " + PetEntry.COLUMN_PET_BREED + ", "
+                + PetStatsEntry.COLUMN_PET_COUNT + ", " + PetStatsEntry.COLUMN_WEIGHT_SUM
+                + " FROM " + PetStatsEntry.BREED_TABLE_NAME));
+    }
+
+    /**
+     * Returns the rows of a query of (key, count, weight sum) as a map of key to "count/weight sum".
+     */
+    private Map<String, String> queryStats(String sql) {
+        Map<String, String> stats = new TreeMap<>();
+        Cursor cursor = mDatabase.rawQuery(sql, null);
+        try {
+            while (cursor.moveToNext()) {
+                stats.put(cursor.getString(0), cursor.getLong(1) + "/" + cursor.getLong(2));
+            }
+        } finally {
+            cursor.close();
+        }
+        return stats;
+    }
+
+    private long queryLong(String sql) {
+        Cursor cursor = mDatabase.rawQuery(sql, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
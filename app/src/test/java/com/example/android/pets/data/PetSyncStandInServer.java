@@ -0,0 +1,385 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.pets.data;
+
+import android.util.Log;
+
+import com.example.android.pets.data.PetContract.PetSyncEntry;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * A sync server that runs in the test's own process, on a local port, for testing {@link PetSyncClient}: point
+ * any number of clients (each with its own database) at {@link #getUrl()}, and they sync with each other through it
+ * over real HTTP. It speaks the same protocol as the real server, but keeps the pets in memory, so they are gone
+ * once it stops.
+ *
+ * It keeps the latest value of every column of every pet, with the clock and the writer of that value, and a log of
+ * the pets in the order they last changed. A push is merged column by column with the same rules as
+ * {@link PetSyncTracker}: the higher clock wins, then the writer whose ID sorts last, and a deletion always wins.
+ * Each pet that changed moves to the end of the log, so a pull from a position only reads the pets after it.
+ *
+ * The requests are served one at a time, on a thread of the server.
+ */
+class PetSyncStandInServer {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = PetSyncStandInServer.class.getSimpleName();
+
+    /** Index of the deleted column in {@link PetSyncEntry#SYNCED_COLUMNS} */
+    private static final int DELETED_INDEX = PetSyncEntry.SYNCED_COLUMNS.length - 1;
+
+    /** Largest request body accepted, in bytes */
+    private static final int MAX_BODY_BYTES = 16 * 1024 * 1024;
+
+    /**
+     * A pet as the server knows it.
+     */
+    private static final class ServerPet {
+        final String origin;
+        final long id;
+        final Object[] values = new Object[PetSyncEntry.SYNCED_COLUMNS.length];
+        final long[] clocks = new long[PetSyncEntry.SYNCED_COLUMNS.length];
+        final String[] writers = new String[PetSyncEntry.SYNCED_COLUMNS.length];
+
+        /** Position of the last change of the pet in the log */
+        long seq;
+
+        ServerPet(String origin, long id) {
+            this.origin = origin;
+            this.id = id;
+        }
+
+        JSONObject toJson() throws JSONException {
+            JSONObject columns = new JSONObject();
+            for (int i = 0; i < values.length; i++) {
+                if (writers[i] != null) {
+                    columns.put(PetSyncEntry.SYNCED_COLUMNS[i], new JSONArray()
+                            .put(values[i] == null ? JSONObject.NULL : values[i])
+                            .put(clocks[i])
+                            .put(writers[i]));
+                }
+            }
+            return new JSONObject()
+                    .put(PetSyncClient.KEY_ORIGIN, origin)
+                    .put(PetSyncClient.KEY_ID, id)
+                    .put(PetSyncClient.KEY_COLUMNS, columns);
+        }
+    }
+
+    /** The pets by origin and origin ID */
+    private final Map<String, ServerPet> mPets = new HashMap<>();
+
+    /** The pets by the position of their last change */
+    private final TreeMap<Long, ServerPet> mLog = new TreeMap<>();
+
+    /** Position of the last change */
+    private long mSeq;
+
+    private ServerSocket mServerSocket;
+
+    private Thread mThread;
+
+    /**
+     * Start listening on a free port of the loopback interface.
+     */
+    synchronized void start() throws IOException {
+        if (mServerSocket != null) {
+            return;
+        }
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        final ServerSocket serverSocket = mServerSocket;
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!serverSocket.isClosed()) {
+                    try {
+                        Socket socket = serverSocket.accept();
+                        try {
+                            serve(socket);
+                        } finally {
+                            socket.close();
+                        }
+                    } catch (IOException e) {
+                        if (!serverSocket.isClosed()) {
+                            Log.w(LOG_TAG, "Failed to serve a request", e);
+                        }
+                    }
+                }
+            }
+        }, LOG_TAG);
+        mThread.start();
+    }
+
+    /**
+     * Returns the URL to give to {@link PetSyncClient}.
+     */
+    synchronized String getUrl() {
+        if (mServerSocket == null) {
+            throw new IllegalStateException("The server isn't started");
+        }
+        return "http://127.0.0.1:" + mServerSocket.getLocalPort();
+    }
+
+    /**
+     * Stop listening, and forget all of the pets.
+     */
+    void stop() throws InterruptedException {
+        Thread thread;
+        synchronized (this) {
+            if (mServerSocket == null) {
+                return;
+            }
+            try {
+                mServerSocket.close();
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Failed to close the server socket", e);
+            }
+            mServerSocket = null;
+            thread = mThread;
+            mThread = null;
+        }
+        thread.join();
+        synchronized (this) {
+            mPets.clear();
+            mLog.clear();
+            mSeq = 0;
+        }
+    }
+
+    /**
+     * Returns the number of pets the server knows, including the deleted ones.
+     */
+    synchronized int getPetCount() {
+        return mPets.size();
+    }
+
+    /**
+     * Read one request from the socket and write its response. Only POST /pull and POST /push are served.
+     */
+    private void serve(Socket socket) throws IOException {
+        InputStream in = new BufferedInputStream(socket.getInputStream());
+        String[] requestLine = readLine(in).split(" ");
+        int contentLength = -1;
+        boolean gzipped = false;
+        boolean acceptsGzip = false;
+        for (String header = readLine(in); !header.isEmpty(); header = readLine(in)) {
+            int colon = header.indexOf(':');
+            if (colon <= 0) {
+                continue;
+            }
+            String name = header.substring(0, colon).trim().toLowerCase(Locale.US);
+            String value = header.substring(colon + 1).trim();
+            if (name.equals("content-length")) {
+                contentLength = Integer.parseInt(value);
+            } else if (name.equals("content-encoding")) {
+                gzipped = value.equalsIgnoreCase("gzip");
+            } else if (name.equals("accept-encoding")) {
+                acceptsGzip = value.toLowerCase(Locale.US).contains("gzip");
+            }
+        }
+
+        OutputStream out = socket.getOutputStream();
+        if (requestLine.length < 2 || !requestLine[0].equals("POST")) {
+            writeResponse(out, 405, null, false);
+            return;
+        }
+        if (contentLength < 0 || contentLength > MAX_BODY_BYTES) {
+            writeResponse(out, 411, null, false);
+            return;
+        }
+        byte[] body = new byte[contentLength];
+        for (int read = 0; read < contentLength; ) {
+            int count = in.read(body, read, contentLength - read);
+            if (count == -1) {
+                throw new IOException("The request ended early");
+            }
+            read += count;
+        }
+        if (gzipped) {
+            body = PetSyncClient.readFully(new GZIPInputStream(new ByteArrayInputStream(body)));
+        }
+
+        try {
+            JSONObject request = new JSONObject(new String(body, "UTF-8"));
+            JSONObject response;
+            String path = requestLine[1];
+            if (path.endsWith("/" + PetSyncClient.PATH_PULL)) {
+                response = pull(request.getLong(PetSyncClient.KEY_CURSOR), request.getInt(PetSyncClient.KEY_LIMIT));
+            } else if (path.endsWith("/" + PetSyncClient.PATH_PUSH)) {
+                response = push(request.getString(PetSyncClient.KEY_DEVICE),
+                        request.getJSONArray(PetSyncClient.KEY_ROWS));
+            } else {
+                writeResponse(out, 404, null, false);
+                return;
+            }
+            writeResponse(out, 200, response.toString().getBytes("UTF-8"), acceptsGzip);
+        } catch (JSONException e) {
+            Log.w(LOG_TAG, "Invalid request", e);
+            writeResponse(out, 400, null, false);
+        }
+    }
+
+    /**
+     * Returns the pets that changed after the given position, up to the given number of them.
+     */
+    private synchronized JSONObject pull(long cursor, int limit) throws JSONException {
+        JSONArray rows = new JSONArray();
+        long lastSeq = cursor;
+        Iterator<ServerPet> changed = mLog.tailMap(cursor, false).values().iterator();
+        while (rows.length() < limit && changed.hasNext()) {
+            ServerPet pet = changed.next();
+            rows.put(pet.toJson());
+            lastSeq = pet.seq;
+        }
+        boolean more = changed.hasNext();
+        return new JSONObject()
+                .put(PetSyncClient.KEY_ROWS, rows)
+                .put(PetSyncClient.KEY_CURSOR, more ? lastSeq : mSeq)
+                .put(PetSyncClient.KEY_MORE, more);
+    }
+
+    /**
+     * Merge the pushed rows, and return the position before and after, and the pets where the server's value won.
+     */
+    private synchronized JSONObject push(String device, JSONArray rows) throws JSONException {
+        long base = mSeq;
+        JSONArray rejected = new JSONArray();
+        for (int i = 0; i < rows.length(); i++) {
+            JSONObject row = rows.getJSONObject(i);
+            String origin = row.getString(PetSyncClient.KEY_ORIGIN);
+            long id = row.getLong(PetSyncClient.KEY_ID);
+            String key = origin + "/" + id;
+            ServerPet pet = mPets.get(key);
+            if (pet == null) {
+                pet = new ServerPet(origin, id);
+                mPets.put(key, pet);
+            }
+
+            boolean changed = false;
+            boolean lost = false;
+            JSONObject columns = row.getJSONObject(PetSyncClient.KEY_COLUMNS);
+            for (int j = 0; j < PetSyncEntry.SYNCED_COLUMNS.length; j++) {
+                JSONArray column = columns.optJSONArray(PetSyncEntry.SYNCED_COLUMNS[j]);
+                if (column == null) {
+                    continue;
+                }
+                Object value = column.isNull(0) ? null : column.get(0);
+                long clock = column.getLong(1);
+                String writer = column.optString(2, device);
+                if (wins(j, value, clock, writer, pet)) {
+                    pet.values[j] = value;
+                    pet.clocks[j] = clock;
+                    pet.writers[j] = writer;
+                    changed = true;
+                } else {
+                    lost = true;
+                }
+            }
+
+            if (changed) {
+                mLog.remove(pet.seq);
+                pet.seq = ++mSeq;
+                mLog.put(pet.seq, pet);
+            }
+            if (lost) {
+                rejected.put(pet.toJson());
+            }
+        }
+        return new JSONObject()
+                .put(PetSyncClient.KEY_BASE, base)
+                .put(PetSyncClient.KEY_CURSOR, mSeq)
+                .put(PetSyncClient.KEY_REJECTED, rejected);
+    }
+
+    /**
+     * Returns true if the pushed value of a column wins over the one the server has.
+     */
+    private static boolean wins(int column, Object value, long clock, String writer, ServerPet pet) {
+        if (pet.writers[column] == null) {
+            return true;
+        }
+        if (column == DELETED_INDEX) {
+            boolean deleted = isDeleted(value);
+            if (deleted != isDeleted(pet.values[column])) {
+                return deleted;
+            }
+        }
+        if (clock != pet.clocks[column]) {
+            return clock > pet.clocks[column];
+        }
+        return writer.compareTo(pet.writers[column]) > 0;
+    }
+
+    private static boolean isDeleted(Object value) {
+        return value instanceof Number && ((Number) value).intValue() != 0;
+    }
+
+    /**
+     * Write a response with the given status and JSON body (or no body), compressed if the client accepts it.
+     */
+    private static void writeResponse(OutputStream out, int status, byte[] body, boolean gzip) throws IOException {
+        if (body != null && gzip) {
+            body = PetSyncClient.gzip(body);
+        }
+        StringBuilder head = new StringBuilder("HTTP/1.1 ").append(status).append(status == 200 ? " OK" : " Error")
+                .append("\r\nConnection: close\r\nContent-Length: ").append(body == null ? 0 : body.length);
+        if (body != null) {
+            head.append("\r\nContent-Type: ").append(PetContract.MIME_TYPE_JSON);
+            if (gzip) {
+                head.append("\r\nContent-Encoding: gzip");
+            }
+        }
+        head.append("\r\n\r\n");
+        out.write(head.toString().getBytes("US-ASCII"));
+        if (body != null) {
+            out.write(body);
+        }
+        out.flush();
+    }
+
+    /**
+     * Read a line of the request head, without its line break.
+     */
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(64);
+        int b;
+        while ((b = in.read()) != -1 && b != '\n') {
+            if (b != '\r') {
+                line.write(b);
+            }
+        }
+        return line.toString("US-ASCII");
+    }
+}
@@ -0,0 +1,381 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.pets.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.pm.ProviderInfo;
+import android.database.Cursor;
+import android.database.DatabaseErrorHandler;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetContract.PetSyncEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowContentResolver;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that two devices converge on the same pets when they sync through {@link PetSyncStandInServer} with
+ * {@link PetSyncClient}, over real HTTP. Each device has its own {@link PetProvider} on its own database.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class PetSyncTest {
+
+    /** Number of pets per request, small enough for the tests to sync in several pages */
+    private static final int BATCH_SIZE = 2;
+
+    /** Numbers of pets of the seeded devices, to see that a sync after one change doesn't grow with them */
+    private static final int SMALL_SEED_SIZE = 10000;
+    private static final int LARGE_SEED_SIZE = 100000;
+
+    /** Most bytes that pushing one changed pet and pulling it on the other device may take, both ways together */
+    private static final long MAX_BYTES_OF_ONE_CHANGE = 4096;
+
+    /** How much more the sync of one change may take at the large size, for the longer cursors and _IDs */
+    private static final long MAX_BYTES_GROWTH = 64;
+
+    private PetSyncStandInServer mServer;
+
+    private Device mDeviceA;
+
+    private Device mDeviceB;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new PetSyncStandInServer();
+        mServer.start();
+        mDeviceA = new Device("device_a_");
+        mDeviceB = new Device("device_b_");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mDeviceA.shutdown();
+        mDeviceB.shutdown();
+        mServer.stop();
+    }
+
+    @Test
+    public void concurrentChangesOfDifferentColumnsAreBothKept() throws Exception {
+        mDeviceA.insertPet("Toto", "Terrier", PetEntry.GENDER_MALE, 7);
+        mDeviceA.sync();
+        mDeviceB.sync();
+        assertEquals(mDeviceA.pets(), mDeviceB.pets());
+
+        // Both change the same pet while offline, each a different column
+        mDeviceA.updatePet("Toto", PetEntry.COLUMN_PET_WEIGHT, 10);
+        mDeviceB.updatePet("Toto", PetEntry.COLUMN_PET_BREED, "Pug");
+        mDeviceA.sync();
+        mDeviceB.sync();
+        mDeviceA.sync();
+
+        List<String> expected = Collections.singletonList("Toto|Pug|" + PetEntry.GENDER_MALE + "|10");
+        assertEquals(expected, mDeviceA.pets());
+        assertEquals(expected, mDeviceB.pets());
+    }
+
+    @Test
+    public void concurrentChangesOfTheSameColumnConverge() throws Exception {
+        mDeviceA.insertPet("Toto", "Terrier", PetEntry.GENDER_MALE, 7);
+        mDeviceA.sync();
+        mDeviceB.sync();
+
+        // Both rename the pet while offline: whichever wins, both devices must end up with it
+        mDeviceA.updatePet("Toto", PetEntry.COLUMN_PET_NAME, "Rex");
+        mDeviceB.updatePet("Toto", PetEntry.COLUMN_PET_NAME, "Max");
+        mDeviceA.sync();
+        mDeviceB.sync();
+        mDeviceA.sync();
+
+        List<String> pets = mDeviceA.pets();
+        assertEquals(pets, mDeviceB.pets());
+        assertEquals(1, pets.size());
+        String name = pets.get(0).substring(0, pets.get(0).indexOf('|'));
+        assertTrue(name, name.equals("Rex") || name.equals("Max"));
+
+        // A change made after seeing the winner has a higher clock, so it wins everywhere
+        mDeviceB.updatePet(name, PetEntry.COLUMN_PET_NAME, "Bo");
+        mDeviceB.sync();
+        mDeviceA.sync();
+        List<String> expected = Collections.singletonList("Bo|Terrier|" + PetEntry.GENDER_MALE + "|7");
+        assertEquals(expected, mDeviceA.pets());
+        assertEquals(expected, mDeviceB.pets());
+    }
+
+    @Test
+    public void deletionWinsOverConcurrentUpdates() throws Exception {
+        mDeviceA.insertPet("Toto", "Terrier", PetEntry.GENDER_MALE, 7);
+        mDeviceA.insertPet("Binx", "Tabby", PetEntry.GENDER_UNKNOWN, 4);
+        mDeviceA.sync();
+        mDeviceB.sync();
+
+        // A deletes the pet, while B keeps changing it, so B's changes have the higher clocks
+        mDeviceA.deletePet("Toto");
+        mDeviceB.updatePet("Toto", PetEntry.COLUMN_PET_WEIGHT, 8);
+        mDeviceB.updatePet("Toto", PetEntry.COLUMN_PET_WEIGHT, 9);
+        mDeviceB.updatePet("Toto", PetEntry.COLUMN_PET_BREED, "Pug");
+        mDeviceB.sync();
+        mDeviceA.sync();
+        mDeviceB.sync();
+
+        List<String> expected = Collections.singletonList("Binx|Tabby|" + PetEntry.GENDER_UNKNOWN + "|4");
+        assertEquals(expected, mDeviceA.pets());
+        assertEquals(expected, mDeviceB.pets());
+    }
+
+    @Test
+    public void pullSkipsTheDevicesOwnPushes() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            mDeviceA.insertPet("A" + i, null, PetEntry.GENDER_FEMALE, i);
+        }
+        PetSyncClient.Result result = mDeviceA.sync();
+        assertEquals(3, result.petsPushed);
+        assertEquals(0, result.petsPulled);
+
+        // Nobody else pushed in between, so the pets A just pushed don't come back
+        result = mDeviceA.sync();
+        assertEquals(0, result.petsPushed);
+        assertEquals(0, result.petsPulled);
+        assertEquals(3, mServer.getPetCount());
+
+        // B gets A's pets, and pushes its own, which A gets in turn, without its own pets again
+        mDeviceB.insertPet("B0", null, PetEntry.GENDER_MALE, 1);
+        mDeviceB.insertPet("B1", null, PetEntry.GENDER_MALE, 2);
+        result = mDeviceB.sync();
+        assertEquals(3, result.petsPulled);
+        assertEquals(2, result.petsPushed);
+
+        mDeviceA.insertPet("A3", null, PetEntry.GENDER_FEMALE, 3);
+        result = mDeviceA.sync();
+        assertEquals(2, result.petsPulled);
+        assertEquals(1, result.petsPushed);
+
+        result = mDeviceA.sync();
+        assertEquals(0, result.petsPulled);
+        assertEquals(0, result.petsPushed);
+        assertEquals(6, mServer.getPetCount());
+
+        result = mDeviceB.sync();
+        assertEquals(1, result.petsPulled);
+        assertEquals(0, result.petsPushed);
+        assertEquals(mDeviceA.pets(), mDeviceB.pets());
+        assertEquals(mDeviceA.pullCursor(), mDeviceB.pullCursor());
+    }
+
+    @Test
+    public void syncOfOneChangeDoesNotGrowWithTheNumberOfPets() throws Exception {
+        long smallBytes = bytesToSyncOneChange(SMALL_SEED_SIZE);
+        long largeBytes = bytesToSyncOneChange(LARGE_SEED_SIZE);
+        assertTrue(smallBytes + " bytes at " + SMALL_SEED_SIZE + " pets", smallBytes <= MAX_BYTES_OF_ONE_CHANGE);
+        assertTrue(largeBytes + " bytes at " + LARGE_SEED_SIZE + " pets", largeBytes <= MAX_BYTES_OF_ONE_CHANGE);
+        assertTrue(smallBytes + " bytes at " + SMALL_SEED_SIZE + " pets, " + largeBytes + " at " + LARGE_SEED_SIZE,
+                largeBytes <= smallBytes + MAX_BYTES_GROWTH);
+    }
+
+    /**
+     * Seed a device with the given number of generated pets and sync them to a second device, through a server of
+     * their own. Then change one pet on the first device, push it, and pull it on the second.
+     *
+     * @return the bytes sent and received by the push and the pull of the one change
+     */
+    private long bytesToSyncOneChange(int size) throws Exception {
+        PetSyncStandInServer server = new PetSyncStandInServer();
+        server.start();
+        Device seeded = new Device("seeded_a_", server, PetSyncClient.DEFAULT_BATCH_SIZE);
+        Device other = new Device("seeded_b_", server, PetSyncClient.DEFAULT_BATCH_SIZE);
+        try {
+            PetProviderBenchmark.fill(seeded.provider, size, new PetDataGenerator(PetProviderBenchmark.SEED));
+            assertEquals(size, seeded.sync().petsPushed);
+            assertEquals(size, other.sync().petsPulled);
+
+            ContentValues values = new ContentValues();
+            values.put(PetEntry.COLUMN_PET_WEIGHT, 99);
+            assertEquals(1, seeded.provider.update(PetProviderBenchmark.petUri(size / 2), values, null, null));
+
+            PetSyncClient.Result push = seeded.sync();
+            assertEquals(1, push.petsPushed);
+            assertEquals(0, push.petsPulled);
+            PetSyncClient.Result pull = other.sync();
+            assertEquals(1, pull.petsPulled);
+            assertEquals(0, pull.petsPushed);
+            assertEquals(seeded.pets(), other.pets());
+            return push.bytesSent + push.bytesReceived + pull.bytesSent + pull.bytesReceived;
+        } finally {
+            seeded.shutdown();
+            other.shutdown();
+            server.stop();
+        }
+    }
+
+    /**
+     * One device: a provider on its own database, and a sync client that talks to the server.
+     */
+    private final class Device {
+
+        /** Prefix of the device's database name */
+        final String name;
+
+        final PetProvider provider;
+
+        final PetSyncClient client;
+
+        Device(String name) {
+            this(name, mServer, BATCH_SIZE);
+        }
+
+        Device(String name, PetSyncStandInServer server, int batchSize) {
+            this.name = name;
+            Context context = new DeviceContext(RuntimeEnvironment.application, name);
+            context.deleteDatabase(PetDbHelper.DATABASE_NAME);
+            provider = new PetProvider();
+            ProviderInfo info = new ProviderInfo();
+            info.authority = PetContract.CONTENT_AUTHORITY;
+            provider.attachInfo(context, info);
+            client = new PetSyncClient(RuntimeEnvironment.application.getContentResolver(), server.getUrl(),
+                    batchSize);
+        }
+
+        /**
+         * Sync the device. There is one provider per authority in the test, so it is this device's during the sync.
+         */
+        PetSyncClient.Result sync() throws Exception {
+            ShadowContentResolver.registerProviderInternal(PetContract.CONTENT_AUTHORITY, provider);
+            return client.sync();
+        }
+
+        void insertPet(String petName, String breed, int gender, int weight) {
+            ContentValues values = new ContentValues();
+            values.put(PetEntry.COLUMN_PET_NAME, petName);
+            values.put(PetEntry.COLUMN_PET_BREED, breed);
+            values.put(PetEntry.COLUMN_PET_GENDER, gender);
+            values.put(PetEntry.COLUMN_PET_WEIGHT, weight);
+            provider.insert(PetEntry.CONTENT_URI, values);
+        }
+
+        void updatePet(String petName, String column, Object value) {
+            ContentValues values = new ContentValues();
+            if (value instanceof Integer) {
+                values.put(column, (Integer) value);
+            } else {
+                values.put(column, (String) value);
+            }
+            assertEquals(1, provider.update(findPet(petName), values, null, null));
+        }
+
+        void deletePet(String petName) {
+            assertEquals(1, provider.delete(findPet(petName), null, null));
+        }
+
+        /**
+         * Returns the URI of the live pet with the given name.
+         */
+        private Uri findPet(String petName) {
+            Cursor cursor = provider.query(PetEntry.CONTENT_URI, new String[] { PetEntry._ID },
+                    PetEntry.COLUMN_PET_NAME + "=?", new String[] { petName }, null);
+            try {
+                assertTrue("No pet " + petName + " on " + name, cursor.moveToFirst());
+                return ContentUris.withAppendedId(PetEntry.CONTENT_URI, cursor.getLong(0));
+            } finally {
+                cursor.close();
+            }
+        }
+
+        /**
+         * Returns the live pets as "name|breed|gender|weight", by name. The _IDs differ between the devices.
+         */
+        List<String> pets() {
+            String[] projection = { PetEntry.COLUMN_PET_NAME, PetEntry.COLUMN_PET_BREED,
+                    PetEntry.COLUMN_PET_GENDER, PetEntry.COLUMN_PET_WEIGHT };
+            Cursor cursor = provider.query(PetEntry.CONTENT_URI, projection, null, null, null);
+            List<String> pets = new ArrayList<>();
+            try {
+                while (cursor.moveToNext()) {
+                    pets.add(cursor.getString(0) + "|" + cursor.getString(1) + "|" + cursor.getInt(2) + "|"
+                            + cursor.getInt(3));
+                }
+            } finally {
+                cursor.close();
+            }
+            Collections.sort(pets);
+            return pets;
+        }
+
+        long pullCursor() {
+            Cursor cursor = provider.query(PetSyncEntry.STATE_URI, null, null, null, null);
+            try {
+                cursor.moveToFirst();
+                return cursor.getLong(cursor.getColumnIndexOrThrow(PetSyncEntry.COLUMN_PULL_CURSOR));
+            } finally {
+                cursor.close();
+            }
+        }
+
+        void shutdown() {
+            provider.shutdown();
+        }
+    }
+
+    /**
+     * A context that gives the databases of a device names of their own, so that two providers can run side by side.
+     */
+    private static final class DeviceContext extends ContextWrapper {
+
+        private final String mPrefix;
+
+        DeviceContext(Context base, String prefix) {
+            super(base);
+            mPrefix = prefix;
+        }
+
+        @Override
+        public File getDatabasePath(String name) {
+            return super.getDatabasePath(mPrefix + name);
+        }
+
+        @Override
+        public SQLiteDatabase openOrCreateDatabase(String name, int mode, SQLiteDatabase.CursorFactory factory) {
+            return super.openOrCreateDatabase(mPrefix + name, mode, factory);
+        }
+
+        @Override
+        public SQLiteDatabase openOrCreateDatabase(String name, int mode, SQLiteDatabase.CursorFactory factory,
+                                                   DatabaseErrorHandler errorHandler) {
+            return super.openOrCreateDatabase(mPrefix + name, mode, factory, errorHandler);
+        }
+
+        @Override
+        public boolean deleteDatabase(String name) {
+            return super.deleteDatabase(mPrefix + name);
+        }
+    }
+}
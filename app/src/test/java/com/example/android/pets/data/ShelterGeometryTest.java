@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.pets.data;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of {@link ShelterGeometry}: the distances, and the bounding boxes around the antimeridian and the poles.
+ */
+public class ShelterGeometryTest {
+
+    /** Mean radius of the Earth, in kilometers, the same as ShelterGeometry */
+    private static final double EARTH_RADIUS_KM = 6371.0088;
+
+    @Test
+    public void distanceBetweenTwoCities() {
+        // Paris to London is about 344 km
+        assertEquals(343.6, ShelterGeometry.distanceKm(48.8566, 2.3522, 51.5074, -0.1278), 1);
+        assertEquals(0, ShelterGeometry.distanceKm(48.8566, 2.3522, 48.8566, 2.3522), 1e-9);
+    }
+
+    @Test
+    public void distanceAcrossTheAntimeridian() {
+        // One degree of longitude at the equator, not 359
+        assertEquals(111.2, ShelterGeometry.distanceKm(0, 179.5, 0, -179.5), 0.1);
+    }
+
+    @Test
+    public void boxesCoverTheCircle() {
+        double[][] centers = { { 0, 0 }, { 48.8566, 2.3522 }, { -33.8688, 151.2093 }, { 64.1466, -21.9426 } };
+        for (double[] center : centers) {
+            for (double radiusKm : new double[] { 1, 25, 500 }) {
+                double[][] boxes = ShelterGeometry.boundingBoxes(center[0], center[1], radiusKm);
+                assertEquals(1, boxes.length);
+                assertCircleCovered(center[0], center[1], radiusKm, boxes);
+            }
+        }
+    }
+
+    @Test
+    public void boxIsSplitAtTheAntimeridian() {
+        // East of the center, the circle goes past 180 and carries on from -180
+        double[][] boxes = ShelterGeometry.boundingBoxes(10, 179.9, 50);
+        assertEquals(2, boxes.length);
+        assertEquals(180, boxes[0][3], 0);
+        assertEquals(-180, boxes[1][2], 0);
+        assertCircleCovered(10, 179.9, 50, boxes);
+
+        // And the same going west past -180
+        boxes = ShelterGeometry.boundingBoxes(-10, -179.9, 50);
+        assertEquals(2, boxes.length);
+        assertEquals(-180, boxes[0][2], 0);
+        assertEquals(180, boxes[1][3], 0);
+        assertCircleCovered(-10, -179.9, 50, boxes);
+    }
+
+    @Test
+    public void boxAroundAPoleSpansAllLongitudes() {
+        double[][] boxes = ShelterGeometry.boundingBoxes(89.9, 0, 50);
+        assertEquals(1, boxes.length);
+        assertEquals(90, boxes[0][1], 0);
+        assertEquals(-180, boxes[0][2], 0);
+        assertEquals(180, boxes[0][3], 0);
+        assertCircleCovered(89.9, 0, 50, boxes);
+
+        boxes = ShelterGeometry.boundingBoxes(-89.9, 120, 50);
+        assertEquals(1, boxes.length);
+        assertEquals(-90, boxes[0][0], 0);
+        assertEquals(-180, boxes[0][2], 0);
+        assertEquals(180, boxes[0][3], 0);
+        assertCircleCovered(-89.9, 120, 50, boxes);
+    }
+
+    @Test
+    public void boxNearAPoleIsWideEnough() {
+        // At 88.5 degrees a degree of longitude is under 3 km, so 150 km is some 64 degrees either way,
+        // and widest north of the center, where the circle touches its tangent meridians
+        double[][] boxes = ShelterGeometry.boundingBoxes(88.5, 0, 150);
+        assertEquals(1, boxes.length);
+        assertTrue(boxes[0][1] < 90);
+        assertEquals(-64.07, boxes[0][2], 0.01);
+        assertEquals(64.07, boxes[0][3], 0.01);
+        assertCircleCovered(88.5, 0, 150, boxes);
+
+        // The same across the antimeridian
+        boxes = ShelterGeometry.boundingBoxes(88.5, 170, 150);
+        assertEquals(2, boxes.length);
+        assertCircleCovered(88.5, 170, 150, boxes);
+    }
+
+    @Test
+    public void cornersOfTheBoxAreOutsideTheCircle() {
+        double[][] boxes = ShelterGeometry.boundingBoxes(0, 0, 10);
+        double[] box = boxes[0];
+        assertTrue(ShelterGeometry.distanceKm(0, 0, box[1], box[3]) > 10);
+        assertTrue(ShelterGeometry.distanceKm(0, 0, box[0], box[2]) > 10);
+    }
+
+    /**
+     * Assert that the points of the circle's edge, every 5 degrees of bearing, are each in one of the boxes.
+     */
+    private static void assertCircleCovered(double latitude, double longitude, double radiusKm, double[][] boxes) {
+        for (int bearing = 0; bearing < 360; bearing += 5) {
+            double[] point = destination(latitude, longitude, radiusKm, bearing);
+            boolean covered = false;
+            for (double[] box : boxes) {
+                covered |= point[0] >= box[0] && point[0] <= box[1] && point[1] >= box[2] && point[1] <= box[3];
+            }
+            assertTrue("(" + point[0] + ", " + point[1] + ") at " + radiusKm + " km of (" + latitude + ", "
+                    + longitude + ") isn't in a box", covered);
+        }
+    }
+
+    /**
+     * Returns the location {latitude, longitude} at the given distance and bearing (in degrees from north)
+     * from another, with the longitude between -180 and 180.
+     */
+    private static double[] destination(double latitude, double longitude, double distanceKm, double bearing) {
+        double angle = distanceKm / EARTH_RADIUS_KM;
+        double lat1 = Math.toRadians(latitude);
+        double theta = Math.toRadians(bearing);
+        double lat2 = Math.asin(Math.sin(lat1) * Math.cos(angle)
+                + Math.cos(lat1) * Math.sin(angle) * Math.cos(theta));
+        double lon2 = Math.toRadians(longitude) + Math.atan2(Math.sin(theta) * Math.sin(angle) * Math.cos(lat1),
+                Math.cos(angle) - Math.sin(lat1) * Math.sin(lat2));
+        double lon = Math.toDegrees(lon2);
+        lon = ((lon + 540) % 360) - 180;
+        return new double[] { Math.toDegrees(lat2), lon };
+    }
+}